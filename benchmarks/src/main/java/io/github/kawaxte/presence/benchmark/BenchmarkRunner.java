@@ -0,0 +1,36 @@
+package io.github.kawaxte.presence.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The {@code BenchmarkRunner} class runs the benchmarks with the GC profiler attached, so that
+ * every result reports the allocation rate alongside the timing.
+ * <p>
+ * It accepts the same arguments as the JMH command line, such as a regular expression selecting
+ * the benchmarks to run.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class BenchmarkRunner {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private BenchmarkRunner() {
+    throw new UnsupportedOperationException(String.format("%s is not instantiable",
+        BenchmarkRunner.class.getName()));
+  }
+
+  public static void main(String... args) throws CommandLineOptionException, RunnerException {
+    new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -0,0 +1,105 @@
+package io.github.kawaxte.presence.benchmark;
+
+import com.sun.jna.Function;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import io.github.kawaxte.presence.DiscordEventHandlers;
+import io.github.kawaxte.presence.DiscordUser;
+import io.github.kawaxte.presence.DiscordUserCache;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@code CallbackBenchmark} class measures the cost of the upcalls made by the native library
+ * into the callbacks of {@link DiscordEventHandlers}.
+ * <p>
+ * The callbacks are invoked through the same native function pointers that are handed to the
+ * native library, so the results include the JNA downcall used to reach them.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class CallbackBenchmark {
+
+  private final DiscordEventHandlers handlers = new DiscordEventHandlers();
+  private final DiscordUserCache cache = new DiscordUserCache();
+  private Blackhole blackhole;
+  private Function ready;
+  private Function joinRequest;
+  private Function errored;
+  private Function joinGame;
+  private DiscordUser user;
+
+  @Setup
+  public void setup(final Blackhole blackhole) {
+    this.blackhole = blackhole;
+    this.handlers.ready = request -> this.blackhole.consume(request.username);
+    this.handlers.errored = (errorCode, message) -> this.blackhole.consume(message);
+    this.handlers.joinGame = joinSecret -> this.blackhole.consume(joinSecret);
+    this.handlers.joinRequest = (DiscordEventHandlers.IJoinRequestViewCallback) request ->
+        this.blackhole.consume(this.cache.intern(request).getUsername());
+    this.handlers.write();
+
+    Pointer pointer = this.handlers.getPointer();
+    this.ready = Function.getFunction(pointer.getPointer(0));
+    this.errored = Function.getFunction(pointer.getPointer(2L * Native.POINTER_SIZE));
+    this.joinGame = Function.getFunction(pointer.getPointer(3L * Native.POINTER_SIZE));
+    this.joinRequest = Function.getFunction(pointer.getPointer(5L * Native.POINTER_SIZE));
+
+    this.user = new DiscordUser();
+    this.user.userId = "53908232506183680";
+    this.user.username = "Kawaxte";
+    this.user.discriminator = "0";
+    this.user.avatar = "a_bab14f271d565501444b2ca3be944b25";
+    this.user.write();
+  }
+
+  /**
+   * Invokes the ready callback, which reads a {@link DiscordUser} from native memory.
+   */
+  @Benchmark
+  public void ready() {
+    this.ready.invokeVoid(new Object[]{this.user.getPointer()});
+  }
+
+  /**
+   * Invokes the join request callback with a lazy view, which only decodes the user ID of a user
+   * found in the {@link DiscordUserCache}.
+   */
+  @Benchmark
+  public void joinRequestView() {
+    this.joinRequest.invokeVoid(new Object[]{this.user.getPointer()});
+  }
+
+  /**
+   * Invokes the errored callback, which converts the error message to a {@code String}.
+   */
+  @Benchmark
+  public void errored() {
+    this.errored.invokeVoid(new Object[]{4000, "Invalid Client ID"});
+  }
+
+  /**
+   * Invokes the join game callback, which converts the join secret to a {@code String}.
+   */
+  @Benchmark
+  public void joinGame() {
+    this.joinGame.invokeVoid(new Object[]{"MTI4NzM0OjFpMmhuZToxMjMxMjM="});
+  }
+}
@@ -0,0 +1,141 @@
+package io.github.kawaxte.presence.benchmark;
+
+import io.github.kawaxte.presence.DiscordEventHandlers;
+import io.github.kawaxte.presence.DiscordPresenceBuffer;
+import io.github.kawaxte.presence.DiscordRPC;
+import io.github.kawaxte.presence.DiscordRichPresence;
+import io.github.kawaxte.presence.loadtest.DiscordStandInServer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code DiscordRPCBenchmark} class measures the static entry points of {@link DiscordRPC} at
+ * steady state, connected to a {@link DiscordStandInServer} in place of a Discord client.
+ * <p>
+ * Every presence is sent and then waited for until the stand-in has received it, so the results
+ * cover the whole path to the socket rather than only the cost of queuing the presence. As the
+ * native library only looks for the socket in the directory given by the environment, the
+ * {@code jna} backend has its stand-in listen there and cannot be run while Discord is, whereas the
+ * {@code ipc} backend is pointed at a temporary directory.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class DiscordRPCBenchmark {
+
+  @Param({"jna", "ipc"})
+  private String backend;
+
+  private final DiscordEventHandlers handlers = new DiscordEventHandlers();
+  private DiscordStandInServer server;
+  private Path directory;
+  private DiscordRichPresence[] presences;
+  private DiscordPresenceBuffer buffer;
+  private int index;
+  private volatile boolean ready;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, InterruptedException {
+    // both properties are read when DiscordRPC is first used, so they are set before it is
+    System.setProperty("discord-rpc.backend", this.backend);
+    if ("ipc".equals(this.backend)) {
+      this.directory = Files.createTempDirectory("discord-rpc-benchmark");
+      System.setProperty("discord-rpc.ipc-directory", this.directory.toString());
+      this.server = new DiscordStandInServer(this.directory);
+    } else {
+      this.server = new DiscordStandInServer();
+    }
+
+    this.handlers.ready = request -> this.ready = true;
+    this.handlers.disconnected = (errorCode, message) -> {
+    };
+    this.handlers.errored = (errorCode, message) -> {
+    };
+    DiscordRPC.initialise("1093949003624669215", this.handlers, false, null);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!this.ready) {
+      if (System.nanoTime() - deadline >= 0L) {
+        throw new IllegalStateException("The stand-in did not become ready");
+      }
+      DiscordRPC.runCallbacks();
+      Thread.sleep(10L);
+    }
+
+    this.presences = Presences.newPresences(16);
+    this.buffer = new DiscordPresenceBuffer().set(this.presences[0]);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    DiscordRPC.clearPresence();
+    DiscordRPC.shutdown();
+    this.buffer.close();
+    this.server.close();
+    if (this.directory != null) {
+      Files.deleteIfExists(this.directory);
+    }
+  }
+
+  /**
+   * Sends a Rich Presence which differs from the previous one and waits for the stand-in to
+   * receive it.
+   */
+  @Benchmark
+  public void updatePresence() {
+    long received = this.server.getActivityCount();
+    DiscordRPC.updatePresence(this.presences[this.index++ & (this.presences.length - 1)]);
+    this.awaitActivity(received);
+  }
+
+  /**
+   * Sends a reusable presence buffer of which only the party size changes and waits for the
+   * stand-in to receive it.
+   */
+  @Benchmark
+  public void updatePresenceBuffer() {
+    long received = this.server.getActivityCount();
+    DiscordRPC.updatePresence(this.buffer.setPartySize(1 + (this.index++ & 3)));
+    this.awaitActivity(received);
+  }
+
+  /**
+   * Runs the callbacks while connected and no event is pending.
+   */
+  @Benchmark
+  public void runCallbacks() {
+    DiscordRPC.runCallbacks();
+  }
+
+  private void awaitActivity(long received) {
+    // the callbacks are run while waiting so that the replies to the presences are read as well
+    while (this.server.getActivityCount() == received) {
+      if (!this.server.isConnected()) {
+        throw new IllegalStateException("The stand-in was disconnected");
+      }
+      DiscordRPC.runCallbacks();
+      Thread.onSpinWait();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package io.github.kawaxte.presence.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code LibraryLoadBenchmark} class measures the cost of extracting and loading the native
+ * library in {@code DiscordNativeLibrary}.
+ * <p>
+ * Every fork starts a new JVM, so {@link #coldStart()} measures the first use of
+ * {@code DiscordRPC} exactly as an application sees it when a Discord client is running. Deferring
+ * the backend is disabled so that the library is loaded whether or not a client runs.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(value = 10, jvmArgsAppend = "-Ddiscord-rpc.defer=false")
+@Measurement(iterations = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 0)
+public class LibraryLoadBenchmark {
+
+  private static final String DISCORD_RPC = "io.github.kawaxte.presence.DiscordRPC";
+  private static final String DISCORD_NATIVE_LIBRARY =
+      "io.github.kawaxte.presence.DiscordNativeLibrary";
+
+  /**
+   * Initialises {@code DiscordRPC} in a fresh JVM, which extracts and loads the native library and
+   * selects the backend.
+   *
+   * @return The initialised {@code Class} object.
+   * @throws ClassNotFoundException if {@code DiscordRPC} could not be found.
+   */
+  @Benchmark
+  public Class<?> coldStart() throws ClassNotFoundException {
+    return Class.forName(DISCORD_RPC);
+  }
+
+  /**
+   * Looks up the native library in the cache again once it has been extracted, which is what every
+   * start after the first one pays for.
+   *
+   * @return The {@code Object} returned by {@code DiscordNativeLibrary.extract}.
+   * @throws ReflectiveOperationException if {@code DiscordNativeLibrary.extract} could not be
+   *                                      called.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Fork(1)
+  @Measurement(iterations = 5, time = 1)
+  @Warmup(iterations = 3, time = 1)
+  public Object extract() throws ReflectiveOperationException {
+    Method method = Class.forName(DISCORD_NATIVE_LIBRARY).getDeclaredMethod("extract");
+    method.setAccessible(true);
+    return method.invoke(null);
+  }
+}
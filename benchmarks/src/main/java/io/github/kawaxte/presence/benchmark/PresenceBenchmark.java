@@ -0,0 +1,90 @@
+package io.github.kawaxte.presence.benchmark;
+
+import io.github.kawaxte.presence.DiscordRichPresence;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code PresenceBenchmark} class measures building a {@link DiscordRichPresence} and
+ * marshalling it into native memory using {@link DiscordRichPresence#write()}, which is what JNA
+ * does before every call to {@code Discord_UpdatePresence}.
+ *
+ * @author Kawaxte
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+public class PresenceBenchmark {
+
+  private DiscordRichPresence[] presences;
+  private DiscordRichPresence presence;
+  private String[] states;
+  private int index;
+
+  @Setup
+  public void setup() {
+    this.presences = Presences.newPresences(16);
+    this.presence = Presences.newBuilder(0).build();
+    this.states = new String[this.presences.length];
+    for (int i = 0; i < this.states.length; i++) {
+      this.states[i] = this.presences[i].state;
+    }
+  }
+
+  /**
+   * Builds a typical Rich Presence.
+   *
+   * @return The {@code DiscordRichPresence} object.
+   */
+  @Benchmark
+  public DiscordRichPresence build() {
+    return Presences.newBuilder(7).build();
+  }
+
+  /**
+   * Marshals a Rich Presence whose fields have not changed since it was last written.
+   *
+   * @return The {@code DiscordRichPresence} object.
+   */
+  @Benchmark
+  public DiscordRichPresence writeUnchanged() {
+    this.presence.write();
+    return this.presence;
+  }
+
+  /**
+   * Marshals a Rich Presence whose state changes on every write.
+   *
+   * @return The {@code DiscordRichPresence} object.
+   */
+  @Benchmark
+  public DiscordRichPresence writeChanged() {
+    this.presence.state = this.states[this.index++ & (this.states.length - 1)];
+    this.presence.write();
+    return this.presence;
+  }
+
+  /**
+   * Marshals a different Rich Presence on every write.
+   *
+   * @return The {@code DiscordRichPresence} object.
+   */
+  @Benchmark
+  public DiscordRichPresence writeFresh() {
+    DiscordRichPresence next = this.presences[this.index++ & (this.presences.length - 1)];
+    next.write();
+    return next;
+  }
+}
@@ -0,0 +1,55 @@
+package io.github.kawaxte.presence.benchmark;
+
+import io.github.kawaxte.presence.DiscordRichPresence;
+
+/**
+ * The {@code Presences} class creates Rich Presences with field sizes that are typical for a game.
+ *
+ * @author Kawaxte
+ */
+final class Presences {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Presences() {
+    throw new UnsupportedOperationException(String.format("%s is not instantiable",
+        Presences.class.getName()));
+  }
+
+  /**
+   * Creates a builder holding a typical Rich Presence.
+   *
+   * @param index The index of the presence, which changes the state and the party size.
+   * @return The {@code DiscordRichPresence.Builder} object.
+   */
+  static DiscordRichPresence.Builder newBuilder(int index) {
+    return new DiscordRichPresence.Builder()
+        .setState(String.format("In a Party - Wave %d", index))
+        .setDetails("Competitive | Summoner's Rift | Ranked Solo/Duo")
+        .setStartTimestamp(1681000000L)
+        .setLargeImageKey("map_summoners_rift")
+        .setLargeImageText("Summoner's Rift - Ranked Solo/Duo Queue")
+        .setSmallImageKey("rank_diamond")
+        .setSmallImageText("Diamond II - 64 LP")
+        .setPartyId("ae488379-351d-4a4f-ad32-2b9b01c91657")
+        .setPartySize(1 + index % 5)
+        .setPartyMax(5)
+        .setJoinSecret("MTI4NzM0OjFpMmhuZToxMjMxMjM=")
+        .setSpectateSecret("MTIzNDV8MTIzNDV8MTMyNDU0");
+  }
+
+  /**
+   * Creates typical Rich Presences which differ from each other.
+   *
+   * @param count The number of presences to create.
+   * @return The array of {@code DiscordRichPresence} objects.
+   */
+  static DiscordRichPresence[] newPresences(int count) {
+    DiscordRichPresence[] presences = new DiscordRichPresence[count];
+    for (int i = 0; i < count; i++) {
+      presences[i] = newBuilder(i).build();
+    }
+    return presences;
+  }
+}
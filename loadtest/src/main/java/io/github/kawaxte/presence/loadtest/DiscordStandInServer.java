@@ -0,0 +1,558 @@
+package io.github.kawaxte.presence.loadtest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code DiscordStandInServer} class pretends to be the Discord client on the
+ * {@code discord-ipc-0} Unix domain socket, so that the library can be exercised on a machine
+ * without Discord, such as a CI runner.
+ * <p>
+ * It answers the handshake with a {@code READY} event, acknowledges every command, answers pings,
+ * and injects events into the connection on demand or at a fixed rate. Events carry the
+ * {@link System#nanoTime()} they were sent at in place of the join secret, the spectate secret, or
+ * the ID of the user, and presences whose state is {@code t:} followed by the
+ * {@link System#nanoTime()} they were sent at are timed when they arrive, so latencies can be
+ * measured end to end when the server runs in the process driving the library.
+ * </p>
+ * <p>
+ * Only one client is served at a time: a client connecting replaces the previous one.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordStandInServer implements Closeable {
+
+  /**
+   * The name of the socket the server listens on.
+   */
+  public static final String SOCKET_NAME = "discord-ipc-0";
+  /**
+   * The prefix of the state of presences timed by the server.
+   */
+  public static final String STAMP_PREFIX = "t:";
+
+  private static final int OP_HANDSHAKE = 0;
+  private static final int OP_FRAME = 1;
+  private static final int OP_CLOSE = 2;
+  private static final int OP_PING = 3;
+  private static final int OP_PONG = 4;
+  private static final int MAX_PAYLOAD = 64 * 1024;
+  private static final Pattern CMD = Pattern.compile("\"cmd\"\\s*:\\s*\"([A-Z_]+)\"");
+  private static final Pattern NONCE = Pattern.compile("\"nonce\"\\s*:\\s*\"([^\"]*)\"");
+  private static final Pattern EVT = Pattern.compile("\"evt\"\\s*:\\s*\"([A-Z_]+)\"");
+  private static final Pattern STAMP =
+      Pattern.compile("\"state\"\\s*:\\s*\"" + STAMP_PREFIX + "(\\d+)\"");
+
+  private final Path socketPath;
+  private final ServerSocketChannel server;
+  private final Thread acceptor;
+  private final ScheduledExecutorService injector;
+  private final Map<EStandInEvent, ScheduledFuture<?>> rates = new EnumMap<>(EStandInEvent.class);
+  private final Map<EStandInEvent, LongAdder> injected = new EnumMap<>(EStandInEvent.class);
+  private final LatencyRecorder activityLatency = new LatencyRecorder();
+  private final LongAdder handshakes = new LongAdder();
+  private final LongAdder activities = new LongAdder();
+  private final LongAdder replies = new LongAdder();
+  private volatile Connection connection;
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new {@code DiscordStandInServer} listening in the directory returned by
+   * {@link #getDefaultDirectory()}.
+   *
+   * @throws IOException if the socket could not be bound, such as when Discord is running.
+   */
+  public DiscordStandInServer() throws IOException {
+    this(getDefaultDirectory());
+  }
+
+  /**
+   * Constructs a new {@code DiscordStandInServer} and starts accepting clients.
+   *
+   * @param directory The directory to create the {@value #SOCKET_NAME} socket in. A stale socket
+   *                  left there by a server which did not close is replaced.
+   * @throws NullPointerException if {@code directory} is {@code null}.
+   * @throws IOException          if the socket could not be bound, such as when Discord is
+   *                              running.
+   */
+  public DiscordStandInServer(final Path directory) throws IOException {
+    Objects.requireNonNull(directory, "directory must not be null");
+
+    this.socketPath = directory.resolve(SOCKET_NAME);
+    if (Files.exists(this.socketPath)) {
+      if (isListening(this.socketPath)) {
+        throw new IOException(String.format("%s is already in use", this.socketPath));
+      }
+      Files.delete(this.socketPath);
+    }
+    this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    this.server.bind(UnixDomainSocketAddress.of(this.socketPath));
+
+    for (EStandInEvent event : EStandInEvent.values()) {
+      this.injected.put(event, new LongAdder());
+    }
+    this.injector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "discord-rpc-stand-in-injector");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.acceptor = new Thread(this::accept, "discord-rpc-stand-in-acceptor");
+    this.acceptor.setDaemon(true);
+    this.acceptor.start();
+  }
+
+  /**
+   * Returns the directory the native library looks for the socket in, which is the first of the
+   * {@code XDG_RUNTIME_DIR}, {@code TMPDIR}, {@code TMP} and {@code TEMP} environment variables to
+   * be set, or {@code /tmp}.
+   *
+   * @return The {@code Path} of the directory.
+   */
+  public static Path getDefaultDirectory() {
+    for (String name : new String[]{"XDG_RUNTIME_DIR", "TMPDIR", "TMP", "TEMP"}) {
+      String value = System.getenv(name);
+      if (value != null && !value.isEmpty()) {
+        return Paths.get(value);
+      }
+    }
+    return Paths.get("/tmp");
+  }
+
+  /**
+   * Returns the path of the socket the server listens on.
+   *
+   * @return The {@code Path} of the socket.
+   */
+  public Path getSocketPath() {
+    return this.socketPath;
+  }
+
+  /**
+   * Returns whether a client has completed the handshake and is still connected.
+   *
+   * @return {@code true} if a client is connected, {@code false} otherwise.
+   */
+  public boolean isConnected() {
+    Connection connection = this.connection;
+    return connection != null && connection.ready;
+  }
+
+  /**
+   * Sends an event to the connected client.
+   *
+   * @param event The event to send.
+   * @return {@code true} if the event was sent, {@code false} if no client is connected or the
+   * client has not subscribed to the event.
+   * @throws NullPointerException if {@code event} is {@code null}.
+   */
+  public boolean inject(final EStandInEvent event) {
+    Objects.requireNonNull(event, "event must not be null");
+
+    Connection connection = this.connection;
+    if (connection == null || !connection.ready
+        || (event.getSubscription() != null
+        && !connection.subscriptions.contains(event.getSubscription()))) {
+      return false;
+    }
+
+    long stamp = System.nanoTime();
+    try {
+      switch (event) {
+        case READY:
+          connection.write(OP_CLOSE,
+              "{\"code\":4000,\"message\":\"Stand-in server requested a new handshake\"}");
+          connection.close();
+          break;
+        case ACTIVITY_JOIN:
+        case ACTIVITY_SPECTATE:
+          connection.write(OP_FRAME, String.format(
+              "{\"cmd\":\"DISPATCH\",\"data\":{\"secret\":\"%d\"},\"evt\":\"%s\",\"nonce\":null}",
+              stamp, event.name()));
+          break;
+        default:
+          connection.write(OP_FRAME, String.format(
+              "{\"cmd\":\"DISPATCH\",\"data\":{\"user\":%s},\"evt\":\"%s\",\"nonce\":null}",
+              user(stamp), event.name()));
+          break;
+      }
+    } catch (IOException ioe) {
+      connection.close();
+      return false;
+    }
+    this.injected.get(event).increment();
+    return true;
+  }
+
+  /**
+   * Sends an event to the connected client at a fixed rate, replacing the rate set before. Events
+   * due while no client is connected, or while the client has not subscribed to them, are dropped.
+   * <p>
+   * The native library waits at least half a second before connecting again, so {@code READY}
+   * events cannot be sent more often than that.
+   * </p>
+   *
+   * @param event     The event to send.
+   * @param perSecond The number of events to send per second, or {@code 0} to stop sending them.
+   * @throws NullPointerException     if {@code event} is {@code null}.
+   * @throws IllegalArgumentException if {@code perSecond} is negative.
+   */
+  public void setRate(final EStandInEvent event, double perSecond) {
+    Objects.requireNonNull(event, "event must not be null");
+    if (perSecond < 0.0D || Double.isNaN(perSecond)) {
+      throw new IllegalArgumentException("perSecond must not be negative");
+    }
+
+    synchronized (this.rates) {
+      ScheduledFuture<?> previous = this.rates.remove(event);
+      if (previous != null) {
+        previous.cancel(false);
+      }
+      if (perSecond > 0.0D && !this.closed) {
+        long periodNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1L) / perSecond), 1L);
+        this.rates.put(event, this.injector.scheduleAtFixedRate(() -> this.inject(event),
+            periodNanos, periodNanos, TimeUnit.NANOSECONDS));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of handshakes completed.
+   *
+   * @return The number of handshakes.
+   */
+  public long getHandshakeCount() {
+    return this.handshakes.sum();
+  }
+
+  /**
+   * Returns the number of {@code SET_ACTIVITY} commands received, including those clearing the
+   * presence.
+   *
+   * @return The number of received activities.
+   */
+  public long getActivityCount() {
+    return this.activities.sum();
+  }
+
+  /**
+   * Returns the number of events of the given type sent to clients.
+   *
+   * @param event The event.
+   * @return The number of injected events.
+   * @throws NullPointerException if {@code event} is {@code null}.
+   */
+  public long getInjectedCount(final EStandInEvent event) {
+    Objects.requireNonNull(event, "event must not be null");
+
+    return this.injected.get(event).sum();
+  }
+
+  /**
+   * Returns the number of replies to join requests received.
+   *
+   * @return The number of replies.
+   */
+  public long getReplyCount() {
+    return this.replies.sum();
+  }
+
+  /**
+   * Returns the latencies of the timed presences, from the time they were stamped with to the time
+   * they were received.
+   *
+   * @return The {@code LatencyRecorder} object.
+   */
+  LatencyRecorder getActivityLatency() {
+    return this.activityLatency;
+  }
+
+  /**
+   * Stops injecting events, disconnects the client and removes the socket.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.injector.shutdownNow();
+    try {
+      this.server.close();
+    } catch (IOException ignored) {
+      // the socket is removed below either way
+    }
+    Connection connection = this.connection;
+    if (connection != null) {
+      connection.close();
+    }
+    try {
+      Files.deleteIfExists(this.socketPath);
+    } catch (IOException ignored) {
+      // replaced by the next server
+    }
+  }
+
+  private void accept() {
+    while (!this.closed) {
+      SocketChannel channel;
+      try {
+        channel = this.server.accept();
+      } catch (IOException ioe) {
+        if (!this.closed) {
+          System.err.printf("Stand-in server stopped accepting clients: %s%n", ioe);
+        }
+        return;
+      }
+
+      Connection previous = this.connection;
+      if (previous != null) {
+        previous.close();
+      }
+      Connection connection = new Connection(channel);
+      this.connection = connection;
+      Thread thread = new Thread(() -> this.serve(connection), "discord-rpc-stand-in-connection");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void serve(final Connection connection) {
+    try {
+      if (connection.read() != OP_HANDSHAKE) {
+        return;
+      }
+      connection.ready = true;
+      connection.write(OP_FRAME, String.format("{\"cmd\":\"DISPATCH\",\"data\":{\"v\":1,"
+          + "\"user\":%s},\"evt\":\"READY\",\"nonce\":null}", user(System.nanoTime())));
+      this.handshakes.increment();
+
+      while (!this.closed) {
+        int opcode = connection.read();
+        switch (opcode) {
+          case OP_FRAME:
+            this.handle(connection, connection.payload);
+            break;
+          case OP_PING:
+            connection.write(OP_PONG, connection.payload);
+            break;
+          case OP_CLOSE:
+            return;
+          default:
+            break;
+        }
+      }
+    } catch (IOException ignored) {
+      // the client disconnected
+    } finally {
+      connection.close();
+    }
+  }
+
+  private void handle(final Connection connection, final String payload) throws IOException {
+    long receivedNanos = System.nanoTime();
+    String cmd = find(CMD, payload);
+    if (cmd == null) {
+      return;
+    }
+
+    switch (cmd) {
+      case "SET_ACTIVITY":
+        this.activities.increment();
+        String stamp = find(STAMP, payload);
+        if (stamp != null) {
+          this.activityLatency.record(receivedNanos - Long.parseLong(stamp));
+        }
+        break;
+      case "SUBSCRIBE":
+      case "UNSUBSCRIBE":
+        String evt = find(EVT, payload);
+        if (evt != null && "SUBSCRIBE".equals(cmd)) {
+          connection.subscriptions.add(evt);
+        } else if (evt != null) {
+          connection.subscriptions.remove(evt);
+        }
+        break;
+      case "SEND_ACTIVITY_JOIN_INVITE":
+      case "CLOSE_ACTIVITY_JOIN_REQUEST":
+      case "CLOSE_ACTIVITY_REQUEST":
+        this.replies.increment();
+        break;
+      default:
+        break;
+    }
+
+    String nonce = find(NONCE, payload);
+    connection.write(OP_FRAME, String.format("{\"cmd\":\"%s\",\"data\":{},\"evt\":null,"
+        + "\"nonce\":%s}", cmd, nonce != null ? '"' + nonce + '"' : "null"));
+  }
+
+  private static boolean isListening(final Path socketPath) {
+    try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      probe.connect(UnixDomainSocketAddress.of(socketPath));
+      return true;
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+
+  private static String user(long stamp) {
+    return String.format("{\"id\":\"%d\",\"username\":\"stand-in\",\"discriminator\":\"0\","
+        + "\"avatar\":null}", stamp);
+  }
+
+  private static String find(final Pattern pattern, final String payload) {
+    Matcher matcher = pattern.matcher(payload);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Returns the counters of the server as one line.
+   *
+   * @return The counters of the server.
+   */
+  String formatStats() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("handshakes=%d activities=%d replies=%d",
+        this.getHandshakeCount(), this.getActivityCount(), this.getReplyCount()));
+    for (EStandInEvent event : EStandInEvent.values()) {
+      builder.append(String.format(" %s=%d", event.getCommand(), this.getInjectedCount(event)));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Runs a stand-in server until {@code quit} is entered, reading commands from the standard
+   * input. The only argument is the directory to create the socket in, which defaults to
+   * {@link #getDefaultDirectory()}.
+   *
+   * @param args The arguments of the server.
+   * @throws IOException if the socket could not be bound.
+   */
+  public static void main(String... args) throws IOException {
+    Path directory = args.length > 0 ? Paths.get(args[0]) : getDefaultDirectory();
+    try (DiscordStandInServer server = new DiscordStandInServer(directory);
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+      System.out.printf("Listening on %s%n", server.getSocketPath());
+      System.out.println("Commands: <event>, rate <event> <per-second>, stats, quit");
+      System.out.println("Events: ready, join, spectate, join-request");
+
+      for (String line; (line = reader.readLine()) != null; ) {
+        String[] words = line.trim().split("\\s+");
+        if (words[0].isEmpty()) {
+          continue;
+        }
+        if ("quit".equals(words[0])) {
+          break;
+        }
+        if ("stats".equals(words[0])) {
+          System.out.println(server.formatStats());
+          continue;
+        }
+
+        boolean rate = "rate".equals(words[0]) && words.length == 3;
+        EStandInEvent event = EStandInEvent.fromCommand(rate ? words[1] : words[0]);
+        if (event == null) {
+          System.out.printf("Unknown command: %s%n", line.trim());
+        } else if (rate) {
+          try {
+            server.setRate(event, Double.parseDouble(words[2]));
+          } catch (IllegalArgumentException iae) {
+            System.out.printf("Invalid rate: %s%n", words[2]);
+          }
+        } else if (!server.inject(event)) {
+          System.out.println("No client is connected or subscribed to that event");
+        }
+      }
+    }
+  }
+
+  /**
+   * The {@code Connection} class holds the socket of a client and the events it subscribed to.
+   */
+  private static final class Connection {
+
+    private final SocketChannel channel;
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile boolean ready;
+    private String payload;
+
+    private Connection(final SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Reads a frame, whose payload is then held in {@link #payload}.
+     *
+     * @return The opcode of the frame.
+     * @throws IOException if the client disconnected or sent a malformed frame.
+     */
+    int read() throws IOException {
+      this.header.clear();
+      this.readFully(this.header);
+      int opcode = this.header.getInt(0);
+      int length = this.header.getInt(4);
+      if (length < 0 || length > MAX_PAYLOAD) {
+        throw new IOException(String.format("Invalid frame length: %d", length));
+      }
+
+      ByteBuffer body = ByteBuffer.allocate(length);
+      this.readFully(body);
+      this.payload = new String(body.array(), StandardCharsets.UTF_8);
+      return opcode;
+    }
+
+    synchronized void write(int opcode, final String payload) throws IOException {
+      byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer frame = ByteBuffer.allocate(8 + bytes.length).order(ByteOrder.LITTLE_ENDIAN)
+          .putInt(opcode)
+          .putInt(bytes.length)
+          .put(bytes);
+      frame.flip();
+      while (frame.hasRemaining()) {
+        this.channel.write(frame);
+      }
+    }
+
+    void close() {
+      this.ready = false;
+      try {
+        this.channel.close();
+      } catch (IOException ignored) {
+        // already closed
+      }
+    }
+
+    private void readFully(final ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (this.channel.read(buffer) < 0) {
+          throw new EOFException();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package io.github.kawaxte.presence.loadtest;
+
+/**
+ * The {@code EStandInEvent} enum represents the events a {@link DiscordStandInServer} can inject
+ * into the connection of a client.
+ *
+ * @author Kawaxte
+ */
+public enum EStandInEvent {
+  /**
+   * The connection is closed, so that the client connects again and receives a new {@code READY}
+   * event, since clients only act on the one answering their handshake.
+   */
+  READY("ready", null),
+  /**
+   * Another player joins the game, which runs the join game callback.
+   */
+  ACTIVITY_JOIN("join", "ACTIVITY_JOIN"),
+  /**
+   * Another player spectates the game, which runs the spectate game callback.
+   */
+  ACTIVITY_SPECTATE("spectate", "ACTIVITY_SPECTATE"),
+  /**
+   * Another player asks to join the game, which runs the join request callback.
+   */
+  ACTIVITY_JOIN_REQUEST("join-request", "ACTIVITY_JOIN_REQUEST");
+
+  private final String command;
+  private final String subscription;
+
+  /**
+   * Constructs a new {@code EStandInEvent}.
+   *
+   * @param command      The name of the event on the command line of the server.
+   * @param subscription The event the client must subscribe to before it is sent, or {@code null}
+   *                     if it is always sent.
+   */
+  EStandInEvent(final String command, final String subscription) {
+    this.command = command;
+    this.subscription = subscription;
+  }
+
+  /**
+   * Returns the event with the given name on the command line of the server.
+   *
+   * @param command The name of the event, such as {@code join-request}.
+   * @return The {@code EStandInEvent}, or {@code null} if there is none with that name.
+   */
+  public static EStandInEvent fromCommand(final String command) {
+    for (EStandInEvent event : values()) {
+      if (event.command.equals(command)) {
+        return event;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the name of the event on the command line of the server.
+   *
+   * @return The name of the event.
+   */
+  public String getCommand() {
+    return this.command;
+  }
+
+  /**
+   * Returns the event the client must subscribe to before this event is sent to it.
+   *
+   * @return The name of the subscription, or {@code null} if the event is always sent.
+   */
+  public String getSubscription() {
+    return this.subscription;
+  }
+}
@@ -0,0 +1,78 @@
+package io.github.kawaxte.presence.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@code LatencyRecorder} class records latencies and reports their exact percentiles.
+ * <p>
+ * Up to {@link #CAPACITY} latencies are kept. Beyond that, each new latency replaces a random one
+ * with a decreasing probability, so the kept latencies remain a uniform sample of all of them.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+final class LatencyRecorder {
+
+  static final int CAPACITY = 1 << 20;
+
+  private long[] samples = new long[1024];
+  private long count;
+  private long totalNanos;
+  private long maxNanos;
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos The latency in nanoseconds. Negative latencies are recorded as {@code 0}.
+   */
+  synchronized void record(long nanos) {
+    nanos = Math.max(nanos, 0L);
+    if (this.count < CAPACITY) {
+      if (this.count == this.samples.length) {
+        this.samples = Arrays.copyOf(this.samples, this.samples.length << 1);
+      }
+      this.samples[(int) this.count] = nanos;
+    } else {
+      long slot = ThreadLocalRandom.current().nextLong(this.count + 1L);
+      if (slot < CAPACITY) {
+        this.samples[(int) slot] = nanos;
+      }
+    }
+    this.count++;
+    this.totalNanos += nanos;
+    this.maxNanos = Math.max(this.maxNanos, nanos);
+  }
+
+  /**
+   * Returns the number of latencies recorded.
+   *
+   * @return The number of latencies.
+   */
+  synchronized long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the latencies recorded as one line, in microseconds.
+   *
+   * @return The count, mean, percentiles and maximum of the latencies.
+   */
+  synchronized String format() {
+    if (this.count == 0L) {
+      return "count=0";
+    }
+
+    long[] sorted = Arrays.copyOf(this.samples, (int) Math.min(this.count, CAPACITY));
+    Arrays.sort(sorted);
+    return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus "
+            + "max=%.1fus", this.count, this.totalNanos / 1e3 / this.count,
+        percentile(sorted, 0.5D), percentile(sorted, 0.9D), percentile(sorted, 0.99D),
+        percentile(sorted, 0.999D), this.maxNanos / 1e3);
+  }
+
+  private static double percentile(final long[] sorted, double quantile) {
+    int index = (int) Math.ceil(quantile * sorted.length) - 1;
+    return sorted[Math.max(index, 0)] / 1e3;
+  }
+}
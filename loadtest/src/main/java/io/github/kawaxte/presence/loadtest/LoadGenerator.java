@@ -0,0 +1,200 @@
+package io.github.kawaxte.presence.loadtest;
+
+import io.github.kawaxte.presence.DiscordEventHandlers;
+import io.github.kawaxte.presence.DiscordRPC;
+import io.github.kawaxte.presence.DiscordRichPresence;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code LoadGenerator} class drives {@link DiscordRPC#updatePresence(DiscordRichPresence)}
+ * and {@link DiscordRPC#runCallbacks()} against a {@link DiscordStandInServer} running in the same
+ * process, while the server injects events, and reports the throughput and the latency
+ * percentiles measured.
+ * <p>
+ * Presences are timed from the call to {@code updatePresence} to their arrival at the server, and
+ * events from the time the server sent them to the run of their callback. It accepts the following
+ * options, given as {@code --name=value}:
+ * </p>
+ * <ul>
+ *   <li>{@code duration}: the number of seconds to run for, {@code 10} by default.</li>
+ *   <li>{@code updates}: the presence updates per second, {@code 1000} by default.</li>
+ *   <li>{@code callbacks}: the calls to {@code runCallbacks} per second, {@code 1000} by
+ *   default.</li>
+ *   <li>{@code ready}, {@code join}, {@code spectate} and {@code join-request}: the events
+ *   injected per second, {@code 0}, {@code 100}, {@code 100} and {@code 100} by default.</li>
+ *   <li>{@code directory}: the directory of the socket, as returned by
+ *   {@link DiscordStandInServer#getDefaultDirectory()} by default. The native library only looks
+ *   in that directory, so another one only works with the IPC backend.</li>
+ *   <li>{@code application-id}: the application ID to initialise the library with.</li>
+ * </ul>
+ * <p>
+ * A rate of {@code 0} updates or calls to {@code runCallbacks} per second runs them back to back.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class LoadGenerator {
+
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("duration", "10");
+    DEFAULTS.put("updates", "1000");
+    DEFAULTS.put("callbacks", "1000");
+    DEFAULTS.put("ready", "0");
+    DEFAULTS.put("join", "100");
+    DEFAULTS.put("spectate", "100");
+    DEFAULTS.put("join-request", "100");
+    DEFAULTS.put("directory", DiscordStandInServer.getDefaultDirectory().toString());
+    DEFAULTS.put("application-id", "1094653286393069598");
+  }
+
+  private final Map<EStandInEvent, LatencyRecorder> callbackLatencies =
+      new EnumMap<>(EStandInEvent.class);
+  private final LatencyRecorder updateLatency = new LatencyRecorder();
+  private final LatencyRecorder runCallbacksLatency = new LatencyRecorder();
+  private final LongAdder disconnections = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final DiscordEventHandlers handlers = new DiscordEventHandlers();
+
+  /**
+   * Constructs a new {@code LoadGenerator}, with handlers timing every event.
+   */
+  private LoadGenerator() {
+    for (EStandInEvent event : EStandInEvent.values()) {
+      this.callbackLatencies.put(event, new LatencyRecorder());
+    }
+    this.handlers.ready = user -> this.time(EStandInEvent.READY, user.userId);
+    this.handlers.disconnected = (errorCode, message) -> this.disconnections.increment();
+    this.handlers.errored = (errorCode, message) -> this.errors.increment();
+    this.handlers.joinGame = joinSecret -> this.time(EStandInEvent.ACTIVITY_JOIN, joinSecret);
+    this.handlers.spectateGame = spectateSecret ->
+        this.time(EStandInEvent.ACTIVITY_SPECTATE, spectateSecret);
+    this.handlers.joinRequest = user -> {
+      this.time(EStandInEvent.ACTIVITY_JOIN_REQUEST, user.userId);
+      DiscordRPC.respond(user.userId, DiscordRPC.REPLY_YES);
+    };
+  }
+
+  public static void main(String... args) throws IOException, InterruptedException {
+    Map<String, String> options = new HashMap<>(DEFAULTS);
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      String name = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+      if (name == null || !DEFAULTS.containsKey(name)) {
+        throw new IllegalArgumentException(String.format("Unknown option: %s", arg));
+      }
+      options.put(name, arg.substring(separator + 1));
+    }
+
+    Path directory = Paths.get(options.get("directory"));
+    if (!directory.equals(DiscordStandInServer.getDefaultDirectory())) {
+      System.setProperty("discord-rpc.ipc-directory", directory.toString());
+    }
+    try (DiscordStandInServer server = new DiscordStandInServer(directory)) {
+      new LoadGenerator().run(server, options);
+    }
+  }
+
+  private void run(final DiscordStandInServer server, final Map<String, String> options)
+      throws InterruptedException {
+    long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+    long updatePeriodNanos = toPeriodNanos(options.get("updates"));
+    long callbackPeriodNanos = toPeriodNanos(options.get("callbacks"));
+    System.out.printf("Stand-in server listening on %s%n", server.getSocketPath());
+
+    DiscordRPC.initialise(options.get("application-id"), this.handlers, false, null);
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!server.isConnected()) {
+      if (System.nanoTime() - deadlineNanos > 0L) {
+        DiscordRPC.shutdown();
+        throw new IllegalStateException("The library did not connect to the stand-in server");
+      }
+      DiscordRPC.runCallbacks();
+      Thread.sleep(10L);
+    }
+    for (EStandInEvent event : EStandInEvent.values()) {
+      server.setRate(event, Double.parseDouble(options.get(event.getCommand())));
+    }
+
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + durationNanos;
+    Thread updater = new Thread(() -> this.update(updatePeriodNanos, endNanos),
+        "discord-rpc-load-updater");
+    updater.start();
+    for (long nextNanos = startNanos; System.nanoTime() - endNanos < 0L;
+        nextNanos += callbackPeriodNanos) {
+      pace(nextNanos);
+      long callNanos = System.nanoTime();
+      DiscordRPC.runCallbacks();
+      this.runCallbacksLatency.record(System.nanoTime() - callNanos);
+    }
+    updater.join();
+    for (EStandInEvent event : EStandInEvent.values()) {
+      server.setRate(event, 0.0D);
+    }
+    DiscordRPC.shutdown();
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+    System.out.printf("Ran for %.1fs: %s disconnections=%d errors=%d%n", seconds,
+        server.formatStats(), this.disconnections.sum(), this.errors.sum());
+    System.out.printf("updatePresence: %.0f/s, %.0f/s received by the server%n",
+        this.updateLatency.getCount() / seconds, server.getActivityCount() / seconds);
+    System.out.printf("runCallbacks:   %.0f/s%n", this.runCallbacksLatency.getCount() / seconds);
+    System.out.println();
+    System.out.printf("%-24s %s%n", "updatePresence call", this.updateLatency.format());
+    System.out.printf("%-24s %s%n", "presence end to end", server.getActivityLatency().format());
+    System.out.printf("%-24s %s%n", "runCallbacks call", this.runCallbacksLatency.format());
+    for (EStandInEvent event : EStandInEvent.values()) {
+      System.out.printf("%-24s %s%n", event.getCommand() + " end to end",
+          this.callbackLatencies.get(event).format());
+    }
+  }
+
+  private void update(long periodNanos, long endNanos) {
+    DiscordRichPresence.Builder builder = new DiscordRichPresence.Builder()
+        .setDetails("Load test");
+    for (long nextNanos = System.nanoTime(); System.nanoTime() - endNanos < 0L;
+        nextNanos += periodNanos) {
+      pace(nextNanos);
+      long callNanos = System.nanoTime();
+      DiscordRPC.updatePresence(builder
+          .setState(DiscordStandInServer.STAMP_PREFIX + callNanos)
+          .build());
+      this.updateLatency.record(System.nanoTime() - callNanos);
+    }
+  }
+
+  private void time(final EStandInEvent event, final String stamp) {
+    long nowNanos = System.nanoTime();
+    try {
+      this.callbackLatencies.get(event).record(nowNanos - Long.parseLong(stamp));
+    } catch (NumberFormatException ignored) {
+      // not sent by the stand-in server
+    }
+  }
+
+  private static long toPeriodNanos(final String perSecond) {
+    double rate = Double.parseDouble(perSecond);
+    return rate > 0.0D ? (long) (TimeUnit.SECONDS.toNanos(1L) / rate) : 0L;
+  }
+
+  /**
+   * Waits until the given time, so that calls keep their rate without drifting.
+   *
+   * @param nextNanos The value of {@link System#nanoTime()} to wait for.
+   */
+  private static void pace(long nextNanos) {
+    for (long remaining; (remaining = nextNanos - System.nanoTime()) > 0L; ) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package io.github.kawaxte.presence;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * The {@code DiscordBackends} class selects the {@link IDiscordBackend} used by
+ * {@link DiscordRPC}.
+ * <p>
+ * The backend can be forced using the {@code discord-rpc.backend} system property, which accepts
+ * the following values:
+ * <ul>
+ *   <li>{@code auto} - the fastest backend available on the running Java version (default)</li>
+ *   <li>{@code jna} - the JNA bindings of {@link IDiscordRPC} and {@link IDiscordRegister}</li>
+ *   <li>{@code ffm} - the Foreign Function &amp; Memory API, available on Java 22 or later</li>
+ *   <li>{@code ipc} - the local IPC protocol of Discord spoken without the native library,
+ *   available on Linux and macOS with Java 16 or later</li>
+ * </ul>
+ * <p>
+ * Backends that require a newer Java version than 8 are shipped in the versioned section of the
+ * multi-release JAR, so they are looked up by name and are simply not found on older versions. The
+ * same goes for the Java Flight Recorder events emitted on Java 11 or later.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+final class DiscordBackends {
+
+  static final String BACKEND_PROPERTY = "discord-rpc.backend";
+  static final String JFR_PROPERTY = "discord-rpc.jfr";
+  private static final String FOREIGN_BACKEND =
+      "io.github.kawaxte.presence.DiscordForeignBackend";
+  private static final String UNIX_IPC_CONNECTOR =
+      "io.github.kawaxte.presence.DiscordUnixIpcConnector";
+  private static final String JFR_BACKEND = "io.github.kawaxte.presence.DiscordJfrBackend";
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private DiscordBackends() {
+    throw new UnsupportedOperationException(String.format("%s is not instantiable",
+        DiscordBackends.class.getName()));
+  }
+
+  /**
+   * Selects the backend, loading the native library only if the backend needs it.
+   *
+   * @param library The {@code Supplier} loading the native library and returning its path.
+   * @return The {@code IDiscordBackend} object to be used by {@link DiscordRPC}.
+   * @throws IllegalStateException if the backend set by {@code discord-rpc.backend} is unknown or
+   *                               not available.
+   */
+  static IDiscordBackend select(final Supplier<Path> library) {
+    String backend = System.getProperty(BACKEND_PROPERTY, "auto").toLowerCase(Locale.ROOT);
+    switch (backend) {
+      case "ipc":
+        return new DiscordIpcBackend(newUnixIpcConnector());
+      case "jna":
+        library.get();
+        return new DiscordJnaBackend();
+      case "ffm":
+        return newForeignBackend(library.get(), false);
+      case "auto":
+        Path path = library.get();
+        if (getFeatureVersion() >= 22) {
+          try {
+            return newForeignBackend(path, true);
+          } catch (IllegalStateException ise) {
+            // the JNA backend is always available
+          }
+        }
+        return new DiscordJnaBackend();
+      default:
+        throw new IllegalStateException(MessageFormat.format("Backend \"{0}\" is unknown",
+            backend));
+    }
+  }
+
+  /**
+   * Creates the backend based on the Foreign Function &amp; Memory API.
+   *
+   * @param library             The {@code Path} object pointing to the native library.
+   * @param requireNativeAccess Whether native access must have been granted to this library
+   *                            using {@code --enable-native-access}, to avoid the warning the JVM
+   *                            prints otherwise.
+   * @return The {@code IDiscordBackend} object.
+   * @throws IllegalStateException if the backend is not available.
+   */
+  private static IDiscordBackend newForeignBackend(final Path library,
+      boolean requireNativeAccess) {
+    try {
+      return (IDiscordBackend) Class.forName(FOREIGN_BACKEND)
+          .getDeclaredConstructor(Path.class, boolean.class)
+          .newInstance(library, requireNativeAccess);
+    } catch (InvocationTargetException ite) {
+      throw new IllegalStateException("Backend \"ffm\" is not available", ite.getCause());
+    } catch (ReflectiveOperationException | LinkageError e) {
+      throw new IllegalStateException("Backend \"ffm\" is not available", e);
+    }
+  }
+
+  /**
+   * Creates the connector opening Unix domain sockets, which are supported by the JDK since Java
+   * 16.
+   *
+   * @return The {@code IDiscordIpcConnector} object.
+   * @throws IllegalStateException if the connector is not available.
+   */
+  static IDiscordIpcConnector newUnixIpcConnector() {
+    if (DiscordRPC.EPlatform.getPlatform() == DiscordRPC.EPlatform.WINDOWS) {
+      throw new IllegalStateException("Backend \"ipc\" is not available on Windows");
+    }
+    try {
+      return (IDiscordIpcConnector) Class.forName(UNIX_IPC_CONNECTOR)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      throw new IllegalStateException("Backend \"ipc\" is not available", e);
+    }
+  }
+
+  /**
+   * Puts a backend emitting Java Flight Recorder events in front of the given backend, on Java 11
+   * or later unless the {@code discord-rpc.jfr} system property is set to {@code false}.
+   *
+   * @param backend The {@code IDiscordBackend} object selected by {@link #select(Supplier)}.
+   * @return The profiling {@code IDiscordBackend} object, or {@code backend} if Java Flight
+   * Recorder is not available.
+   */
+  static IDiscordBackend profile(final IDiscordBackend backend) {
+    Class<?> jfrBackend = getJfrBackend();
+    if (jfrBackend == null) {
+      return backend;
+    }
+    try {
+      return (IDiscordBackend) jfrBackend.getDeclaredConstructor(IDiscordBackend.class)
+          .newInstance(backend);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return backend;
+    }
+  }
+
+  /**
+   * Wraps the given supplier so that loading the native library emits a Java Flight Recorder
+   * event, on Java 11 or later unless the {@code discord-rpc.jfr} system property is set to
+   * {@code false}.
+   *
+   * @param library The {@code Supplier} loading the native library and returning its path.
+   * @return The profiling {@code Supplier}, or {@code library} if Java Flight Recorder is not
+   * available.
+   */
+  @SuppressWarnings("unchecked")
+  static Supplier<Path> profile(final Supplier<Path> library) {
+    Class<?> jfrBackend = getJfrBackend();
+    if (jfrBackend == null) {
+      return library;
+    }
+    try {
+      return (Supplier<Path>) jfrBackend.getDeclaredMethod("profile", Supplier.class)
+          .invoke(null, library);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return library;
+    }
+  }
+
+  private static Class<?> getJfrBackend() {
+    if (getFeatureVersion() < 11
+        || "false".equalsIgnoreCase(System.getProperty(JFR_PROPERTY))) {
+      return null;
+    }
+    try {
+      return Class.forName(JFR_BACKEND);
+    } catch (ClassNotFoundException | LinkageError e) {
+      // not shipped in this JAR, or the jdk.jfr module is not part of the runtime
+      return null;
+    }
+  }
+
+  /**
+   * Returns the feature version of the running Java version, such as {@code 8} or {@code 22}.
+   *
+   * @return The feature version.
+   */
+  static int getFeatureVersion() {
+    String version = System.getProperty("java.specification.version", "1.8");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    try {
+      return Integer.parseInt(version);
+    } catch (NumberFormatException nfe) {
+      return 8;
+    }
+  }
+}
@@ -0,0 +1,738 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The {@code DiscordBrokerBackend} class shares one connection to Discord between every process of
+ * the machine using the same application ID, such as a launcher and the game it starts.
+ * <p>
+ * The first process to initialise becomes the owner: it holds a lock file, creates the backend
+ * that connects to Discord, and listens on a Unix domain socket next to the IPC endpoints of
+ * Discord. The other processes connect to that socket, without loading the native library, and
+ * send their presences to the owner over a compact framed protocol, described in
+ * {@link DiscordBrokerChannel}. Of the presences of every process, the owner sends the one of the
+ * highest priority, set using the {@code discord-rpc.broker.priority} system property, or the most
+ * recent one if several share that priority. The ready, disconnected and errored events are passed
+ * to every process, while join, spectate and join request events are passed to the process whose
+ * presence is shown, since they refer to its secrets.
+ * </p>
+ * <p>
+ * When the owner shuts down or exits, the lock is released and the other processes are
+ * disconnected. The first of them to call {@link #runCallbacks()} takes the lock over, connects to
+ * Discord, and is sent the presences of the others as they connect to it.
+ * </p>
+ * <p>
+ * It is put in place of the backend when the {@code discord-rpc.broker} system property is set to
+ * {@code true}, and needs Unix domain sockets, which are supported by the JDK since Java 16. Like
+ * {@link DiscordIpcBackend}, it starts no thread: the socket is only served while
+ * {@link #runCallbacks()} is called.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBrokerChannel
+ */
+final class DiscordBrokerBackend implements IDiscordBackend {
+
+  static final String BROKER_PROPERTY = "discord-rpc.broker";
+  static final String PRIORITY_PROPERTY = "discord-rpc.broker.priority";
+
+  private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500L);
+  private static final int JOIN_GAME = 1;
+  private static final int SPECTATE_GAME = 2;
+  private static final int JOIN_REQUEST = 4;
+
+  private final Supplier<IDiscordBackend> supplier;
+  private final IDiscordIpcConnector connector;
+  private final int priority;
+  private final Object lock = new Object();
+  private final List<Participant> participants = new ArrayList<>();
+  private IDiscordBackend backend;
+  private String applicationId;
+  private boolean autoRegister;
+  private String optionalSteamId;
+  private DiscordEventHandlers handlers;
+  private DiscordRichPresence presence;
+  private long retryAtNanos;
+  private FileChannel lockChannel;
+  private FileLock fileLock;
+  private Path socketPath;
+  private ServerSocketChannel server;
+  private Participant self;
+  private Participant shown;
+  private long shownSequence;
+  private long sequence;
+  private int subscriptions = -1;
+  private DiscordUserView lastReady;
+  private DiscordEventHandlers brokerHandlers;
+  private DiscordBrokerChannel owner;
+
+  /**
+   * Constructs a new {@code DiscordBrokerBackend}.
+   *
+   * @param supplier  The {@code Supplier} of the backend connecting to Discord, which is only
+   *                  called once this process becomes the owner or registers the application.
+   * @param connector The {@code IDiscordIpcConnector} object used to listen and connect.
+   * @param priority  The priority of the presences of this process.
+   */
+  DiscordBrokerBackend(final Supplier<IDiscordBackend> supplier,
+      final IDiscordIpcConnector connector, int priority) {
+    this.supplier = supplier;
+    this.connector = connector;
+    this.priority = priority;
+  }
+
+  /**
+   * Returns a {@code DiscordBrokerBackend} in front of the backend returned by the given supplier,
+   * if enabled by the {@code discord-rpc.broker} system property, or that backend otherwise.
+   *
+   * @param supplier The {@code Supplier} selecting the backend, such as
+   *                 {@link DiscordBackends#select(Supplier)}.
+   * @return The {@code IDiscordBackend} object to be used by {@link DiscordRPC}.
+   * @throws IllegalStateException if the broker is enabled but Unix domain sockets are not
+   *                               available.
+   */
+  static IDiscordBackend broker(final Supplier<IDiscordBackend> supplier) {
+    if (!Boolean.getBoolean(BROKER_PROPERTY)) {
+      return supplier.get();
+    }
+    return new DiscordBrokerBackend(supplier, DiscordBackends.newUnixIpcConnector(),
+        Integer.getInteger(PRIORITY_PROPERTY, 0));
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    DiscordEventHandlers registered;
+    synchronized (this.lock) {
+      this.stop();
+      this.applicationId = applicationId;
+      this.handlers = handlers;
+      this.autoRegister = autoRegister;
+      this.optionalSteamId = optionalSteamId;
+      registered = this.elect();
+    }
+    this.register(registered);
+  }
+
+  @Override
+  public void shutdown() {
+    synchronized (this.lock) {
+      this.stop();
+      this.applicationId = null;
+      this.handlers = null;
+      this.presence = null;
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    List<Runnable> callbacks = new ArrayList<>();
+    IDiscordBackend backend = null;
+    DiscordEventHandlers registered = null;
+    synchronized (this.lock) {
+      if (this.applicationId == null) {
+        return;
+      }
+
+      if (this.server != null) {
+        registered = this.serve();
+      } else if (this.owner != null) {
+        this.readOwner(callbacks);
+      }
+      if (this.server == null && this.owner == null
+          && System.nanoTime() - this.retryAtNanos >= 0L) {
+        registered = this.elect();
+      }
+      if (this.server != null) {
+        backend = this.backend;
+      }
+    }
+    this.register(registered);
+
+    // the callbacks of the owner are passed on by the broker handlers while these run
+    if (backend != null) {
+      backend.runCallbacks();
+    }
+    for (Runnable callback : callbacks) {
+      callback.run();
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    synchronized (this.lock) {
+      this.presence = new DiscordRichPresence.Builder(presence).build();
+      if (this.self != null) {
+        this.self.presence = this.presence;
+        this.self.sequence = ++this.sequence;
+        this.arbitrate();
+      } else if (this.owner != null) {
+        this.owner.begin(DiscordBrokerChannel.PRESENCE).putPresence(this.presence).send();
+      }
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.updatePresence(buffer.toRichPresence());
+  }
+
+  @Override
+  public void clearPresence() {
+    synchronized (this.lock) {
+      this.presence = null;
+      if (this.self != null) {
+        this.self.presence = null;
+        this.arbitrate();
+      } else if (this.owner != null) {
+        this.owner.begin(DiscordBrokerChannel.CLEAR).send();
+      }
+    }
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    synchronized (this.lock) {
+      if (this.server != null) {
+        this.backend.respond(userId, reply);
+      } else if (this.owner != null) {
+        this.owner.begin(DiscordBrokerChannel.RESPOND).putString(userId).putInt(reply).send();
+      }
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    DiscordEventHandlers registered = null;
+    synchronized (this.lock) {
+      this.handlers = handlers;
+      if (this.self != null) {
+        this.self.subscriptions = getSubscriptions(handlers);
+        registered = this.subscribe();
+      } else if (this.owner != null) {
+        this.sendHello();
+      }
+    }
+    this.register(registered);
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    this.getBackend().register(applicationId, command);
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    this.getBackend().registerSteamGame(applicationId, steamId);
+  }
+
+  private IDiscordBackend getBackend() {
+    synchronized (this.lock) {
+      if (this.backend == null) {
+        this.backend = this.supplier.get();
+      }
+      return this.backend;
+    }
+  }
+
+  /**
+   * Becomes the owner if no other process is, or connects to the owner otherwise. If neither
+   * succeeds, such as while another process is becoming the owner, it is tried again later.
+   *
+   * @return The {@code DiscordEventHandlers} object to be registered with the backend outside the
+   * lock, or {@code null} if there is none.
+   */
+  private DiscordEventHandlers elect() {
+    this.retryAtNanos = System.nanoTime() + RETRY_DELAY_NANOS;
+    Path directory = DiscordIpcBackend.getIpcPaths().get(0).getParent();
+    String name = String.format("discord-rpc-broker-%s",
+        this.applicationId.replaceAll("[^A-Za-z0-9]", "_"));
+    this.socketPath = directory.resolve(name);
+
+    try {
+      this.lockChannel = FileChannel.open(directory.resolve(name + ".lock"),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      this.fileLock = this.lockChannel.tryLock();
+    } catch (IOException | OverlappingFileLockException e) {
+      this.fileLock = null;
+    }
+    if (this.fileLock != null) {
+      try {
+        // a process holding the lock before may have exited without removing its socket
+        Files.deleteIfExists(this.socketPath);
+        this.server = this.connector.listen(this.socketPath);
+        return this.own();
+      } catch (IOException ioe) {
+        this.stop();
+        return null;
+      }
+    }
+    this.releaseLock();
+
+    try {
+      this.owner = new DiscordBrokerChannel(this.connector.connect(this.socketPath));
+    } catch (IOException ioe) {
+      return null;
+    }
+    this.sendHello();
+    if (this.presence != null) {
+      this.owner.begin(DiscordBrokerChannel.PRESENCE).putPresence(this.presence).send();
+    }
+    return null;
+  }
+
+  /**
+   * Connects to Discord on behalf of every process, once the lock has been taken.
+   *
+   * @return The {@code DiscordEventHandlers} object registered with the backend.
+   */
+  private DiscordEventHandlers own() {
+    if (this.backend == null) {
+      this.backend = this.supplier.get();
+    }
+    this.self = new Participant(null);
+    this.self.priority = this.priority;
+    this.self.subscriptions = getSubscriptions(this.handlers);
+    this.self.presence = this.presence;
+    this.self.sequence = ++this.sequence;
+    this.participants.add(this.self);
+
+    this.subscriptions = this.getAllSubscriptions();
+    this.brokerHandlers = this.newBrokerHandlers(this.subscriptions);
+    this.backend.initialise(this.applicationId, this.brokerHandlers, this.autoRegister,
+        this.optionalSteamId);
+    this.arbitrate();
+    return null;
+  }
+
+  /**
+   * Leaves the current role, disconnecting from the owner, or disconnecting every other process
+   * and shutting the backend down if this process is the owner.
+   */
+  private void stop() {
+    if (this.owner != null) {
+      this.owner.close();
+      this.owner = null;
+    }
+    if (this.server != null) {
+      for (Participant participant : this.participants) {
+        if (participant.channel != null) {
+          participant.channel.close();
+        }
+      }
+      try {
+        this.server.close();
+        Files.deleteIfExists(this.socketPath);
+      } catch (IOException ignored) {
+        // removed by the next owner
+      }
+      this.server = null;
+    }
+    if (this.self != null) {
+      this.backend.shutdown();
+    }
+    this.releaseLock();
+
+    this.participants.clear();
+    this.self = null;
+    this.shown = null;
+    this.subscriptions = -1;
+    this.lastReady = null;
+    this.brokerHandlers = null;
+  }
+
+  private void releaseLock() {
+    try {
+      if (this.fileLock != null) {
+        this.fileLock.release();
+      }
+      if (this.lockChannel != null) {
+        this.lockChannel.close();
+      }
+    } catch (IOException ignored) {
+      // released by the operating system once the process exits
+    }
+    this.fileLock = null;
+    this.lockChannel = null;
+  }
+
+  /**
+   * Accepts the processes connecting to the owner and handles the frames they sent.
+   *
+   * @return The {@code DiscordEventHandlers} object to be registered with the backend outside the
+   * lock, or {@code null} if the events subscribed to did not change.
+   */
+  private DiscordEventHandlers serve() {
+    try {
+      for (SocketChannel channel; (channel = this.server.accept()) != null; ) {
+        channel.configureBlocking(false);
+        this.participants.add(new Participant(new DiscordBrokerChannel(channel)));
+      }
+    } catch (IOException ignored) {
+      // the processes which could not be accepted connect again
+    }
+
+    boolean changed = false;
+    for (int i = this.participants.size() - 1; i >= 0; i--) {
+      Participant participant = this.participants.get(i);
+      if (participant.channel == null) {
+        continue;
+      }
+      try {
+        for (ByteBuffer frame; (frame = participant.channel.poll()) != null; ) {
+          changed |= this.handle(participant, frame);
+        }
+      } catch (IOException | RuntimeException e) {
+        participant.channel.close();
+        this.participants.remove(i);
+        participant.presence = null;
+        changed = true;
+      }
+    }
+    if (changed) {
+      this.arbitrate();
+      return this.subscribe();
+    }
+    return null;
+  }
+
+  /**
+   * Handles a frame sent to the owner by another process.
+   *
+   * @param participant The {@code Participant} object representing the process.
+   * @param frame       The {@code ByteBuffer} object holding the frame.
+   * @return {@code true} if the presences or the subscriptions changed, {@code false} otherwise.
+   */
+  private boolean handle(final Participant participant, final ByteBuffer frame) {
+    switch (frame.get()) {
+      case DiscordBrokerChannel.HELLO:
+        participant.priority = frame.getInt();
+        participant.subscriptions = frame.getInt();
+        if (this.lastReady != null) {
+          participant.channel.begin(DiscordBrokerChannel.READY).putUser(
+              this.lastReady.getUserId(), this.lastReady.getUsername(),
+              this.lastReady.getDiscriminator(), this.lastReady.getAvatar()).send();
+        }
+        return true;
+      case DiscordBrokerChannel.PRESENCE:
+        participant.presence = DiscordBrokerChannel.getPresence(frame);
+        participant.sequence = ++this.sequence;
+        return true;
+      case DiscordBrokerChannel.CLEAR:
+        participant.presence = null;
+        return true;
+      case DiscordBrokerChannel.RESPOND:
+        this.backend.respond(DiscordBrokerChannel.getString(frame), frame.getInt());
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Sends the presence of the highest priority, or the most recent one among those of the highest
+   * priority, unless it is already shown, or clears the presence if no process has one.
+   */
+  private void arbitrate() {
+    Participant best = null;
+    for (Participant participant : this.participants) {
+      if (participant.presence != null && (best == null || participant.priority > best.priority
+          || (participant.priority == best.priority && participant.sequence > best.sequence))) {
+        best = participant;
+      }
+    }
+
+    if (best == null) {
+      if (this.shown != null) {
+        this.shown = null;
+        this.backend.clearPresence();
+      }
+    } else if (best != this.shown || best.sequence != this.shownSequence) {
+      this.shown = best;
+      this.shownSequence = best.sequence;
+      this.backend.updatePresence(best.presence);
+    }
+  }
+
+  /**
+   * Returns the handlers to be registered with the backend if the events subscribed to by the
+   * processes changed.
+   *
+   * @return The new {@code DiscordEventHandlers} object, or {@code null} if nothing changed.
+   */
+  private DiscordEventHandlers subscribe() {
+    int subscriptions = this.getAllSubscriptions();
+    if (subscriptions == this.subscriptions) {
+      return null;
+    }
+    this.subscriptions = subscriptions;
+    this.brokerHandlers = this.newBrokerHandlers(subscriptions);
+    return this.brokerHandlers;
+  }
+
+  /**
+   * Registers new handlers with the backend outside the lock, since the native library holds its
+   * own lock while running the callbacks, which take the lock of the broker.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object, or {@code null} to do nothing.
+   */
+  private void register(final DiscordEventHandlers handlers) {
+    IDiscordBackend backend = this.backend;
+    if (handlers != null && backend != null) {
+      backend.updateHandlers(handlers);
+    }
+  }
+
+  private int getAllSubscriptions() {
+    int subscriptions = 0;
+    for (Participant participant : this.participants) {
+      subscriptions |= participant.subscriptions;
+    }
+    return subscriptions;
+  }
+
+  private void sendHello() {
+    this.owner.begin(DiscordBrokerChannel.HELLO)
+        .putInt(this.priority)
+        .putInt(getSubscriptions(this.handlers))
+        .send();
+  }
+
+  /**
+   * Reads the events sent by the owner, or gives up the connection to elect a new owner if it was
+   * closed.
+   *
+   * @param callbacks The {@code List} the callbacks to be dispatched are added to.
+   */
+  private void readOwner(final List<Runnable> callbacks) {
+    DiscordEventHandlers handlers = this.handlers;
+    try {
+      for (ByteBuffer frame; (frame = this.owner.poll()) != null; ) {
+        byte opcode = frame.get();
+        switch (opcode) {
+          case DiscordBrokerChannel.READY:
+          case DiscordBrokerChannel.JOIN_REQUEST:
+            DiscordUserView user = DiscordBrokerChannel.getUser(frame);
+            callbacks.add(() -> dispatchUser(handlers, opcode, user));
+            break;
+          case DiscordBrokerChannel.DISCONNECTED:
+          case DiscordBrokerChannel.ERRORED:
+            int errorCode = frame.getInt();
+            String message = DiscordBrokerChannel.getString(frame);
+            callbacks.add(() -> dispatchError(handlers, opcode, errorCode, message));
+            break;
+          case DiscordBrokerChannel.JOIN_GAME:
+          case DiscordBrokerChannel.SPECTATE_GAME:
+            String secret = DiscordBrokerChannel.getString(frame);
+            callbacks.add(() -> dispatchSecret(handlers, opcode, secret));
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // the owner exited, so a new one is elected right away
+      this.owner.close();
+      this.owner = null;
+      this.retryAtNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Creates the handlers registered with the backend by the owner, which pass every event on to
+   * the processes it is meant for.
+   *
+   * @param subscriptions The events subscribed to by any process.
+   * @return The {@code DiscordEventHandlers} object, which is kept for as long as it is in use,
+   * since JNA only holds callbacks weakly.
+   */
+  private DiscordEventHandlers newBrokerHandlers(int subscriptions) {
+    DiscordEventHandlers handlers = new DiscordEventHandlers();
+    handlers.ready = user -> this.broadcastUser(DiscordBrokerChannel.READY,
+        new DiscordUserView(user.userId, user.username, user.discriminator, user.avatar));
+    handlers.disconnected = (errorCode, message) ->
+        this.broadcastError(DiscordBrokerChannel.DISCONNECTED, errorCode, message);
+    handlers.errored = (errorCode, message) ->
+        this.broadcastError(DiscordBrokerChannel.ERRORED, errorCode, message);
+    if ((subscriptions & JOIN_GAME) != 0) {
+      handlers.joinGame = joinSecret -> this.routeSecret(DiscordBrokerChannel.JOIN_GAME,
+          JOIN_GAME, joinSecret);
+    }
+    if ((subscriptions & SPECTATE_GAME) != 0) {
+      handlers.spectateGame = spectateSecret -> this.routeSecret(
+          DiscordBrokerChannel.SPECTATE_GAME, SPECTATE_GAME, spectateSecret);
+    }
+    if ((subscriptions & JOIN_REQUEST) != 0) {
+      handlers.joinRequest = request -> this.routeUser(new DiscordUserView(request.userId,
+          request.username, request.discriminator, request.avatar));
+    }
+    return handlers;
+  }
+
+  private void broadcastUser(byte opcode, final DiscordUserView user) {
+    DiscordEventHandlers handlers;
+    synchronized (this.lock) {
+      this.lastReady = user;
+      for (Participant participant : this.participants) {
+        if (participant.channel != null) {
+          participant.channel.begin(opcode).putUser(user.getUserId(), user.getUsername(),
+              user.getDiscriminator(), user.getAvatar()).send();
+        }
+      }
+      handlers = this.handlers;
+    }
+    dispatchUser(handlers, opcode, user);
+  }
+
+  private void broadcastError(byte opcode, int errorCode, final String message) {
+    DiscordEventHandlers handlers;
+    synchronized (this.lock) {
+      if (opcode == DiscordBrokerChannel.DISCONNECTED) {
+        this.lastReady = null;
+      }
+      for (Participant participant : this.participants) {
+        if (participant.channel != null) {
+          participant.channel.begin(opcode).putInt(errorCode).putString(message).send();
+        }
+      }
+      handlers = this.handlers;
+    }
+    dispatchError(handlers, opcode, errorCode, message);
+  }
+
+  private void routeSecret(byte opcode, int subscription, final String secret) {
+    DiscordEventHandlers handlers;
+    synchronized (this.lock) {
+      Participant target = this.getTarget(subscription);
+      if (target == null) {
+        return;
+      }
+      if (target != this.self) {
+        target.channel.begin(opcode).putString(secret).send();
+        return;
+      }
+      handlers = this.handlers;
+    }
+    dispatchSecret(handlers, opcode, secret);
+  }
+
+  private void routeUser(final DiscordUserView user) {
+    DiscordEventHandlers handlers;
+    synchronized (this.lock) {
+      Participant target = this.getTarget(JOIN_REQUEST);
+      if (target == null) {
+        return;
+      }
+      if (target != this.self) {
+        target.channel.begin(DiscordBrokerChannel.JOIN_REQUEST).putUser(user.getUserId(),
+            user.getUsername(), user.getDiscriminator(), user.getAvatar()).send();
+        return;
+      }
+      handlers = this.handlers;
+    }
+    dispatchUser(handlers, DiscordBrokerChannel.JOIN_REQUEST, user);
+  }
+
+  /**
+   * Returns the process an event refers to, which is the one whose presence is shown if it
+   * subscribed to the event, or else the first one that did, starting with the owner.
+   *
+   * @param subscription The event.
+   * @return The {@code Participant} object, or {@code null} if no process subscribed to the event.
+   */
+  private Participant getTarget(int subscription) {
+    if (this.shown != null && (this.shown.subscriptions & subscription) != 0) {
+      return this.shown;
+    }
+    for (Participant participant : this.participants) {
+      if ((participant.subscriptions & subscription) != 0) {
+        return participant;
+      }
+    }
+    return null;
+  }
+
+  private static int getSubscriptions(final DiscordEventHandlers handlers) {
+    if (handlers == null) {
+      return 0;
+    }
+    return (handlers.joinGame != null ? JOIN_GAME : 0)
+        | (handlers.spectateGame != null ? SPECTATE_GAME : 0)
+        | (handlers.joinRequest != null ? JOIN_REQUEST : 0);
+  }
+
+  private static void dispatchUser(final DiscordEventHandlers handlers, byte opcode,
+      final DiscordUserView user) {
+    if (handlers == null) {
+      return;
+    }
+
+    if (opcode == DiscordBrokerChannel.READY) {
+      if (handlers.ready instanceof DiscordEventHandlers.IReadyViewCallback) {
+        ((DiscordEventHandlers.IReadyViewCallback) handlers.ready).callback(user);
+      } else if (handlers.ready != null) {
+        handlers.ready.onReady(DiscordBrokerChannel.toUser(user));
+      }
+    } else if (handlers.joinRequest instanceof DiscordEventHandlers.IJoinRequestViewCallback) {
+      ((DiscordEventHandlers.IJoinRequestViewCallback) handlers.joinRequest).callback(user);
+    } else if (handlers.joinRequest != null) {
+      handlers.joinRequest.onJoinRequest(DiscordBrokerChannel.toUser(user));
+    }
+  }
+
+  private static void dispatchError(final DiscordEventHandlers handlers, byte opcode,
+      int errorCode, final String message) {
+    if (handlers == null) {
+      return;
+    }
+
+    if (opcode == DiscordBrokerChannel.DISCONNECTED && handlers.disconnected != null) {
+      handlers.disconnected.onDisconnected(errorCode, message);
+    } else if (opcode == DiscordBrokerChannel.ERRORED && handlers.errored != null) {
+      handlers.errored.onErrored(errorCode, message);
+    }
+  }
+
+  private static void dispatchSecret(final DiscordEventHandlers handlers, byte opcode,
+      final String secret) {
+    if (handlers == null) {
+      return;
+    }
+
+    if (opcode == DiscordBrokerChannel.JOIN_GAME && handlers.joinGame != null) {
+      handlers.joinGame.onJoinGame(secret);
+    } else if (opcode == DiscordBrokerChannel.SPECTATE_GAME && handlers.spectateGame != null) {
+      handlers.spectateGame.onSpectateGame(secret);
+    }
+  }
+
+  /**
+   * The {@code Participant} class holds the state of one process sharing the connection, as seen
+   * by the owner.
+   */
+  private static final class Participant {
+
+    private final DiscordBrokerChannel channel;
+    private int priority;
+    private int subscriptions;
+    private DiscordRichPresence presence;
+    private long sequence;
+
+    private Participant(final DiscordBrokerChannel channel) {
+      this.channel = channel;
+    }
+  }
+}
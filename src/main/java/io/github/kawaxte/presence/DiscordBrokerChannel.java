@@ -0,0 +1,272 @@
+package io.github.kawaxte.presence;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@code DiscordBrokerChannel} class carries the frames exchanged between the processes of a
+ * {@link DiscordBrokerBackend} over a non-blocking Unix domain socket.
+ * <p>
+ * A frame is its length as a little-endian {@code int}, followed by an opcode byte and its
+ * payload. Strings are encoded as their length in UTF-8 bytes as an unsigned {@code short}, or
+ * {@code 0xFFFF} for {@code null}, followed by their bytes. A presence is encoded as a bit mask of
+ * its set {@link EPresenceField}s, followed by the value of each of them, strings as above and
+ * numbers as a {@code long}.
+ * </p>
+ * <p>
+ * Writing never blocks: the frames the socket does not take at once are queued, and written by
+ * the next calls to {@link #send()} and {@link #poll()}. A process that leaves more frames unread
+ * than the queue holds is treated as if its connection had failed.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+final class DiscordBrokerChannel implements Closeable {
+
+  static final byte HELLO = 1;
+  static final byte PRESENCE = 2;
+  static final byte CLEAR = 3;
+  static final byte RESPOND = 4;
+  static final byte READY = 5;
+  static final byte DISCONNECTED = 6;
+  static final byte ERRORED = 7;
+  static final byte JOIN_GAME = 8;
+  static final byte SPECTATE_GAME = 9;
+  static final byte JOIN_REQUEST = 10;
+
+  private static final EPresenceField[] FIELDS = EPresenceField.values();
+  private static final int MAX_FRAME_SIZE = 16 * 1024;
+  private static final int MAX_QUEUED_BYTES = 64 * 1024;
+  private static final int MAX_STRING_BYTES = 1024;
+  private static final int NULL_STRING = 0xFFFF;
+
+  private final ByteChannel channel;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(4 + MAX_FRAME_SIZE)
+      .order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(4 + MAX_FRAME_SIZE)
+      .order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer queueBuffer = ByteBuffer.allocate(MAX_QUEUED_BYTES);
+  private boolean writeFailed;
+
+  /**
+   * Constructs a new {@code DiscordBrokerChannel}.
+   *
+   * @param channel The connected non-blocking {@code ByteChannel} object.
+   */
+  DiscordBrokerChannel(final ByteChannel channel) {
+    this.channel = channel;
+    // the read buffer is kept flipped, holding the bytes read but not yet returned
+    this.readBuffer.flip();
+  }
+
+  /**
+   * Starts writing a frame. The payload is then appended using the {@code put} methods, and the
+   * frame is sent by {@link #send()}.
+   *
+   * @param opcode The opcode of the frame.
+   * @return This {@code DiscordBrokerChannel} object.
+   */
+  DiscordBrokerChannel begin(byte opcode) {
+    this.writeBuffer.clear();
+    this.writeBuffer.putInt(0).put(opcode);
+    return this;
+  }
+
+  DiscordBrokerChannel putInt(int value) {
+    this.writeBuffer.putInt(value);
+    return this;
+  }
+
+  DiscordBrokerChannel putString(final String value) {
+    return this.putString(value, MAX_STRING_BYTES);
+  }
+
+  /**
+   * Appends a string to the frame, cut to a length which keeps every frame within
+   * {@code MAX_FRAME_SIZE} whatever the strings it is made of.
+   *
+   * @param value    The {@code String} object to be appended. This can be {@code null}.
+   * @param maxBytes The maximum length of the string in UTF-8 bytes.
+   * @return This {@code DiscordBrokerChannel} object.
+   */
+  private DiscordBrokerChannel putString(final String value, int maxBytes) {
+    if (value == null) {
+      this.writeBuffer.putShort((short) NULL_STRING);
+      return this;
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = DiscordPresenceBuffer.truncate(bytes, bytes.length, maxBytes);
+    this.writeBuffer.putShort((short) length).put(bytes, 0, length);
+    return this;
+  }
+
+  DiscordBrokerChannel putPresence(final DiscordRichPresence presence) {
+    Object[] values = DiscordPresenceCompositor.toValues(presence);
+    int mask = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        mask |= 1 << i;
+      }
+    }
+
+    this.writeBuffer.putInt(mask);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == null) {
+        continue;
+      }
+      if (FIELDS[i].isString()) {
+        this.putString((String) values[i], FIELDS[i].getMaxBytes());
+      } else {
+        this.writeBuffer.putLong(((Number) values[i]).longValue());
+      }
+    }
+    return this;
+  }
+
+  DiscordBrokerChannel putUser(final String userId, final String username,
+      final String discriminator, final String avatar) {
+    return this.putString(userId).putString(username).putString(discriminator).putString(avatar);
+  }
+
+  /**
+   * Sends the frame started by {@link #begin(byte)}, queueing what the socket does not take at
+   * once. If the connection fails, or the queue is full, the failure is reported by the next call
+   * to {@link #poll()}.
+   */
+  void send() {
+    if (this.writeFailed) {
+      return;
+    }
+
+    this.writeBuffer.putInt(0, this.writeBuffer.position() - 4);
+    this.writeBuffer.flip();
+    if (this.queueBuffer.remaining() < this.writeBuffer.remaining()) {
+      this.flush();
+      if (this.queueBuffer.remaining() < this.writeBuffer.remaining()) {
+        // the other process stopped reading, so it is dropped rather than waited for
+        this.writeFailed = true;
+        return;
+      }
+    }
+    this.queueBuffer.put(this.writeBuffer);
+    this.flush();
+  }
+
+  /**
+   * Writes as much of the queued frames as the socket takes without blocking.
+   */
+  private void flush() {
+    if (this.writeFailed || this.queueBuffer.position() == 0) {
+      return;
+    }
+
+    this.queueBuffer.flip();
+    try {
+      this.channel.write(this.queueBuffer);
+    } catch (IOException ioe) {
+      this.writeFailed = true;
+    } finally {
+      this.queueBuffer.compact();
+    }
+  }
+
+  /**
+   * Returns the next complete frame received, reading from the connection once the frames
+   * already read have all been returned. The frames still queued are written first.
+   *
+   * @return The {@code ByteBuffer} object positioned on the opcode of the frame and limited to its
+   * end, which is only valid until the next call, or {@code null} if no complete frame is
+   * available.
+   * @throws IOException if the connection was closed, or a malformed frame was received.
+   */
+  ByteBuffer poll() throws IOException {
+    this.flush();
+    if (this.writeFailed) {
+      throw new EOFException("Broker connection closed");
+    }
+
+    ByteBuffer frame = this.next();
+    if (frame != null) {
+      return frame;
+    }
+    this.readBuffer.compact();
+    int read = this.channel.read(this.readBuffer);
+    this.readBuffer.flip();
+    if (read < 0) {
+      throw new EOFException("Broker connection closed");
+    }
+    return this.next();
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.channel.close();
+    } catch (IOException ignored) {
+      // already closed
+    }
+  }
+
+  private ByteBuffer next() throws IOException {
+    if (this.readBuffer.remaining() < 4) {
+      return null;
+    }
+
+    int position = this.readBuffer.position();
+    int length = this.readBuffer.getInt(position);
+    if (length < 1 || length > MAX_FRAME_SIZE) {
+      throw new IOException("Bad broker frame");
+    }
+    if (this.readBuffer.remaining() < 4 + length) {
+      return null;
+    }
+
+    ByteBuffer frame = this.readBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    frame.position(position + 4).limit(position + 4 + length);
+    this.readBuffer.position(position + 4 + length);
+    return frame;
+  }
+
+  static String getString(final ByteBuffer frame) {
+    int length = frame.getShort() & 0xFFFF;
+    if (length == NULL_STRING) {
+      return null;
+    }
+
+    String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length,
+        StandardCharsets.UTF_8);
+    frame.position(frame.position() + length);
+    return value;
+  }
+
+  static DiscordRichPresence getPresence(final ByteBuffer frame) {
+    int mask = frame.getInt();
+    Object[] values = new Object[FIELDS.length];
+    for (int i = 0; i < FIELDS.length; i++) {
+      if ((mask & (1 << i)) != 0) {
+        values[i] = FIELDS[i].isString() ? getString(frame) : (Object) frame.getLong();
+      }
+    }
+    return DiscordPresenceCompositor.toPresence(values);
+  }
+
+  static DiscordUserView getUser(final ByteBuffer frame) {
+    return new DiscordUserView(getString(frame), getString(frame), getString(frame),
+        getString(frame));
+  }
+
+  static DiscordUser toUser(final DiscordUserView view) {
+    DiscordUser user = new DiscordUser();
+    user.userId = view.getUserId();
+    user.username = view.getUsername();
+    user.discriminator = view.getDiscriminator();
+    user.avatar = view.getAvatar();
+    return user;
+  }
+}
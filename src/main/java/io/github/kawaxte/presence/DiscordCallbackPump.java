@@ -0,0 +1,346 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DiscordCallbackPump} class owns the cadence at which
+ * {@link DiscordRPC#runCallbacks()} is called.
+ * <p>
+ * Right after any activity, such as initialising, updating or clearing the presence, responding to
+ * a join request, receiving an event or calling {@link #wake()}, the callbacks are run every
+ * minimum interval. Every run without activity then doubles the interval, up to the maximum
+ * interval, so an idle application wakes up rarely while events following activity, such as a
+ * burst of join requests, are still delivered quickly.
+ * </p>
+ * <p>
+ * The pump can either be driven by a {@link ScheduledExecutorService}, its own daemon thread by
+ * default, or by a game loop calling {@link #poll(long, TimeUnit)} once per frame.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#so-how-does-it-work">Introducing Rich Presence - So, How Does It Work?</a>
+ */
+public final class DiscordCallbackPump {
+
+  /**
+   * The default interval between two runs right after activity, in milliseconds.
+   */
+  public static final long DEFAULT_MIN_INTERVAL_MILLIS = 20L;
+  /**
+   * The default interval between two runs once idle, in milliseconds.
+   */
+  public static final long DEFAULT_MAX_INTERVAL_MILLIS = 2000L;
+
+  private static final Set<DiscordCallbackPump> PUMPS = ConcurrentHashMap.newKeySet();
+
+  private final Runnable runner;
+  private final long minIntervalNanos;
+  private final long maxIntervalNanos;
+  private final Object lock = new Object();
+  private final LongAdder runs = new LongAdder();
+  private long intervalNanos;
+  private long nextRunNanos = System.nanoTime();
+  private ScheduledExecutorService service;
+  private boolean ownsService;
+  private ScheduledFuture<?> future;
+  private int generation;
+  private volatile long averageRunNanos;
+
+  /**
+   * Constructs a new {@code DiscordCallbackPump} with an interval between
+   * {@link #DEFAULT_MIN_INTERVAL_MILLIS} and {@link #DEFAULT_MAX_INTERVAL_MILLIS} milliseconds,
+   * which runs {@link DiscordRPC#runCallbacks()}.
+   */
+  public DiscordCallbackPump() {
+    this(DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructs a new {@code DiscordCallbackPump} which runs {@link DiscordRPC#runCallbacks()}.
+   *
+   * @param minInterval The interval between two runs right after activity.
+   * @param maxInterval The interval between two runs once idle.
+   * @param unit        The {@code TimeUnit} of {@code minInterval} and {@code maxInterval}.
+   * @throws NullPointerException     if {@code unit} is {@code null}.
+   * @throws IllegalArgumentException if {@code minInterval} is not positive or is greater than
+   *                                  {@code maxInterval}.
+   */
+  public DiscordCallbackPump(long minInterval, long maxInterval, final TimeUnit unit) {
+    this(minInterval, maxInterval, unit, DiscordRPC::runCallbacks);
+  }
+
+  /**
+   * Constructs a new {@code DiscordCallbackPump} which runs the given runner.
+   *
+   * @param minInterval The interval between two runs right after activity.
+   * @param maxInterval The interval between two runs once idle.
+   * @param unit        The {@code TimeUnit} of {@code minInterval} and {@code maxInterval}.
+   * @param runner      The {@code Runnable} running the callbacks.
+   * @throws NullPointerException     if {@code unit} or {@code runner} is {@code null}.
+   * @throws IllegalArgumentException if {@code minInterval} is not positive or is greater than
+   *                                  {@code maxInterval}.
+   */
+  public DiscordCallbackPump(long minInterval, long maxInterval, final TimeUnit unit,
+      final Runnable runner) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    Objects.requireNonNull(runner, "runner must not be null");
+    if (minInterval <= 0) {
+      throw new IllegalArgumentException("minInterval must be positive");
+    }
+    if (minInterval > maxInterval) {
+      throw new IllegalArgumentException("minInterval must not be greater than maxInterval");
+    }
+
+    this.runner = runner;
+    this.minIntervalNanos = unit.toNanos(minInterval);
+    this.maxIntervalNanos = unit.toNanos(maxInterval);
+    this.intervalNanos = this.minIntervalNanos;
+  }
+
+  /**
+   * Starts running the callbacks on a daemon thread owned by the pump.
+   *
+   * @throws IllegalStateException if the pump is already started.
+   */
+  public void start() {
+    this.start(Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "discord-rpc-callback-pump");
+      thread.setDaemon(true);
+      return thread;
+    }), true);
+  }
+
+  /**
+   * Starts running the callbacks on the given executor. The executor is not shut down when the
+   * pump is stopped.
+   *
+   * @param executor The {@code ScheduledExecutorService} object to run the callbacks on.
+   * @throws NullPointerException  if {@code executor} is {@code null}.
+   * @throws IllegalStateException if the pump is already started.
+   */
+  public void start(final ScheduledExecutorService executor) {
+    Objects.requireNonNull(executor, "executor must not be null");
+
+    this.start(executor, false);
+  }
+
+  private void start(final ScheduledExecutorService executor, boolean ownsService) {
+    synchronized (this.lock) {
+      if (this.service != null) {
+        if (ownsService) {
+          executor.shutdown();
+        }
+        throw new IllegalStateException("Pump is already started");
+      }
+
+      this.service = executor;
+      this.ownsService = ownsService;
+      this.intervalNanos = this.minIntervalNanos;
+      this.generation++;
+      PUMPS.add(this);
+      this.schedule(0L);
+    }
+  }
+
+  /**
+   * Stops running the callbacks, whether the pump is driven by an executor or by
+   * {@link #poll(long, TimeUnit)}. The pump can be started again afterwards.
+   */
+  public void stop() {
+    synchronized (this.lock) {
+      PUMPS.remove(this);
+      if (this.future != null) {
+        this.future.cancel(false);
+        this.future = null;
+      }
+      if (this.ownsService) {
+        this.service.shutdown();
+      }
+      this.service = null;
+      this.ownsService = false;
+      this.generation++;
+    }
+  }
+
+  /**
+   * Runs the callbacks from a game loop, if they are due and if running them is expected to fit
+   * into the time left in the current frame.
+   * <p>
+   * This method should be called once per frame instead of starting the pump. The callbacks are
+   * run even if they do not fit into the budget once they are overdue by the maximum interval, so
+   * they are never starved.
+   * </p>
+   *
+   * @param budget The time left in the current frame.
+   * @param unit   The {@code TimeUnit} of {@code budget}.
+   * @return {@code true} if the callbacks have been run, {@code false} otherwise.
+   * @throws NullPointerException  if {@code unit} is {@code null}.
+   * @throws IllegalStateException if the pump is driven by an executor.
+   */
+  public boolean poll(long budget, final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    long now = System.nanoTime();
+    long delayNanos;
+    synchronized (this.lock) {
+      if (this.service != null) {
+        throw new IllegalStateException("Pump is driven by an executor");
+      }
+      PUMPS.add(this);
+
+      long overdueNanos = now - this.nextRunNanos;
+      if (overdueNanos < 0L || this.averageRunNanos > unit.toNanos(budget)
+          && overdueNanos < this.maxIntervalNanos) {
+        return false;
+      }
+      delayNanos = this.backOff();
+    }
+
+    try {
+      this.run();
+    } finally {
+      synchronized (this.lock) {
+        this.nextRunNanos = System.nanoTime() + Math.min(delayNanos, this.intervalNanos);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Signals activity, so the callbacks are run again within the minimum interval and then backed
+   * off from there.
+   * <p>
+   * Activity through {@link DiscordRPC} is signalled automatically. This method can be called by
+   * the application when it expects events for another reason.
+   * </p>
+   */
+  public void wake() {
+    synchronized (this.lock) {
+      this.intervalNanos = this.minIntervalNanos;
+
+      long deadlineNanos = System.nanoTime() + this.minIntervalNanos;
+      if (this.nextRunNanos - deadlineNanos <= 0L) {
+        return;
+      }
+      if (this.service == null) {
+        this.nextRunNanos = deadlineNanos;
+      } else if (this.future != null && this.future.cancel(false)) {
+        this.schedule(this.minIntervalNanos);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of times the callbacks have been run.
+   *
+   * @return The number of runs.
+   */
+  public long getRunCount() {
+    return this.runs.sum();
+  }
+
+  /**
+   * Returns the interval that will be waited after the next run if there is no activity.
+   *
+   * @param unit The {@code TimeUnit} of the returned interval.
+   * @return The current interval.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getInterval(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    synchronized (this.lock) {
+      return unit.convert(this.intervalNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Wakes every started pump, and every pump driven by {@link #poll(long, TimeUnit)}.
+   */
+  static void signalActivity() {
+    if (PUMPS.isEmpty()) {
+      return;
+    }
+    for (DiscordCallbackPump pump : PUMPS) {
+      pump.wake();
+    }
+  }
+
+  /**
+   * Wraps the callbacks of the given handlers so that every event received signals activity
+   * before it is passed on, which resets the interval of the pump running the callbacks.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @param listener The {@code Runnable} signalling activity, such as {@link #wake()}.
+   * @return The {@code DiscordEventHandlers} object signalling activity, which must be kept for as
+   * long as it is in use, since JNA only holds callbacks weakly.
+   */
+  static DiscordEventHandlers observe(final DiscordEventHandlers handlers,
+      final Runnable listener) {
+    return DiscordEventHandlers.wrap(handlers, (type, user, errorCode, text) -> {
+      listener.run();
+      return null;
+    }, false);
+  }
+
+
+  private void tick(int generation) {
+    long delayNanos;
+    synchronized (this.lock) {
+      if (generation != this.generation) {
+        return;
+      }
+      delayNanos = this.backOff();
+    }
+
+    try {
+      this.run();
+    } finally {
+      synchronized (this.lock) {
+        if (generation == this.generation) {
+          this.schedule(Math.min(delayNanos, this.intervalNanos));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the interval to wait after the upcoming run, and doubles the interval for the run after
+   * it. If activity is signalled in the meantime, the interval is reset instead.
+   *
+   * @return The interval to wait after the upcoming run, in nanoseconds.
+   */
+  private long backOff() {
+    long delayNanos = this.intervalNanos;
+    this.intervalNanos = Math.min(delayNanos * 2L, this.maxIntervalNanos);
+    return delayNanos;
+  }
+
+  private void run() {
+    long startNanos = System.nanoTime();
+    try {
+      this.runner.run();
+    } finally {
+      long runNanos = System.nanoTime() - startNanos;
+      long averageRunNanos = this.averageRunNanos;
+      this.averageRunNanos = averageRunNanos == 0L
+          ? runNanos
+          : averageRunNanos + (runNanos - averageRunNanos) / 8L;
+      this.runs.increment();
+    }
+  }
+
+  private void schedule(long delayNanos) {
+    int generation = this.generation;
+    this.nextRunNanos = System.nanoTime() + delayNanos;
+    this.future = this.service.schedule(() -> this.tick(generation), delayNanos,
+        TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,276 @@
+package io.github.kawaxte.presence;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code DiscordCommandActor} class makes every call to {@link DiscordRPC} on one dedicated
+ * platform thread, which is fed by a lock-free queue.
+ * <p>
+ * Submitting a command never blocks: it is queued, and a {@link CompletableFuture} completed once
+ * the native call has returned is handed back. This keeps virtual threads from pinning their
+ * carrier thread in a native call, and threads from contending for the lock of the native library,
+ * which is then only ever entered by the thread of the actor.
+ * </p>
+ * <p>
+ * Presence updates and clears queued one after another are merged, so only the last one reaches
+ * the native library and the futures of all of them are completed with its outcome. Other commands
+ * are run in the order they were submitted, and presences are never merged across them.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordCommandActor implements Closeable {
+
+  private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+  private final List<CompletableFuture<Void>> merged = new ArrayList<>();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder mergedCount = new LongAdder();
+  private final LongAdder executed = new LongAdder();
+  private final Thread thread;
+  private volatile boolean waiting;
+  private volatile boolean closed;
+  private volatile boolean terminated;
+
+  /**
+   * Constructs a new {@code DiscordCommandActor} and starts its thread.
+   */
+  public DiscordCommandActor() {
+    this.thread = new Thread(this::run, "discord-rpc-command-actor");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#initialise(String, DiscordEventHandlers, boolean, String)}.
+   *
+   * @param applicationId   The application ID of the application to be initialised.
+   * @param handlers        The event handlers to be registered with the Rich Presence.
+   * @param autoRegister    Whether or not to automatically register the application with Discord.
+   * @param optionalSteamId The Steam ID of the game to be initialised. This can be {@code null}.
+   * @return The {@code CompletableFuture} completed once the call has returned.
+   * @throws NullPointerException  if {@code applicationId} or {@code handlers} is {@code null}.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> initialise(final String applicationId,
+      final DiscordEventHandlers handlers, final boolean autoRegister,
+      final String optionalSteamId) {
+    Objects.requireNonNull(applicationId, "applicationId must not be null");
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    return this.submit(false,
+        () -> DiscordRPC.initialise(applicationId, handlers, autoRegister, optionalSteamId));
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#shutdown()}.
+   *
+   * @return The {@code CompletableFuture} completed once the call has returned.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> shutdown() {
+    return this.submit(false, DiscordRPC::shutdown);
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#runCallbacks()}, so that the callbacks are run on the
+   * thread of the actor.
+   *
+   * @return The {@code CompletableFuture} completed once the callbacks have been run.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> runCallbacks() {
+    return this.submit(false, DiscordRPC::runCallbacks);
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#updatePresence(DiscordRichPresence)}.
+   *
+   * @param presence The {@code DiscordRichPresence} object to be updated, which must not be changed
+   *                 until the returned future is completed.
+   * @return The {@code CompletableFuture} completed once the presence, or a presence queued after
+   * it, has been sent.
+   * @throws NullPointerException  if {@code presence} is {@code null}.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> updatePresence(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+
+    return this.submit(true, () -> DiscordRPC.updatePresence(presence));
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#clearPresence()}.
+   *
+   * @return The {@code CompletableFuture} completed once the presence has been cleared, or a
+   * presence queued after the clear has been sent.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> clearPresence() {
+    return this.submit(true, DiscordRPC::clearPresence);
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#respond(String, int)}.
+   *
+   * @param userId The user ID of the user to respond to.
+   * @param reply  The reply to the join request.
+   * @return The {@code CompletableFuture} completed once the reply has been sent.
+   * @throws NullPointerException     if {@code userId} is {@code null}.
+   * @throws IllegalArgumentException if {@code reply} is not between 0 and 2.
+   * @throws IllegalStateException    if the actor has been closed.
+   */
+  public CompletableFuture<Void> respond(final String userId, int reply) {
+    Objects.requireNonNull(userId, "userId must not be null");
+    if (reply < DiscordRPC.REPLY_NO || reply > DiscordRPC.REPLY_IGNORE) {
+      throw new IllegalArgumentException("reply must be between 0 and 2");
+    }
+
+    return this.submit(false, () -> DiscordRPC.respond(userId, reply));
+  }
+
+  /**
+   * Queues a call to {@link DiscordRPC#updateHandlers(DiscordEventHandlers)}.
+   *
+   * @param handlers The event handlers to be updated.
+   * @return The {@code CompletableFuture} completed once the handlers have been updated.
+   * @throws NullPointerException  if {@code handlers} is {@code null}.
+   * @throws IllegalStateException if the actor has been closed.
+   */
+  public CompletableFuture<Void> updateHandlers(final DiscordEventHandlers handlers) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    return this.submit(false, () -> DiscordRPC.updateHandlers(handlers));
+  }
+
+  /**
+   * Returns the number of commands submitted.
+   *
+   * @return The number of submitted commands.
+   */
+  public long getSubmittedCount() {
+    return this.submitted.sum();
+  }
+
+  /**
+   * Returns the number of presence commands that were not run because a later one was merged into
+   * them.
+   *
+   * @return The number of merged commands.
+   */
+  public long getMergedCount() {
+    return this.mergedCount.sum();
+  }
+
+  /**
+   * Returns the number of commands run.
+   *
+   * @return The number of executed commands.
+   */
+  public long getExecutedCount() {
+    return this.executed.sum();
+  }
+
+  /**
+   * Stops the actor once the commands already queued have been run. Commands can no longer be
+   * submitted afterwards.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.thread);
+  }
+
+  private CompletableFuture<Void> submit(boolean presence, final Runnable action) {
+    if (this.closed) {
+      throw new IllegalStateException("Command actor is closed");
+    }
+
+    Command command = new Command(presence, action);
+    this.commands.add(command);
+    this.submitted.increment();
+    if (this.waiting) {
+      LockSupport.unpark(this.thread);
+    }
+    if (this.terminated && this.commands.remove(command)) {
+      // closed concurrently, after the thread took the last commands
+      command.future.completeExceptionally(new IllegalStateException("Command actor is closed"));
+    }
+    return command.future;
+  }
+
+  private void run() {
+    while (true) {
+      Command command = this.commands.poll();
+      if (command == null) {
+        if (this.closed) {
+          break;
+        }
+        this.waiting = true;
+        if (this.commands.isEmpty() && !this.closed) {
+          LockSupport.park(this);
+        }
+        this.waiting = false;
+        continue;
+      }
+
+      if (command.presence) {
+        // only this thread removes commands, so the head can be peeked before it is taken
+        for (Command next; (next = this.commands.peek()) != null && next.presence; ) {
+          this.commands.poll();
+          this.merged.add(command.future);
+          this.mergedCount.increment();
+          command = next;
+        }
+      }
+      this.execute(command);
+    }
+
+    this.terminated = true;
+    for (Command command; (command = this.commands.poll()) != null; ) {
+      this.execute(command);
+    }
+  }
+
+  private void execute(final Command command) {
+    Throwable failure = null;
+    try {
+      command.action.run();
+    } catch (RuntimeException | Error e) {
+      failure = e;
+    }
+    this.executed.increment();
+
+    this.merged.add(command.future);
+    for (CompletableFuture<Void> future : this.merged) {
+      if (failure == null) {
+        future.complete(null);
+      } else {
+        future.completeExceptionally(failure);
+      }
+    }
+    this.merged.clear();
+  }
+
+  /**
+   * The {@code Command} class holds a call to {@link DiscordRPC} waiting to be run.
+   */
+  private static final class Command {
+
+    private final boolean presence;
+    private final Runnable action;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private Command(boolean presence, final Runnable action) {
+      this.presence = presence;
+      this.action = action;
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DiscordConnectionSupervisor} class tracks the connection to Discord and restores the
+ * Rich Presence as soon as the connection is established again.
+ * <p>
+ * When Discord restarts, the native library reconnects on its own, but the presence is lost until
+ * the application sends it again. The supervisor remembers the last presence sent through it, and
+ * sends it again from the ready callback, before the ready callback of the application is run. The
+ * handlers returned by {@link #getHandlers()} are to be passed to {@link DiscordRPC} instead of the
+ * handlers of the application.
+ * </p>
+ * <p>
+ * An optional watchdog, started using {@link #startWatchdog}, checks on a
+ * {@link DiscordTimerWheel} whether the callbacks are still being run and whether the connection
+ * has been down for too long.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordConnectionSupervisor {
+
+  private final DiscordEventHandlers target;
+  private final DiscordEventHandlers handlers = new DiscordEventHandlers();
+  private final Object presenceLock = new Object();
+  private final DiscordLatencyHistogram timeToPresence = new DiscordLatencyHistogram();
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder disconnections = new LongAdder();
+  private final LongAdder replays = new LongAdder();
+  private volatile EConnectionState state = EConnectionState.CONNECTING;
+  private volatile long stateNanos = System.nanoTime();
+  private volatile long disconnectedNanos;
+  private volatile long lastOutageNanos;
+  private volatile long readyNanos;
+  private volatile boolean awaitingPresence;
+  private volatile boolean pumpStalled;
+  private volatile boolean connectionSilent;
+  private DiscordRichPresence lastPresence;
+  private DiscordTimerWheel.Timeout watchdog;
+  private long watchdogGeneration;
+
+  /**
+   * Constructs a new {@code DiscordConnectionSupervisor}.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application, whose callbacks are
+   *                 run after the supervisor has handled the event.
+   * @throws NullPointerException if {@code handlers} is {@code null}.
+   */
+  public DiscordConnectionSupervisor(final DiscordEventHandlers handlers) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    this.target = handlers;
+    this.handlers.ready = this::onReady;
+    this.handlers.disconnected = this::onDisconnected;
+    this.handlers.errored = handlers.errored;
+    this.handlers.joinGame = handlers.joinGame;
+    this.handlers.spectateGame = handlers.spectateGame;
+    this.handlers.joinRequest = handlers.joinRequest;
+  }
+
+  /**
+   * Returns the handlers to be passed to {@link DiscordRPC#initialise(String, DiscordEventHandlers,
+   * boolean, String)} or {@link DiscordRPC#updateHandlers(DiscordEventHandlers)}.
+   *
+   * @return The {@code DiscordEventHandlers} object tracking the connection.
+   */
+  public DiscordEventHandlers getHandlers() {
+    return this.handlers;
+  }
+
+  /**
+   * Sends a presence using {@link DiscordRPC#updatePresence(DiscordRichPresence)}, and remembers a
+   * copy of it to send again when the connection is established again. This method can be used as the sink
+   * of a {@link DiscordPresenceScheduler}, {@link DiscordPresenceCompositor} or
+   * {@link DiscordPresenceTimeline}.
+   *
+   * @param presence The {@code DiscordRichPresence} object to send.
+   * @throws NullPointerException if {@code presence} is {@code null}.
+   */
+  public void updatePresence(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+
+    synchronized (this.presenceLock) {
+      this.lastPresence = new DiscordRichPresence.Builder(presence).build();
+      DiscordRPC.updatePresence(presence);
+      this.onPresenceSent();
+    }
+  }
+
+  /**
+   * Sends a presence using {@link DiscordRPC#updatePresence(DiscordPresenceBuffer)}, and remembers
+   * a copy of its contents at that time to send again when the connection is established again.
+   *
+   * @param buffer The {@code DiscordPresenceBuffer} object to send.
+   * @throws NullPointerException if {@code buffer} is {@code null}.
+   */
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    Objects.requireNonNull(buffer, "buffer must not be null");
+
+    synchronized (this.presenceLock) {
+      this.lastPresence = buffer.toRichPresence();
+      DiscordRPC.updatePresence(buffer);
+      this.onPresenceSent();
+    }
+  }
+
+  /**
+   * Clears the presence using {@link DiscordRPC#clearPresence()}, so that nothing is sent when the
+   * connection is established again.
+   */
+  public void clearPresence() {
+    synchronized (this.presenceLock) {
+      this.lastPresence = null;
+      DiscordRPC.clearPresence();
+    }
+  }
+
+  /**
+   * Starts checking periodically whether the callbacks are still being run and whether the
+   * connection has been down for too long, notifying the given listener when either happens. The
+   * checks only read a few timestamps, so they can run often.
+   *
+   * @param stallTimeout   The time without the callbacks being run after which the pump is
+   *                       considered stalled.
+   * @param silenceTimeout The time without a connection after which the connection is considered
+   *                       silent.
+   * @param unit           The {@code TimeUnit} of both timeouts.
+   * @param wheel          The {@code DiscordTimerWheel} object the checks are scheduled on.
+   * @param listener       The {@code IDiscordWatchdogListener} object to notify.
+   * @throws NullPointerException     if {@code unit}, {@code wheel} or {@code listener} is
+   *                                  {@code null}.
+   * @throws IllegalArgumentException if {@code stallTimeout} or {@code silenceTimeout} is not
+   *                                  positive.
+   * @throws IllegalStateException    if the watchdog is already running.
+   */
+  public synchronized void startWatchdog(long stallTimeout, long silenceTimeout,
+      final TimeUnit unit, final DiscordTimerWheel wheel,
+      final IDiscordWatchdogListener listener) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    Objects.requireNonNull(wheel, "wheel must not be null");
+    Objects.requireNonNull(listener, "listener must not be null");
+    if (stallTimeout <= 0L || silenceTimeout <= 0L) {
+      throw new IllegalArgumentException("stallTimeout and silenceTimeout must be positive");
+    }
+    if (this.watchdog != null) {
+      throw new IllegalStateException("Watchdog is already running");
+    }
+
+    long stallNanos = unit.toNanos(stallTimeout);
+    long silenceNanos = unit.toNanos(silenceTimeout);
+    long periodNanos = Math.max(Math.min(stallNanos, silenceNanos) / 2L, 1L);
+    this.scheduleCheck(++this.watchdogGeneration, wheel, periodNanos, stallNanos, silenceNanos,
+        listener);
+  }
+
+  /**
+   * Stops the watchdog, if it is running.
+   */
+  public synchronized void stopWatchdog() {
+    if (this.watchdog != null) {
+      this.watchdog.cancel();
+      this.watchdog = null;
+    }
+    this.watchdogGeneration++;
+    this.pumpStalled = false;
+    this.connectionSilent = false;
+  }
+
+  /**
+   * Returns the state of the connection.
+   *
+   * @return The {@code EConnectionState} of the connection.
+   */
+  public EConnectionState getState() {
+    return this.state;
+  }
+
+  /**
+   * Returns how long the connection has been in its current state.
+   *
+   * @param unit The {@code TimeUnit} of the returned time.
+   * @return The time since the state last changed.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getTimeInState(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    return unit.convert(System.nanoTime() - this.stateNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the total time the connection has been lost for, including the current outage.
+   *
+   * @param unit The {@code TimeUnit} of the returned time.
+   * @return The time spent disconnected.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getTimeDisconnected(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    long nanos = this.disconnectedNanos;
+    if (this.state == EConnectionState.DISCONNECTED) {
+      nanos += System.nanoTime() - this.stateNanos;
+    }
+    return unit.convert(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns how long the connection was lost for the last time it was established again.
+   *
+   * @param unit The {@code TimeUnit} of the returned time.
+   * @return The duration of the last outage, or {@code 0} if there has been none.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getLastOutage(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    return unit.convert(this.lastOutageNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the times between the connection being established and a presence being sent, which
+   * is the time the remembered presence took to be sent again, or the time until the application
+   * sent one if there was none.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  public DiscordLatencySnapshot getTimeToPresence() {
+    return this.timeToPresence.snapshot();
+  }
+
+  /**
+   * Returns the number of times the connection has been established.
+   *
+   * @return The number of ready events.
+   */
+  public long getConnectionCount() {
+    return this.connections.sum();
+  }
+
+  /**
+   * Returns the number of times the connection has been lost.
+   *
+   * @return The number of disconnected events.
+   */
+  public long getDisconnectionCount() {
+    return this.disconnections.sum();
+  }
+
+  /**
+   * Returns the number of times the remembered presence has been sent again.
+   *
+   * @return The number of replays.
+   */
+  public long getReplayCount() {
+    return this.replays.sum();
+  }
+
+  /**
+   * Returns whether the watchdog last found the callbacks not being run.
+   *
+   * @return {@code true} if the pump is stalled, {@code false} otherwise.
+   */
+  public boolean isPumpStalled() {
+    return this.pumpStalled;
+  }
+
+  /**
+   * Returns whether the watchdog last found the connection down for too long.
+   *
+   * @return {@code true} if the connection is silent, {@code false} otherwise.
+   */
+  public boolean isConnectionSilent() {
+    return this.connectionSilent;
+  }
+
+  private void onReady(final DiscordUser request) {
+    long now = System.nanoTime();
+    if (this.state == EConnectionState.DISCONNECTED) {
+      this.lastOutageNanos = now - this.stateNanos;
+      this.disconnectedNanos += this.lastOutageNanos;
+    }
+    this.setState(EConnectionState.CONNECTED, now);
+    this.connections.increment();
+
+    synchronized (this.presenceLock) {
+      this.readyNanos = now;
+      this.awaitingPresence = true;
+      DiscordRichPresence presence = this.lastPresence;
+      if (presence != null) {
+        DiscordRPC.updatePresence(presence);
+        this.replays.increment();
+        this.onPresenceSent();
+      }
+    }
+
+    DiscordEventHandlers.IReadyCallback ready = this.target.ready;
+    if (ready != null) {
+      ready.onReady(request);
+    }
+  }
+
+  private void onDisconnected(int errorCode, final String message) {
+    if (this.state != EConnectionState.DISCONNECTED) {
+      this.setState(EConnectionState.DISCONNECTED, System.nanoTime());
+      this.disconnections.increment();
+    }
+
+    DiscordEventHandlers.IDisconnectedCallback disconnected = this.target.disconnected;
+    if (disconnected != null) {
+      disconnected.onDisconnected(errorCode, message);
+    }
+  }
+
+  private void setState(final EConnectionState state, long nanos) {
+    this.stateNanos = nanos;
+    this.state = state;
+  }
+
+  /**
+   * Records the time to presence if this is the first presence sent since the connection was
+   * established. Must be called while holding the presence lock.
+   */
+  private void onPresenceSent() {
+    if (this.awaitingPresence) {
+      this.awaitingPresence = false;
+      this.timeToPresence.record(System.nanoTime() - this.readyNanos);
+    }
+  }
+
+  /**
+   * Schedules the next check of the watchdog, unless it has been stopped or started again since.
+   *
+   * @param generation The generation of the watchdog the check belongs to.
+   */
+  private synchronized void scheduleCheck(long generation, final DiscordTimerWheel wheel,
+      long periodNanos, long stallNanos, long silenceNanos,
+      final IDiscordWatchdogListener listener) {
+    if (generation != this.watchdogGeneration) {
+      return;
+    }
+
+    this.watchdog = wheel.schedule(() -> {
+      this.check(stallNanos, silenceNanos, listener);
+      this.scheduleCheck(generation, wheel, periodNanos, stallNanos, silenceNanos, listener);
+    }, periodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void check(long stallNanos, long silenceNanos,
+      final IDiscordWatchdogListener listener) {
+    long now = System.nanoTime();
+
+    long stalledNanos = now - DiscordRPC.getLastRunCallbacksNanos();
+    boolean stalled = stalledNanos > stallNanos;
+    if (stalled && !this.pumpStalled) {
+      listener.onPumpStalled(TimeUnit.NANOSECONDS.toMillis(stalledNanos));
+    }
+    this.pumpStalled = stalled;
+
+    long silentNanos = now - this.stateNanos;
+    boolean silent = this.state != EConnectionState.CONNECTED && silentNanos > silenceNanos;
+    if (silent && !this.connectionSilent) {
+      listener.onConnectionSilent(TimeUnit.NANOSECONDS.toMillis(silentNanos));
+    }
+    this.connectionSilent = silent;
+  }
+}
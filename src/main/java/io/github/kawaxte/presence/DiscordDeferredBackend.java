@@ -0,0 +1,285 @@
+package io.github.kawaxte.presence;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The {@code DiscordDeferredBackend} class stands in for the backend while no Discord client is
+ * running, so that machines without Discord, such as servers and build agents, neither extract
+ * nor load the native library, nor start the thread of the native library trying to connect.
+ * <p>
+ * Whether a client is running is told by whether any of the {@code discord-ipc-N} endpoints it
+ * listens on exists, which takes a few file lookups. While none does, every call returns right
+ * away, only remembering the arguments of
+ * {@link #initialise(String, DiscordEventHandlers, boolean, String)}, the event handlers and the
+ * last presence. A daemon thread then looks the endpoints up every
+ * {@value #CHECK_INTERVAL_MILLIS} milliseconds, and once one appears, creates the backend,
+ * initialises it and sends it the last presence, after which every call is forwarded to it.
+ * </p>
+ * <p>
+ * It is put in place of the backend unless the {@code discord-rpc.defer} system property is set
+ * to {@code false}, and only if no client is running when the backend is first needed.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+final class DiscordDeferredBackend implements IDiscordBackend {
+
+  static final String DEFER_PROPERTY = "discord-rpc.defer";
+  static final long CHECK_INTERVAL_MILLIS = 2000L;
+
+  private final Supplier<IDiscordBackend> supplier;
+  private final Object lock = new Object();
+  private final ScheduledThreadPoolExecutor watcher;
+  private volatile IDiscordBackend active;
+  private IDiscordBackend backend;
+  private ScheduledFuture<?> check;
+  private String applicationId;
+  private DiscordEventHandlers handlers;
+  private boolean autoRegister;
+  private String optionalSteamId;
+  private DiscordRichPresence presence;
+
+  /**
+   * Constructs a new {@code DiscordDeferredBackend}.
+   *
+   * @param supplier The {@code Supplier} of the backend, which is only called once a client is
+   *                 running, or the application is registered.
+   */
+  DiscordDeferredBackend(final Supplier<IDiscordBackend> supplier) {
+    this.supplier = supplier;
+    this.watcher = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "discord-rpc-client-watcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.watcher.setKeepAliveTime(CHECK_INTERVAL_MILLIS * 2L, TimeUnit.MILLISECONDS);
+    this.watcher.allowCoreThreadTimeOut(true);
+    this.watcher.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the backend returned by the given supplier if a Discord client is running, or if
+   * deferring is disabled by the {@code discord-rpc.defer} system property, or a
+   * {@code DiscordDeferredBackend} calling the supplier once a client runs otherwise.
+   *
+   * @param supplier The {@code Supplier} of the backend.
+   * @return The {@code IDiscordBackend} object to be used by {@link DiscordRPC}.
+   */
+  static IDiscordBackend defer(final Supplier<IDiscordBackend> supplier) {
+    if ("false".equalsIgnoreCase(System.getProperty(DEFER_PROPERTY)) || isClientRunning()) {
+      return supplier.get();
+    }
+    return new DiscordDeferredBackend(supplier);
+  }
+
+  /**
+   * Returns whether or not a Discord client is running, which is when any of the endpoints it
+   * listens on exists: the named pipes {@code \\?\pipe\discord-ipc-N} on Windows, or the sockets
+   * returned by {@link DiscordIpcBackend#getIpcPaths()} elsewhere.
+   *
+   * @return {@code true} if an endpoint exists, {@code false} otherwise.
+   */
+  static boolean isClientRunning() {
+    if (DiscordRPC.EPlatform.getPlatform() == DiscordRPC.EPlatform.WINDOWS) {
+      for (int i = 0; i < 10; i++) {
+        if (new File(String.format("\\\\?\\pipe\\discord-ipc-%d", i)).exists()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    for (Path path : DiscordIpcBackend.getIpcPaths()) {
+      if (Files.exists(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    synchronized (this.lock) {
+      IDiscordBackend active = this.active;
+      if (active != null) {
+        active.initialise(applicationId, handlers, autoRegister, optionalSteamId);
+        return;
+      }
+
+      this.applicationId = applicationId;
+      this.handlers = handlers;
+      this.autoRegister = autoRegister;
+      this.optionalSteamId = optionalSteamId;
+      if (isClientRunning()) {
+        this.activate();
+      } else if (this.check == null) {
+        this.check = this.watcher.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS,
+            CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    synchronized (this.lock) {
+      IDiscordBackend active = this.active;
+      if (active != null) {
+        // the next initialisation checks whether a client is still running
+        active.shutdown();
+        this.active = null;
+      }
+      this.stopChecking();
+      this.applicationId = null;
+      this.handlers = null;
+      this.presence = null;
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    IDiscordBackend active = this.active;
+    if (active != null) {
+      active.runCallbacks();
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    IDiscordBackend active = this.active;
+    if (active == null) {
+      synchronized (this.lock) {
+        active = this.active;
+        if (active == null) {
+          this.presence = new DiscordRichPresence.Builder(presence).build();
+          return;
+        }
+      }
+    }
+    active.updatePresence(presence);
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    IDiscordBackend active = this.active;
+    if (active == null) {
+      synchronized (this.lock) {
+        active = this.active;
+        if (active == null) {
+          // the buffer belongs to the thread of the caller, and may be closed by the time a client
+          // runs, so its values are copied
+          this.presence = buffer.toRichPresence();
+          return;
+        }
+      }
+    }
+    active.updatePresence(buffer);
+  }
+
+  @Override
+  public void clearPresence() {
+    IDiscordBackend active = this.active;
+    if (active == null) {
+      synchronized (this.lock) {
+        active = this.active;
+        if (active == null) {
+          this.presence = null;
+          return;
+        }
+      }
+    }
+    active.clearPresence();
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    IDiscordBackend active = this.active;
+    if (active != null) {
+      active.respond(userId, reply);
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    IDiscordBackend active = this.active;
+    if (active == null) {
+      synchronized (this.lock) {
+        active = this.active;
+        if (active == null) {
+          this.handlers = handlers;
+          return;
+        }
+      }
+    }
+    active.updateHandlers(handlers);
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    this.getBackend().register(applicationId, command);
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    this.getBackend().registerSteamGame(applicationId, steamId);
+  }
+
+  private IDiscordBackend getBackend() {
+    synchronized (this.lock) {
+      if (this.backend == null) {
+        this.backend = this.supplier.get();
+      }
+      return this.backend;
+    }
+  }
+
+  /**
+   * Switches to the backend once a client runs, on the thread of the watcher.
+   */
+  private void check() {
+    if (!isClientRunning()) {
+      return;
+    }
+
+    synchronized (this.lock) {
+      if (this.applicationId != null && this.active == null) {
+        try {
+          this.activate();
+        } catch (RuntimeException re) {
+          // the backend cannot be created or initialised, such as when the native library cannot
+          // be extracted, so the calls keep being ignored until the next check succeeds
+          return;
+        }
+      }
+      this.stopChecking();
+    }
+  }
+
+  /**
+   * Creates and initialises the backend, and sends it the last presence.
+   */
+  private void activate() {
+    IDiscordBackend backend = this.getBackend();
+    backend.initialise(this.applicationId, this.handlers, this.autoRegister,
+        this.optionalSteamId);
+    if (this.presence != null) {
+      backend.updatePresence(this.presence);
+    }
+    this.presence = null;
+    this.active = backend;
+  }
+
+  private void stopChecking() {
+    if (this.check != null) {
+      this.check.cancel(false);
+      this.check = null;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code DiscordEvent} class is an immutable copy of the data passed to one of the callbacks of
+ * {@link DiscordEventHandlers}, which can outlive the native callback it was received in.
+ *
+ * @author Kawaxte
+ * @see DiscordEventDispatcher
+ */
+final class DiscordEvent {
+
+  final EType type;
+  final String userId;
+  final String username;
+  final String discriminator;
+  final String avatar;
+  final int errorCode;
+  final String text;
+
+  /**
+   * Constructs a new {@code DiscordEvent}.
+   *
+   * @param type      The type of the event.
+   * @param user      The {@code DiscordUser} object passed to the callback, or {@code null}.
+   * @param errorCode The error code passed to the callback, or {@code 0}.
+   * @param text      The message or secret passed to the callback, or {@code null}.
+   */
+  private DiscordEvent(final EType type, final DiscordUser user, int errorCode,
+      final String text) {
+    this.type = type;
+    this.userId = user != null ? user.userId : null;
+    this.username = user != null ? user.username : null;
+    this.discriminator = user != null ? user.discriminator : null;
+    this.avatar = user != null ? user.avatar : null;
+    this.errorCode = errorCode;
+    this.text = text;
+  }
+
+  static DiscordEvent ofUser(final EType type, final DiscordUser user) {
+    return new DiscordEvent(type, user, 0, null);
+  }
+
+  static DiscordEvent ofError(final EType type, int errorCode, final String message) {
+    return new DiscordEvent(type, null, errorCode, message);
+  }
+
+  static DiscordEvent ofSecret(final EType type, final String secret) {
+    return new DiscordEvent(type, null, 0, secret);
+  }
+
+  /**
+   * Returns whether this event replaces the given queued event when events are coalesced.
+   *
+   * @param other The {@code DiscordEvent} object already queued.
+   * @return {@code true} if this event replaces {@code other}, {@code false} otherwise.
+   */
+  boolean supersedes(final DiscordEvent other) {
+    if (this.type != other.type) {
+      return false;
+    }
+    return this.type != EType.JOIN_REQUEST
+        || this.userId != null && this.userId.equals(other.userId);
+  }
+
+  /**
+   * Creates a new {@code DiscordUser} holding the user of this event, to be passed to the
+   * callbacks of the application.
+   *
+   * @return The {@code DiscordUser} object.
+   */
+  DiscordUser toUser() {
+    DiscordUser user = new DiscordUser();
+    user.userId = this.userId;
+    user.username = this.username;
+    user.discriminator = this.discriminator;
+    user.avatar = this.avatar;
+    return user;
+  }
+
+  /**
+   * The {@code EType} enum represents the callback of {@link DiscordEventHandlers} an event was
+   * received in.
+   *
+   * @author Kawaxte
+   */
+  enum EType {
+    READY("ready"),
+    DISCONNECTED("disconnected"),
+    ERRORED("errored"),
+    JOIN_GAME("joinGame"),
+    SPECTATE_GAME("spectateGame"),
+    JOIN_REQUEST("joinRequest");
+
+    private final String fieldName;
+
+    /**
+     * Constructs a new {@code EType}.
+     *
+     * @param fieldName The name of the matching field in {@link DiscordEventHandlers}.
+     */
+    EType(String fieldName) {
+      this.fieldName = fieldName;
+    }
+
+    /**
+     * Returns the name of the matching field in {@link DiscordEventHandlers}.
+     *
+     * @return The name of the field.
+     */
+    String getFieldName() {
+      return this.fieldName;
+    }
+  }
+}
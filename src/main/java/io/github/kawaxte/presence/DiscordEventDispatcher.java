@@ -0,0 +1,429 @@
+package io.github.kawaxte.presence;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code DiscordEventDispatcher} class runs the callbacks of {@link DiscordEventHandlers} on an
+ * executor instead of the thread calling {@link DiscordRPC#runCallbacks()}.
+ * <p>
+ * The handlers returned by {@link #getHandlers()} are to be passed to {@link DiscordRPC} instead of
+ * the handlers of the application. They copy the data of every event into an immutable event,
+ * queue it and return at once. The queued events are then handed to the handlers of the
+ * application one at a time and in order, so the handlers do not need to be thread-safe. The
+ * queue is bounded, and the {@link EOverflowPolicy} decides what happens when it is full.
+ * </p>
+ * <p>
+ * By default, the events are handed over on a virtual thread on Java 21 or later, and on a daemon
+ * thread otherwise. If the executor rejects the task, they are handed over on the thread which
+ * received them instead. The dispatcher should be closed using {@link #close()} once it is no
+ * longer needed.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordEventDispatcher implements Closeable {
+
+  /**
+   * The default number of events that can be queued.
+   */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private final DiscordEventHandlers target;
+  private final DiscordEventHandlers handlers = new DiscordEventHandlers();
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private final int capacity;
+  private final EOverflowPolicy policy;
+  private final Deque<DiscordEvent> queue = new ArrayDeque<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = this.lock.newCondition();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder dispatched = new LongAdder();
+  private final LongAdder handlerNanos = new LongAdder();
+  private final LongAccumulator maxHandlerNanos = new LongAccumulator(Math::max, 0L);
+  private boolean draining;
+  private boolean closed;
+
+  /**
+   * Constructs a new {@code DiscordEventDispatcher} which queues up to {@link #DEFAULT_CAPACITY}
+   * events, drops the oldest one when full, and hands them to the given handlers on a thread of
+   * its own.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @throws NullPointerException if {@code handlers} is {@code null}.
+   */
+  public DiscordEventDispatcher(final DiscordEventHandlers handlers) {
+    this(handlers, null, DEFAULT_CAPACITY, EOverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Constructs a new {@code DiscordEventDispatcher}.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @param executor The {@code Executor} the events are handed over on, or {@code null} to use a
+   *                 thread of the dispatcher's own. The executor is not shut down when the
+   *                 dispatcher is closed.
+   * @param capacity The number of events that can be queued.
+   * @param policy   The {@code EOverflowPolicy} applied when the queue is full.
+   * @throws NullPointerException     if {@code handlers} or {@code policy} is {@code null}.
+   * @throws IllegalArgumentException if {@code capacity} is not positive.
+   */
+  public DiscordEventDispatcher(final DiscordEventHandlers handlers, final Executor executor,
+      int capacity, final EOverflowPolicy policy) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+    Objects.requireNonNull(policy, "policy must not be null");
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+
+    this.target = handlers;
+    this.ownedExecutor = executor == null ? newDefaultExecutor() : null;
+    this.executor = executor != null ? executor : this.ownedExecutor;
+    this.capacity = capacity;
+    this.policy = policy;
+
+    if (handlers.ready != null) {
+      this.handlers.ready = user -> this.offer(
+          DiscordEvent.ofUser(DiscordEvent.EType.READY, user));
+    }
+    if (handlers.disconnected != null) {
+      this.handlers.disconnected = (errorCode, message) -> this.offer(
+          DiscordEvent.ofError(DiscordEvent.EType.DISCONNECTED, errorCode, message));
+    }
+    if (handlers.errored != null) {
+      this.handlers.errored = (errorCode, message) -> this.offer(
+          DiscordEvent.ofError(DiscordEvent.EType.ERRORED, errorCode, message));
+    }
+    if (handlers.joinGame != null) {
+      this.handlers.joinGame = joinSecret -> this.offer(
+          DiscordEvent.ofSecret(DiscordEvent.EType.JOIN_GAME, joinSecret));
+    }
+    if (handlers.spectateGame != null) {
+      this.handlers.spectateGame = spectateSecret -> this.offer(
+          DiscordEvent.ofSecret(DiscordEvent.EType.SPECTATE_GAME, spectateSecret));
+    }
+    if (handlers.joinRequest != null) {
+      this.handlers.joinRequest = user -> this.offer(
+          DiscordEvent.ofUser(DiscordEvent.EType.JOIN_REQUEST, user));
+    }
+  }
+
+  /**
+   * Returns the handlers to be passed to {@link DiscordRPC#initialise(String, DiscordEventHandlers,
+   * boolean, String)} or {@link DiscordRPC#updateHandlers(DiscordEventHandlers)}.
+   * <p>
+   * Only the callbacks set on the handlers of the application when the dispatcher was constructed
+   * are set, so Discord is only asked for the events the application handles.
+   * </p>
+   *
+   * @return The {@code DiscordEventHandlers} object queuing the events.
+   */
+  public DiscordEventHandlers getHandlers() {
+    return this.handlers;
+  }
+
+  /**
+   * Stops queuing events and drops the queued ones. The thread of the dispatcher, if any, is shut
+   * down.
+   */
+  @Override
+  public void close() {
+    this.lock.lock();
+    try {
+      this.closed = true;
+      this.queue.clear();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+    if (this.ownedExecutor != null) {
+      this.ownedExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of events waiting to be handed over.
+   *
+   * @return The queue depth.
+   */
+  public int getQueueDepth() {
+    this.lock.lock();
+    try {
+      return this.queue.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of events received from Discord.
+   *
+   * @return The number of received events.
+   */
+  public long getReceivedCount() {
+    return this.received.sum();
+  }
+
+  /**
+   * Returns the number of events dropped because the queue was full.
+   *
+   * @return The number of dropped events.
+   */
+  public long getDroppedCount() {
+    return this.dropped.sum();
+  }
+
+  /**
+   * Returns the number of queued events replaced by a newer one using
+   * {@link EOverflowPolicy#COALESCE}.
+   *
+   * @return The number of coalesced events.
+   */
+  public long getCoalescedCount() {
+    return this.coalesced.sum();
+  }
+
+  /**
+   * Returns the number of events handed to the handlers of the application.
+   *
+   * @return The number of dispatched events.
+   */
+  public long getDispatchedCount() {
+    return this.dispatched.sum();
+  }
+
+  /**
+   * Returns the average time spent in the handlers of the application per event.
+   *
+   * @param unit The {@code TimeUnit} of the returned time.
+   * @return The average handler latency, or {@code 0} if no event has been dispatched yet.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getAverageHandlerTime(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    long dispatched = this.dispatched.sum();
+    return dispatched == 0L
+        ? 0L
+        : unit.convert(this.handlerNanos.sum() / dispatched, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the longest time spent in the handlers of the application for a single event.
+   *
+   * @param unit The {@code TimeUnit} of the returned time.
+   * @return The maximum handler latency.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public long getMaxHandlerTime(final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+
+    return unit.convert(this.maxHandlerNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Queues an event received in a native callback, applying the overflow policy if the queue is
+   * full, and starts handing the queued events over unless it has already been started.
+   *
+   * @param event The {@code DiscordEvent} object to queue.
+   */
+  private void offer(final DiscordEvent event) {
+    this.received.increment();
+    DiscordCallbackPump.signalActivity();
+
+    boolean drain;
+    this.lock.lock();
+    try {
+      if (this.closed) {
+        return;
+      }
+      if (!this.enqueue(event)) {
+        return;
+      }
+
+      drain = !this.draining;
+      this.draining = true;
+    } finally {
+      this.lock.unlock();
+    }
+
+    if (drain) {
+      try {
+        this.executor.execute(this::drain);
+      } catch (RejectedExecutionException ree) {
+        // the events are handed over on this thread rather than left queued, where they would
+        // never be drained and would block the next event forever under EOverflowPolicy.BLOCK
+        this.drain();
+      }
+    }
+  }
+
+  /**
+   * Adds an event to the queue according to the overflow policy. Must be called holding the lock.
+   *
+   * @param event The {@code DiscordEvent} object to queue.
+   * @return {@code true} if the event has been added, {@code false} if it has replaced a queued
+   * event or if the dispatcher has been closed while waiting.
+   */
+  private boolean enqueue(final DiscordEvent event) {
+    switch (this.policy) {
+      case COALESCE:
+        for (Iterator<DiscordEvent> it = this.queue.iterator(); it.hasNext(); ) {
+          if (event.supersedes(it.next())) {
+            it.remove();
+            this.coalesced.increment();
+            break;
+          }
+        }
+        break;
+      case BLOCK:
+        boolean interrupted = false;
+        while (this.queue.size() >= this.capacity && !this.closed) {
+          try {
+            this.notFull.await();
+          } catch (InterruptedException ie) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        if (this.closed) {
+          return false;
+        }
+        break;
+      default:
+        break;
+    }
+
+    if (this.queue.size() >= this.capacity) {
+      this.queue.pollFirst();
+      this.dropped.increment();
+    }
+    this.queue.addLast(event);
+    return true;
+  }
+
+  /**
+   * Hands the queued events to the handlers of the application until the queue is empty.
+   */
+  private void drain() {
+    boolean drained = false;
+    try {
+      while (true) {
+        DiscordEvent event;
+        this.lock.lock();
+        try {
+          event = this.queue.pollFirst();
+          if (event == null) {
+            this.draining = false;
+            drained = true;
+            return;
+          }
+          this.notFull.signal();
+        } finally {
+          this.lock.unlock();
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+          this.dispatch(event);
+        } catch (Throwable t) {
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+        } finally {
+          long elapsedNanos = System.nanoTime() - startNanos;
+          this.handlerNanos.add(elapsedNanos);
+          this.maxHandlerNanos.accumulate(elapsedNanos);
+          this.dispatched.increment();
+        }
+      }
+    } finally {
+      if (!drained) {
+        // the next event starts draining again rather than waiting for this drain forever
+        this.lock.lock();
+        try {
+          this.draining = false;
+        } finally {
+          this.lock.unlock();
+        }
+      }
+    }
+  }
+
+  private void dispatch(final DiscordEvent event) {
+    DiscordEventHandlers handlers = this.target;
+    switch (event.type) {
+      case READY:
+        if (handlers.ready != null) {
+          handlers.ready.onReady(event.toUser());
+        }
+        break;
+      case DISCONNECTED:
+        if (handlers.disconnected != null) {
+          handlers.disconnected.onDisconnected(event.errorCode, event.text);
+        }
+        break;
+      case ERRORED:
+        if (handlers.errored != null) {
+          handlers.errored.onErrored(event.errorCode, event.text);
+        }
+        break;
+      case JOIN_GAME:
+        if (handlers.joinGame != null) {
+          handlers.joinGame.onJoinGame(event.text);
+        }
+        break;
+      case SPECTATE_GAME:
+        if (handlers.spectateGame != null) {
+          handlers.spectateGame.onSpectateGame(event.text);
+        }
+        break;
+      case JOIN_REQUEST:
+        if (handlers.joinRequest != null) {
+          handlers.joinRequest.onJoinRequest(event.toUser());
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Creates the executor used when the application does not supply one: a virtual thread per task
+   * on Java 21 or later, and a single daemon thread otherwise.
+   *
+   * @return The {@code ExecutorService} object.
+   */
+  private static ExecutorService newDefaultExecutor() {
+    if (DiscordBackends.getFeatureVersion() >= 21) {
+      try {
+        return (ExecutorService) Executors.class
+            .getMethod("newVirtualThreadPerTaskExecutor")
+            .invoke(null);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // platform threads are always available
+      }
+    }
+    return Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "discord-rpc-event-dispatcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
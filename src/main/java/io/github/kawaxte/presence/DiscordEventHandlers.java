@@ -21,6 +21,104 @@ public class DiscordEventHandlers extends Structure {
   public ISpectateGameCallback spectateGame;
   public IJoinRequestCallback joinRequest;
 
+  /**
+   * Wraps the callbacks of the given handlers so that the listener is notified of every event
+   * before and after it is passed on. Callbacks receiving a {@link DiscordUserView} keep receiving
+   * one, and the callbacks which are not set are left unset.
+   *
+   * @param handlers  The {@code DiscordEventHandlers} object of the application.
+   * @param listener  The {@code IDiscordEventListener} object notified of the events.
+   * @param notifyAll Whether the ready, disconnected and errored callbacks are set even if the
+   *                  application did not set them, which is free since they subscribe to
+   *                  nothing, so that the listener is notified of every such event.
+   * @return The wrapping {@code DiscordEventHandlers} object, which must be kept for as long as it
+   * is in use, since JNA only holds callbacks weakly.
+   */
+  static DiscordEventHandlers wrap(final DiscordEventHandlers handlers,
+      final IDiscordEventListener listener, boolean notifyAll) {
+    DiscordEventHandlers wrapped = new DiscordEventHandlers();
+
+    IReadyCallback ready = handlers.ready;
+    if (ready instanceof IReadyViewCallback) {
+      IReadyViewCallback view = (IReadyViewCallback) ready;
+      wrapped.ready = (IReadyViewCallback) user -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.READY, user, 0, null);
+        view.callback(user);
+        listener.afterEvent(DiscordEvent.EType.READY, context);
+      };
+    } else if (ready != null || notifyAll) {
+      wrapped.ready = user -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.READY,
+            user != null ? DiscordUserView.of(user) : null, 0, null);
+        if (ready != null) {
+          ready.onReady(user);
+        }
+        listener.afterEvent(DiscordEvent.EType.READY, context);
+      };
+    }
+
+    IDisconnectedCallback disconnected = handlers.disconnected;
+    if (disconnected != null || notifyAll) {
+      wrapped.disconnected = (errorCode, message) -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.DISCONNECTED, null, errorCode,
+            message);
+        if (disconnected != null) {
+          disconnected.onDisconnected(errorCode, message);
+        }
+        listener.afterEvent(DiscordEvent.EType.DISCONNECTED, context);
+      };
+    }
+
+    IErroredCallback errored = handlers.errored;
+    if (errored != null || notifyAll) {
+      wrapped.errored = (errorCode, message) -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.ERRORED, null, errorCode,
+            message);
+        if (errored != null) {
+          errored.onErrored(errorCode, message);
+        }
+        listener.afterEvent(DiscordEvent.EType.ERRORED, context);
+      };
+    }
+
+    IJoinGameCallback joinGame = handlers.joinGame;
+    if (joinGame != null) {
+      wrapped.joinGame = joinSecret -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.JOIN_GAME, null, 0, joinSecret);
+        joinGame.onJoinGame(joinSecret);
+        listener.afterEvent(DiscordEvent.EType.JOIN_GAME, context);
+      };
+    }
+
+    ISpectateGameCallback spectateGame = handlers.spectateGame;
+    if (spectateGame != null) {
+      wrapped.spectateGame = spectateSecret -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.SPECTATE_GAME, null, 0,
+            spectateSecret);
+        spectateGame.onSpectateGame(spectateSecret);
+        listener.afterEvent(DiscordEvent.EType.SPECTATE_GAME, context);
+      };
+    }
+
+    IJoinRequestCallback joinRequest = handlers.joinRequest;
+    if (joinRequest instanceof IJoinRequestViewCallback) {
+      IJoinRequestViewCallback view = (IJoinRequestViewCallback) joinRequest;
+      wrapped.joinRequest = (IJoinRequestViewCallback) request -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.JOIN_REQUEST, request, 0, null);
+        view.callback(request);
+        listener.afterEvent(DiscordEvent.EType.JOIN_REQUEST, context);
+      };
+    } else if (joinRequest != null) {
+      wrapped.joinRequest = request -> {
+        Object context = listener.beforeEvent(DiscordEvent.EType.JOIN_REQUEST,
+            request != null ? DiscordUserView.of(request) : null, 0, null);
+        joinRequest.onJoinRequest(request);
+        listener.afterEvent(DiscordEvent.EType.JOIN_REQUEST, context);
+      };
+    }
+    return wrapped;
+  }
+
   /**
    * The {@code IReadyCallback} interface is used to register a callback for when the
    * connection to Discord has been established.
@@ -38,6 +136,32 @@ public class DiscordEventHandlers extends Structure {
     void onReady(final DiscordUser request);
   }
 
+  /**
+   * The {@code IReadyViewCallback} interface is used to register a callback for when the
+   * connection to Discord has been established, which receives a lazy {@link DiscordUserView}
+   * instead of a {@link DiscordUser} whose fields have all been read.
+   * <p>
+   * It can be set as {@link #ready} like any {@link IReadyCallback}.
+   * </p>
+   *
+   * @see Callback
+   */
+  public interface IReadyViewCallback extends IReadyCallback {
+
+    /**
+     * This method is called when the connection to Discord has been established.
+     *
+     * @param request The {@code DiscordUserView} object reading the information about the user
+     *                executing the app on demand. It is only valid until this method returns.
+     */
+    void callback(final DiscordUserView request);
+
+    @Override
+    default void onReady(final DiscordUser request) {
+      this.callback(DiscordUserView.of(request));
+    }
+  }
+
   /**
    * The {@code IDisconnectedCallback} interface is used to register a callback for when the
    * connection to Discord has been lost.
@@ -123,4 +247,30 @@ public class DiscordEventHandlers extends Structure {
      */
     void onJoinRequest(final DiscordUser request);
   }
+
+  /**
+   * The {@code IJoinRequestViewCallback} interface is used to register a callback for the when
+   * another player requests to join a game, which receives a lazy {@link DiscordUserView} instead
+   * of a {@link DiscordUser} whose fields have all been read.
+   * <p>
+   * It can be set as {@link #joinRequest} like any {@link IJoinRequestCallback}.
+   * </p>
+   *
+   * @see Callback
+   */
+  public interface IJoinRequestViewCallback extends IJoinRequestCallback {
+
+    /**
+     * This method is called when another player requests to join a game.
+     *
+     * @param request The {@code DiscordUserView} object reading the information about the user
+     *                requesting to join on demand. It is only valid until this method returns.
+     */
+    void callback(final DiscordUserView request);
+
+    @Override
+    default void onJoinRequest(final DiscordUser request) {
+      this.callback(DiscordUserView.of(request));
+    }
+  }
 }
@@ -0,0 +1,414 @@
+package io.github.kawaxte.presence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The {@code DiscordFlightRecorder} class logs every presence sent to Discord and every callback
+ * run, along with the time and the thread, to a ring buffer in a memory-mapped file, so that the
+ * last events before a problem can be read back with {@link DiscordFlightRecording}, even after a
+ * crash.
+ * <p>
+ * It is put in front of the backend of {@link DiscordRPC} when the
+ * {@code discord-rpc.flight-recorder} system property is set to the path of the file, whose size
+ * can be set in bytes using the {@code discord-rpc.flight-recorder.size} system property. The file
+ * is overwritten when the library is loaded, and once the ring buffer is full, the oldest events
+ * are overwritten.
+ * </p>
+ * <p>
+ * Strings are stored once in a dictionary at the start of the file, and events refer to them by
+ * index, so that a presence sent again costs a few bytes. Once the dictionary is full, new strings
+ * are stored within the events instead. Events are encoded into a reused buffer and copied into the
+ * mapped file under a lock held for well under a microsecond. Recording an event whose strings are
+ * all in the dictionary allocates nothing, while a string which is not is encoded to UTF-8 every
+ * time it is recorded, and is added to the dictionary along with a boxed index if there is room.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordFlightRecording
+ */
+public final class DiscordFlightRecorder implements Closeable {
+
+  /**
+   * The system property holding the path of the file to record to.
+   */
+  public static final String RECORDER_PROPERTY = "discord-rpc.flight-recorder";
+  /**
+   * The system property holding the size of the file to record to, in bytes.
+   */
+  public static final String SIZE_PROPERTY = "discord-rpc.flight-recorder.size";
+  /**
+   * The default size of the file, in bytes.
+   */
+  public static final int DEFAULT_SIZE = 4 * 1024 * 1024;
+  /**
+   * The smallest size of the file, in bytes.
+   */
+  public static final int MIN_SIZE = 64 * 1024;
+
+  static final long MAGIC = 0x31305246_43505244L;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int DICTIONARY_OFFSET = 8;
+  static final int DICTIONARY_SIZE = 12;
+  static final int DICTIONARY_USED = 16;
+  static final int RING_OFFSET = 20;
+  static final int RING_SIZE = 24;
+  static final int VERSION_OFFSET = 28;
+  static final int WRITE_POSITION = 32;
+  static final int RECORD_COUNT = 40;
+  static final int START_EPOCH_MILLIS = 48;
+  static final int RECORD_HEADER_SIZE = 28;
+  static final int NULL_STRING = -1;
+
+  private static final EPresenceField[] FIELDS = EPresenceField.values();
+  private static final int MAX_INLINE_BYTES = 1024;
+  private static final int MAX_RECORD_SIZE = 16 * 1024;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int dictionarySize;
+  private final int ringOffset;
+  private final int ringSize;
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final ByteBuffer scratch =
+      ByteBuffer.allocate(MAX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final long startNanos = System.nanoTime();
+  private int dictionaryUsed;
+  private int length;
+  private long position;
+  private long count;
+  private boolean closed;
+
+  /**
+   * Constructs a new {@code DiscordFlightRecorder}.
+   *
+   * @param path    The {@code Path} of the file.
+   * @param channel The {@code FileChannel} the file was opened with.
+   * @param size    The size of the file in bytes.
+   * @throws IOException if the file could not be mapped.
+   */
+  private DiscordFlightRecorder(final Path path, final FileChannel channel, int size)
+      throws IOException {
+    this.path = path;
+    this.channel = channel;
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+    this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    // a quarter of the file holds the dictionary, and the rest the ring of 8-byte aligned events
+    this.dictionarySize = ((size - HEADER_SIZE) / 4) & ~7;
+    this.ringOffset = HEADER_SIZE + this.dictionarySize;
+    this.ringSize = (size - this.ringOffset) & ~7;
+    this.buffer.putInt(DICTIONARY_OFFSET, HEADER_SIZE);
+    this.buffer.putInt(DICTIONARY_SIZE, this.dictionarySize);
+    this.buffer.putInt(DICTIONARY_USED, 0);
+    this.buffer.putInt(RING_OFFSET, this.ringOffset);
+    this.buffer.putInt(RING_SIZE, this.ringSize);
+    this.buffer.putInt(VERSION_OFFSET, VERSION);
+    this.buffer.putLong(WRITE_POSITION, 0L);
+    this.buffer.putLong(RECORD_COUNT, 0L);
+    this.buffer.putLong(START_EPOCH_MILLIS, System.currentTimeMillis());
+    // written last, so that a file cut short while being created is not mistaken for a recording
+    this.buffer.putLong(0, MAGIC);
+  }
+
+  /**
+   * Creates or overwrites the given file and starts recording to it.
+   *
+   * @param path The {@code Path} of the file.
+   * @param size The size of the file in bytes.
+   * @return The {@code DiscordFlightRecorder} object.
+   * @throws NullPointerException     if {@code path} is {@code null}.
+   * @throws IllegalArgumentException if {@code size} is smaller than {@link #MIN_SIZE}.
+   * @throws IOException              if the file could not be created or mapped.
+   */
+  public static DiscordFlightRecorder open(final Path path, int size) throws IOException {
+    Objects.requireNonNull(path, "path must not be null");
+    if (size < MIN_SIZE) {
+      throw new IllegalArgumentException(String.format("size must be at least %d bytes",
+          MIN_SIZE));
+    }
+
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      return new DiscordFlightRecorder(path, channel, size);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the path of the file recorded to.
+   *
+   * @return The {@code Path} of the file.
+   */
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * Returns the number of events recorded, including those which have since been overwritten.
+   *
+   * @return The number of recorded events.
+   */
+  public synchronized long getRecordCount() {
+    return this.count;
+  }
+
+  /**
+   * Flushes the file to disk and stops recording. Events recorded afterwards are dropped.
+   */
+  @Override
+  public synchronized void close() {
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+    this.buffer.force();
+    try {
+      this.channel.close();
+    } catch (IOException ignored) {
+      // the mapping stays valid until it is garbage collected
+    }
+  }
+
+  /**
+   * Records a presence sent to Discord. Fields which are {@code null} or {@code 0} are not
+   * stored.
+   *
+   * @param presence The {@code DiscordRichPresence} object sent.
+   */
+  @SuppressWarnings("deprecation")
+  synchronized void recordPresence(final DiscordRichPresence presence) {
+    if (this.begin(EFlightEvent.PRESENCE_UPDATED)) {
+      int mask = this.length;
+      this.putInt(0);
+      int fields = 0;
+      fields |= this.putField(EPresenceField.STATE, presence.state);
+      fields |= this.putField(EPresenceField.DETAILS, presence.details);
+      fields |= this.putField(EPresenceField.START_TIMESTAMP, presence.startTimestamp);
+      fields |= this.putField(EPresenceField.END_TIMESTAMP, presence.endTimestamp);
+      fields |= this.putField(EPresenceField.LARGE_IMAGE_KEY, presence.largeImageKey);
+      fields |= this.putField(EPresenceField.LARGE_IMAGE_TEXT, presence.largeImageText);
+      fields |= this.putField(EPresenceField.SMALL_IMAGE_KEY, presence.smallImageKey);
+      fields |= this.putField(EPresenceField.SMALL_IMAGE_TEXT, presence.smallImageText);
+      fields |= this.putField(EPresenceField.PARTY_ID, presence.partyId);
+      fields |= this.putField(EPresenceField.PARTY_SIZE, presence.partySize);
+      fields |= this.putField(EPresenceField.PARTY_MAX, presence.partyMax);
+      fields |= this.putField(EPresenceField.MATCH_SECRET, presence.matchSecret);
+      fields |= this.putField(EPresenceField.JOIN_SECRET, presence.joinSecret);
+      fields |= this.putField(EPresenceField.SPECTATE_SECRET, presence.spectateSecret);
+      fields |= this.putField(EPresenceField.INSTANCE, presence.instance);
+      this.scratch.putInt(mask, fields);
+      this.commit();
+    }
+  }
+
+  /**
+   * Records a presence sent to Discord from a {@link DiscordPresenceBuffer}.
+   *
+   * @param buffer The {@code DiscordPresenceBuffer} object sent.
+   */
+  synchronized void recordPresence(final DiscordPresenceBuffer buffer) {
+    if (this.begin(EFlightEvent.PRESENCE_UPDATED)) {
+      int mask = this.length;
+      this.putInt(0);
+      int fields = 0;
+      for (EPresenceField field : FIELDS) {
+        fields |= field.isString()
+            ? this.putField(field, buffer.getString(field))
+            : this.putField(field, buffer.getNumber(field));
+      }
+      this.scratch.putInt(mask, fields);
+      this.commit();
+    }
+  }
+
+  /**
+   * Records the presence being cleared.
+   */
+  synchronized void recordClear() {
+    if (this.begin(EFlightEvent.PRESENCE_CLEARED)) {
+      this.commit();
+    }
+  }
+
+  /**
+   * Records a callback receiving a user.
+   *
+   * @param event         The {@link EFlightEvent#READY} or {@link EFlightEvent#JOIN_REQUEST}
+   *                      event.
+   * @param userId        The ID of the user.
+   * @param username      The name of the user.
+   * @param discriminator The discriminator of the user.
+   * @param avatar        The avatar of the user.
+   */
+  synchronized void recordUser(final EFlightEvent event, final String userId,
+      final String username, final String discriminator, final String avatar) {
+    if (this.begin(event)) {
+      this.putString(userId);
+      this.putString(username);
+      this.putString(discriminator);
+      this.putString(avatar);
+      this.commit();
+    }
+  }
+
+  /**
+   * Records a callback receiving an error.
+   *
+   * @param event     The {@link EFlightEvent#DISCONNECTED} or {@link EFlightEvent#ERRORED} event.
+   * @param errorCode The error code.
+   * @param message   The error message.
+   */
+  synchronized void recordError(final EFlightEvent event, int errorCode, final String message) {
+    if (this.begin(event)) {
+      this.putInt(errorCode);
+      this.putString(message);
+      this.commit();
+    }
+  }
+
+  /**
+   * Records a callback receiving a secret.
+   *
+   * @param event  The {@link EFlightEvent#JOIN_GAME} or {@link EFlightEvent#SPECTATE_GAME} event.
+   * @param secret The secret.
+   */
+  synchronized void recordSecret(final EFlightEvent event, final String secret) {
+    if (this.begin(event)) {
+      this.putString(secret);
+      this.commit();
+    }
+  }
+
+  /**
+   * Starts encoding an event into the scratch buffer, leaving room for its length.
+   *
+   * @param event The event to encode.
+   * @return {@code true} if the event is to be recorded, {@code false} if the recorder is closed.
+   */
+  private boolean begin(final EFlightEvent event) {
+    if (this.closed) {
+      return false;
+    }
+
+    Thread thread = Thread.currentThread();
+    this.length = 4;
+    this.putInt(event.ordinal());
+    this.putLong(System.nanoTime() - this.startNanos);
+    this.putLong(thread.getId());
+    this.putString(thread.getName());
+    return true;
+  }
+
+  /**
+   * Copies the event encoded in the scratch buffer into the ring, followed by its length so that
+   * the ring can be read backwards from the last event. An event which does not fit before the end
+   * of the ring is preceded by padding, and written at its start.
+   */
+  private void commit() {
+    int size = (this.length + 4 + 7) & ~7;
+    this.scratch.putInt(0, size);
+    this.scratch.putInt(size - 4, size);
+
+    int index = (int) (this.position % this.ringSize);
+    if (index + size > this.ringSize) {
+      int gap = this.ringSize - index;
+      this.buffer.putInt(this.ringOffset + index, -gap);
+      this.buffer.putInt(this.ringOffset + this.ringSize - 4, gap);
+      this.position += gap;
+      index = 0;
+    }
+    int base = this.ringOffset + index;
+    for (int i = 0; i < size; i += 8) {
+      this.buffer.putLong(base + i, this.scratch.getLong(i));
+    }
+    this.position += size;
+    this.buffer.putLong(WRITE_POSITION, this.position);
+    this.buffer.putLong(RECORD_COUNT, ++this.count);
+  }
+
+  private int putField(final EPresenceField field, final String value) {
+    if (value == null) {
+      return 0;
+    }
+    this.putString(value);
+    return 1 << field.ordinal();
+  }
+
+  private int putField(final EPresenceField field, long value) {
+    if (value == 0L) {
+      return 0;
+    }
+    this.putLong(value);
+    return 1 << field.ordinal();
+  }
+
+  /**
+   * Encodes a string as its index in the dictionary, adding it if there is room, or as its UTF-8
+   * bytes otherwise, preceded by their negated length minus 2. {@code null} is encoded as
+   * {@link #NULL_STRING}.
+   *
+   * @param value The string to encode.
+   */
+  private void putString(final String value) {
+    if (value == null) {
+      this.putInt(NULL_STRING);
+      return;
+    }
+
+    Integer index = this.dictionary.get(value);
+    if (index != null) {
+      this.putInt(index);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = DiscordPresenceBuffer.truncate(bytes, bytes.length, MAX_INLINE_BYTES);
+    if (length == bytes.length && this.dictionaryUsed + 2 + length <= this.dictionarySize) {
+      int offset = HEADER_SIZE + this.dictionaryUsed;
+      this.buffer.putShort(offset, (short) length);
+      for (int i = 0; i < length; i++) {
+        this.buffer.put(offset + 2 + i, bytes[i]);
+      }
+      this.dictionaryUsed += 2 + length;
+      this.buffer.putInt(DICTIONARY_USED, this.dictionaryUsed);
+
+      index = this.dictionary.size();
+      this.dictionary.put(value, index);
+      this.putInt(index);
+    } else if (this.length + 4 + length + 12 <= MAX_RECORD_SIZE) {
+      this.putInt(-length - 2);
+      for (int i = 0; i < length; i++) {
+        this.scratch.put(this.length++, bytes[i]);
+      }
+    } else {
+      this.putInt(NULL_STRING);
+    }
+  }
+
+  private void putInt(int value) {
+    this.scratch.putInt(this.length, value);
+    this.length += 4;
+  }
+
+  private void putLong(long value) {
+    this.scratch.putLong(this.length, value);
+    this.length += 8;
+  }
+}
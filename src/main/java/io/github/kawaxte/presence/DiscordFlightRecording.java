@@ -0,0 +1,610 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DiscordFlightRecording} class reads the events recorded by a
+ * {@link DiscordFlightRecorder}, and replays them into event handlers, at their original pace or
+ * faster, to reproduce a problem or to benchmark the handlers.
+ * <p>
+ * A recording can be read while it is still being written to, in which case the events recorded
+ * after it was read are missing. It can also be printed from the command line:
+ * </p>
+ * <pre>{@code
+ * java -cp discord-rpc.jar io.github.kawaxte.presence.DiscordFlightRecording <file>
+ * }</pre>
+ *
+ * @author Kawaxte
+ * @see DiscordFlightRecorder
+ */
+public final class DiscordFlightRecording {
+
+  private static final EFlightEvent[] EVENTS = EFlightEvent.values();
+  private static final EPresenceField[] FIELDS = EPresenceField.values();
+
+  private final long startEpochMillis;
+  private final long recordCount;
+  private final List<Entry> entries;
+
+  /**
+   * Constructs a new {@code DiscordFlightRecording}.
+   *
+   * @param startEpochMillis The time the recording started, in milliseconds since the epoch.
+   * @param recordCount      The number of events recorded, including those overwritten.
+   * @param entries          The events still held by the recording, oldest first.
+   */
+  private DiscordFlightRecording(long startEpochMillis, long recordCount,
+      final List<Entry> entries) {
+    this.startEpochMillis = startEpochMillis;
+    this.recordCount = recordCount;
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Reads a recording from the given file.
+   *
+   * @param path The {@code Path} of the file written by a {@link DiscordFlightRecorder}.
+   * @return The {@code DiscordFlightRecording} object.
+   * @throws NullPointerException if {@code path} is {@code null}.
+   * @throws IOException          if the file could not be read, or is not a recording.
+   */
+  public static DiscordFlightRecording read(final Path path) throws IOException {
+    Objects.requireNonNull(path, "path must not be null");
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.capacity() < DiscordFlightRecorder.HEADER_SIZE
+        || buffer.getLong(0) != DiscordFlightRecorder.MAGIC) {
+      throw new IOException(String.format("%s is not a flight recording", path));
+    }
+    if (buffer.getInt(DiscordFlightRecorder.VERSION_OFFSET) != DiscordFlightRecorder.VERSION) {
+      throw new IOException(String.format("%s was recorded by an unsupported version", path));
+    }
+
+    List<String> dictionary = readDictionary(buffer);
+    int ringOffset = buffer.getInt(DiscordFlightRecorder.RING_OFFSET);
+    int ringSize = buffer.getInt(DiscordFlightRecorder.RING_SIZE);
+    long end = buffer.getLong(DiscordFlightRecorder.WRITE_POSITION);
+    long startEpochMillis = buffer.getLong(DiscordFlightRecorder.START_EPOCH_MILLIS);
+    if (ringSize <= 0 || ringOffset < DiscordFlightRecorder.HEADER_SIZE
+        || (long) ringOffset + ringSize > buffer.capacity()) {
+      throw new IOException(String.format("%s is corrupted", path));
+    }
+
+    // walk back from the last event using the length following each one, down to the oldest
+    // event that has not been overwritten
+    List<Entry> entries = new ArrayList<>();
+    long limit = Math.max(end - ringSize, 0L);
+    for (long position = end; position > limit; ) {
+      int size = buffer.getInt(ringOffset + (int) ((position - 4L) % ringSize));
+      long start = position - size;
+      if (size <= 0 || (size & 7) != 0 || start < limit) {
+        break;
+      }
+
+      int index = ringOffset + (int) (start % ringSize);
+      int header = buffer.getInt(index);
+      if (header == size) {
+        entries.add(readEntry(buffer, index, dictionary, startEpochMillis));
+      } else if (header != -size) {
+        break;
+      }
+      position = start;
+    }
+    Collections.reverse(entries);
+    return new DiscordFlightRecording(startEpochMillis, buffer.getLong(
+        DiscordFlightRecorder.RECORD_COUNT), entries);
+  }
+
+  /**
+   * Returns the time the recording started.
+   *
+   * @return The time in milliseconds since the epoch.
+   */
+  public long getStartEpochMillis() {
+    return this.startEpochMillis;
+  }
+
+  /**
+   * Returns the number of events recorded, including those which have been overwritten and are
+   * not returned by {@link #getEntries()}.
+   *
+   * @return The number of recorded events.
+   */
+  public long getRecordCount() {
+    return this.recordCount;
+  }
+
+  /**
+   * Returns the events held by the recording.
+   *
+   * @return The unmodifiable {@code List} of events, oldest first.
+   */
+  public List<Entry> getEntries() {
+    return this.entries;
+  }
+
+  /**
+   * Replays the callbacks of the recording into the given handlers on the calling thread,
+   * skipping the presences.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object whose callbacks are run.
+   * @param speed    How many times faster than recorded to replay, such as {@code 1.0} for the
+   *                 original pace, or {@link Double#POSITIVE_INFINITY} to replay without waiting.
+   * @return The number of callbacks run.
+   * @throws NullPointerException     if {@code handlers} is {@code null}.
+   * @throws IllegalArgumentException if {@code speed} is not positive.
+   */
+  public int replay(final DiscordEventHandlers handlers, double speed) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    return this.replay(handlers, null, speed, false);
+  }
+
+  /**
+   * Replays the recording on the calling thread, running the callbacks of the given handlers and
+   * passing the presences to the given sink, such as
+   * {@link DiscordRPC#updatePresence(DiscordRichPresence)}. A cleared presence is passed as a
+   * {@code DiscordRichPresence} whose fields are all unset.
+   *
+   * @param handlers  The {@code DiscordEventHandlers} object whose callbacks are run.
+   * @param presences The {@code Consumer} the presences are passed to.
+   * @param speed     How many times faster than recorded to replay, such as {@code 1.0} for the
+   *                  original pace, or {@link Double#POSITIVE_INFINITY} to replay without waiting.
+   * @return The number of events replayed.
+   * @throws NullPointerException     if {@code handlers} or {@code presences} is {@code null}.
+   * @throws IllegalArgumentException if {@code speed} is not positive.
+   */
+  public int replay(final DiscordEventHandlers handlers,
+      final Consumer<DiscordRichPresence> presences, double speed) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+    Objects.requireNonNull(presences, "presences must not be null");
+
+    return this.replay(handlers, presences, speed, true);
+  }
+
+  private int replay(final DiscordEventHandlers handlers,
+      final Consumer<DiscordRichPresence> presences, double speed, boolean withPresences) {
+    if (!(speed > 0.0D)) {
+      throw new IllegalArgumentException("speed must be positive");
+    }
+
+    int replayed = 0;
+    long startNanos = System.nanoTime();
+    long firstNanos = this.entries.isEmpty() ? 0L : this.entries.get(0).timeNanos;
+    for (Entry entry : this.entries) {
+      if (!withPresences && (entry.event == EFlightEvent.PRESENCE_UPDATED
+          || entry.event == EFlightEvent.PRESENCE_CLEARED)) {
+        continue;
+      }
+      if (speed != Double.POSITIVE_INFINITY) {
+        long dueNanos = startNanos + (long) ((entry.timeNanos - firstNanos) / speed);
+        for (long remaining; (remaining = dueNanos - System.nanoTime()) > 0L; ) {
+          LockSupport.parkNanos(remaining);
+        }
+      }
+      if (entry.replay(handlers, presences)) {
+        replayed++;
+      }
+    }
+    return replayed;
+  }
+
+  /**
+   * Prints the events of a recording, one per line.
+   *
+   * @param args The path of the file written by a {@link DiscordFlightRecorder}.
+   * @throws IOException if the file could not be read, or is not a recording.
+   */
+  public static void main(String... args) throws IOException {
+    if (args.length != 1) {
+      System.err.printf("Usage: java -cp <classpath> %s <file>%n",
+          DiscordFlightRecording.class.getName());
+      System.exit(2);
+    }
+
+    DiscordFlightRecording recording = read(Paths.get(args[0]));
+    System.out.printf("Recording started at %s, %d of %d events held%n",
+        Instant.ofEpochMilli(recording.getStartEpochMillis()), recording.getEntries().size(),
+        recording.getRecordCount());
+    for (Entry entry : recording.getEntries()) {
+      System.out.println(entry);
+    }
+  }
+
+  private static List<String> readDictionary(final ByteBuffer buffer) {
+    List<String> dictionary = new ArrayList<>();
+    int offset = buffer.getInt(DiscordFlightRecorder.DICTIONARY_OFFSET);
+    int end = offset + buffer.getInt(DiscordFlightRecorder.DICTIONARY_USED);
+    while (offset + 2 <= end) {
+      int length = buffer.getShort(offset) & 0xFFFF;
+      dictionary.add(new String(buffer.array(), offset + 2, length, StandardCharsets.UTF_8));
+      offset += 2 + length;
+    }
+    return dictionary;
+  }
+
+  private static Entry readEntry(final ByteBuffer buffer, int index,
+      final List<String> dictionary, long startEpochMillis) {
+    Reader reader = new Reader(buffer, index + 4, dictionary);
+    int ordinal = reader.readInt();
+    EFlightEvent event = ordinal >= 0 && ordinal < EVENTS.length ? EVENTS[ordinal] : null;
+    Entry entry = new Entry(event, reader.readLong(), startEpochMillis, reader.readLong(),
+        reader.readString());
+    if (event == null) {
+      return entry;
+    }
+
+    switch (event) {
+      case PRESENCE_UPDATED:
+        entry.presence = readPresence(reader);
+        break;
+      case READY:
+      case JOIN_REQUEST:
+        entry.user = new DiscordUserView(reader.readString(), reader.readString(),
+            reader.readString(), reader.readString());
+        break;
+      case DISCONNECTED:
+      case ERRORED:
+        entry.errorCode = reader.readInt();
+        entry.message = reader.readString();
+        break;
+      case JOIN_GAME:
+      case SPECTATE_GAME:
+        entry.message = reader.readString();
+        break;
+      default:
+        break;
+    }
+    return entry;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static DiscordRichPresence readPresence(final Reader reader) {
+    int fields = reader.readInt();
+    DiscordRichPresence.Builder builder = new DiscordRichPresence.Builder();
+    for (EPresenceField field : FIELDS) {
+      if ((fields & (1 << field.ordinal())) == 0) {
+        continue;
+      }
+
+      if (field.isString()) {
+        String value = reader.readString();
+        switch (field) {
+          case STATE:
+            builder.setState(value);
+            break;
+          case DETAILS:
+            builder.setDetails(value);
+            break;
+          case LARGE_IMAGE_KEY:
+            builder.setLargeImageKey(value);
+            break;
+          case LARGE_IMAGE_TEXT:
+            builder.setLargeImageText(value);
+            break;
+          case SMALL_IMAGE_KEY:
+            builder.setSmallImageKey(value);
+            break;
+          case SMALL_IMAGE_TEXT:
+            builder.setSmallImageText(value);
+            break;
+          case PARTY_ID:
+            builder.setPartyId(value);
+            break;
+          case MATCH_SECRET:
+            builder.setMatchSecret(value);
+            break;
+          case JOIN_SECRET:
+            builder.setJoinSecret(value);
+            break;
+          default:
+            builder.setSpectateSecret(value);
+            break;
+        }
+      } else {
+        long value = reader.readLong();
+        switch (field) {
+          case START_TIMESTAMP:
+            builder.setStartTimestamp(value);
+            break;
+          case END_TIMESTAMP:
+            builder.setEndTimestamp(value);
+            break;
+          case PARTY_SIZE:
+            builder.setPartySize((int) value);
+            break;
+          case PARTY_MAX:
+            builder.setPartyMax((int) value);
+            break;
+          default:
+            builder.setInstance((byte) value);
+            break;
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * The {@code Entry} class holds one event of a {@link DiscordFlightRecording}.
+   *
+   * @author Kawaxte
+   */
+  public static final class Entry {
+
+    private final EFlightEvent event;
+    private final long timeNanos;
+    private final long epochMillis;
+    private final long threadId;
+    private final String threadName;
+    private DiscordRichPresence presence;
+    private DiscordUserView user;
+    private int errorCode;
+    private String message;
+
+    private Entry(final EFlightEvent event, long timeNanos, long startEpochMillis, long threadId,
+        final String threadName) {
+      this.event = event;
+      this.timeNanos = timeNanos;
+      this.epochMillis = startEpochMillis + TimeUnit.NANOSECONDS.toMillis(timeNanos);
+      this.threadId = threadId;
+      this.threadName = threadName;
+    }
+
+    /**
+     * Returns the type of the event.
+     *
+     * @return The {@code EFlightEvent}, or {@code null} if it was recorded by a newer version.
+     */
+    public EFlightEvent getEvent() {
+      return this.event;
+    }
+
+    /**
+     * Returns when the event was recorded, relative to the start of the recording.
+     *
+     * @return The time in nanoseconds since the start of the recording.
+     */
+    public long getTimeNanos() {
+      return this.timeNanos;
+    }
+
+    /**
+     * Returns when the event was recorded.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getEpochMillis() {
+      return this.epochMillis;
+    }
+
+    /**
+     * Returns the ID of the thread which sent the presence or ran the callback.
+     *
+     * @return The ID of the thread.
+     */
+    public long getThreadId() {
+      return this.threadId;
+    }
+
+    /**
+     * Returns the name of the thread which sent the presence or ran the callback.
+     *
+     * @return The name of the thread.
+     */
+    public String getThreadName() {
+      return this.threadName;
+    }
+
+    /**
+     * Returns the presence sent, for a {@link EFlightEvent#PRESENCE_UPDATED} event.
+     *
+     * @return The {@code DiscordRichPresence} object, or {@code null} for other events.
+     */
+    public DiscordRichPresence getPresence() {
+      return this.presence;
+    }
+
+    /**
+     * Returns the user received, for a {@link EFlightEvent#READY} or
+     * {@link EFlightEvent#JOIN_REQUEST} event.
+     *
+     * @return The detached {@code DiscordUserView} object, or {@code null} for other events.
+     */
+    public DiscordUserView getUser() {
+      return this.user;
+    }
+
+    /**
+     * Returns the error code received, for a {@link EFlightEvent#DISCONNECTED} or
+     * {@link EFlightEvent#ERRORED} event.
+     *
+     * @return The error code, or {@code 0} for other events.
+     */
+    public int getErrorCode() {
+      return this.errorCode;
+    }
+
+    /**
+     * Returns the error message received for a {@link EFlightEvent#DISCONNECTED} or
+     * {@link EFlightEvent#ERRORED} event, or the secret received for a
+     * {@link EFlightEvent#JOIN_GAME} or {@link EFlightEvent#SPECTATE_GAME} event.
+     *
+     * @return The message or secret, or {@code null} for other events.
+     */
+    public String getMessage() {
+      return this.message;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String toString() {
+      StringBuilder builder = new StringBuilder()
+          .append(Instant.ofEpochMilli(this.epochMillis))
+          .append(" [").append(this.threadName).append("] ")
+          .append(this.event);
+      if (this.presence != null) {
+        DiscordRichPresence presence = this.presence;
+        appendField(builder, "state", presence.state);
+        appendField(builder, "details", presence.details);
+        appendField(builder, "startTimestamp", presence.startTimestamp);
+        appendField(builder, "endTimestamp", presence.endTimestamp);
+        appendField(builder, "largeImageKey", presence.largeImageKey);
+        appendField(builder, "largeImageText", presence.largeImageText);
+        appendField(builder, "smallImageKey", presence.smallImageKey);
+        appendField(builder, "smallImageText", presence.smallImageText);
+        appendField(builder, "partyId", presence.partyId);
+        appendField(builder, "partySize", presence.partySize);
+        appendField(builder, "partyMax", presence.partyMax);
+        appendField(builder, "matchSecret", presence.matchSecret);
+        appendField(builder, "joinSecret", presence.joinSecret);
+        appendField(builder, "spectateSecret", presence.spectateSecret);
+        appendField(builder, "instance", presence.instance);
+      } else if (this.user != null) {
+        appendField(builder, "userId", this.user.getUserId());
+        appendField(builder, "username", this.user.getUsername());
+      } else if (this.event == EFlightEvent.DISCONNECTED || this.event == EFlightEvent.ERRORED) {
+        appendField(builder, "errorCode", this.errorCode);
+        appendField(builder, "message", this.message);
+      } else {
+        appendField(builder, "secret", this.message);
+      }
+      return builder.toString();
+    }
+
+    private static void appendField(final StringBuilder builder, final String name,
+        final Object value) {
+      if (value != null && !(value instanceof Number && ((Number) value).longValue() == 0L)) {
+        builder.append(' ').append(name).append('=').append(value);
+      }
+    }
+
+    /**
+     * Runs the callback of the given handlers matching this event, or passes the presence to the
+     * given sink.
+     *
+     * @param handlers  The {@code DiscordEventHandlers} object whose callback is run.
+     * @param presences The {@code Consumer} the presence is passed to.
+     * @return {@code true} if the event was replayed, {@code false} if the handlers have no
+     * matching callback.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean replay(final DiscordEventHandlers handlers,
+        final Consumer<DiscordRichPresence> presences) {
+      if (this.event == null) {
+        return false;
+      }
+
+      switch (this.event) {
+        case PRESENCE_UPDATED:
+          presences.accept(new DiscordRichPresence.Builder(this.presence).build());
+          return true;
+        case PRESENCE_CLEARED:
+          presences.accept(new DiscordRichPresence());
+          return true;
+        case READY:
+          if (handlers.ready instanceof DiscordEventHandlers.IReadyViewCallback) {
+            ((DiscordEventHandlers.IReadyViewCallback) handlers.ready).callback(this.user);
+          } else if (handlers.ready != null) {
+            handlers.ready.onReady(this.toUser());
+          }
+          return handlers.ready != null;
+        case DISCONNECTED:
+          if (handlers.disconnected != null) {
+            handlers.disconnected.onDisconnected(this.errorCode, this.message);
+          }
+          return handlers.disconnected != null;
+        case ERRORED:
+          if (handlers.errored != null) {
+            handlers.errored.onErrored(this.errorCode, this.message);
+          }
+          return handlers.errored != null;
+        case JOIN_GAME:
+          if (handlers.joinGame != null) {
+            handlers.joinGame.onJoinGame(this.message);
+          }
+          return handlers.joinGame != null;
+        case SPECTATE_GAME:
+          if (handlers.spectateGame != null) {
+            handlers.spectateGame.onSpectateGame(this.message);
+          }
+          return handlers.spectateGame != null;
+        default:
+          if (handlers.joinRequest instanceof DiscordEventHandlers.IJoinRequestViewCallback) {
+            ((DiscordEventHandlers.IJoinRequestViewCallback) handlers.joinRequest)
+                .callback(this.user);
+          } else if (handlers.joinRequest != null) {
+            handlers.joinRequest.onJoinRequest(this.toUser());
+          }
+          return handlers.joinRequest != null;
+      }
+    }
+
+    private DiscordUser toUser() {
+      DiscordUser user = new DiscordUser();
+      user.userId = this.user.getUserId();
+      user.username = this.user.getUsername();
+      user.discriminator = this.user.getDiscriminator();
+      user.avatar = this.user.getAvatar();
+      return user;
+    }
+  }
+
+  /**
+   * The {@code Reader} class decodes the fields of one event, in the order they were written by
+   * {@link DiscordFlightRecorder}.
+   */
+  private static final class Reader {
+
+    private final ByteBuffer buffer;
+    private final List<String> dictionary;
+    private int offset;
+
+    private Reader(final ByteBuffer buffer, int offset, final List<String> dictionary) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.dictionary = dictionary;
+    }
+
+    int readInt() {
+      int value = this.buffer.getInt(this.offset);
+      this.offset += 4;
+      return value;
+    }
+
+    long readLong() {
+      long value = this.buffer.getLong(this.offset);
+      this.offset += 8;
+      return value;
+    }
+
+    String readString() {
+      int reference = this.readInt();
+      if (reference >= 0) {
+        return reference < this.dictionary.size() ? this.dictionary.get(reference) : null;
+      }
+      if (reference == DiscordFlightRecorder.NULL_STRING) {
+        return null;
+      }
+
+      int length = -reference - 2;
+      String value = new String(this.buffer.array(), this.offset, length, StandardCharsets.UTF_8);
+      this.offset += length;
+      return value;
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package io.github.kawaxte.presence;
+
+import com.sun.jna.Native;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code DiscordInstance} class is a Rich Presence of its own, with its own application ID,
+ * event handlers and {@link DiscordCallbackPump}, for applications showing the presence of several
+ * products from one JVM.
+ * <p>
+ * The native library keeps the connection, the presence and the handlers in global state, which
+ * {@link DiscordRPC} therefore only holds once per JVM. Every instance loads a private copy of the
+ * library instead, extracted to a file of its own so that the dynamic loader keeps the copies
+ * apart, and loaded without making its symbols global on Linux and macOS, so that one copy never
+ * binds to the state of another. Every instance thus has a connection and a thread of its own in
+ * the native library, and costs the memory of one more copy of the library, which stays loaded
+ * until the JVM exits.
+ * </p>
+ * <p>
+ * Instances are independent of {@link DiscordRPC} and {@link DiscordSession}, and always call the
+ * native library through JNA. Calls made on an instance which is closed throw an
+ * {@link IllegalStateException}.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordSession
+ */
+public final class DiscordInstance implements AutoCloseable {
+
+  private final String applicationId;
+  private final IDiscordBackend backend;
+  private final DiscordCallbackPump pump;
+  private final Object lock = new Object();
+  private final Queue<DiscordJoinRequestPolicy> pendingPolicies = new ConcurrentLinkedQueue<>();
+  private volatile DiscordEventHandlers handlers;
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new {@code DiscordInstance}.
+   *
+   * @param applicationId The application ID of the instance.
+   * @param backend       The {@code IDiscordBackend} calling the private copy of the library.
+   */
+  private DiscordInstance(final String applicationId, final IDiscordBackend backend) {
+    this.applicationId = applicationId;
+    this.backend = backend;
+    this.pump = new DiscordCallbackPump(DiscordCallbackPump.DEFAULT_MIN_INTERVAL_MILLIS,
+        DiscordCallbackPump.DEFAULT_MAX_INTERVAL_MILLIS, TimeUnit.MILLISECONDS,
+        this::pumpCallbacks);
+  }
+
+  /**
+   * Opens an instance, initialising its Rich Presence without registering the application.
+   *
+   * @param applicationId The application ID of the application to be initialised.
+   * @param handlers      The event handlers to be registered with the Rich Presence.
+   * @return The open {@code DiscordInstance} object.
+   * @throws NullPointerException if {@code applicationId} or {@code handlers} is {@code null}.
+   * @throws RuntimeException     if the native library could not be copied.
+   */
+  public static DiscordInstance open(final String applicationId,
+      final DiscordEventHandlers handlers) {
+    return open(applicationId, handlers, false, null);
+  }
+
+  /**
+   * Opens an instance, loading a private copy of the native library and initialising its Rich
+   * Presence.
+   *
+   * @param applicationId   The application ID of the application to be initialised.
+   * @param handlers        The event handlers to be registered with the Rich Presence.
+   * @param autoRegister    Whether or not to automatically register the application with Discord.
+   * @param optionalSteamId The Steam ID of the game to be initialised. This can be {@code null}.
+   * @return The open {@code DiscordInstance} object.
+   * @throws NullPointerException if {@code applicationId} or {@code handlers} is {@code null}.
+   * @throws RuntimeException     if the native library could not be copied.
+   * @see DiscordRPC#initialise(String, DiscordEventHandlers, boolean, String)
+   */
+  public static DiscordInstance open(final String applicationId,
+      final DiscordEventHandlers handlers, final boolean autoRegister,
+      final String optionalSteamId) {
+    Objects.requireNonNull(applicationId, "applicationId must not be null");
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    DiscordInstance instance = new DiscordInstance(applicationId, loadBackend());
+    // JNA only holds callbacks weakly, so the handlers are kept for as long as they are in use
+    instance.handlers = DiscordCallbackPump.observe(handlers, instance.pump::wake);
+    instance.backend.initialise(applicationId, instance.handlers, autoRegister, optionalSteamId);
+    return instance;
+  }
+
+  /**
+   * Loads a private copy of the native library and binds a backend to it.
+   *
+   * @return The {@code IDiscordBackend} object calling the copy.
+   */
+  private static IDiscordBackend loadBackend() {
+    Path copyPath = DiscordNativeLibrary.copy();
+    try {
+      IDiscordLibrary library = Native.load(copyPath.toString(), IDiscordLibrary.class,
+          DiscordNativeLibrary.getLoadOptions());
+      return new DiscordJnaBackend(library, library);
+    } finally {
+      DiscordNativeLibrary.release(copyPath);
+    }
+  }
+
+  /**
+   * Returns the application ID the Rich Presence of this instance was initialised with.
+   *
+   * @return The application ID.
+   */
+  public String getApplicationId() {
+    return this.applicationId;
+  }
+
+  /**
+   * Returns the pump running the callbacks of this instance, which is not started when the
+   * instance is opened, and is stopped when it is closed.
+   *
+   * @return The {@code DiscordCallbackPump} object of this instance.
+   */
+  public DiscordCallbackPump getCallbackPump() {
+    return this.pump;
+  }
+
+  /**
+   * Returns whether or not the instance accepts calls.
+   *
+   * @return {@code true} if the instance is not closed, {@code false} otherwise.
+   */
+  public boolean isOpen() {
+    return !this.closed;
+  }
+
+  /**
+   * Runs the callbacks of this instance, which its pump can take care of. The replies decided by
+   * any {@link DiscordJoinRequestPolicy} of this instance during the callbacks are sent once they
+   * have all run.
+   *
+   * @throws IllegalStateException if the instance is closed.
+   * @see DiscordRPC#runCallbacks()
+   */
+  public void runCallbacks() {
+    this.checkOpen();
+    this.pumpCallbacks();
+  }
+
+  /**
+   * Updates the Rich Presence of this instance.
+   *
+   * @param presence The {@code DiscordRichPresence} object to be updated.
+   * @throws NullPointerException  if {@code presence} is {@code null}.
+   * @throws IllegalStateException if the instance is closed.
+   * @see DiscordRPC#updatePresence(DiscordRichPresence)
+   */
+  public void updatePresence(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+    this.checkOpen();
+
+    this.backend.updatePresence(presence);
+    this.pump.wake();
+  }
+
+  /**
+   * Updates the Rich Presence of this instance from a reusable buffer.
+   *
+   * @param buffer The {@code DiscordPresenceBuffer} object to be sent.
+   * @throws NullPointerException  if {@code buffer} is {@code null}.
+   * @throws IllegalStateException if the instance is closed.
+   * @see DiscordRPC#updatePresence(DiscordPresenceBuffer)
+   */
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    Objects.requireNonNull(buffer, "buffer must not be null");
+    this.checkOpen();
+
+    this.backend.updatePresence(buffer);
+    this.pump.wake();
+  }
+
+  /**
+   * Clears the Rich Presence of this instance.
+   *
+   * @throws IllegalStateException if the instance is closed.
+   * @see DiscordRPC#clearPresence()
+   */
+  public void clearPresence() {
+    this.checkOpen();
+
+    this.backend.clearPresence();
+    this.pump.wake();
+  }
+
+  /**
+   * Responds to a request to join the user's game received by this instance.
+   *
+   * @param userId The user ID of the user who sent the join request.
+   * @param reply  The reply to be sent to the user, which is one of {@link DiscordRPC#REPLY_NO},
+   *               {@link DiscordRPC#REPLY_YES} and {@link DiscordRPC#REPLY_IGNORE}.
+   * @throws NullPointerException     if {@code userId} is {@code null}.
+   * @throws IllegalArgumentException if {@code reply} is not between 0 and 2.
+   * @throws IllegalStateException    if the instance is closed.
+   * @see DiscordRPC#respond(String, int)
+   */
+  public void respond(final String userId, int reply) {
+    Objects.requireNonNull(userId, "userId must not be null");
+    if (reply < DiscordRPC.REPLY_NO || reply > DiscordRPC.REPLY_IGNORE) {
+      throw new IllegalArgumentException("reply must be between 0 and 2");
+    }
+    this.checkOpen();
+
+    this.backend.respond(userId, reply);
+    this.pump.wake();
+  }
+
+  /**
+   * Updates the event handlers of this instance.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object containing the event handlers to be
+   *                 registered.
+   * @throws NullPointerException  if {@code handlers} is {@code null}.
+   * @throws IllegalStateException if the instance is closed.
+   * @see DiscordRPC#updateHandlers(DiscordEventHandlers)
+   */
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    Objects.requireNonNull(handlers, "handlers must not be null");
+    this.checkOpen();
+
+    this.handlers = DiscordCallbackPump.observe(handlers, this.pump::wake);
+    this.backend.updateHandlers(this.handlers);
+    this.pump.wake();
+  }
+
+  /**
+   * Stops the pump and shuts the Rich Presence of this instance down. Closing an instance which is
+   * already closed does nothing.
+   */
+  @Override
+  public void close() {
+    this.pump.stop();
+    synchronized (this.lock) {
+      if (this.closed) {
+        return;
+      }
+
+      this.closed = true;
+      this.backend.shutdown();
+      this.handlers = null;
+    }
+  }
+
+  /**
+   * Runs the callbacks unless the instance is closed, never at the same time as it is shut down,
+   * which the pump may otherwise do while it is being stopped.
+   */
+  private void pumpCallbacks() {
+    synchronized (this.lock) {
+      if (!this.closed) {
+        this.backend.runCallbacks();
+        DiscordJoinRequestPolicy.flushAll(this.pendingPolicies);
+      }
+    }
+  }
+
+  /**
+   * Returns the queue of the policies of this instance which have replies to send.
+   *
+   * @return The {@code Queue} of {@code DiscordJoinRequestPolicy} objects.
+   */
+  Queue<DiscordJoinRequestPolicy> getPendingPolicies() {
+    return this.pendingPolicies;
+  }
+
+  private void checkOpen() {
+    if (this.closed) {
+      throw new IllegalStateException("Instance is closed");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordInstance[applicationId=%s, open=%s]", this.applicationId,
+        !this.closed);
+  }
+}
@@ -0,0 +1,715 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code DiscordIpcBackend} class speaks the local IPC protocol of Discord directly, instead of
+ * going through the native library.
+ * <p>
+ * It connects to the {@code discord-ipc-N} endpoint of the Discord client, performs the handshake,
+ * sends presences using {@code SET_ACTIVITY} and subscribes to the events for which a callback is
+ * registered. No library is extracted and no thread is started: presences are written by the
+ * thread calling {@link #updatePresence(DiscordRichPresence)}, while connecting, reading and
+ * dispatching the callbacks of {@link DiscordEventHandlers} happen in {@link #runCallbacks()}.
+ * Writing never blocks: what the connection does not take at once is queued and written by the
+ * next write or {@link #runCallbacks()}, and the connection is dropped if the queue fills up.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see <a href="https://discord.com/developers/docs/topics/rpc">RPC</a>
+ */
+final class DiscordIpcBackend implements IDiscordBackend {
+
+  /**
+   * The system property used to override the directory containing the IPC endpoints.
+   */
+  static final String IPC_DIRECTORY_PROPERTY = "discord-rpc.ipc-directory";
+
+  private static final int OP_HANDSHAKE = 0;
+  private static final int OP_FRAME = 1;
+  private static final int OP_CLOSE = 2;
+  private static final int OP_PING = 3;
+  private static final int OP_PONG = 4;
+  private static final int HEADER_SIZE = 8;
+  private static final int MAX_FRAME_SIZE = 64 * 1024;
+  private static final int MAX_QUEUED_BYTES = 2 * (HEADER_SIZE + MAX_FRAME_SIZE);
+  private static final int ERROR_PIPE_CLOSED = 1;
+  private static final int ERROR_READ_CORRUPT = 2;
+  private static final long MIN_RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500L);
+  private static final long MAX_RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(60L);
+  private static final String[] EVENTS = {"ACTIVITY_JOIN", "ACTIVITY_SPECTATE",
+      "ACTIVITY_JOIN_REQUEST"};
+
+  private final IDiscordIpcConnector connector;
+  private final Object lock = new Object();
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(HEADER_SIZE + MAX_FRAME_SIZE)
+      .order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer queueBuffer = ByteBuffer.allocate(MAX_QUEUED_BYTES)
+      .order(ByteOrder.LITTLE_ENDIAN);
+  private final boolean[] subscribed = new boolean[EVENTS.length];
+  private final long pid = getProcessId();
+  private ByteChannel channel;
+  private boolean ready;
+  private boolean writeFailed;
+  private String applicationId;
+  private DiscordEventHandlers handlers;
+  private String activity;
+  private long nonce;
+  private long reconnectAtNanos;
+  private long reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+
+  /**
+   * Constructs a new {@code DiscordIpcBackend}.
+   *
+   * @param connector The {@code IDiscordIpcConnector} object used to open the connection.
+   */
+  DiscordIpcBackend(final IDiscordIpcConnector connector) {
+    this.connector = connector;
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    if (autoRegister) {
+      try {
+        if (optionalSteamId != null) {
+          this.registerSteamGame(applicationId, optionalSteamId);
+        } else {
+          this.register(applicationId, null);
+        }
+      } catch (RuntimeException re) {
+        // registration is best effort, as it is in the native library
+      }
+    }
+
+    synchronized (this.lock) {
+      this.close();
+      this.applicationId = applicationId;
+      this.handlers = handlers;
+      this.reconnectAtNanos = System.nanoTime();
+      this.reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    synchronized (this.lock) {
+      this.close();
+      this.applicationId = null;
+      this.handlers = null;
+      this.activity = null;
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    List<Runnable> callbacks = new ArrayList<>();
+    synchronized (this.lock) {
+      if (this.applicationId == null) {
+        return;
+      }
+      if (this.channel == null && System.nanoTime() - this.reconnectAtNanos >= 0L) {
+        this.connect();
+      }
+      if (this.channel != null) {
+        this.read(callbacks);
+      }
+    }
+
+    for (Runnable callback : callbacks) {
+      callback.run();
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    String activity = toActivity(presence);
+    synchronized (this.lock) {
+      if (this.ready && activity.equals(this.activity)) {
+        // already sent, such as when the presence is restored after reconnecting
+        return;
+      }
+      this.activity = activity;
+      if (this.ready) {
+        this.sendActivity();
+      }
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.updatePresence(buffer.toRichPresence());
+  }
+
+  @Override
+  public void clearPresence() {
+    synchronized (this.lock) {
+      this.activity = null;
+      if (this.ready) {
+        this.sendActivity();
+      }
+    }
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    if (reply == DiscordRPC.REPLY_IGNORE) {
+      return;
+    }
+
+    synchronized (this.lock) {
+      if (this.ready) {
+        StringBuilder builder = new StringBuilder("{\"cmd\":");
+        DiscordJson.quote(builder, reply == DiscordRPC.REPLY_YES
+            ? "SEND_ACTIVITY_JOIN_INVITE"
+            : "CLOSE_ACTIVITY_JOIN_REQUEST");
+        DiscordJson.quote(builder.append(",\"args\":{\"user_id\":"), userId);
+        DiscordJson.quote(builder.append("},\"nonce\":"), this.nextNonce()).append('}');
+        this.write(OP_FRAME, builder.toString());
+      }
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    synchronized (this.lock) {
+      this.handlers = handlers;
+      if (this.ready) {
+        this.subscribe();
+      }
+    }
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    try {
+      switch (DiscordRPC.EPlatform.getPlatform()) {
+        case LINUX:
+          registerDesktopEntry(applicationId, command);
+          break;
+        case MACOS:
+          registerGameManifest(applicationId, command);
+          break;
+        default:
+          throw new UnsupportedOperationException(
+              "Registering is only supported on Linux and macOS by backend \"ipc\"");
+      }
+    } catch (IOException ioe) {
+      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be registered",
+          applicationId), ioe);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    String url = String.format("steam://rungameid/%s", steamId);
+    this.register(applicationId, DiscordRPC.EPlatform.getPlatform() == DiscordRPC.EPlatform.MACOS
+        ? url
+        : String.format("xdg-open %s", url));
+  }
+
+  /**
+   * Registers the application on Linux, by writing a desktop entry handling its URL scheme.
+   *
+   * @param applicationId The application ID of the application.
+   * @param command       The command launching the application, or {@code null} for the running
+   *                      executable.
+   * @throws IOException          if the desktop entry could not be written.
+   * @throws InterruptedException if the thread is interrupted while waiting for {@code xdg-mime}.
+   */
+  private static void registerDesktopEntry(final String applicationId, final String command)
+      throws IOException, InterruptedException {
+    String exec = command;
+    if (exec == null) {
+      exec = Files.readSymbolicLink(Paths.get("/proc/self/exe")).toString();
+    }
+
+    String dataHome = System.getenv("XDG_DATA_HOME") != null
+        ? System.getenv("XDG_DATA_HOME")
+        : Paths.get(System.getProperty("user.home"), ".local", "share").toString();
+    Path applications = Paths.get(dataHome, "applications");
+    String desktopFileName = String.format("discord-%s.desktop", applicationId);
+
+    Files.createDirectories(applications);
+    Files.write(applications.resolve(desktopFileName), String.format("[Desktop Entry]%n"
+            + "Name=Game %s%n"
+            + "Exec=%s %%u%n"
+            + "Type=Application%n"
+            + "NoDisplay=true%n"
+            + "Categories=Discord;Games;%n"
+            + "MimeType=x-scheme-handler/discord-%s;%n",
+        applicationId, exec, applicationId).getBytes(StandardCharsets.UTF_8));
+
+    new ProcessBuilder("xdg-mime", "default", desktopFileName,
+        String.format("x-scheme-handler/discord-%s", applicationId))
+        .start()
+        .waitFor();
+  }
+
+  /**
+   * Registers the application on macOS, by writing the game manifest Discord reads the command
+   * launching the application from, as the native library does.
+   *
+   * @param applicationId The application ID of the application.
+   * @param command       The command launching the application, or {@code null} for the Java
+   *                      launcher, as there is no application bundle to open.
+   * @throws IOException if the game manifest could not be written.
+   */
+  private static void registerGameManifest(final String applicationId, final String command)
+      throws IOException {
+    String exec = command;
+    if (exec == null) {
+      exec = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    Path games = Paths.get(System.getProperty("user.home"), "Library", "Application Support",
+        "discord", "games");
+    Files.createDirectories(games);
+    Files.write(games.resolve(String.format("%s.json", applicationId)),
+        DiscordJson.quote(new StringBuilder("{\"command\":"), exec)
+            .append('}')
+            .toString()
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the paths at which a Discord client may be listening, in the order in which they are
+   * tried.
+   * <p>
+   * The directory is taken from the {@code discord-rpc.ipc-directory} system property if it is
+   * set, or from the same environment variables the native library uses otherwise.
+   * </p>
+   *
+   * @return The {@code List} of {@code Path} objects pointing to the IPC endpoints.
+   */
+  static List<Path> getIpcPaths() {
+    Set<String> directories = new LinkedHashSet<>();
+    String override = System.getProperty(IPC_DIRECTORY_PROPERTY);
+    if (override != null) {
+      directories.add(override);
+    } else {
+      for (String variable : Arrays.asList("XDG_RUNTIME_DIR", "TMPDIR", "TMP", "TEMP")) {
+        if (System.getenv(variable) != null) {
+          directories.add(System.getenv(variable));
+        }
+      }
+      directories.add("/tmp");
+    }
+
+    List<Path> paths = new ArrayList<>();
+    for (String directory : directories) {
+      for (int i = 0; i < 10; i++) {
+        paths.add(Paths.get(directory, String.format("discord-ipc-%d", i)));
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Connects to the first IPC endpoint that accepts the connection and sends the handshake.
+   */
+  private void connect() {
+    for (Path path : getIpcPaths()) {
+      if (!Files.exists(path)) {
+        continue;
+      }
+      try {
+        this.channel = this.connector.connect(path);
+      } catch (IOException ioe) {
+        continue;
+      }
+
+      StringBuilder builder = new StringBuilder("{\"v\":1,\"client_id\":");
+      this.write(OP_HANDSHAKE, DiscordJson.quote(builder, this.applicationId)
+          .append('}')
+          .toString());
+      return;
+    }
+    this.scheduleReconnect();
+  }
+
+  /**
+   * Writes the queued frames, then reads every complete frame available on the connection and
+   * handles it.
+   *
+   * @param callbacks The {@code List} the callbacks to be dispatched are added to.
+   */
+  private void read(final List<Runnable> callbacks) {
+    this.flush();
+    if (this.writeFailed) {
+      this.disconnect(callbacks, ERROR_PIPE_CLOSED, "Pipe closed");
+      return;
+    }
+    try {
+      if (this.channel.read(this.readBuffer) < 0) {
+        this.disconnect(callbacks, ERROR_PIPE_CLOSED, "Pipe closed");
+        return;
+      }
+    } catch (IOException ioe) {
+      this.disconnect(callbacks, ERROR_PIPE_CLOSED, "Pipe closed");
+      return;
+    }
+
+    this.readBuffer.flip();
+    try {
+      while (this.channel != null && this.readBuffer.remaining() >= HEADER_SIZE) {
+        int position = this.readBuffer.position();
+        int opcode = this.readBuffer.getInt(position);
+        int length = this.readBuffer.getInt(position + 4);
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+          this.disconnect(callbacks, ERROR_READ_CORRUPT, "Bad ipc frame");
+          break;
+        }
+        if (this.readBuffer.remaining() < HEADER_SIZE + length) {
+          break;
+        }
+
+        String payload = new String(this.readBuffer.array(), position + HEADER_SIZE, length,
+            StandardCharsets.UTF_8);
+        this.readBuffer.position(position + HEADER_SIZE + length);
+        try {
+          this.handle(callbacks, opcode, payload);
+        } catch (IllegalArgumentException iae) {
+          this.disconnect(callbacks, ERROR_READ_CORRUPT, "Bad ipc frame");
+        }
+      }
+    } finally {
+      // the buffer is left ready for the next read whatever happened to the frames
+      if (this.channel != null) {
+        this.readBuffer.compact();
+      } else {
+        this.readBuffer.clear();
+      }
+    }
+  }
+
+  /**
+   * Handles a single frame received from Discord.
+   *
+   * @param callbacks The {@code List} the callbacks to be dispatched are added to.
+   * @param opcode    The opcode of the frame.
+   * @param payload   The {@code String} object containing the JSON payload of the frame.
+   */
+  private void handle(final List<Runnable> callbacks, int opcode, final String payload) {
+    switch (opcode) {
+      case OP_PING:
+        this.write(OP_PONG, payload);
+        return;
+      case OP_CLOSE:
+        Map<String, Object> close = DiscordJson.parseObject(payload);
+        this.disconnect(callbacks, toInt(DiscordJson.get(close, "code")),
+            toText(DiscordJson.get(close, "message")));
+        return;
+      case OP_FRAME:
+        break;
+      default:
+        return;
+    }
+
+    Map<String, Object> message = DiscordJson.parseObject(payload);
+    Object cmd = DiscordJson.get(message, "cmd");
+    Object evt = DiscordJson.get(message, "evt");
+    DiscordEventHandlers handlers = this.handlers;
+    if (!this.ready) {
+      if ("DISPATCH".equals(cmd) && "READY".equals(evt)) {
+        this.ready = true;
+        this.reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+        this.subscribe();
+        if (this.activity != null) {
+          this.sendActivity();
+        }
+        if (handlers.ready != null) {
+          DiscordUser user = toUser(DiscordJson.get(message, "data", "user"));
+          callbacks.add(() -> handlers.ready.onReady(user));
+        }
+      }
+      return;
+    }
+
+    if ("ERROR".equals(evt)) {
+      if (handlers.errored != null) {
+        int code = toInt(DiscordJson.get(message, "data", "code"));
+        String text = toText(DiscordJson.get(message, "data", "message"));
+        callbacks.add(() -> handlers.errored.onErrored(code, text));
+      }
+    } else if ("DISPATCH".equals(cmd)) {
+      String secret = toText(DiscordJson.get(message, "data", "secret"));
+      if ("ACTIVITY_JOIN".equals(evt) && handlers.joinGame != null) {
+        callbacks.add(() -> handlers.joinGame.onJoinGame(secret));
+      } else if ("ACTIVITY_SPECTATE".equals(evt) && handlers.spectateGame != null) {
+        callbacks.add(() -> handlers.spectateGame.onSpectateGame(secret));
+      } else if ("ACTIVITY_JOIN_REQUEST".equals(evt) && handlers.joinRequest != null) {
+        DiscordUser user = toUser(DiscordJson.get(message, "data", "user"));
+        callbacks.add(() -> handlers.joinRequest.onJoinRequest(user));
+      }
+    }
+  }
+
+  /**
+   * Subscribes to the events for which a callback is registered, and unsubscribes from the
+   * others.
+   */
+  private void subscribe() {
+    DiscordEventHandlers handlers = this.handlers;
+    boolean[] wanted = {handlers.joinGame != null, handlers.spectateGame != null,
+        handlers.joinRequest != null};
+    for (int i = 0; i < EVENTS.length; i++) {
+      if (wanted[i] == this.subscribed[i]) {
+        continue;
+      }
+
+      StringBuilder builder = new StringBuilder("{\"nonce\":");
+      DiscordJson.quote(builder, this.nextNonce());
+      DiscordJson.quote(builder.append(",\"cmd\":"), wanted[i] ? "SUBSCRIBE" : "UNSUBSCRIBE");
+      DiscordJson.quote(builder.append(",\"evt\":"), EVENTS[i]).append('}');
+      this.write(OP_FRAME, builder.toString());
+      this.subscribed[i] = wanted[i];
+    }
+  }
+
+  /**
+   * Sends the current activity, or clears it if there is none.
+   */
+  private void sendActivity() {
+    StringBuilder builder = new StringBuilder("{\"nonce\":");
+    DiscordJson.quote(builder, this.nextNonce());
+    builder.append(",\"cmd\":\"SET_ACTIVITY\",\"args\":{\"pid\":").append(this.pid);
+    if (this.activity != null) {
+      builder.append(",\"activity\":").append(this.activity);
+    }
+    this.write(OP_FRAME, builder.append("}}").toString());
+  }
+
+  /**
+   * Writes a frame to the connection. If the connection fails, the failure is reported by the next
+   * call to {@link #runCallbacks()}.
+   *
+   * @param opcode  The opcode of the frame.
+   * @param payload The {@code String} object containing the JSON payload of the frame.
+   */
+  private void write(int opcode, final String payload) {
+    if (this.channel == null || this.writeFailed) {
+      return;
+    }
+
+    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    if (this.queueBuffer.remaining() < HEADER_SIZE + bytes.length) {
+      this.flush();
+      if (this.queueBuffer.remaining() < HEADER_SIZE + bytes.length) {
+        // Discord stopped reading, so the connection is dropped rather than waited for
+        this.writeFailed = true;
+        return;
+      }
+    }
+    this.queueBuffer.putInt(opcode).putInt(bytes.length).put(bytes);
+    this.flush();
+  }
+
+  /**
+   * Writes as much of the queued frames as the connection takes without blocking.
+   */
+  private void flush() {
+    if (this.channel == null || this.writeFailed || this.queueBuffer.position() == 0) {
+      return;
+    }
+
+    this.queueBuffer.flip();
+    try {
+      this.channel.write(this.queueBuffer);
+    } catch (IOException ioe) {
+      this.writeFailed = true;
+    } finally {
+      this.queueBuffer.compact();
+    }
+  }
+
+  /**
+   * Closes the connection and reports the disconnection if the handshake had completed.
+   *
+   * @param callbacks The {@code List} the callbacks to be dispatched are added to.
+   * @param errorCode The error code of the disconnection.
+   * @param message   The {@code String} object containing the reason of the disconnection.
+   */
+  private void disconnect(final List<Runnable> callbacks, int errorCode, final String message) {
+    boolean wasReady = this.ready;
+    this.close();
+    this.scheduleReconnect();
+
+    DiscordEventHandlers handlers = this.handlers;
+    if (wasReady && handlers.disconnected != null) {
+      callbacks.add(() -> handlers.disconnected.onDisconnected(errorCode, message));
+    }
+  }
+
+  /**
+   * Closes the connection without reporting it.
+   */
+  private void close() {
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException ioe) {
+        // the connection is dropped either way
+      }
+    }
+    this.channel = null;
+    this.ready = false;
+    this.writeFailed = false;
+    Arrays.fill(this.subscribed, false);
+    this.readBuffer.clear();
+    this.queueBuffer.clear();
+  }
+
+  /**
+   * Schedules the next connection attempt, backing off exponentially after every failure.
+   */
+  private void scheduleReconnect() {
+    this.reconnectAtNanos = System.nanoTime() + this.reconnectDelayNanos;
+    this.reconnectDelayNanos = Math.min(this.reconnectDelayNanos * 2L, MAX_RECONNECT_DELAY_NANOS);
+  }
+
+  private String nextNonce() {
+    return Long.toString(++this.nonce);
+  }
+
+  /**
+   * Serialises a Rich Presence into the activity object of {@code SET_ACTIVITY}, leaving out the
+   * fields that are not set like the native library does, along with the objects left empty.
+   *
+   * @param presence The {@code DiscordRichPresence} object to serialise.
+   * @return The {@code String} object containing the JSON activity.
+   */
+  @SuppressWarnings("deprecation")
+  static String toActivity(final DiscordRichPresence presence) {
+    StringBuilder builder = new StringBuilder("{");
+    appendString(builder, "state", presence.state);
+    appendString(builder, "details", presence.details);
+    if (presence.startTimestamp != 0L || presence.endTimestamp != 0L) {
+      builder.append(builder.length() > 1 ? "," : "").append("\"timestamps\":{");
+      int length = builder.length();
+      if (presence.startTimestamp != 0L) {
+        builder.append("\"start\":").append(presence.startTimestamp);
+      }
+      if (presence.endTimestamp != 0L) {
+        builder.append(builder.length() > length ? "," : "")
+            .append("\"end\":").append(presence.endTimestamp);
+      }
+      builder.append('}');
+    }
+    if (presence.largeImageKey != null || presence.largeImageText != null
+        || presence.smallImageKey != null || presence.smallImageText != null) {
+      int start = builder.length();
+      builder.append(start > 1 ? "," : "").append("\"assets\":{");
+      int length = builder.length();
+      appendString(builder, length, "large_image", presence.largeImageKey);
+      appendString(builder, length, "large_text", presence.largeImageText);
+      appendString(builder, length, "small_image", presence.smallImageKey);
+      appendString(builder, length, "small_text", presence.smallImageText);
+      endObject(builder, start, length);
+    }
+    if (presence.partyId != null || presence.partySize != 0 || presence.partyMax != 0) {
+      int start = builder.length();
+      builder.append(start > 1 ? "," : "").append("\"party\":{");
+      int length = builder.length();
+      appendString(builder, length, "id", presence.partyId);
+      if (presence.partySize != 0 && presence.partyMax != 0) {
+        builder.append(builder.length() > length ? "," : "")
+            .append("\"size\":[").append(presence.partySize)
+            .append(',').append(presence.partyMax).append(']');
+      }
+      endObject(builder, start, length);
+    }
+    if (presence.matchSecret != null || presence.joinSecret != null
+        || presence.spectateSecret != null) {
+      int start = builder.length();
+      builder.append(start > 1 ? "," : "").append("\"secrets\":{");
+      int length = builder.length();
+      appendString(builder, length, "match", presence.matchSecret);
+      appendString(builder, length, "join", presence.joinSecret);
+      appendString(builder, length, "spectate", presence.spectateSecret);
+      endObject(builder, start, length);
+    }
+    builder.append(builder.length() > 1 ? "," : "")
+        .append("\"instance\":").append(presence.instance != 0);
+    return builder.append('}').toString();
+  }
+
+  /**
+   * Closes an object opened at the given position, or removes it again if none of its fields were
+   * set, such as when they are all empty or the party size is given without its maximum.
+   *
+   * @param builder The {@code StringBuilder} object the object is appended to.
+   * @param start   The length of {@code builder} before the object was opened.
+   * @param length  The length of {@code builder} after the object was opened.
+   */
+  private static void endObject(final StringBuilder builder, int start, int length) {
+    if (builder.length() == length) {
+      builder.setLength(start);
+    } else {
+      builder.append('}');
+    }
+  }
+
+  private static void appendString(final StringBuilder builder, final String key,
+      final String value) {
+    appendString(builder, 1, key, value);
+  }
+
+  private static void appendString(final StringBuilder builder, int start, final String key,
+      final String value) {
+    if (value == null || value.isEmpty()) {
+      return;
+    }
+    if (builder.length() > start) {
+      builder.append(',');
+    }
+    DiscordJson.quote(DiscordJson.quote(builder, key).append(':'), value);
+  }
+
+  private static DiscordUser toUser(final Object object) {
+    DiscordUser user = new DiscordUser();
+    if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      user.userId = toText(map.get("id"));
+      user.username = toText(map.get("username"));
+      user.discriminator = toText(map.get("discriminator"));
+      user.avatar = toText(map.get("avatar"));
+    }
+    return user;
+  }
+
+  private static String toText(final Object value) {
+    return value instanceof String ? (String) value : null;
+  }
+
+  private static int toInt(final Object value) {
+    return value instanceof Number ? ((Number) value).intValue() : 0;
+  }
+
+  private static long getProcessId() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    try {
+      return Long.parseLong(name.substring(0, name.indexOf('@')));
+    } catch (RuntimeException re) {
+      return 0L;
+    }
+  }
+}
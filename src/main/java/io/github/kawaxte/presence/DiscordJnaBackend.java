@@ -0,0 +1,91 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code DiscordJnaBackend} class forwards the calls of {@link DiscordRPC} to the Discord RPC
+ * library through the JNA bindings of {@link IDiscordRPC} and {@link IDiscordRegister}.
+ * <p>
+ * This backend works on every supported Java version and is used whenever no faster backend is
+ * available.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see IDiscordBackend
+ */
+final class DiscordJnaBackend implements IDiscordBackend {
+
+  private final IDiscordRPC rpc;
+  private final IDiscordRegister register;
+
+  /**
+   * Constructs a new {@code DiscordJnaBackend} calling the native library shared by the JVM.
+   */
+  DiscordJnaBackend() {
+    this(IDiscordRPC.INSTANCE, IDiscordRegister.INSTANCE);
+  }
+
+  /**
+   * Constructs a new {@code DiscordJnaBackend} calling the given bindings, such as those of the
+   * private copy of the native library loaded by a {@link DiscordInstance}.
+   *
+   * @param rpc      The {@code IDiscordRPC} bindings of the library.
+   * @param register The {@code IDiscordRegister} bindings of the same library.
+   */
+  DiscordJnaBackend(final IDiscordRPC rpc, final IDiscordRegister register) {
+    this.rpc = rpc;
+    this.register = register;
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    this.rpc.Discord_Initialize(applicationId,
+        handlers,
+        autoRegister ? 1 : 0,
+        optionalSteamId);
+  }
+
+  @Override
+  public void shutdown() {
+    this.rpc.Discord_Shutdown();
+  }
+
+  @Override
+  public void runCallbacks() {
+    this.rpc.Discord_RunCallbacks();
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    this.rpc.Discord_UpdatePresence(presence);
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.rpc.Discord_UpdatePresence(buffer.write());
+  }
+
+  @Override
+  public void clearPresence() {
+    this.rpc.Discord_ClearPresence();
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    this.rpc.Discord_Respond(userId, reply);
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    this.rpc.Discord_UpdateHandlers(handlers);
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    this.register.Discord_Register(applicationId, command);
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    this.register.Discord_RegisterSteamGame(applicationId, steamId);
+  }
+}
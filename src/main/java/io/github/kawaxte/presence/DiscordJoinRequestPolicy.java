@@ -0,0 +1,378 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code DiscordJoinRequestPolicy} class replies to join requests on its own, based on an
+ * allowlist, a blocklist, the capacity of the party and a per-user cooldown.
+ * <p>
+ * The callback returned by {@link #getCallback()} is to be set as
+ * {@link DiscordEventHandlers#joinRequest}. Every request is decided in the callback without
+ * blocking, using only the user ID, and the replies are queued. The queued replies are then sent
+ * all at once when {@link DiscordRPC#runCallbacks()} has run every callback, or
+ * {@link DiscordInstance#runCallbacks()} for a policy replying through a {@link DiscordInstance},
+ * so a burst of requests is answered in a single drain cycle.
+ * </p>
+ * <p>
+ * A request is decided as follows:
+ * <ol>
+ *   <li>from a blocked user, it is denied;</li>
+ *   <li>within the cooldown of the last request from the same user which was not ignored this
+ *   way, it is ignored;</li>
+ *   <li>while the party is full, it is denied;</li>
+ *   <li>from an allowed user, it is accepted and takes a place in the party;</li>
+ *   <li>otherwise, the default reply is used, which ignores the request unless changed.</li>
+ * </ol>
+ * Ignored requests are not replied to at all.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#joining">Introducing Rich Presence - Joining</a>
+ */
+public final class DiscordJoinRequestPolicy {
+
+  private static final Queue<DiscordJoinRequestPolicy> PENDING = new ConcurrentLinkedQueue<>();
+
+  private final BiConsumer<String, Integer> responder;
+  private final Queue<DiscordJoinRequestPolicy> pending;
+  private final Set<String> allowed = ConcurrentHashMap.newKeySet();
+  private final Set<String> blocked = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<String, Long> lastRequestNanos = new ConcurrentHashMap<>();
+  private final AtomicInteger partySize = new AtomicInteger();
+  private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean queued = new AtomicBoolean();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder ignored = new LongAdder();
+  private final DiscordEventHandlers.IJoinRequestViewCallback callback = request ->
+      this.queue(request.getUserId());
+  private volatile int partyMax;
+  private volatile long cooldownNanos;
+  private volatile int defaultReply = DiscordRPC.REPLY_IGNORE;
+
+  /**
+   * Constructs a new {@code DiscordJoinRequestPolicy} which replies through
+   * {@link DiscordRPC#respond(String, int)}.
+   */
+  public DiscordJoinRequestPolicy() {
+    this(DiscordRPC::respond);
+  }
+
+  /**
+   * Constructs a new {@code DiscordJoinRequestPolicy} which replies through the given responder,
+   * once {@link DiscordRPC#runCallbacks()} has run every callback.
+   *
+   * @param responder The {@code BiConsumer} the user ID and reply of every decided request are
+   *                  passed to.
+   * @throws NullPointerException if {@code responder} is {@code null}.
+   */
+  public DiscordJoinRequestPolicy(final BiConsumer<String, Integer> responder) {
+    this(responder, PENDING);
+  }
+
+  /**
+   * Constructs a new {@code DiscordJoinRequestPolicy} which replies through
+   * {@link DiscordInstance#respond(String, int)}, once {@link DiscordInstance#runCallbacks()} has
+   * run every callback of the instance.
+   *
+   * @param instance The {@code DiscordInstance} object receiving the requests.
+   * @throws NullPointerException if {@code instance} is {@code null}.
+   */
+  public DiscordJoinRequestPolicy(final DiscordInstance instance) {
+    this(Objects.requireNonNull(instance, "instance must not be null")::respond,
+        instance.getPendingPolicies());
+  }
+
+  /**
+   * Constructs a new {@code DiscordJoinRequestPolicy}.
+   *
+   * @param responder The {@code BiConsumer} the user ID and reply of every decided request are
+   *                  passed to.
+   * @param pending   The {@code Queue} the policy is added to when it has replies to send, which
+   *                  is drained by the owner of the callbacks once they have run.
+   */
+  private DiscordJoinRequestPolicy(final BiConsumer<String, Integer> responder,
+      final Queue<DiscordJoinRequestPolicy> pending) {
+    Objects.requireNonNull(responder, "responder must not be null");
+
+    this.responder = responder;
+    this.pending = pending;
+  }
+
+  /**
+   * Returns the callback to be set as {@link DiscordEventHandlers#joinRequest}.
+   *
+   * @return The {@code IJoinRequestViewCallback} object deciding the requests.
+   */
+  public DiscordEventHandlers.IJoinRequestViewCallback getCallback() {
+    return this.callback;
+  }
+
+  /**
+   * Adds a user to the allowlist, and removes them from the blocklist.
+   *
+   * @param userId The user ID of the user to allow.
+   * @throws NullPointerException if {@code userId} is {@code null}.
+   */
+  public void allow(final String userId) {
+    Objects.requireNonNull(userId, "userId must not be null");
+
+    this.blocked.remove(userId);
+    this.allowed.add(userId);
+  }
+
+  /**
+   * Adds a user to the blocklist, and removes them from the allowlist.
+   *
+   * @param userId The user ID of the user to block.
+   * @throws NullPointerException if {@code userId} is {@code null}.
+   */
+  public void block(final String userId) {
+    Objects.requireNonNull(userId, "userId must not be null");
+
+    this.allowed.remove(userId);
+    this.blocked.add(userId);
+  }
+
+  /**
+   * Removes a user from both the allowlist and the blocklist.
+   *
+   * @param userId The user ID of the user to forget.
+   * @throws NullPointerException if {@code userId} is {@code null}.
+   */
+  public void forget(final String userId) {
+    Objects.requireNonNull(userId, "userId must not be null");
+
+    this.allowed.remove(userId);
+    this.blocked.remove(userId);
+  }
+
+  /**
+   * Sets the current size and the capacity of the party, which should match the
+   * {@code partySize} and {@code partyMax} of the presence. Every accepted request takes a place
+   * in the party until this method is called again.
+   *
+   * @param partySize The number of players in the party.
+   * @param partyMax  The maximum number of players in the party, or {@code 0} for no limit.
+   * @throws IllegalArgumentException if {@code partySize} or {@code partyMax} is negative.
+   */
+  public void setParty(int partySize, int partyMax) {
+    if (partySize < 0 || partyMax < 0) {
+      throw new IllegalArgumentException("partySize and partyMax must not be negative");
+    }
+
+    this.partyMax = partyMax;
+    this.partySize.set(partySize);
+  }
+
+  /**
+   * Sets the time during which further requests from a user are ignored, counted from the last
+   * one of their requests which was not ignored because of it.
+   *
+   * @param cooldown The cooldown, or {@code 0} for none.
+   * @param unit     The {@code TimeUnit} of {@code cooldown}.
+   * @throws NullPointerException     if {@code unit} is {@code null}.
+   * @throws IllegalArgumentException if {@code cooldown} is negative.
+   */
+  public void setCooldown(long cooldown, final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    if (cooldown < 0) {
+      throw new IllegalArgumentException("cooldown must not be negative");
+    }
+
+    this.cooldownNanos = unit.toNanos(cooldown);
+  }
+
+  /**
+   * Sets the reply to requests from users who are neither allowed nor blocked.
+   *
+   * @param reply One of {@link DiscordRPC#REPLY_NO}, {@link DiscordRPC#REPLY_YES} or
+   *              {@link DiscordRPC#REPLY_IGNORE}.
+   * @throws IllegalArgumentException if {@code reply} is not between 0 and 2.
+   */
+  public void setDefaultReply(int reply) {
+    if (reply < DiscordRPC.REPLY_NO || reply > DiscordRPC.REPLY_IGNORE) {
+      throw new IllegalArgumentException("reply must be between 0 and 2");
+    }
+
+    this.defaultReply = reply;
+  }
+
+  /**
+   * Decides the reply to a request from the given user, counting it and taking a place in the
+   * party if it is accepted. The reply is not sent.
+   *
+   * @param userId The user ID of the user requesting to join.
+   * @return One of {@link DiscordRPC#REPLY_NO}, {@link DiscordRPC#REPLY_YES} or
+   * {@link DiscordRPC#REPLY_IGNORE}.
+   * @throws NullPointerException if {@code userId} is {@code null}.
+   */
+  public int decide(final String userId) {
+    Objects.requireNonNull(userId, "userId must not be null");
+
+    int reply = this.evaluate(userId);
+    switch (reply) {
+      case DiscordRPC.REPLY_YES:
+        this.accepted.increment();
+        break;
+      case DiscordRPC.REPLY_NO:
+        this.rejected.increment();
+        break;
+      default:
+        this.ignored.increment();
+        break;
+    }
+    return reply;
+  }
+
+  /**
+   * Sends the queued replies. This is done automatically by {@link DiscordRPC#runCallbacks()} or
+   * {@link DiscordInstance#runCallbacks()}, but can be called earlier when the callbacks are
+   * dispatched by a {@link DiscordEventDispatcher}.
+   */
+  public void flush() {
+    this.queued.set(false);
+    for (Reply reply; (reply = this.replies.poll()) != null; ) {
+      this.responder.accept(reply.userId, reply.reply);
+    }
+
+    long cooldownNanos = this.cooldownNanos;
+    long now = System.nanoTime();
+    this.lastRequestNanos.values().removeIf(requestNanos -> now - requestNanos >= cooldownNanos);
+  }
+
+  /**
+   * Returns the number of requests accepted.
+   *
+   * @return The number of accepted requests.
+   */
+  public long getAcceptedCount() {
+    return this.accepted.sum();
+  }
+
+  /**
+   * Returns the number of requests denied.
+   *
+   * @return The number of rejected requests.
+   */
+  public long getRejectedCount() {
+    return this.rejected.sum();
+  }
+
+  /**
+   * Returns the number of requests ignored.
+   *
+   * @return The number of ignored requests.
+   */
+  public long getIgnoredCount() {
+    return this.ignored.sum();
+  }
+
+  /**
+   * Sends the queued replies of every policy bound to {@link DiscordRPC} which decided a request
+   * since the last call.
+   */
+  static void flushAll() {
+    flushAll(PENDING);
+  }
+
+  /**
+   * Sends the queued replies of every policy in the given queue.
+   *
+   * @param pending The {@code Queue} of the policies which decided a request since the last call.
+   */
+  static void flushAll(final Queue<DiscordJoinRequestPolicy> pending) {
+    for (DiscordJoinRequestPolicy policy; (policy = pending.poll()) != null; ) {
+      policy.flush();
+    }
+  }
+
+  private void queue(final String userId) {
+    if (userId == null) {
+      return;
+    }
+
+    int reply = this.decide(userId);
+    if (reply == DiscordRPC.REPLY_IGNORE) {
+      return;
+    }
+    this.replies.add(new Reply(userId, reply));
+    if (this.queued.compareAndSet(false, true)) {
+      this.pending.add(this);
+    }
+  }
+
+  private int evaluate(final String userId) {
+    if (this.blocked.contains(userId)) {
+      return DiscordRPC.REPLY_NO;
+    }
+
+    long cooldownNanos = this.cooldownNanos;
+    if (cooldownNanos > 0L) {
+      long now = System.nanoTime();
+      while (true) {
+        // a request ignored here leaves the time as it was, so the cooldown ends regardless
+        Long previousNanos = this.lastRequestNanos.get(userId);
+        if (previousNanos != null && now - previousNanos < cooldownNanos) {
+          return DiscordRPC.REPLY_IGNORE;
+        }
+        if (previousNanos == null
+            ? this.lastRequestNanos.putIfAbsent(userId, now) == null
+            : this.lastRequestNanos.replace(userId, previousNanos, now)) {
+          break;
+        }
+      }
+    }
+
+    int reply = this.allowed.contains(userId) ? DiscordRPC.REPLY_YES : this.defaultReply;
+    if (reply == DiscordRPC.REPLY_YES && !this.takePlace()) {
+      return DiscordRPC.REPLY_NO;
+    }
+    if (reply != DiscordRPC.REPLY_YES && this.isFull()) {
+      return DiscordRPC.REPLY_NO;
+    }
+    return reply;
+  }
+
+  private boolean isFull() {
+    int partyMax = this.partyMax;
+    return partyMax > 0 && this.partySize.get() >= partyMax;
+  }
+
+  private boolean takePlace() {
+    while (true) {
+      int partyMax = this.partyMax;
+      int partySize = this.partySize.get();
+      if (partyMax > 0 && partySize >= partyMax) {
+        return false;
+      }
+      if (this.partySize.compareAndSet(partySize, partySize + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * The {@code Reply} class holds a reply waiting to be sent.
+   */
+  private static final class Reply {
+
+    private final String userId;
+    private final int reply;
+
+    private Reply(final String userId, int reply) {
+      this.userId = userId;
+      this.reply = reply;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package io.github.kawaxte.presence;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code DiscordJson} class provides the small subset of JSON needed to speak the local IPC
+ * protocol of Discord, without depending on a JSON library.
+ * <p>
+ * Objects are parsed into {@link Map}, arrays into {@link List}, numbers into {@link Long} or
+ * {@link Double}, and strings, booleans and {@code null} into their Java counterparts.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+final class DiscordJson {
+
+  private final String json;
+  private int position;
+
+  /**
+   * Constructs a new {@code DiscordJson} parser for the given text.
+   *
+   * @param json The {@code String} object containing the JSON text.
+   */
+  private DiscordJson(final String json) {
+    this.json = json;
+  }
+
+  /**
+   * Parses a JSON object.
+   *
+   * @param json The {@code String} object containing the JSON text.
+   * @return The {@code Map} object representing the JSON object.
+   * @throws IllegalArgumentException if {@code json} is not a valid JSON object.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> parseObject(final String json) {
+    DiscordJson parser = new DiscordJson(json);
+    Object value = parser.readValue();
+    parser.skipWhitespace();
+    if (!(value instanceof Map) || parser.position != json.length()) {
+      throw new IllegalArgumentException("JSON text is not an object");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  /**
+   * Returns a nested value of a parsed JSON object.
+   *
+   * @param object The {@code Map} object representing the JSON object.
+   * @param keys   The keys leading to the value.
+   * @return The value, or {@code null} if any of the keys is missing.
+   */
+  static Object get(final Map<String, Object> object, final String... keys) {
+    Object value = object;
+    for (String key : keys) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<?, ?>) value).get(key);
+    }
+    return value;
+  }
+
+  /**
+   * Appends a string to a JSON text as a quoted and escaped JSON string.
+   *
+   * @param builder The {@code StringBuilder} object to append to.
+   * @param value   The {@code String} object to append. This can be {@code null}.
+   * @return The {@code StringBuilder} object.
+   */
+  static StringBuilder quote(final StringBuilder builder, final String value) {
+    if (value == null) {
+      return builder.append("null");
+    }
+
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+          break;
+      }
+    }
+    return builder.append('"');
+  }
+
+  private Object readValue() {
+    this.skipWhitespace();
+    if (this.position >= this.json.length()) {
+      throw this.error("Unexpected end of JSON text");
+    }
+
+    char c = this.json.charAt(this.position);
+    switch (c) {
+      case '{':
+        return this.readObject();
+      case '[':
+        return this.readArray();
+      case '"':
+        return this.readString();
+      case 't':
+        this.expect("true");
+        return Boolean.TRUE;
+      case 'f':
+        this.expect("false");
+        return Boolean.FALSE;
+      case 'n':
+        this.expect("null");
+        return null;
+      default:
+        return this.readNumber();
+    }
+  }
+
+  private Map<String, Object> readObject() {
+    Map<String, Object> object = new LinkedHashMap<>();
+    this.position++;
+    this.skipWhitespace();
+    if (this.peek() == '}') {
+      this.position++;
+      return object;
+    }
+    while (true) {
+      this.skipWhitespace();
+      if (this.peek() != '"') {
+        throw this.error("Expected a key");
+      }
+      String key = this.readString();
+      this.skipWhitespace();
+      this.expect(":");
+      object.put(key, this.readValue());
+      this.skipWhitespace();
+      char c = this.next();
+      if (c == '}') {
+        return object;
+      }
+      if (c != ',') {
+        throw this.error("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private List<Object> readArray() {
+    List<Object> array = new ArrayList<>();
+    this.position++;
+    this.skipWhitespace();
+    if (this.peek() == ']') {
+      this.position++;
+      return array;
+    }
+    while (true) {
+      array.add(this.readValue());
+      this.skipWhitespace();
+      char c = this.next();
+      if (c == ']') {
+        return array;
+      }
+      if (c != ',') {
+        throw this.error("Expected ',' or ']'");
+      }
+    }
+  }
+
+  private String readString() {
+    StringBuilder builder = new StringBuilder();
+    this.position++;
+    while (true) {
+      char c = this.next();
+      if (c == '"') {
+        return builder.toString();
+      }
+      if (c != '\\') {
+        builder.append(c);
+        continue;
+      }
+
+      char escaped = this.next();
+      switch (escaped) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          if (this.position + 4 > this.json.length()) {
+            throw this.error("Unexpected end of JSON text");
+          }
+          builder.append((char) Integer.parseInt(
+              this.json.substring(this.position, this.position + 4), 16));
+          this.position += 4;
+          break;
+        default:
+          builder.append(escaped);
+          break;
+      }
+    }
+  }
+
+  private Number readNumber() {
+    int start = this.position;
+    while (this.position < this.json.length()
+        && "+-0123456789.eE".indexOf(this.json.charAt(this.position)) >= 0) {
+      this.position++;
+    }
+    String number = this.json.substring(start, this.position);
+    if (number.isEmpty()) {
+      throw this.error("Unexpected character");
+    }
+    try {
+      return number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0
+          ? (Number) Double.valueOf(number)
+          : (Number) Long.valueOf(number);
+    } catch (NumberFormatException nfe) {
+      throw this.error("Invalid number");
+    }
+  }
+
+  private void expect(final String token) {
+    if (!this.json.startsWith(token, this.position)) {
+      throw this.error(MessageFormat.format("Expected \"{0}\"", token));
+    }
+    this.position += token.length();
+  }
+
+  private char peek() {
+    return this.position < this.json.length() ? this.json.charAt(this.position) : '\0';
+  }
+
+  private char next() {
+    if (this.position >= this.json.length()) {
+      throw this.error("Unexpected end of JSON text");
+    }
+    return this.json.charAt(this.position++);
+  }
+
+  private void skipWhitespace() {
+    while (this.position < this.json.length()
+        && Character.isWhitespace(this.json.charAt(this.position))) {
+      this.position++;
+    }
+  }
+
+  private IllegalArgumentException error(final String message) {
+    return new IllegalArgumentException(MessageFormat.format("{0} at position {1}", message,
+        this.position));
+  }
+}
@@ -0,0 +1,113 @@
+package io.github.kawaxte.presence;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DiscordLatencyHistogram} class records latencies in nanoseconds into log-linear
+ * buckets, in the manner of an HDR histogram, without locking.
+ * <p>
+ * Every power of two is split into {@code 8} buckets, so a percentile is reported within 12.5% of
+ * the recorded value whatever its magnitude, using a fixed array of counters.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordLatencySnapshot
+ */
+final class DiscordLatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos The latency in nanoseconds. Negative values are recorded as {@code 0}.
+   */
+  void record(long nanos) {
+    long value = Math.max(nanos, 0L);
+    this.buckets.incrementAndGet(indexOf(value));
+    this.count.increment();
+    this.total.add(value);
+    this.max.accumulate(value);
+  }
+
+  /**
+   * Returns the latencies recorded so far. Since the counters are read one after the other, a
+   * snapshot taken while latencies are being recorded may be off by the latencies recorded during
+   * the snapshot.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long count = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = this.buckets.get(i);
+      count += counts[i];
+    }
+
+    long max = this.max.get();
+    long mean = count > 0L ? this.total.sum() / Math.max(this.count.sum(), 1L) : 0L;
+    return new DiscordLatencySnapshot(count, mean, max,
+        valueAt(counts, count, 0.5D, max),
+        valueAt(counts, count, 0.9D, max),
+        valueAt(counts, count, 0.99D, max),
+        valueAt(counts, count, 0.999D, max));
+  }
+
+  /**
+   * Discards every recorded latency.
+   */
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.buckets.set(i, 0L);
+    }
+    this.count.reset();
+    this.total.reset();
+    this.max.reset();
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1L;
+  }
+
+  private static long valueAt(final long[] counts, long count, double quantile, long max) {
+    if (count == 0L) {
+      return 0L;
+    }
+
+    long rank = Math.max((long) Math.ceil(quantile * count), 1L);
+    long seen = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+}
@@ -0,0 +1,136 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * The {@code DiscordLatencySnapshot} class holds the latencies recorded for one method of
+ * {@link DiscordRPC} at the time it was taken, as published by {@link IDiscordMetrics}.
+ * <p>
+ * Percentiles are taken from a histogram, so they are reported within 12.5% of the recorded
+ * latencies.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordLatencySnapshot {
+
+  private final long count;
+  private final long meanNanos;
+  private final long maxNanos;
+  private final long p50Nanos;
+  private final long p90Nanos;
+  private final long p99Nanos;
+  private final long p999Nanos;
+
+  /**
+   * Constructs a new {@code DiscordLatencySnapshot}.
+   *
+   * @param count     The number of calls.
+   * @param meanNanos The mean latency in nanoseconds.
+   * @param maxNanos  The highest latency in nanoseconds.
+   * @param p50Nanos  The median latency in nanoseconds.
+   * @param p90Nanos  The 90th percentile latency in nanoseconds.
+   * @param p99Nanos  The 99th percentile latency in nanoseconds.
+   * @param p999Nanos The 99.9th percentile latency in nanoseconds.
+   */
+  DiscordLatencySnapshot(long count, long meanNanos, long maxNanos, long p50Nanos,
+      long p90Nanos, long p99Nanos, long p999Nanos) {
+    this.count = count;
+    this.meanNanos = meanNanos;
+    this.maxNanos = maxNanos;
+    this.p50Nanos = p50Nanos;
+    this.p90Nanos = p90Nanos;
+    this.p99Nanos = p99Nanos;
+    this.p999Nanos = p999Nanos;
+  }
+
+  /**
+   * Reconstructs a snapshot from the {@code CompositeData} it was published as, which lets
+   * {@link javax.management.JMX#newMXBeanProxy} return snapshots.
+   *
+   * @param data The {@code CompositeData} object.
+   * @return The {@code DiscordLatencySnapshot} object.
+   * @throws NullPointerException if {@code data} is {@code null}.
+   */
+  public static DiscordLatencySnapshot from(final CompositeData data) {
+    Objects.requireNonNull(data, "data must not be null");
+
+    return new DiscordLatencySnapshot((Long) data.get("count"),
+        (Long) data.get("meanNanos"),
+        (Long) data.get("maxNanos"),
+        (Long) data.get("p50Nanos"),
+        (Long) data.get("p90Nanos"),
+        (Long) data.get("p99Nanos"),
+        (Long) data.get("p999Nanos"));
+  }
+
+  /**
+   * Returns the number of calls recorded.
+   *
+   * @return The number of calls.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the mean latency.
+   *
+   * @return The mean latency in nanoseconds.
+   */
+  public long getMeanNanos() {
+    return this.meanNanos;
+  }
+
+  /**
+   * Returns the highest latency.
+   *
+   * @return The highest latency in nanoseconds.
+   */
+  public long getMaxNanos() {
+    return this.maxNanos;
+  }
+
+  /**
+   * Returns the median latency.
+   *
+   * @return The median latency in nanoseconds.
+   */
+  public long getP50Nanos() {
+    return this.p50Nanos;
+  }
+
+  /**
+   * Returns the 90th percentile latency.
+   *
+   * @return The 90th percentile latency in nanoseconds.
+   */
+  public long getP90Nanos() {
+    return this.p90Nanos;
+  }
+
+  /**
+   * Returns the 99th percentile latency.
+   *
+   * @return The 99th percentile latency in nanoseconds.
+   */
+  public long getP99Nanos() {
+    return this.p99Nanos;
+  }
+
+  /**
+   * Returns the 99.9th percentile latency.
+   *
+   * @return The 99.9th percentile latency in nanoseconds.
+   */
+  public long getP999Nanos() {
+    return this.p999Nanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordLatencySnapshot[count=%d, mean=%dns, p50=%dns, p99=%dns, max=%dns]",
+        this.count, this.meanNanos, this.p50Nanos, this.p99Nanos, this.maxNanos);
+  }
+}
@@ -0,0 +1,434 @@
+package io.github.kawaxte.presence;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The {@code DiscordMetricsBackend} class records the latency of every call forwarded to another
+ * {@link IDiscordBackend}, and the events received in the callbacks, and publishes them as
+ * {@link IDiscordMetrics}.
+ * <p>
+ * It is only put in front of the backend when the {@code discord-rpc.metrics} system property is
+ * set to {@code true}, so that the calls cost nothing more otherwise. Every counter is a
+ * {@link LongAdder} or an atomic array, so recording never locks.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+final class DiscordMetricsBackend implements IDiscordBackend, IDiscordMetrics {
+
+  static final String METRICS_PROPERTY = "discord-rpc.metrics";
+
+  private final IDiscordBackend backend;
+  private final DiscordLatencyHistogram initialiseLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram shutdownLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram runCallbacksLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram updatePresenceLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram clearPresenceLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram respondLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram updateHandlersLatency = new DiscordLatencyHistogram();
+  private final DiscordLatencyHistogram registerLatency = new DiscordLatencyHistogram();
+  private final RateMeter updatePresenceRate = new RateMeter();
+  private final RateMeter callbackRate = new RateMeter();
+  private final LongAdder ready = new LongAdder();
+  private final LongAdder disconnected = new LongAdder();
+  private final LongAdder errored = new LongAdder();
+  private final LongAdder joinGame = new LongAdder();
+  private final LongAdder spectateGame = new LongAdder();
+  private final LongAdder joinRequest = new LongAdder();
+  private volatile long lastReadyMillis;
+  private volatile long lastReadyNanos;
+  private volatile int lastErrorCode;
+  private volatile String lastErrorMessage;
+  private volatile DiscordEventHandlers handlers;
+
+  /**
+   * Constructs a new {@code DiscordMetricsBackend}.
+   *
+   * @param backend The {@code IDiscordBackend} object the calls are forwarded to.
+   */
+  DiscordMetricsBackend(final IDiscordBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Puts a {@code DiscordMetricsBackend} in front of the given backend and registers it in the
+   * platform MBean server, if enabled by the {@code discord-rpc.metrics} system property.
+   *
+   * @param backend The {@code IDiscordBackend} object selected by {@link DiscordBackends}.
+   * @return The instrumented {@code IDiscordBackend} object, or {@code backend} if the metrics are
+   * disabled.
+   * @throws IllegalStateException if the metrics cannot be registered.
+   */
+  static IDiscordBackend instrument(final IDiscordBackend backend) {
+    if (!Boolean.getBoolean(METRICS_PROPERTY)) {
+      return backend;
+    }
+
+    DiscordMetricsBackend metrics = new DiscordMetricsBackend(backend);
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new StandardMBean(metrics, IDiscordMetrics.class, true), new ObjectName(OBJECT_NAME));
+    } catch (InstanceAlreadyExistsException iaee) {
+      // another copy of the library in the same JVM already publishes its metrics
+    } catch (JMException jme) {
+      throw new IllegalStateException("Failed to register metrics", jme);
+    }
+    return metrics;
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    DiscordEventHandlers instrumented = this.instrument(handlers);
+    long start = System.nanoTime();
+    try {
+      this.backend.initialise(applicationId, instrumented, autoRegister, optionalSteamId);
+    } finally {
+      this.initialiseLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    long start = System.nanoTime();
+    try {
+      this.backend.shutdown();
+    } finally {
+      this.shutdownLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    long start = System.nanoTime();
+    try {
+      this.backend.runCallbacks();
+    } finally {
+      this.runCallbacksLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    long start = System.nanoTime();
+    try {
+      this.backend.updatePresence(presence);
+    } finally {
+      this.updatePresenceLatency.record(System.nanoTime() - start);
+      this.updatePresenceRate.mark(start);
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    long start = System.nanoTime();
+    try {
+      this.backend.updatePresence(buffer);
+    } finally {
+      this.updatePresenceLatency.record(System.nanoTime() - start);
+      this.updatePresenceRate.mark(start);
+    }
+  }
+
+  @Override
+  public void clearPresence() {
+    long start = System.nanoTime();
+    try {
+      this.backend.clearPresence();
+    } finally {
+      this.clearPresenceLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    long start = System.nanoTime();
+    try {
+      this.backend.respond(userId, reply);
+    } finally {
+      this.respondLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    DiscordEventHandlers instrumented = this.instrument(handlers);
+    long start = System.nanoTime();
+    try {
+      this.backend.updateHandlers(instrumented);
+    } finally {
+      this.updateHandlersLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    long start = System.nanoTime();
+    try {
+      this.backend.register(applicationId, command);
+    } finally {
+      this.registerLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    long start = System.nanoTime();
+    try {
+      this.backend.registerSteamGame(applicationId, steamId);
+    } finally {
+      this.registerLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public String getBackend() {
+    return this.backend.getClass().getSimpleName();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getInitialiseLatency() {
+    return this.initialiseLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getShutdownLatency() {
+    return this.shutdownLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getRunCallbacksLatency() {
+    return this.runCallbacksLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getUpdatePresenceLatency() {
+    return this.updatePresenceLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getClearPresenceLatency() {
+    return this.clearPresenceLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getRespondLatency() {
+    return this.respondLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getUpdateHandlersLatency() {
+    return this.updateHandlersLatency.snapshot();
+  }
+
+  @Override
+  public DiscordLatencySnapshot getRegisterLatency() {
+    return this.registerLatency.snapshot();
+  }
+
+  @Override
+  public double getUpdatePresenceRate() {
+    return this.updatePresenceRate.getRate(System.nanoTime());
+  }
+
+  @Override
+  public double getCallbackRate() {
+    return this.callbackRate.getRate(System.nanoTime());
+  }
+
+  @Override
+  public long getReadyCount() {
+    return this.ready.sum();
+  }
+
+  @Override
+  public long getDisconnectedCount() {
+    return this.disconnected.sum();
+  }
+
+  @Override
+  public long getErroredCount() {
+    return this.errored.sum();
+  }
+
+  @Override
+  public long getJoinGameCount() {
+    return this.joinGame.sum();
+  }
+
+  @Override
+  public long getSpectateGameCount() {
+    return this.spectateGame.sum();
+  }
+
+  @Override
+  public long getJoinRequestCount() {
+    return this.joinRequest.sum();
+  }
+
+  @Override
+  public long getLastReadyTime() {
+    return this.lastReadyMillis;
+  }
+
+  @Override
+  public long getTimeSinceLastReady() {
+    if (this.lastReadyMillis == 0L) {
+      return -1L;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastReadyNanos);
+  }
+
+  @Override
+  public int getLastErrorCode() {
+    return this.lastErrorCode;
+  }
+
+  @Override
+  public String getLastErrorMessage() {
+    return this.lastErrorMessage;
+  }
+
+  @Override
+  public void reset() {
+    this.initialiseLatency.reset();
+    this.shutdownLatency.reset();
+    this.runCallbacksLatency.reset();
+    this.updatePresenceLatency.reset();
+    this.clearPresenceLatency.reset();
+    this.respondLatency.reset();
+    this.updateHandlersLatency.reset();
+    this.registerLatency.reset();
+    this.updatePresenceRate.reset();
+    this.callbackRate.reset();
+    this.ready.reset();
+    this.disconnected.reset();
+    this.errored.reset();
+    this.joinGame.reset();
+    this.spectateGame.reset();
+    this.joinRequest.reset();
+    this.lastReadyMillis = 0L;
+    this.lastErrorCode = 0;
+    this.lastErrorMessage = null;
+  }
+
+  /**
+   * Wraps the callbacks of the given handlers so that every event is counted before it is passed
+   * on. The ready, disconnected and errored callbacks are always set, since they subscribe to
+   * nothing, while the others are only set if the application set them.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @return The {@code DiscordEventHandlers} object counting the events.
+   */
+  private DiscordEventHandlers instrument(final DiscordEventHandlers handlers) {
+    DiscordEventHandlers instrumented = DiscordEventHandlers.wrap(handlers, this::count, true);
+    // JNA only holds callbacks weakly, so the wrappers are kept for as long as they are in use
+    this.handlers = instrumented;
+    return instrumented;
+  }
+
+  private Object count(final DiscordEvent.EType type, final DiscordUserView user, int errorCode,
+      final String text) {
+    switch (type) {
+      case READY:
+        this.lastReadyNanos = System.nanoTime();
+        this.lastReadyMillis = System.currentTimeMillis();
+        this.onEvent(this.ready);
+        break;
+      case DISCONNECTED:
+        this.onError(this.disconnected, errorCode, text);
+        break;
+      case ERRORED:
+        this.onError(this.errored, errorCode, text);
+        break;
+      case JOIN_GAME:
+        this.onEvent(this.joinGame);
+        break;
+      case SPECTATE_GAME:
+        this.onEvent(this.spectateGame);
+        break;
+      default:
+        this.onEvent(this.joinRequest);
+        break;
+    }
+    return null;
+  }
+
+
+  private void onError(final LongAdder counter, int errorCode, final String message) {
+    this.lastErrorCode = errorCode;
+    this.lastErrorMessage = message;
+    this.onEvent(counter);
+  }
+
+  private void onEvent(final LongAdder counter) {
+    counter.increment();
+    this.callbackRate.mark(System.nanoTime());
+  }
+
+  /**
+   * The {@code RateMeter} class counts events per second over the last minute, in one slot per
+   * second. Each slot packs the second it counts in its upper half and the count in its lower
+   * half, so that moving a slot to a new second and counting in it is a single atomic update.
+   */
+  private static final class RateMeter {
+
+    private static final int SECONDS = 60;
+
+    private final AtomicLongArray slots = new AtomicLongArray(SECONDS);
+    private volatile long startNanos = System.nanoTime();
+
+    void mark(long nanoTime) {
+      long second = this.secondOf(nanoTime);
+      int slot = (int) (second % SECONDS);
+      while (true) {
+        long current = this.slots.get(slot);
+        long next = current >>> 32 == second ? current + 1L : second << 32 | 1L;
+        if (this.slots.compareAndSet(slot, current, next)) {
+          return;
+        }
+      }
+    }
+
+    double getRate(long nanoTime) {
+      long second = this.secondOf(nanoTime);
+      long seconds = Math.min(second - 1L, SECONDS);
+      if (seconds == 0L) {
+        return 0.0D;
+      }
+
+      long count = 0L;
+      for (int i = 0; i < SECONDS; i++) {
+        long slot = this.slots.get(i);
+        long slotSecond = slot >>> 32;
+        if (slotSecond < second && second - slotSecond <= seconds) {
+          count += slot & 0xFFFFFFFFL;
+        }
+      }
+      return (double) count / seconds;
+    }
+
+    void reset() {
+      for (int i = 0; i < SECONDS; i++) {
+        this.slots.set(i, 0L);
+      }
+      this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of whole seconds since the meter was started or reset, starting at
+     * {@code 1} so that an empty slot never matches a second.
+     */
+    private long secondOf(long nanoTime) {
+      return (TimeUnit.NANOSECONDS.toSeconds(nanoTime - this.startNanos) + 1L) & 0xFFFFFFFFL;
+    }
+  }
+}
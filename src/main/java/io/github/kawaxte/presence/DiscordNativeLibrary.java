@@ -0,0 +1,297 @@
+package io.github.kawaxte.presence;
+
+import com.sun.jna.Library;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code DiscordNativeLibrary} class extracts the native library bundled for the current
+ * platform into a cache shared by every JVM of the user, and loads it once.
+ * <p>
+ * The library is extracted into a directory named after the CRC-32 checksum and size of its
+ * content, so it is only copied the first time a given version is used, and is reused by every
+ * later start. When the library is bundled in a JAR, both are read from the JAR entry, so a start
+ * finding the library in the cache does not even decompress it. JVMs starting at the same time
+ * coordinate using a file lock, and the library is moved into place atomically so a partially
+ * written library is never loaded.
+ * </p>
+ * <p>
+ * The cache is located in the following directories:
+ * <ul>
+ *   <li>Linux: ~/.discord-rpc</li>
+ *   <li>macOS: ~/Library/Application Support/discord-rpc</li>
+ *   <li>Windows: %TEMP%/discord-rpc</li>
+ * </ul>
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordNativeLibrary {
+
+  private static final String LIBRARY_NAME = System.mapLibraryName("discord-rpc");
+  private static final FutureTask<Path> EXTRACTION = new FutureTask<>(
+      DiscordNativeLibrary::extract);
+  private static final AtomicBoolean PRELOADING = new AtomicBoolean();
+  // RTLD_LAZY without RTLD_GLOBAL, RTLD_LOCAL being 0 on both Linux and macOS
+  private static final int RTLD_LAZY_LOCAL = 0x1;
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private DiscordNativeLibrary() {
+    throw new UnsupportedOperationException(String.format("%s is not instantiable",
+        DiscordNativeLibrary.class.getName()));
+  }
+
+  /**
+   * Starts extracting the native library on a background thread.
+   * <p>
+   * This method can be called as early as possible when the application starts, so the library is
+   * ready by the time {@link DiscordRPC} is first used. Calling it more than once has no effect.
+   * </p>
+   */
+  public static void preload() {
+    if (PRELOADING.compareAndSet(false, true)) {
+      Thread thread = new Thread(EXTRACTION, "discord-rpc-library-loader");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Returns the path of the extracted native library, extracting it first unless
+   * {@link #preload()} already has, and waiting for a preload in progress otherwise.
+   *
+   * @return The {@code Path} object pointing to the extracted library.
+   * @throws RuntimeException if the library could not be extracted.
+   */
+  static Path load() {
+    EXTRACTION.run();
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return EXTRACTION.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Returns the options the native library is loaded with by JNA, which keep its symbols out of
+   * the global scope on Linux and macOS, so that the private copies loaded by
+   * {@link DiscordInstance} are bound to their own symbols rather than to those of the library
+   * shared by the JVM.
+   *
+   * @return The {@code Map} of options to be passed to {@link com.sun.jna.Native#load}.
+   */
+  static Map<String, Object> getLoadOptions() {
+    if (DiscordRPC.EPlatform.getPlatform() == DiscordRPC.EPlatform.WINDOWS) {
+      return Collections.emptyMap();
+    }
+    return Collections.singletonMap(Library.OPTION_OPEN_FLAGS, RTLD_LAZY_LOCAL);
+  }
+
+  /**
+   * Extracts the native library for the current platform into the cache, unless a library with the
+   * same content has already been extracted.
+   *
+   * @return The {@code Path} object pointing to the extracted library.
+   * @throws RuntimeException if the library could not be found, or if the library or the
+   *                          directory to extract it to could not be created.
+   */
+  @SuppressWarnings("try")
+  static Path extract() {
+    DiscordRPC.EPlatform platform = DiscordRPC.EPlatform.getPlatform();
+    String resourceName = String.format("%s/%s",
+        platform != DiscordRPC.EPlatform.WINDOWS
+            || System.getProperty("os.arch").equals("amd64")
+            && System.getProperty("sun.arch.data.model").equals("64")
+            ? "amd64"
+            : "x86",
+        LIBRARY_NAME);
+    URL libraryFileUrl = ClassLoader.getSystemResource(resourceName);
+    if (libraryFileUrl == null) {
+      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be found",
+          resourceName));
+    }
+
+    Path directory;
+    try {
+      directory = getCacheDirectory(platform).resolve(getContentKey(libraryFileUrl));
+    } catch (IOException ioe) {
+      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be read",
+          libraryFileUrl), ioe);
+    }
+    Path libraryPath = directory.resolve(LIBRARY_NAME);
+    if (Files.isRegularFile(libraryPath)) {
+      return libraryPath;
+    }
+
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException ioe) {
+      throw new RuntimeException(MessageFormat.format("Directory \"{0}\" could not be created",
+          directory), ioe);
+    }
+
+    try (FileChannel channel = FileChannel.open(directory.resolve(".lock"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock ignored = channel.lock()) {
+      if (!Files.isRegularFile(libraryPath)) {
+        Path temporaryPath = Files.createTempFile(directory, LIBRARY_NAME, ".tmp");
+        try (InputStream is = libraryFileUrl.openStream()) {
+          Files.copy(is, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+          try {
+            Files.move(temporaryPath, libraryPath, StandardCopyOption.ATOMIC_MOVE);
+          } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(temporaryPath, libraryPath, StandardCopyOption.REPLACE_EXISTING);
+          }
+        } finally {
+          Files.deleteIfExists(temporaryPath);
+        }
+      }
+    } catch (IOException ioe) {
+      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be extracted",
+          libraryPath), ioe);
+    }
+    return libraryPath;
+  }
+
+  /**
+   * Copies the extracted native library into a file of its own, which the dynamic loader loads as
+   * a library distinct from the one shared by the JVM, with global state of its own. Copies left
+   * behind for more than a minute, which happens on Windows where a loaded library cannot be
+   * deleted, are deleted first.
+   *
+   * @return The {@code Path} object pointing to the copy, which should be passed to
+   * {@link #release(Path)} once loaded.
+   * @throws RuntimeException if the library could not be extracted or copied.
+   */
+  static Path copy() {
+    Path libraryPath = load();
+    Path directory = libraryPath.resolveSibling("instances");
+    try {
+      Files.createDirectories(directory);
+      long staleMillis = System.currentTimeMillis() - 60_000L;
+      try (DirectoryStream<Path> copies = Files.newDirectoryStream(directory)) {
+        for (Path copy : copies) {
+          try {
+            if (Files.getLastModifiedTime(copy).toMillis() < staleMillis) {
+              Files.deleteIfExists(copy);
+            }
+          } catch (IOException ignored) {
+            // the copy is still loaded by another JVM
+          }
+        }
+      }
+
+      Path copyPath = Files.createTempFile(directory, "discord-rpc-", "-" + LIBRARY_NAME);
+      Files.copy(libraryPath, copyPath, StandardCopyOption.REPLACE_EXISTING);
+      return copyPath;
+    } catch (IOException ioe) {
+      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be copied",
+          libraryPath), ioe);
+    }
+  }
+
+  /**
+   * Deletes a copy made by {@link #copy()} once it has been loaded, which keeps it mapped for as
+   * long as the process runs everywhere but on Windows, where it is deleted later instead.
+   *
+   * @param copyPath The {@code Path} object pointing to the copy.
+   */
+  static void release(final Path copyPath) {
+    try {
+      Files.deleteIfExists(copyPath);
+    } catch (IOException ignored) {
+      // the copy is deleted by a later call to copy()
+    }
+  }
+
+  /**
+   * Returns the directory the files of this library are cached in for the given platform.
+   *
+   * @param platform The {@code EPlatform} to return the directory for.
+   * @return The {@code Path} object pointing to the directory, which may not exist yet.
+   */
+  static Path getCacheDirectory(final DiscordRPC.EPlatform platform) {
+    String userHome = System.getProperty("user.home")
+        .replaceAll("[^a-zA-Z0-9_\\\\/\\-.]", "_");
+
+    Map<DiscordRPC.EPlatform, Path> platformLookup = Collections.unmodifiableMap(
+        new EnumMap<DiscordRPC.EPlatform, Path>(DiscordRPC.EPlatform.class) {{
+          put(DiscordRPC.EPlatform.LINUX, Paths.get(userHome,
+              ".discord-rpc"));
+          put(DiscordRPC.EPlatform.MACOS, Paths.get(userHome,
+              "Library", "Application Support", "discord-rpc"));
+          put(DiscordRPC.EPlatform.WINDOWS, Paths.get(System.getenv("TEMP") != null
+              ? System.getenv("TEMP")
+              : System.getProperty("java.io.tmpdir"), "discord-rpc"));
+        }}
+    );
+    return platformLookup.get(platform);
+  }
+
+  /**
+   * Returns the key under which a library is cached, made of the CRC-32 checksum and size of its
+   * content.
+   *
+   * @param url The {@code URL} object pointing to the bundled library.
+   * @return The {@code String} object containing the key.
+   * @throws IOException if the library could not be read.
+   */
+  private static String getContentKey(final URL url) throws IOException {
+    URLConnection connection = url.openConnection();
+    if (connection instanceof JarURLConnection) {
+      JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+      if (entry.getCrc() != -1L && entry.getSize() != -1L) {
+        return String.format("%08x-%d", entry.getCrc(), entry.getSize());
+      }
+    }
+
+    CRC32 crc = new CRC32();
+    long size = 0L;
+    try (InputStream is = connection.getInputStream()) {
+      byte[] buffer = new byte[64 * 1024];
+      for (int read; (read = is.read(buffer)) != -1; size += read) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    return String.format("%08x-%d", crc.getValue(), size);
+  }
+}
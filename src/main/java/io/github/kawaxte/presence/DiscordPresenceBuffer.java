@@ -0,0 +1,542 @@
+package io.github.kawaxte.presence;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * The {@code DiscordPresenceBuffer} class is a reusable, natively allocated Rich Presence which
+ * can be sent using {@link DiscordRPC#updatePresence(DiscordPresenceBuffer)}.
+ * <p>
+ * Unlike {@link DiscordRichPresence}, which encodes all of its strings into fresh native memory
+ * every time it is sent, the buffer keeps the UTF-8 bytes of each string field in native memory
+ * that lives as long as the buffer. Only the fields that changed since the last send are encoded
+ * again, and strings are truncated to the length Discord accepts for each field without splitting
+ * a UTF-8 sequence.
+ * </p>
+ * <p>
+ * A string field can also be bound to a {@link DiscordPresenceTemplate.Binding}, in which case
+ * its text is rendered from the values of the binding every time the buffer is sent, and its UTF-8
+ * bytes are copied into native memory as they are, only when the text changed.
+ * </p>
+ * <p>
+ * A buffer is not thread-safe and should only be used by one thread at a time. Since the native
+ * library copies the presence while it is being sent, the buffer can be changed again as soon as
+ * the send returns.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see EPresenceField
+ */
+public final class DiscordPresenceBuffer implements Closeable {
+
+  private static final EPresenceField[] FIELDS = EPresenceField.values();
+  private static final int[] OFFSETS = new int[FIELDS.length];
+  private static final int[] SLOTS = new int[FIELDS.length];
+  private static final int STRUCTURE_SIZE;
+  private static final int SLOTS_SIZE;
+  private static final int CACHE_SIZE = 32;
+
+  static {
+    int slot = 0;
+    for (EPresenceField field : FIELDS) {
+      OFFSETS[field.ordinal()] = DiscordRichPresence.offsetOf(field);
+      if (field.isString()) {
+        SLOTS[field.ordinal()] = slot;
+        slot += field.getMaxBytes() + 1;
+      }
+    }
+    STRUCTURE_SIZE = new DiscordRichPresence().size();
+    SLOTS_SIZE = slot;
+  }
+
+  private final Memory structure;
+  private final Memory strings;
+  private final Pointer[] slots = new Pointer[FIELDS.length];
+  private final String[] values = new String[FIELDS.length];
+  private final DiscordPresenceTemplate.Binding[] bindings =
+      new DiscordPresenceTemplate.Binding[FIELDS.length];
+  private final long[] boundVersions = new long[FIELDS.length];
+  private final String[] cachedStrings = new String[CACHE_SIZE];
+  private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+  private long startTimestamp;
+  private long endTimestamp;
+  private int partySize;
+  private int partyMax;
+  private byte instance;
+  private int dirty;
+  private int bound;
+
+  /**
+   * Constructs a new, empty {@code DiscordPresenceBuffer}.
+   */
+  public DiscordPresenceBuffer() {
+    this.structure = new Memory(STRUCTURE_SIZE);
+    this.structure.clear();
+    this.strings = new Memory(SLOTS_SIZE);
+    this.strings.clear();
+    for (EPresenceField field : FIELDS) {
+      if (field.isString()) {
+        this.slots[field.ordinal()] = this.strings.share(SLOTS[field.ordinal()]);
+      }
+    }
+  }
+
+  /**
+   * Copies every field of a Rich Presence into this buffer. Fields which hold the same value as
+   * before are not marked as changed.
+   *
+   * @param presence The {@code DiscordRichPresence} object to copy the fields from.
+   * @return The {@code DiscordPresenceBuffer} object.
+   * @throws NullPointerException if {@code presence} is {@code null}.
+   */
+  @SuppressWarnings("deprecation")
+  public DiscordPresenceBuffer set(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+
+    return this.setState(presence.state)
+        .setDetails(presence.details)
+        .setStartTimestamp(presence.startTimestamp)
+        .setEndTimestamp(presence.endTimestamp)
+        .setLargeImageKey(presence.largeImageKey)
+        .setLargeImageText(presence.largeImageText)
+        .setSmallImageKey(presence.smallImageKey)
+        .setSmallImageText(presence.smallImageText)
+        .setPartyId(presence.partyId)
+        .setPartySize(presence.partySize)
+        .setPartyMax(presence.partyMax)
+        .setMatchSecret(presence.matchSecret)
+        .setJoinSecret(presence.joinSecret)
+        .setSpectateSecret(presence.spectateSecret)
+        .setInstance(presence.instance);
+  }
+
+  /**
+   * Sets the state for the Rich Presence.
+   *
+   * @param state The {@code String} object representing the state of the Rich Presence.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setState(String state) {
+    return this.setString(EPresenceField.STATE, state);
+  }
+
+  /**
+   * Sets the details for the Rich Presence.
+   *
+   * @param details The {@code String} object representing the details of the Rich Presence.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setDetails(String details) {
+    return this.setString(EPresenceField.DETAILS, details);
+  }
+
+  /**
+   * Sets the start timestamp for the Rich Presence.
+   *
+   * @param startTimestamp The start timestamp in seconds since epoch.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setStartTimestamp(long startTimestamp) {
+    if (this.startTimestamp != startTimestamp) {
+      this.startTimestamp = startTimestamp;
+      this.markDirty(EPresenceField.START_TIMESTAMP);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the end timestamp for the Rich Presence.
+   *
+   * @param endTimestamp The end timestamp in seconds since epoch.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setEndTimestamp(long endTimestamp) {
+    if (this.endTimestamp != endTimestamp) {
+      this.endTimestamp = endTimestamp;
+      this.markDirty(EPresenceField.END_TIMESTAMP);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the large image for the Rich Presence.
+   *
+   * @param largeImageKey The {@code String} object representing the key of the large image.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setLargeImageKey(String largeImageKey) {
+    return this.setString(EPresenceField.LARGE_IMAGE_KEY, largeImageKey);
+  }
+
+  /**
+   * Sets the large image hover text for the Rich Presence.
+   *
+   * @param largeImageText The {@code String} object representing the text for the large image.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setLargeImageText(String largeImageText) {
+    return this.setString(EPresenceField.LARGE_IMAGE_TEXT, largeImageText);
+  }
+
+  /**
+   * Sets the small image for the Rich Presence.
+   *
+   * @param smallImageKey The {@code String} object representing the key of the small image.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setSmallImageKey(String smallImageKey) {
+    return this.setString(EPresenceField.SMALL_IMAGE_KEY, smallImageKey);
+  }
+
+  /**
+   * Sets the small image hover text for the Rich Presence.
+   *
+   * @param smallImageText The {@code String} object representing the text for the small image.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setSmallImageText(String smallImageText) {
+    return this.setString(EPresenceField.SMALL_IMAGE_TEXT, smallImageText);
+  }
+
+  /**
+   * Sets the party ID for the Rich Presence.
+   *
+   * @param partyId The {@code String} object representing the party ID.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setPartyId(String partyId) {
+    return this.setString(EPresenceField.PARTY_ID, partyId);
+  }
+
+  /**
+   * Sets the party size for the Rich Presence.
+   *
+   * @param partySize The {@code int} representing the party size.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setPartySize(int partySize) {
+    if (this.partySize != partySize) {
+      this.partySize = partySize;
+      this.markDirty(EPresenceField.PARTY_SIZE);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the party max for the Rich Presence.
+   *
+   * @param partyMax The {@code int} representing the maximum party size.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setPartyMax(int partyMax) {
+    if (this.partyMax != partyMax) {
+      this.partyMax = partyMax;
+      this.markDirty(EPresenceField.PARTY_MAX);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the match secret for the Rich Presence.
+   *
+   * @param matchSecret The {@code String} object representing the match secret.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  @Deprecated
+  public DiscordPresenceBuffer setMatchSecret(String matchSecret) {
+    return this.setString(EPresenceField.MATCH_SECRET, matchSecret);
+  }
+
+  /**
+   * Sets the join secret for the Rich Presence.
+   *
+   * @param joinSecret The {@code String} object representing the join secret.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setJoinSecret(String joinSecret) {
+    return this.setString(EPresenceField.JOIN_SECRET, joinSecret);
+  }
+
+  /**
+   * Sets the spectate secret for the Rich Presence.
+   *
+   * @param spectateSecret The {@code String} object representing the spectate secret.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  public DiscordPresenceBuffer setSpectateSecret(String spectateSecret) {
+    return this.setString(EPresenceField.SPECTATE_SECRET, spectateSecret);
+  }
+
+  /**
+   * Sets the instance for the Rich Presence.
+   *
+   * @param instance The {@code byte} representing the instance.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  @Deprecated
+  public DiscordPresenceBuffer setInstance(byte instance) {
+    if (this.instance != instance) {
+      this.instance = instance;
+      this.markDirty(EPresenceField.INSTANCE);
+    }
+    return this;
+  }
+
+  /**
+   * Binds a string field to a template, so that its text is rendered from the values of the
+   * binding every time the buffer is sent. Setting the field to a string afterwards unbinds it.
+   *
+   * @param binding The {@code DiscordPresenceTemplate.Binding} object to render the field from.
+   * @return The {@code DiscordPresenceBuffer} object.
+   * @throws NullPointerException if {@code binding} is {@code null}.
+   */
+  public DiscordPresenceBuffer bind(final DiscordPresenceTemplate.Binding binding) {
+    Objects.requireNonNull(binding, "binding must not be null");
+
+    EPresenceField field = binding.getField();
+    this.bindings[field.ordinal()] = binding;
+    this.boundVersions[field.ordinal()] = binding.getVersion() - 1L;
+    this.values[field.ordinal()] = null;
+    this.bound |= 1 << field.ordinal();
+    this.markDirty(field);
+    return this;
+  }
+
+  /**
+   * Returns whether a field has changed since the buffer was last written to native memory.
+   *
+   * @param field The {@code EPresenceField} object representing the field.
+   * @return {@code true} if the field has changed, {@code false} otherwise.
+   */
+  public boolean isDirty(final EPresenceField field) {
+    this.render();
+    return (this.dirty & (1 << field.ordinal())) != 0;
+  }
+
+  /**
+   * Releases the native memory held by this buffer. The buffer must not be used afterwards.
+   */
+  @Override
+  public void close() {
+    this.structure.close();
+    this.strings.close();
+  }
+
+  /**
+   * Returns a Rich Presence holding the current values of this buffer, for backends which do not
+   * read the presence from native memory.
+   *
+   * @return The {@code DiscordRichPresence} object.
+   */
+  @SuppressWarnings("deprecation")
+  DiscordRichPresence toRichPresence() {
+    return new DiscordRichPresence.Builder()
+        .setState(this.getString(EPresenceField.STATE))
+        .setDetails(this.getString(EPresenceField.DETAILS))
+        .setStartTimestamp(this.startTimestamp)
+        .setEndTimestamp(this.endTimestamp)
+        .setLargeImageKey(this.getString(EPresenceField.LARGE_IMAGE_KEY))
+        .setLargeImageText(this.getString(EPresenceField.LARGE_IMAGE_TEXT))
+        .setSmallImageKey(this.getString(EPresenceField.SMALL_IMAGE_KEY))
+        .setSmallImageText(this.getString(EPresenceField.SMALL_IMAGE_TEXT))
+        .setPartyId(this.getString(EPresenceField.PARTY_ID))
+        .setPartySize(this.partySize)
+        .setPartyMax(this.partyMax)
+        .setMatchSecret(this.getString(EPresenceField.MATCH_SECRET))
+        .setJoinSecret(this.getString(EPresenceField.JOIN_SECRET))
+        .setSpectateSecret(this.getString(EPresenceField.SPECTATE_SECRET))
+        .setInstance(this.instance)
+        .build();
+  }
+
+  /**
+   * Returns the current value of a string field of this buffer.
+   *
+   * @param field The {@code EPresenceField} object representing a string field.
+   * @return The value of the field, or {@code null} if it is not set.
+   */
+  String getString(final EPresenceField field) {
+    DiscordPresenceTemplate.Binding binding = this.bindings[field.ordinal()];
+    if (binding != null) {
+      return binding.getText();
+    }
+    return this.values[field.ordinal()];
+  }
+
+  /**
+   * Returns the current value of a numeric field of this buffer.
+   *
+   * @param field The {@code EPresenceField} object representing a numeric field.
+   * @return The value of the field, or {@code 0} if it is not set or is a string field.
+   */
+  long getNumber(final EPresenceField field) {
+    switch (field) {
+      case START_TIMESTAMP:
+        return this.startTimestamp;
+      case END_TIMESTAMP:
+        return this.endTimestamp;
+      case PARTY_SIZE:
+        return this.partySize;
+      case PARTY_MAX:
+        return this.partyMax;
+      case INSTANCE:
+        return this.instance;
+      default:
+        return 0L;
+    }
+  }
+
+  /**
+   * Writes the changed fields to native memory and returns the address of the presence.
+   *
+   * @return The {@code Pointer} object pointing to the native presence.
+   */
+  Pointer write() {
+    this.render();
+    for (int bits = this.dirty; bits != 0; bits &= bits - 1) {
+      EPresenceField field = FIELDS[Integer.numberOfTrailingZeros(bits)];
+      this.writeField(field);
+    }
+    this.dirty = 0;
+    return this.structure;
+  }
+
+  /**
+   * Writes a single field to native memory.
+   *
+   * @param field The {@code EPresenceField} object representing the field.
+   */
+  private void writeField(final EPresenceField field) {
+    int offset = OFFSETS[field.ordinal()];
+    switch (field) {
+      case START_TIMESTAMP:
+        this.structure.setLong(offset, this.startTimestamp);
+        break;
+      case END_TIMESTAMP:
+        this.structure.setLong(offset, this.endTimestamp);
+        break;
+      case PARTY_SIZE:
+        this.structure.setInt(offset, this.partySize);
+        break;
+      case PARTY_MAX:
+        this.structure.setInt(offset, this.partyMax);
+        break;
+      case INSTANCE:
+        this.structure.setByte(offset, this.instance);
+        break;
+      default:
+        DiscordPresenceTemplate.Binding binding = this.bindings[field.ordinal()];
+        if (binding != null) {
+          int slot = SLOTS[field.ordinal()];
+          this.strings.write(slot, binding.getBytes(), 0, binding.getLength());
+          this.strings.setByte(slot + binding.getLength(), (byte) 0);
+          this.structure.setPointer(offset, this.slots[field.ordinal()]);
+          break;
+        }
+
+        String value = this.values[field.ordinal()];
+        if (value == null) {
+          this.structure.setPointer(offset, null);
+          break;
+        }
+
+        byte[] bytes = this.encode(value);
+        int slot = SLOTS[field.ordinal()];
+        int length = truncate(bytes, bytes.length, field.getMaxBytes());
+        this.strings.write(slot, bytes, 0, length);
+        this.strings.setByte(slot + length, (byte) 0);
+        this.structure.setPointer(offset, this.slots[field.ordinal()]);
+        break;
+    }
+  }
+
+  /**
+   * Sets a string field and marks it as changed if its value differs from the current one.
+   *
+   * @param field The {@code EPresenceField} object representing the field.
+   * @param value The {@code String} object representing the new value.
+   * @return The {@code DiscordPresenceBuffer} object.
+   */
+  private DiscordPresenceBuffer setString(final EPresenceField field, String value) {
+    if (this.bindings[field.ordinal()] != null) {
+      this.bindings[field.ordinal()] = null;
+      this.bound &= ~(1 << field.ordinal());
+      this.values[field.ordinal()] = value;
+      this.markDirty(field);
+    } else if (!Objects.equals(this.values[field.ordinal()], value)) {
+      this.values[field.ordinal()] = value;
+      this.markDirty(field);
+    }
+    return this;
+  }
+
+  /**
+   * Renders the bound fields, marking those whose text changed since it was last written.
+   */
+  private void render() {
+    for (int bits = this.bound; bits != 0; bits &= bits - 1) {
+      int index = Integer.numberOfTrailingZeros(bits);
+      DiscordPresenceTemplate.Binding binding = this.bindings[index];
+      binding.render();
+      if (binding.getVersion() != this.boundVersions[index]) {
+        this.boundVersions[index] = binding.getVersion();
+        this.markDirty(FIELDS[index]);
+      }
+    }
+  }
+
+  /**
+   * Marks a field as changed.
+   *
+   * @param field The {@code EPresenceField} object representing the field.
+   */
+  private void markDirty(final EPresenceField field) {
+    this.dirty |= 1 << field.ordinal();
+  }
+
+  /**
+   * Encodes a string into UTF-8, reusing the bytes of a previous encoding if the string was
+   * encoded recently.
+   *
+   * @param value The {@code String} object to encode.
+   * @return The UTF-8 bytes of {@code value}.
+   */
+  private byte[] encode(final String value) {
+    int hash = value.hashCode();
+    int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+
+    String cached = this.cachedStrings[index];
+    if (cached != null && (cached == value || cached.equals(value))) {
+      return this.cachedBytes[index];
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    this.cachedStrings[index] = value;
+    this.cachedBytes[index] = bytes;
+    return bytes;
+  }
+
+  /**
+   * Returns the length a UTF-8 sequence can be cut to without exceeding a limit or splitting a
+   * multi-byte character.
+   *
+   * @param bytes    The UTF-8 bytes.
+   * @param length   The number of bytes in use.
+   * @param maxBytes The maximum number of bytes to keep.
+   * @return The length to cut the sequence to.
+   */
+  static int truncate(final byte[] bytes, int length, int maxBytes) {
+    if (length <= maxBytes) {
+      return length;
+    }
+
+    int end = maxBytes;
+    while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+      end--;
+    }
+    return end;
+  }
+}
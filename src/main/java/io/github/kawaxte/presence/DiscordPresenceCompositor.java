@@ -0,0 +1,302 @@
+package io.github.kawaxte.presence;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DiscordPresenceCompositor} class merges the Rich Presence of several subsystems of
+ * the application, each owning a named {@link DiscordPresenceLayer} with a priority, into the one
+ * presence that is sent to Discord.
+ * <p>
+ * Every field of the effective presence is taken from the layer of the highest priority on which
+ * it is set, or from the layer created first if several layers share that priority. Whenever a
+ * layer changes, the layers are merged again and the effective presence is sent if it differs from
+ * the one sent last. When no layer sets any field, the presence is cleared instead.
+ * </p>
+ * <p>
+ * Layers are edited without a global lock. Only one thread sends at a time: a thread changing a
+ * layer while another one is sending leaves the merge to that thread, which sends the latest
+ * presence before returning, so presences are never sent out of order.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordPresenceScheduler
+ */
+public final class DiscordPresenceCompositor {
+
+  private static final EPresenceField[] FIELDS = EPresenceField.values();
+  private static final DiscordPresenceLayer[] NO_LAYERS = new DiscordPresenceLayer[0];
+  private static final Comparator<DiscordPresenceLayer> BY_PRIORITY =
+      Comparator.comparingInt(DiscordPresenceLayer::getPriority).reversed()
+          .thenComparingLong(DiscordPresenceLayer::getOrder);
+
+  private final Consumer<DiscordRichPresence> sink;
+  private final Runnable clearer;
+  private final Map<String, DiscordPresenceLayer> layersByName = new ConcurrentHashMap<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final LongAdder composed = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder sent = new LongAdder();
+  private volatile DiscordPresenceLayer[] layers = NO_LAYERS;
+  private Object[] lastSent = new Object[FIELDS.length];
+  private long createdLayers;
+
+  /**
+   * Constructs a new {@code DiscordPresenceCompositor} which sends the effective presence using
+   * {@link DiscordRPC#updatePresence(DiscordRichPresence)} and clears it using
+   * {@link DiscordRPC#clearPresence()}.
+   */
+  public DiscordPresenceCompositor() {
+    this(DiscordRPC::updatePresence, DiscordRPC::clearPresence);
+  }
+
+  /**
+   * Constructs a new {@code DiscordPresenceCompositor} which passes the effective presence to the
+   * given sink, such as {@link DiscordPresenceScheduler#submit(DiscordRichPresence)}.
+   *
+   * @param sink    The {@code Consumer} the effective presence is passed to.
+   * @param clearer The {@code Runnable} run when no layer sets any field.
+   * @throws NullPointerException if {@code sink} or {@code clearer} is {@code null}.
+   */
+  public DiscordPresenceCompositor(final Consumer<DiscordRichPresence> sink,
+      final Runnable clearer) {
+    Objects.requireNonNull(sink, "sink must not be null");
+    Objects.requireNonNull(clearer, "clearer must not be null");
+
+    this.sink = sink;
+    this.clearer = clearer;
+  }
+
+  /**
+   * Returns the layer with the given name, creating it with the given priority if there is none.
+   *
+   * @param name     The name of the layer.
+   * @param priority The priority of the layer. Fields set on a layer override those set on layers
+   *                 of a lower priority.
+   * @return The {@code DiscordPresenceLayer} object.
+   * @throws NullPointerException     if {@code name} is {@code null}.
+   * @throws IllegalArgumentException if a layer with the given name already exists with another
+   *                                  priority.
+   */
+  public DiscordPresenceLayer layer(final String name, int priority) {
+    Objects.requireNonNull(name, "name must not be null");
+
+    DiscordPresenceLayer layer = this.layersByName.get(name);
+    if (layer == null) {
+      synchronized (this.layersByName) {
+        layer = this.layersByName.get(name);
+        if (layer == null) {
+          layer = new DiscordPresenceLayer(this, name, priority, this.createdLayers++);
+          this.layersByName.put(name, layer);
+          this.sortLayers();
+        }
+      }
+    }
+    if (layer.getPriority() != priority) {
+      throw new IllegalArgumentException(String.format("Layer \"%s\" already has priority %d",
+          name, layer.getPriority()));
+    }
+    return layer;
+  }
+
+  /**
+   * Removes the layer with the given name, and sends the presence merged from the remaining
+   * layers if it changed.
+   *
+   * @param name The name of the layer.
+   * @return {@code true} if the layer was removed, {@code false} if there was none.
+   * @throws NullPointerException if {@code name} is {@code null}.
+   */
+  public boolean removeLayer(final String name) {
+    Objects.requireNonNull(name, "name must not be null");
+
+    synchronized (this.layersByName) {
+      if (this.layersByName.remove(name) == null) {
+        return false;
+      }
+      this.sortLayers();
+    }
+    this.recompose();
+    return true;
+  }
+
+  /**
+   * Returns the presence currently merged from the layers, whether it has been sent or not.
+   *
+   * @return The effective {@code DiscordRichPresence} object.
+   */
+  public DiscordRichPresence getEffectivePresence() {
+    return toPresence(this.merge());
+  }
+
+  /**
+   * Returns the number of times the layers have been merged.
+   *
+   * @return The number of merges.
+   */
+  public long getComposedCount() {
+    return this.composed.sum();
+  }
+
+  /**
+   * Returns the number of merges that were not sent because the effective presence did not
+   * change.
+   *
+   * @return The number of deduplicated merges.
+   */
+  public long getDeduplicatedCount() {
+    return this.deduplicated.sum();
+  }
+
+  /**
+   * Returns the number of times the effective presence has been sent or cleared.
+   *
+   * @return The number of sends.
+   */
+  public long getSentCount() {
+    return this.sent.sum();
+  }
+
+  /**
+   * Merges the layers and sends the effective presence if it changed, unless another thread is
+   * already doing so, in which case that thread merges the layers again before returning. If the
+   * sink throws, the merges requested meanwhile still happen before the exception is rethrown.
+   */
+  void recompose() {
+    if (this.pending.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    RuntimeException failure = null;
+    do {
+      try {
+        this.send(this.merge());
+      } catch (RuntimeException re) {
+        // the threads which came in meanwhile rely on this one to merge again, so it carries on
+        if (failure == null) {
+          failure = re;
+        } else if (failure != re) {
+          failure.addSuppressed(re);
+        }
+      }
+      missed = this.pending.addAndGet(-missed);
+    } while (missed != 0);
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void send(final Object[] merged) {
+    this.composed.increment();
+    if (Arrays.equals(merged, this.lastSent)) {
+      this.deduplicated.increment();
+      return;
+    }
+
+    if (isEmpty(merged)) {
+      this.clearer.run();
+    } else {
+      this.sink.accept(toPresence(merged));
+    }
+    // only taken as sent once the sink returns, so a presence whose send threw is sent again
+    this.lastSent = merged;
+    this.sent.increment();
+  }
+
+  private Object[] merge() {
+    Object[] merged = new Object[FIELDS.length];
+    int unset = FIELDS.length;
+    for (DiscordPresenceLayer layer : this.layers) {
+      Object[] values = layer.getValues();
+      for (int i = 0; i < FIELDS.length; i++) {
+        if (merged[i] == null && values[i] != null) {
+          merged[i] = values[i];
+          unset--;
+        }
+      }
+      if (unset == 0) {
+        break;
+      }
+    }
+    return merged;
+  }
+
+  private void sortLayers() {
+    DiscordPresenceLayer[] sorted = this.layersByName.values().toArray(NO_LAYERS);
+    Arrays.sort(sorted, BY_PRIORITY);
+    this.layers = sorted;
+  }
+
+  private static boolean isEmpty(final Object[] values) {
+    for (Object value : values) {
+      if (value != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @SuppressWarnings("deprecation")
+  static DiscordRichPresence toPresence(final Object[] values) {
+    DiscordRichPresence presence = new DiscordRichPresence();
+    presence.state = (String) values[EPresenceField.STATE.ordinal()];
+    presence.details = (String) values[EPresenceField.DETAILS.ordinal()];
+    presence.startTimestamp = toLong(values[EPresenceField.START_TIMESTAMP.ordinal()]);
+    presence.endTimestamp = toLong(values[EPresenceField.END_TIMESTAMP.ordinal()]);
+    presence.largeImageKey = (String) values[EPresenceField.LARGE_IMAGE_KEY.ordinal()];
+    presence.largeImageText = (String) values[EPresenceField.LARGE_IMAGE_TEXT.ordinal()];
+    presence.smallImageKey = (String) values[EPresenceField.SMALL_IMAGE_KEY.ordinal()];
+    presence.smallImageText = (String) values[EPresenceField.SMALL_IMAGE_TEXT.ordinal()];
+    presence.partyId = (String) values[EPresenceField.PARTY_ID.ordinal()];
+    presence.partySize = (int) toLong(values[EPresenceField.PARTY_SIZE.ordinal()]);
+    presence.partyMax = (int) toLong(values[EPresenceField.PARTY_MAX.ordinal()]);
+    presence.matchSecret = (String) values[EPresenceField.MATCH_SECRET.ordinal()];
+    presence.joinSecret = (String) values[EPresenceField.JOIN_SECRET.ordinal()];
+    presence.spectateSecret = (String) values[EPresenceField.SPECTATE_SECRET.ordinal()];
+    presence.instance = (byte) toLong(values[EPresenceField.INSTANCE.ordinal()]);
+    return presence;
+  }
+
+  /**
+   * Returns the values of the fields of a presence, indexed by {@link EPresenceField#ordinal()},
+   * with the numbers boxed into the same types as the setters of {@link DiscordPresenceLayer.Edit}
+   * box them, and the fields holding {@code null} or {@code 0} left unset.
+   *
+   * @param presence The {@code DiscordRichPresence} object.
+   * @return The array of values.
+   */
+  @SuppressWarnings("deprecation")
+  static Object[] toValues(final DiscordRichPresence presence) {
+    Object[] values = new Object[FIELDS.length];
+    values[EPresenceField.STATE.ordinal()] = presence.state;
+    values[EPresenceField.DETAILS.ordinal()] = presence.details;
+    values[EPresenceField.START_TIMESTAMP.ordinal()] = presence.startTimestamp != 0L
+        ? presence.startTimestamp : null;
+    values[EPresenceField.END_TIMESTAMP.ordinal()] = presence.endTimestamp != 0L
+        ? presence.endTimestamp : null;
+    values[EPresenceField.LARGE_IMAGE_KEY.ordinal()] = presence.largeImageKey;
+    values[EPresenceField.LARGE_IMAGE_TEXT.ordinal()] = presence.largeImageText;
+    values[EPresenceField.SMALL_IMAGE_KEY.ordinal()] = presence.smallImageKey;
+    values[EPresenceField.SMALL_IMAGE_TEXT.ordinal()] = presence.smallImageText;
+    values[EPresenceField.PARTY_ID.ordinal()] = presence.partyId;
+    values[EPresenceField.PARTY_SIZE.ordinal()] = presence.partySize != 0
+        ? presence.partySize : null;
+    values[EPresenceField.PARTY_MAX.ordinal()] = presence.partyMax != 0 ? presence.partyMax : null;
+    values[EPresenceField.MATCH_SECRET.ordinal()] = presence.matchSecret;
+    values[EPresenceField.JOIN_SECRET.ordinal()] = presence.joinSecret;
+    values[EPresenceField.SPECTATE_SECRET.ordinal()] = presence.spectateSecret;
+    values[EPresenceField.INSTANCE.ordinal()] = presence.instance != 0 ? presence.instance : null;
+    return values;
+  }
+
+  private static long toLong(final Object value) {
+    return value != null ? ((Number) value).longValue() : 0L;
+  }
+}
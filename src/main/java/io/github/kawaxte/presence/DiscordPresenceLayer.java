@@ -0,0 +1,342 @@
+package io.github.kawaxte.presence;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code DiscordPresenceLayer} class holds the fields of the Rich Presence owned by one
+ * subsystem of the application, such as the menus or the party system, which are merged with the
+ * other layers by a {@link DiscordPresenceCompositor}.
+ * <p>
+ * A layer only holds the fields that have been set on it. Its fields are kept in an immutable
+ * snapshot which is replaced by compare-and-set when an {@link Edit} is committed, so a layer can
+ * be edited from any thread, and every edit is applied to the layer as a whole.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordPresenceCompositor#layer(String, int)
+ */
+public final class DiscordPresenceLayer {
+
+  private static final int FIELD_COUNT = EPresenceField.values().length;
+
+  private final DiscordPresenceCompositor compositor;
+  private final String name;
+  private final int priority;
+  private final long order;
+  private final AtomicReference<Object[]> values =
+      new AtomicReference<>(new Object[FIELD_COUNT]);
+
+  /**
+   * Constructs a new {@code DiscordPresenceLayer}.
+   *
+   * @param compositor The {@code DiscordPresenceCompositor} object the layer belongs to.
+   * @param name       The name of the layer.
+   * @param priority   The priority of the layer.
+   * @param order      The number of layers created before this one, which breaks ties between
+   *                   layers of the same priority.
+   */
+  DiscordPresenceLayer(final DiscordPresenceCompositor compositor, final String name,
+      int priority, long order) {
+    this.compositor = compositor;
+    this.name = name;
+    this.priority = priority;
+    this.order = order;
+  }
+
+  /**
+   * Returns the name of this layer.
+   *
+   * @return The name of the layer.
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns the priority of this layer. A field set on a layer overrides the same field set on
+   * every layer of a lower priority.
+   *
+   * @return The priority of the layer.
+   */
+  public int getPriority() {
+    return this.priority;
+  }
+
+  /**
+   * Returns whether a field is set on this layer.
+   *
+   * @param field The {@code EPresenceField} to look up.
+   * @return {@code true} if the field is set, {@code false} otherwise.
+   * @throws NullPointerException if {@code field} is {@code null}.
+   */
+  public boolean isSet(final EPresenceField field) {
+    Objects.requireNonNull(field, "field must not be null");
+
+    return this.values.get()[field.ordinal()] != null;
+  }
+
+  /**
+   * Starts an edit of this layer, which is applied when {@link Edit#commit()} is called.
+   *
+   * @return The {@code Edit} object.
+   */
+  public Edit edit() {
+    return new Edit();
+  }
+
+  /**
+   * Unsets every field of this layer, leaving them to the layers below.
+   */
+  public void clear() {
+    Object[] previous = this.values.getAndSet(new Object[FIELD_COUNT]);
+    if (!isEmpty(previous)) {
+      this.compositor.recompose();
+    }
+  }
+
+  /**
+   * Removes this layer from its compositor, after which editing it has no effect.
+   */
+  public void remove() {
+    this.compositor.removeLayer(this.name);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordPresenceLayer[name=%s, priority=%d]", this.name, this.priority);
+  }
+
+  long getOrder() {
+    return this.order;
+  }
+
+  Object[] getValues() {
+    return this.values.get();
+  }
+
+  private static boolean isEmpty(final Object[] values) {
+    for (Object value : values) {
+      if (value != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The {@code Edit} class collects changes to the fields of a layer, which are applied to the
+   * layer at once by {@link #commit()}. Setting a string field to {@code null} unsets it.
+   * <p>
+   * An edit is not thread-safe, but any number of edits of the same layer can be committed
+   * concurrently.
+   * </p>
+   *
+   * @author Kawaxte
+   */
+  public final class Edit {
+
+    private final Object[] changes = new Object[FIELD_COUNT];
+    private final boolean[] changed = new boolean[FIELD_COUNT];
+
+    /**
+     * Constructs a new, empty {@code Edit}.
+     */
+    private Edit() {
+    }
+
+    /**
+     * Sets the state for the Rich Presence.
+     *
+     * @param state The {@code String} object representing the state of the Rich Presence.
+     * @return The {@code Edit} object.
+     */
+    public Edit setState(String state) {
+      return this.set(EPresenceField.STATE, state);
+    }
+
+    /**
+     * Sets the details for the Rich Presence.
+     *
+     * @param details The {@code String} object representing the details of the Rich Presence.
+     * @return The {@code Edit} object.
+     */
+    public Edit setDetails(String details) {
+      return this.set(EPresenceField.DETAILS, details);
+    }
+
+    /**
+     * Sets the start timestamp for the Rich Presence.
+     *
+     * @param startTimestamp The start timestamp in seconds since epoch.
+     * @return The {@code Edit} object.
+     */
+    public Edit setStartTimestamp(long startTimestamp) {
+      return this.set(EPresenceField.START_TIMESTAMP, startTimestamp);
+    }
+
+    /**
+     * Sets the end timestamp for the Rich Presence.
+     *
+     * @param endTimestamp The end timestamp in seconds since epoch.
+     * @return The {@code Edit} object.
+     */
+    public Edit setEndTimestamp(long endTimestamp) {
+      return this.set(EPresenceField.END_TIMESTAMP, endTimestamp);
+    }
+
+    /**
+     * Sets the large image key for the Rich Presence.
+     *
+     * @param largeImageKey The {@code String} object representing the large image key.
+     * @return The {@code Edit} object.
+     */
+    public Edit setLargeImageKey(String largeImageKey) {
+      return this.set(EPresenceField.LARGE_IMAGE_KEY, largeImageKey);
+    }
+
+    /**
+     * Sets the large image text for the Rich Presence.
+     *
+     * @param largeImageText The {@code String} object representing the large image text.
+     * @return The {@code Edit} object.
+     */
+    public Edit setLargeImageText(String largeImageText) {
+      return this.set(EPresenceField.LARGE_IMAGE_TEXT, largeImageText);
+    }
+
+    /**
+     * Sets the small image key for the Rich Presence.
+     *
+     * @param smallImageKey The {@code String} object representing the small image key.
+     * @return The {@code Edit} object.
+     */
+    public Edit setSmallImageKey(String smallImageKey) {
+      return this.set(EPresenceField.SMALL_IMAGE_KEY, smallImageKey);
+    }
+
+    /**
+     * Sets the small image text for the Rich Presence.
+     *
+     * @param smallImageText The {@code String} object representing the small image text.
+     * @return The {@code Edit} object.
+     */
+    public Edit setSmallImageText(String smallImageText) {
+      return this.set(EPresenceField.SMALL_IMAGE_TEXT, smallImageText);
+    }
+
+    /**
+     * Sets the party ID for the Rich Presence.
+     *
+     * @param partyId The {@code String} object representing the party ID.
+     * @return The {@code Edit} object.
+     */
+    public Edit setPartyId(String partyId) {
+      return this.set(EPresenceField.PARTY_ID, partyId);
+    }
+
+    /**
+     * Sets the party size for the Rich Presence.
+     *
+     * @param partySize The number of players in the party.
+     * @return The {@code Edit} object.
+     */
+    public Edit setPartySize(int partySize) {
+      return this.set(EPresenceField.PARTY_SIZE, partySize);
+    }
+
+    /**
+     * Sets the maximum party size for the Rich Presence.
+     *
+     * @param partyMax The maximum number of players in the party.
+     * @return The {@code Edit} object.
+     */
+    public Edit setPartyMax(int partyMax) {
+      return this.set(EPresenceField.PARTY_MAX, partyMax);
+    }
+
+    /**
+     * Sets the match secret for the Rich Presence.
+     *
+     * @param matchSecret The {@code String} object representing the match secret.
+     * @return The {@code Edit} object.
+     */
+    @Deprecated
+    public Edit setMatchSecret(String matchSecret) {
+      return this.set(EPresenceField.MATCH_SECRET, matchSecret);
+    }
+
+    /**
+     * Sets the join secret for the Rich Presence.
+     *
+     * @param joinSecret The {@code String} object representing the join secret.
+     * @return The {@code Edit} object.
+     */
+    public Edit setJoinSecret(String joinSecret) {
+      return this.set(EPresenceField.JOIN_SECRET, joinSecret);
+    }
+
+    /**
+     * Sets the spectate secret for the Rich Presence.
+     *
+     * @param spectateSecret The {@code String} object representing the spectate secret.
+     * @return The {@code Edit} object.
+     */
+    public Edit setSpectateSecret(String spectateSecret) {
+      return this.set(EPresenceField.SPECTATE_SECRET, spectateSecret);
+    }
+
+    /**
+     * Sets the instance for the Rich Presence.
+     *
+     * @param instance The {@code byte} representing the instance.
+     * @return The {@code Edit} object.
+     */
+    @Deprecated
+    public Edit setInstance(byte instance) {
+      return this.set(EPresenceField.INSTANCE, instance);
+    }
+
+    /**
+     * Unsets a field, leaving it to the layers below.
+     *
+     * @param field The {@code EPresenceField} to unset.
+     * @return The {@code Edit} object.
+     * @throws NullPointerException if {@code field} is {@code null}.
+     */
+    public Edit clear(final EPresenceField field) {
+      Objects.requireNonNull(field, "field must not be null");
+
+      return this.set(field, null);
+    }
+
+    /**
+     * Applies the changes to the layer at once, and lets the compositor send the merged presence
+     * if it changed. The edit can be committed again, with further changes, afterwards.
+     */
+    public void commit() {
+      Object[] previous;
+      Object[] next;
+      do {
+        previous = DiscordPresenceLayer.this.values.get();
+        next = previous.clone();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+          if (this.changed[i]) {
+            next[i] = this.changes[i];
+          }
+        }
+        if (Arrays.equals(previous, next)) {
+          return;
+        }
+      } while (!DiscordPresenceLayer.this.values.compareAndSet(previous, next));
+      DiscordPresenceLayer.this.compositor.recompose();
+    }
+
+    private Edit set(final EPresenceField field, final Object value) {
+      this.changes[field.ordinal()] = value;
+      this.changed[field.ordinal()] = true;
+      return this;
+    }
+  }
+}
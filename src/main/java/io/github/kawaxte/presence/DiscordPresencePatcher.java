@@ -0,0 +1,426 @@
+package io.github.kawaxte.presence;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DiscordPresencePatcher} class holds the current Rich Presence, which any thread can
+ * change a few fields of at a time, such as the details or the party size, without building and
+ * sending the whole presence again.
+ * <p>
+ * The current presence is an immutable snapshot of its fields, which a {@link Patch} replaces by
+ * compare-and-set with a copy holding its changes, so concurrent patches never take a lock and
+ * never overwrite each other's fields. After a patch is applied, the current presence is sent if
+ * it differs from the one sent last. Only one thread sends at a time: a thread applying a patch
+ * while another one is sending leaves the send to that thread, which sends the latest presence
+ * before returning, so presences are never sent out of order.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordPresenceCompositor
+ */
+public final class DiscordPresencePatcher {
+
+  private static final int FIELD_COUNT = EPresenceField.values().length;
+
+  private final Consumer<DiscordRichPresence> sink;
+  private final Runnable clearer;
+  private final AtomicReference<Object[]> values =
+      new AtomicReference<>(new Object[FIELD_COUNT]);
+  private final AtomicInteger pending = new AtomicInteger();
+  private final LongAdder applied = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder sent = new LongAdder();
+  private Object[] lastSent = new Object[FIELD_COUNT];
+
+  /**
+   * Constructs a new {@code DiscordPresencePatcher} which sends the current presence using
+   * {@link DiscordRPC#updatePresence(DiscordRichPresence)} and clears it using
+   * {@link DiscordRPC#clearPresence()}.
+   */
+  public DiscordPresencePatcher() {
+    this(DiscordRPC::updatePresence, DiscordRPC::clearPresence);
+  }
+
+  /**
+   * Constructs a new {@code DiscordPresencePatcher} which passes the current presence to the given
+   * sink, such as {@link DiscordPresenceScheduler#submit(DiscordRichPresence)}.
+   *
+   * @param sink    The {@code Consumer} the current presence is passed to.
+   * @param clearer The {@code Runnable} run when no field is set.
+   * @throws NullPointerException if {@code sink} or {@code clearer} is {@code null}.
+   */
+  public DiscordPresencePatcher(final Consumer<DiscordRichPresence> sink,
+      final Runnable clearer) {
+    Objects.requireNonNull(sink, "sink must not be null");
+    Objects.requireNonNull(clearer, "clearer must not be null");
+
+    this.sink = sink;
+    this.clearer = clearer;
+  }
+
+  /**
+   * Starts a patch of the current presence, which is applied when {@link Patch#apply()} is called.
+   *
+   * @return The {@code Patch} object.
+   */
+  public Patch patch() {
+    return new Patch();
+  }
+
+  /**
+   * Replaces every field of the current presence with those of the given presence, and sends it
+   * if it changed. Fields holding {@code null} or {@code 0} are unset.
+   *
+   * @param presence The {@code DiscordRichPresence} object to copy the fields from.
+   * @throws NullPointerException if {@code presence} is {@code null}.
+   */
+  public void replace(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+
+    this.update(DiscordPresenceCompositor.toValues(presence));
+  }
+
+  /**
+   * Unsets every field of the current presence, and clears the presence unless it already was.
+   */
+  public void clear() {
+    this.update(new Object[FIELD_COUNT]);
+  }
+
+  /**
+   * Returns the current presence, whether it has been sent or not.
+   *
+   * @return A new {@code DiscordRichPresence} object holding the fields of the current presence.
+   */
+  public DiscordRichPresence getPresence() {
+    return DiscordPresenceCompositor.toPresence(this.values.get());
+  }
+
+  /**
+   * Returns whether a field of the current presence is set.
+   *
+   * @param field The {@code EPresenceField} to look up.
+   * @return {@code true} if the field is set, {@code false} otherwise.
+   * @throws NullPointerException if {@code field} is {@code null}.
+   */
+  public boolean isSet(final EPresenceField field) {
+    Objects.requireNonNull(field, "field must not be null");
+
+    return this.values.get()[field.ordinal()] != null;
+  }
+
+  /**
+   * Returns the number of patches and replacements that changed the current presence.
+   *
+   * @return The number of changes.
+   */
+  public long getAppliedCount() {
+    return this.applied.sum();
+  }
+
+  /**
+   * Returns the number of patches and replacements that were not sent because they left the
+   * current presence as it was.
+   *
+   * @return The number of deduplicated changes.
+   */
+  public long getDeduplicatedCount() {
+    return this.deduplicated.sum();
+  }
+
+  /**
+   * Returns the number of times the current presence has been sent or cleared, which is lower
+   * than {@link #getAppliedCount()} when changes made concurrently were sent at once.
+   *
+   * @return The number of sends.
+   */
+  public long getSentCount() {
+    return this.sent.sum();
+  }
+
+  private void update(final Object[] next) {
+    Object[] previous = this.values.getAndSet(next);
+    if (Arrays.equals(previous, next)) {
+      this.deduplicated.increment();
+    } else {
+      this.applied.increment();
+    }
+    // sends nothing for an unchanged presence unless sending it threw last time
+    this.send();
+  }
+
+  /**
+   * Sends the current presence if it differs from the one sent last, unless another thread is
+   * already doing so, in which case that thread sends it again before returning. If the sink
+   * throws, the presence changed meanwhile is still sent before the exception is rethrown, and the
+   * presence which failed is not taken as sent, so the next change or repeat sends it again.
+   */
+  private void send() {
+    if (this.pending.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    RuntimeException failure = null;
+    do {
+      try {
+        Object[] current = this.values.get();
+        if (!Arrays.equals(current, this.lastSent)) {
+          if (isEmpty(current)) {
+            this.clearer.run();
+          } else {
+            this.sink.accept(DiscordPresenceCompositor.toPresence(current));
+          }
+          this.lastSent = current;
+          this.sent.increment();
+        }
+      } catch (RuntimeException re) {
+        // the threads which came in meanwhile rely on this one to send again, so it carries on
+        if (failure == null) {
+          failure = re;
+        } else if (failure != re) {
+          failure.addSuppressed(re);
+        }
+      }
+      missed = this.pending.addAndGet(-missed);
+    } while (missed != 0);
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static boolean isEmpty(final Object[] values) {
+    for (Object value : values) {
+      if (value != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The {@code Patch} class collects changes to a few fields of the current presence, which are
+   * applied at once by {@link #apply()}, leaving the other fields as they are. Setting a string
+   * field to {@code null}, or a number to {@code 0}, unsets it.
+   * <p>
+   * A patch is not thread-safe, but any number of patches can be applied concurrently.
+   * </p>
+   *
+   * @author Kawaxte
+   */
+  public final class Patch {
+
+    private final Object[] changes = new Object[FIELD_COUNT];
+    private final boolean[] changed = new boolean[FIELD_COUNT];
+
+    /**
+     * Constructs a new, empty {@code Patch}.
+     */
+    private Patch() {
+    }
+
+    /**
+     * Sets the state for the Rich Presence.
+     *
+     * @param state The {@code String} object representing the state of the Rich Presence.
+     * @return The {@code Patch} object.
+     */
+    public Patch setState(String state) {
+      return this.set(EPresenceField.STATE, state);
+    }
+
+    /**
+     * Sets the details for the Rich Presence.
+     *
+     * @param details The {@code String} object representing the details of the Rich Presence.
+     * @return The {@code Patch} object.
+     */
+    public Patch setDetails(String details) {
+      return this.set(EPresenceField.DETAILS, details);
+    }
+
+    /**
+     * Sets the start timestamp for the Rich Presence.
+     *
+     * @param startTimestamp The start timestamp in seconds since epoch.
+     * @return The {@code Patch} object.
+     */
+    public Patch setStartTimestamp(long startTimestamp) {
+      return this.set(EPresenceField.START_TIMESTAMP, startTimestamp);
+    }
+
+    /**
+     * Sets the end timestamp for the Rich Presence.
+     *
+     * @param endTimestamp The end timestamp in seconds since epoch.
+     * @return The {@code Patch} object.
+     */
+    public Patch setEndTimestamp(long endTimestamp) {
+      return this.set(EPresenceField.END_TIMESTAMP, endTimestamp);
+    }
+
+    /**
+     * Sets the large image key for the Rich Presence.
+     *
+     * @param largeImageKey The {@code String} object representing the large image key.
+     * @return The {@code Patch} object.
+     */
+    public Patch setLargeImageKey(String largeImageKey) {
+      return this.set(EPresenceField.LARGE_IMAGE_KEY, largeImageKey);
+    }
+
+    /**
+     * Sets the large image text for the Rich Presence.
+     *
+     * @param largeImageText The {@code String} object representing the large image text.
+     * @return The {@code Patch} object.
+     */
+    public Patch setLargeImageText(String largeImageText) {
+      return this.set(EPresenceField.LARGE_IMAGE_TEXT, largeImageText);
+    }
+
+    /**
+     * Sets the small image key for the Rich Presence.
+     *
+     * @param smallImageKey The {@code String} object representing the small image key.
+     * @return The {@code Patch} object.
+     */
+    public Patch setSmallImageKey(String smallImageKey) {
+      return this.set(EPresenceField.SMALL_IMAGE_KEY, smallImageKey);
+    }
+
+    /**
+     * Sets the small image text for the Rich Presence.
+     *
+     * @param smallImageText The {@code String} object representing the small image text.
+     * @return The {@code Patch} object.
+     */
+    public Patch setSmallImageText(String smallImageText) {
+      return this.set(EPresenceField.SMALL_IMAGE_TEXT, smallImageText);
+    }
+
+    /**
+     * Sets the party ID for the Rich Presence.
+     *
+     * @param partyId The {@code String} object representing the party ID.
+     * @return The {@code Patch} object.
+     */
+    public Patch setPartyId(String partyId) {
+      return this.set(EPresenceField.PARTY_ID, partyId);
+    }
+
+    /**
+     * Sets the party size for the Rich Presence.
+     *
+     * @param partySize The number of players in the party.
+     * @return The {@code Patch} object.
+     */
+    public Patch setPartySize(int partySize) {
+      return this.set(EPresenceField.PARTY_SIZE, partySize);
+    }
+
+    /**
+     * Sets the maximum party size for the Rich Presence.
+     *
+     * @param partyMax The maximum number of players in the party.
+     * @return The {@code Patch} object.
+     */
+    public Patch setPartyMax(int partyMax) {
+      return this.set(EPresenceField.PARTY_MAX, partyMax);
+    }
+
+    /**
+     * Sets the match secret for the Rich Presence.
+     *
+     * @param matchSecret The {@code String} object representing the match secret.
+     * @return The {@code Patch} object.
+     */
+    @Deprecated
+    public Patch setMatchSecret(String matchSecret) {
+      return this.set(EPresenceField.MATCH_SECRET, matchSecret);
+    }
+
+    /**
+     * Sets the join secret for the Rich Presence.
+     *
+     * @param joinSecret The {@code String} object representing the join secret.
+     * @return The {@code Patch} object.
+     */
+    public Patch setJoinSecret(String joinSecret) {
+      return this.set(EPresenceField.JOIN_SECRET, joinSecret);
+    }
+
+    /**
+     * Sets the spectate secret for the Rich Presence.
+     *
+     * @param spectateSecret The {@code String} object representing the spectate secret.
+     * @return The {@code Patch} object.
+     */
+    public Patch setSpectateSecret(String spectateSecret) {
+      return this.set(EPresenceField.SPECTATE_SECRET, spectateSecret);
+    }
+
+    /**
+     * Sets the instance for the Rich Presence.
+     *
+     * @param instance The {@code byte} representing the instance.
+     * @return The {@code Patch} object.
+     */
+    @Deprecated
+    public Patch setInstance(byte instance) {
+      return this.set(EPresenceField.INSTANCE, instance);
+    }
+
+    /**
+     * Unsets a field of the current presence.
+     *
+     * @param field The {@code EPresenceField} to unset.
+     * @return The {@code Patch} object.
+     * @throws NullPointerException if {@code field} is {@code null}.
+     */
+    public Patch clear(final EPresenceField field) {
+      Objects.requireNonNull(field, "field must not be null");
+
+      return this.set(field, null);
+    }
+
+    /**
+     * Applies the changes to the current presence at once, and sends it if it changed. The patch
+     * can be applied again, with further changes, afterwards.
+     */
+    public void apply() {
+      Object[] previous;
+      Object[] next;
+      do {
+        previous = DiscordPresencePatcher.this.values.get();
+        next = previous.clone();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+          if (this.changed[i]) {
+            next[i] = this.changes[i];
+          }
+        }
+        if (Arrays.equals(previous, next)) {
+          DiscordPresencePatcher.this.deduplicated.increment();
+          // sends nothing unless sending the current presence threw last time
+          DiscordPresencePatcher.this.send();
+          return;
+        }
+      } while (!DiscordPresencePatcher.this.values.compareAndSet(previous, next));
+      DiscordPresencePatcher.this.applied.increment();
+      DiscordPresencePatcher.this.send();
+    }
+
+    private Patch set(final EPresenceField field, final Object value) {
+      // 0 unsets a number, as it does in DiscordPresenceCompositor#toValues
+      boolean unset = value instanceof Number && ((Number) value).longValue() == 0L;
+      this.changes[field.ordinal()] = unset ? null : value;
+      this.changed[field.ordinal()] = true;
+      return this;
+    }
+  }
+}
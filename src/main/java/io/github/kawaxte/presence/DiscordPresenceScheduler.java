@@ -0,0 +1,224 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DiscordPresenceScheduler} class sits in front of
+ * {@link DiscordRPC#updatePresence(DiscordRichPresence)} and limits how often the Rich Presence
+ * is actually sent to Discord.
+ * <p>
+ * Only the most recently submitted presence is kept while waiting for the next send, presences
+ * that match the last sent one field for field are dropped, and sends are spaced out so that they
+ * stay within the rate at which Discord accepts presence updates.
+ * </p>
+ * <p>
+ * The scheduler owns a single daemon thread which is used to release the sends. It should be shut
+ * down using {@link #shutdown()} once it is no longer needed.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordRichPresence#contentEquals(DiscordRichPresence)
+ */
+public final class DiscordPresenceScheduler {
+
+  /**
+   * The default minimum interval between two sends, in milliseconds.
+   *
+   * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#updating-presence">Introducing Rich Presence - Updating Presence</a>
+   */
+  public static final long DEFAULT_INTERVAL_MILLIS = 15000L;
+
+  private final Consumer<DiscordRichPresence> sink;
+  private final long intervalNanos;
+  private final ScheduledExecutorService service;
+  private final AtomicReference<DiscordRichPresence> pending = new AtomicReference<>();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder sent = new LongAdder();
+  private volatile DiscordRichPresence lastSent;
+  private volatile long nextSendNanos;
+
+  /**
+   * Constructs a new {@code DiscordPresenceScheduler} which sends at most one presence every
+   * {@link #DEFAULT_INTERVAL_MILLIS} milliseconds through
+   * {@link DiscordRPC#updatePresence(DiscordRichPresence)}.
+   */
+  public DiscordPresenceScheduler() {
+    this(DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructs a new {@code DiscordPresenceScheduler} which sends at most one presence per
+   * interval through {@link DiscordRPC#updatePresence(DiscordRichPresence)}.
+   *
+   * @param interval The minimum interval between two sends.
+   * @param unit     The {@code TimeUnit} of {@code interval}.
+   * @throws NullPointerException     if {@code unit} is {@code null}.
+   * @throws IllegalArgumentException if {@code interval} is negative.
+   */
+  public DiscordPresenceScheduler(long interval, final TimeUnit unit) {
+    this(interval, unit, DiscordRPC::updatePresence);
+  }
+
+  /**
+   * Constructs a new {@code DiscordPresenceScheduler} which sends at most one presence per
+   * interval to the given sink.
+   *
+   * @param interval The minimum interval between two sends.
+   * @param unit     The {@code TimeUnit} of {@code interval}.
+   * @param sink     The {@code Consumer} the presences are released to.
+   * @throws NullPointerException     if {@code unit} or {@code sink} is {@code null}.
+   * @throws IllegalArgumentException if {@code interval} is negative.
+   */
+  public DiscordPresenceScheduler(long interval, final TimeUnit unit,
+      final Consumer<DiscordRichPresence> sink) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    Objects.requireNonNull(sink, "sink must not be null");
+    if (interval < 0) {
+      throw new IllegalArgumentException("interval must not be negative");
+    }
+
+    this.sink = sink;
+    this.intervalNanos = unit.toNanos(interval);
+    this.service = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "discord-rpc-presence-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Submits a presence to be sent.
+   * <p>
+   * The presence is copied, so it can be changed by the caller afterwards. If another presence is
+   * still waiting to be sent, it is replaced by this one.
+   * </p>
+   *
+   * @param presence The {@code DiscordRichPresence} object to be sent.
+   * @throws NullPointerException if {@code presence} is {@code null}.
+   */
+  public void submit(final DiscordRichPresence presence) {
+    Objects.requireNonNull(presence, "presence must not be null");
+
+    this.submitted.increment();
+    DiscordRichPresence previous = this.pending.getAndSet(
+        new DiscordRichPresence.Builder(presence).build());
+    if (previous != null) {
+      this.coalesced.increment();
+      return;
+    }
+    this.schedule(Math.max(0L, this.nextSendNanos - System.nanoTime()));
+  }
+
+  /**
+   * Stops the scheduler. Any presence that is still waiting to be sent is discarded, as are those
+   * submitted afterwards.
+   */
+  public void shutdown() {
+    this.service.shutdownNow();
+    this.pending.set(null);
+  }
+
+  /**
+   * Returns the number of presences submitted to this scheduler.
+   *
+   * @return The number of calls to {@link #submit(DiscordRichPresence)}.
+   */
+  public long getSubmittedCount() {
+    return this.submitted.sum();
+  }
+
+  /**
+   * Returns the number of presences which were replaced by a newer one before they were sent.
+   *
+   * @return The number of coalesced presences.
+   */
+  public long getCoalescedCount() {
+    return this.coalesced.sum();
+  }
+
+  /**
+   * Returns the number of presences which were dropped because they matched the last sent one.
+   *
+   * @return The number of deduplicated presences.
+   */
+  public long getDeduplicatedCount() {
+    return this.deduplicated.sum();
+  }
+
+  /**
+   * Returns the number of presences which were actually sent.
+   *
+   * @return The number of sent presences.
+   */
+  public long getSentCount() {
+    return this.sent.sum();
+  }
+
+  /**
+   * Schedules a flush of the pending presence.
+   *
+   * @param delayNanos The delay before the flush, in nanoseconds.
+   */
+  private void schedule(long delayNanos) {
+    try {
+      this.service.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException ree) {
+      // shut down meanwhile, so the presence is discarded as shutdown() would have done
+      this.pending.set(null);
+    }
+  }
+
+  /**
+   * Sends the pending presence, unless it matches the last sent one or the interval since the last
+   * send has not passed yet, in which case the flush is scheduled again.
+   * <p>
+   * This method only ever runs on the scheduler thread.
+   * </p>
+   */
+  private void flush() {
+    DiscordRichPresence presence;
+    while (true) {
+      presence = this.pending.get();
+      if (presence == null) {
+        return;
+      }
+      if (!presence.contentEquals(this.lastSent)) {
+        break;
+      }
+      if (this.pending.compareAndSet(presence, null)) {
+        this.deduplicated.increment();
+        return;
+      }
+      // a presence submitted meanwhile was coalesced into this one, counting on this flush to
+      // send it, so it is looked at again
+    }
+
+    long delayNanos = this.nextSendNanos - System.nanoTime();
+    if (delayNanos > 0L) {
+      this.schedule(delayNanos);
+      return;
+    }
+
+    presence = this.pending.getAndSet(null);
+    if (presence == null) {
+      return;
+    }
+    if (presence.contentEquals(this.lastSent)) {
+      this.deduplicated.increment();
+      return;
+    }
+    this.sink.accept(presence);
+    this.lastSent = presence;
+    this.nextSendNanos = System.nanoTime() + this.intervalNanos;
+    this.sent.increment();
+  }
+}
@@ -0,0 +1,461 @@
+package io.github.kawaxte.presence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code DiscordPresenceTemplate} class is a text template for a string field of the Rich
+ * Presence, such as {@code "Wave {wave} - {kills} kills"}, which is parsed once and can then be
+ * rendered any number of times without formatting a new string every time.
+ * <p>
+ * A template is immutable and can be shared between threads. Rendering it goes through a
+ * {@link Binding}, which holds the current value of every placeholder and renders the UTF-8 bytes
+ * of the text into a buffer it reuses, only when a value has changed since the last render.
+ * Numbers are written digit by digit and strings are encoded as they are written, so rendering
+ * allocates nothing, and the text is cut to the length Discord accepts for the field without
+ * splitting a UTF-8 sequence.
+ * </p>
+ * <p>
+ * Placeholders are names enclosed in braces. A placeholder used several times in a template
+ * renders the same value every time, and {@code {{} and {@code }}} stand for literal braces.
+ * Bindings are sent by binding them to a {@link DiscordPresenceBuffer}, which renders them every
+ * time the buffer is sent, and only writes the fields whose text changed.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordPresenceBuffer#bind(Binding)
+ */
+public final class DiscordPresenceTemplate {
+
+  private static final byte UNSET = 0;
+  private static final byte NUMBER = 1;
+  private static final byte STRING = 2;
+
+  private final String pattern;
+  private final byte[][] literals;
+  private final int[] placeholders;
+  private final String[] names;
+
+  /**
+   * Constructs a new {@code DiscordPresenceTemplate}.
+   *
+   * @param pattern      The source of the template.
+   * @param literals     The UTF-8 bytes of the text before every placeholder, and after the last
+   *                     one.
+   * @param placeholders The index of the parameter every placeholder renders.
+   * @param names        The names of the parameters, in order of first appearance.
+   */
+  private DiscordPresenceTemplate(final String pattern, final byte[][] literals,
+      final int[] placeholders, final String[] names) {
+    this.pattern = pattern;
+    this.literals = literals;
+    this.placeholders = placeholders;
+    this.names = names;
+  }
+
+  /**
+   * Parses a template.
+   *
+   * @param pattern The source of the template, such as {@code "Wave {wave} - {kills} kills"}.
+   * @return The compiled {@code DiscordPresenceTemplate} object.
+   * @throws NullPointerException     if {@code pattern} is {@code null}.
+   * @throws IllegalArgumentException if a brace is not matched, or a placeholder has no name.
+   */
+  public static DiscordPresenceTemplate compile(final String pattern) {
+    Objects.requireNonNull(pattern, "pattern must not be null");
+
+    List<byte[]> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Integer> placeholders = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '{' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '{') {
+        literal.append('{');
+        i += 2;
+      } else if (c == '}' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '}') {
+        literal.append('}');
+        i += 2;
+      } else if (c == '{') {
+        int end = pattern.indexOf('}', i + 1);
+        if (end < 0) {
+          throw new IllegalArgumentException(
+              String.format("Unterminated placeholder at index %d", i));
+        }
+
+        String name = pattern.substring(i + 1, end);
+        if (name.isEmpty() || name.indexOf('{') >= 0) {
+          throw new IllegalArgumentException(
+              String.format("Invalid placeholder at index %d", i));
+        }
+        if (!names.contains(name)) {
+          names.add(name);
+        }
+        literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+        placeholders.add(names.indexOf(name));
+        literal.setLength(0);
+        i = end + 1;
+      } else if (c == '}') {
+        throw new IllegalArgumentException(String.format("Unmatched brace at index %d", i));
+      } else {
+        literal.append(c);
+        i++;
+      }
+    }
+    literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+
+    int[] indices = new int[placeholders.size()];
+    for (int j = 0; j < indices.length; j++) {
+      indices[j] = placeholders.get(j);
+    }
+    return new DiscordPresenceTemplate(pattern, literals.toArray(new byte[0][]), indices,
+        names.toArray(new String[0]));
+  }
+
+  /**
+   * Returns the source of the template.
+   *
+   * @return The pattern the template was compiled from.
+   */
+  public String getPattern() {
+    return this.pattern;
+  }
+
+  /**
+   * Returns the names of the parameters of the template, in order of first appearance.
+   *
+   * @return A new array holding the names.
+   */
+  public String[] getParameterNames() {
+    return this.names.clone();
+  }
+
+  /**
+   * Returns the index of a parameter, which can be given to the setters of a {@link Binding}
+   * instead of its name so that no lookup is made on every update.
+   *
+   * @param name The name of the parameter.
+   * @return The index of the parameter.
+   * @throws IllegalArgumentException if the template has no such parameter.
+   */
+  public int indexOf(final String name) {
+    for (int i = 0; i < this.names.length; i++) {
+      if (this.names[i].equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Unknown parameter: %s", name));
+  }
+
+  /**
+   * Creates a binding of the template for a field of the Rich Presence, with every parameter
+   * unset, rendering as empty text.
+   *
+   * @param field The {@code EPresenceField} the text is rendered for, whose maximum length it is
+   *              cut to.
+   * @return The {@code Binding} object.
+   * @throws NullPointerException     if {@code field} is {@code null}.
+   * @throws IllegalArgumentException if {@code field} is not a string field.
+   */
+  public Binding bind(final EPresenceField field) {
+    Objects.requireNonNull(field, "field must not be null");
+    if (!field.isString()) {
+      throw new IllegalArgumentException(String.format("%s is not a string field", field));
+    }
+
+    return new Binding(field);
+  }
+
+  private static boolean equalBytes(final byte[] a, final byte[] b, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordPresenceTemplate[pattern=%s]", this.pattern);
+  }
+
+  /**
+   * The {@code Binding} class holds the values of the parameters of a template and the text last
+   * rendered from them for a field of the Rich Presence.
+   * <p>
+   * A binding is not thread-safe and should only be used by one thread at a time, like the
+   * {@link DiscordPresenceBuffer} it is bound to. String values are held by reference, and
+   * rendered again only when a different string is set.
+   * </p>
+   *
+   * @author Kawaxte
+   */
+  public final class Binding {
+
+    private final EPresenceField field;
+    private final byte[] kinds;
+    private final long[] numbers;
+    private final String[] strings;
+    private final byte[] digits = new byte[20];
+    private byte[] bytes;
+    private byte[] next;
+    private int length;
+    private int nextLength;
+    private boolean stale = true;
+    private long version;
+    private String text = "";
+
+    /**
+     * Constructs a new {@code Binding}.
+     *
+     * @param field The {@code EPresenceField} the text is rendered for.
+     */
+    private Binding(final EPresenceField field) {
+      this.field = field;
+      this.kinds = new byte[DiscordPresenceTemplate.this.names.length];
+      this.numbers = new long[this.kinds.length];
+      this.strings = new String[this.kinds.length];
+      // one byte more than the field accepts tells whether the last character was cut
+      this.bytes = new byte[field.getMaxBytes() + 1];
+      this.next = new byte[field.getMaxBytes() + 1];
+    }
+
+    /**
+     * Returns the template of this binding.
+     *
+     * @return The {@code DiscordPresenceTemplate} object.
+     */
+    public DiscordPresenceTemplate getTemplate() {
+      return DiscordPresenceTemplate.this;
+    }
+
+    /**
+     * Returns the field the text is rendered for.
+     *
+     * @return The {@code EPresenceField} of this binding.
+     */
+    public EPresenceField getField() {
+      return this.field;
+    }
+
+    /**
+     * Sets a parameter to a number.
+     *
+     * @param name  The name of the parameter.
+     * @param value The number to be rendered in decimal.
+     * @return The {@code Binding} object.
+     * @throws IllegalArgumentException if the template has no such parameter.
+     */
+    public Binding set(final String name, long value) {
+      return this.set(DiscordPresenceTemplate.this.indexOf(name), value);
+    }
+
+    /**
+     * Sets a parameter to a string.
+     *
+     * @param name  The name of the parameter.
+     * @param value The string to be rendered, or {@code null} to render nothing.
+     * @return The {@code Binding} object.
+     * @throws IllegalArgumentException if the template has no such parameter.
+     */
+    public Binding set(final String name, final String value) {
+      return this.set(DiscordPresenceTemplate.this.indexOf(name), value);
+    }
+
+    /**
+     * Sets a parameter to a number.
+     *
+     * @param index The index of the parameter, as returned by
+     *              {@link DiscordPresenceTemplate#indexOf(String)}.
+     * @param value The number to be rendered in decimal.
+     * @return The {@code Binding} object.
+     * @throws IndexOutOfBoundsException if {@code index} is not the index of a parameter.
+     */
+    public Binding set(int index, long value) {
+      if (this.kinds[index] != NUMBER || this.numbers[index] != value) {
+        this.kinds[index] = NUMBER;
+        this.numbers[index] = value;
+        this.strings[index] = null;
+        this.stale = true;
+      }
+      return this;
+    }
+
+    /**
+     * Sets a parameter to a string.
+     *
+     * @param index The index of the parameter, as returned by
+     *              {@link DiscordPresenceTemplate#indexOf(String)}.
+     * @param value The string to be rendered, or {@code null} to render nothing.
+     * @return The {@code Binding} object.
+     * @throws IndexOutOfBoundsException if {@code index} is not the index of a parameter.
+     */
+    public Binding set(int index, final String value) {
+      byte kind = value != null ? STRING : UNSET;
+      if (this.kinds[index] != kind || !Objects.equals(this.strings[index], value)) {
+        this.kinds[index] = kind;
+        this.strings[index] = value;
+        this.stale = true;
+      }
+      return this;
+    }
+
+    /**
+     * Renders the text if a parameter changed since the last render.
+     *
+     * @return {@code true} if the text differs from the one last rendered, {@code false}
+     * otherwise.
+     */
+    public boolean render() {
+      if (!this.stale) {
+        return false;
+      }
+
+      this.stale = false;
+      this.nextLength = 0;
+      byte[][] literals = DiscordPresenceTemplate.this.literals;
+      int[] placeholders = DiscordPresenceTemplate.this.placeholders;
+      for (int i = 0; i < placeholders.length; i++) {
+        this.putBytes(literals[i]);
+        int parameter = placeholders[i];
+        if (this.kinds[parameter] == NUMBER) {
+          this.putNumber(this.numbers[parameter]);
+        } else if (this.kinds[parameter] == STRING) {
+          this.putString(this.strings[parameter]);
+        }
+      }
+      this.putBytes(literals[placeholders.length]);
+      int rendered = DiscordPresenceBuffer.truncate(this.next, this.nextLength,
+          this.field.getMaxBytes());
+
+      if (rendered == this.length && equalBytes(this.bytes, this.next, rendered)) {
+        return false;
+      }
+
+      byte[] previous = this.bytes;
+      this.bytes = this.next;
+      this.next = previous;
+      this.length = rendered;
+      this.text = null;
+      this.version++;
+      return true;
+    }
+
+    /**
+     * Renders the text if a parameter changed since the last render, and returns it. The string is
+     * only created again when the text changed.
+     *
+     * @return The {@code String} object holding the text.
+     */
+    public String getText() {
+      this.render();
+      if (this.text == null) {
+        this.text = new String(this.bytes, 0, this.length, StandardCharsets.UTF_8);
+      }
+      return this.text;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the text last rendered, which are only valid up to
+     * {@link #getLength()}, and until the next render.
+     *
+     * @return The array holding the bytes.
+     */
+    byte[] getBytes() {
+      return this.bytes;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of the text last rendered.
+     *
+     * @return The length of the text in bytes.
+     */
+    int getLength() {
+      return this.length;
+    }
+
+    /**
+     * Returns the number of times the rendered text has changed, which tells a
+     * {@link DiscordPresenceBuffer} whether the field has to be written again.
+     *
+     * @return The version of the text.
+     */
+    long getVersion() {
+      return this.version;
+    }
+
+    private void putBytes(final byte[] source) {
+      int count = Math.min(source.length, this.next.length - this.nextLength);
+      System.arraycopy(source, 0, this.next, this.nextLength, count);
+      this.nextLength += count;
+    }
+
+    private void putByte(int b) {
+      if (this.nextLength < this.next.length) {
+        this.next[this.nextLength++] = (byte) b;
+      }
+    }
+
+    private void putNumber(long value) {
+      if (value == 0L) {
+        this.putByte('0');
+        return;
+      }
+
+      // digits are taken from the negative value, which holds Long.MIN_VALUE as well
+      long remaining = value < 0L ? value : -value;
+      int start = this.digits.length;
+      while (remaining != 0L) {
+        this.digits[--start] = (byte) ('0' - remaining % 10L);
+        remaining /= 10L;
+      }
+      if (value < 0L) {
+        this.putByte('-');
+      }
+      for (int i = start; i < this.digits.length; i++) {
+        this.putByte(this.digits[i]);
+      }
+    }
+
+    /**
+     * Encodes a string into UTF-8 as it is written, replacing unpaired surrogates with {@code ?}
+     * as {@link String#getBytes(java.nio.charset.Charset)} does.
+     *
+     * @param value The {@code String} object to be written.
+     */
+    private void putString(final String value) {
+      for (int i = 0; i < value.length() && this.nextLength < this.next.length; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          this.putByte(c);
+        } else if (c < 0x800) {
+          this.putByte(0xC0 | (c >> 6));
+          this.putByte(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          this.putByte(0xF0 | (codePoint >> 18));
+          this.putByte(0x80 | ((codePoint >> 12) & 0x3F));
+          this.putByte(0x80 | ((codePoint >> 6) & 0x3F));
+          this.putByte(0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          this.putByte('?');
+        } else {
+          this.putByte(0xE0 | (c >> 12));
+          this.putByte(0x80 | ((c >> 6) & 0x3F));
+          this.putByte(0x80 | (c & 0x3F));
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("DiscordPresenceTemplate.Binding[field=%s, text=%s]", this.field,
+          this.getText());
+    }
+  }
+}
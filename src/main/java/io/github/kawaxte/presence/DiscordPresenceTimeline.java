@@ -0,0 +1,316 @@
+package io.github.kawaxte.presence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The {@code DiscordPresenceTimeline} class sends a sequence of Rich Presences declared up front,
+ * each at an absolute time or at an offset from the start of the timeline, such as a countdown to
+ * the start of a match or details rotating every few seconds.
+ * <p>
+ * Every entry is scheduled on a {@link DiscordTimerWheel} when the timeline is started, and its
+ * presence is built at that time, so exactly one update is sent at each boundary and nothing runs
+ * in between. Rather than sending an update every second, an entry can let Discord count the time
+ * itself by filling in the {@code startTimestamp} or {@code endTimestamp} of its presence using
+ * {@link Builder#countingUp()} or {@link Builder#countingDown()}.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordTimerWheel
+ */
+public final class DiscordPresenceTimeline {
+
+  private static final int TIMESTAMP_NONE = 0;
+  private static final int TIMESTAMP_ELAPSED = 1;
+  private static final int TIMESTAMP_REMAINING = 2;
+
+  private final Entry[] entries;
+  private final long periodMillis;
+  private final Consumer<DiscordRichPresence> sink;
+  private final List<DiscordTimerWheel.Timeout> timeouts = new ArrayList<>();
+  private DiscordTimerWheel wheel;
+  private long generation;
+
+  /**
+   * Constructs a new {@code DiscordPresenceTimeline}.
+   *
+   * @param builder The {@code Builder} object holding the entries of the timeline.
+   */
+  private DiscordPresenceTimeline(final Builder builder) {
+    this.entries = builder.entries.toArray(new Entry[0]);
+    this.periodMillis = builder.periodMillis;
+    this.sink = builder.sink;
+  }
+
+  /**
+   * Starts the timeline on the default {@link DiscordTimerWheel}.
+   *
+   * @throws IllegalStateException if the timeline is already running.
+   */
+  public void start() {
+    this.start(DiscordTimerWheel.getDefault());
+  }
+
+  /**
+   * Starts the timeline on the given wheel. Relative entries are offset from now, and of the
+   * absolute entries whose time has already passed, only the latest one is sent, right away.
+   *
+   * @param wheel The {@code DiscordTimerWheel} object the entries are scheduled on.
+   * @throws NullPointerException  if {@code wheel} is {@code null}.
+   * @throws IllegalStateException if the timeline is already running.
+   */
+  public synchronized void start(final DiscordTimerWheel wheel) {
+    Objects.requireNonNull(wheel, "wheel must not be null");
+    if (this.wheel != null) {
+      throw new IllegalStateException("Timeline is already running");
+    }
+
+    this.wheel = wheel;
+    this.scheduleCycle(++this.generation, System.currentTimeMillis());
+  }
+
+  /**
+   * Stops the timeline, cancelling every entry that has not been sent yet. The timeline can be
+   * started again afterwards.
+   */
+  public synchronized void stop() {
+    for (DiscordTimerWheel.Timeout timeout : this.timeouts) {
+      timeout.cancel();
+    }
+    this.timeouts.clear();
+    this.wheel = null;
+    this.generation++;
+  }
+
+  /**
+   * Returns whether the timeline is running, which it does until it is stopped, or until its last
+   * entry has been sent if it does not loop.
+   *
+   * @return {@code true} if the timeline is running, {@code false} otherwise.
+   */
+  public synchronized boolean isRunning() {
+    if (this.wheel == null) {
+      return false;
+    }
+    for (DiscordTimerWheel.Timeout timeout : this.timeouts) {
+      if (!timeout.isExpired()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Schedules every entry of one run of the timeline, and the next run if the timeline loops.
+   *
+   * @param generation  The generation of the timeline the run belongs to, which is no longer
+   *                    scheduled once the timeline has been stopped.
+   * @param startMillis The time the run starts, in milliseconds since the epoch.
+   */
+  private synchronized void scheduleCycle(long generation, long startMillis) {
+    if (generation != this.generation || this.wheel == null) {
+      return;
+    }
+
+    long nowMillis = System.currentTimeMillis();
+    long[] times = new long[this.entries.length];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = this.entries[i].getTimeMillis(startMillis);
+    }
+    Integer[] order = new Integer[times.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+
+    this.timeouts.removeIf(DiscordTimerWheel.Timeout::isExpired);
+    long endMillis = this.periodMillis > 0L ? startMillis + this.periodMillis : 0L;
+    for (int i = 0; i < order.length; i++) {
+      long timeMillis = times[order[i]];
+      long nextMillis = i + 1 < order.length ? times[order[i + 1]] : endMillis;
+      if (nextMillis != 0L && nextMillis <= nowMillis) {
+        // superseded by a later entry which has already passed as well
+        continue;
+      }
+
+      DiscordRichPresence presence = this.entries[order[i]].toPresence(timeMillis, nextMillis);
+      this.timeouts.add(this.wheel.schedule(() -> this.sink.accept(presence),
+          timeMillis - nowMillis, TimeUnit.MILLISECONDS));
+    }
+    if (endMillis != 0L) {
+      this.timeouts.add(this.wheel.schedule(() -> this.scheduleCycle(generation, endMillis),
+          endMillis - nowMillis, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  /**
+   * The {@code Entry} class holds one presence of a timeline and the time it is sent at.
+   */
+  private static final class Entry {
+
+    private final DiscordRichPresence presence;
+    private final boolean absolute;
+    private final long millis;
+    private int timestamp = TIMESTAMP_NONE;
+
+    private Entry(final DiscordRichPresence presence, boolean absolute, long millis) {
+      this.presence = new DiscordRichPresence.Builder(presence).build();
+      this.absolute = absolute;
+      this.millis = millis;
+    }
+
+    long getTimeMillis(long startMillis) {
+      return this.absolute ? this.millis : startMillis + this.millis;
+    }
+
+    DiscordRichPresence toPresence(long timeMillis, long nextMillis) {
+      if (this.timestamp == TIMESTAMP_NONE) {
+        return this.presence;
+      }
+
+      DiscordRichPresence presence = new DiscordRichPresence.Builder(this.presence).build();
+      if (this.timestamp == TIMESTAMP_ELAPSED) {
+        presence.startTimestamp = TimeUnit.MILLISECONDS.toSeconds(timeMillis);
+      } else if (nextMillis != 0L) {
+        presence.endTimestamp = TimeUnit.MILLISECONDS.toSeconds(nextMillis);
+      }
+      return presence;
+    }
+  }
+
+  /**
+   * The {@code Builder} class is used to declare the entries of a {@link DiscordPresenceTimeline}.
+   *
+   * @author Kawaxte
+   */
+  public static class Builder {
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long periodMillis;
+    private Consumer<DiscordRichPresence> sink = DiscordRPC::updatePresence;
+
+    /**
+     * Adds an entry sent at an offset from the start of the timeline.
+     *
+     * @param offset   The offset from the start of the timeline.
+     * @param unit     The {@code TimeUnit} of {@code offset}.
+     * @param presence The {@code DiscordRichPresence} object to send, which is copied.
+     * @return The {@code Builder} object.
+     * @throws NullPointerException     if {@code unit} or {@code presence} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     */
+    public Builder after(long offset, final TimeUnit unit, final DiscordRichPresence presence) {
+      Objects.requireNonNull(unit, "unit must not be null");
+      Objects.requireNonNull(presence, "presence must not be null");
+      if (offset < 0L) {
+        throw new IllegalArgumentException("offset must not be negative");
+      }
+
+      this.entries.add(new Entry(presence, false, unit.toMillis(offset)));
+      return this;
+    }
+
+    /**
+     * Adds an entry sent at an absolute time.
+     *
+     * @param epochMillis The time to send the presence at, in milliseconds since the epoch.
+     * @param presence    The {@code DiscordRichPresence} object to send, which is copied.
+     * @return The {@code Builder} object.
+     * @throws NullPointerException if {@code presence} is {@code null}.
+     */
+    public Builder at(long epochMillis, final DiscordRichPresence presence) {
+      Objects.requireNonNull(presence, "presence must not be null");
+
+      this.entries.add(new Entry(presence, true, epochMillis));
+      return this;
+    }
+
+    /**
+     * Sets the {@code startTimestamp} of the last added entry to the time it is sent, so that
+     * Discord shows the time elapsed since.
+     *
+     * @return The {@code Builder} object.
+     * @throws IllegalStateException if no entry has been added yet.
+     */
+    public Builder countingUp() {
+      this.getLastEntry().timestamp = TIMESTAMP_ELAPSED;
+      return this;
+    }
+
+    /**
+     * Sets the {@code endTimestamp} of the last added entry to the time of the entry following it,
+     * or to the end of the run if the timeline loops, so that Discord shows the time remaining
+     * until then. The last entry of a timeline which does not loop has nothing to count down to.
+     *
+     * @return The {@code Builder} object.
+     * @throws IllegalStateException if no entry has been added yet.
+     */
+    public Builder countingDown() {
+      this.getLastEntry().timestamp = TIMESTAMP_REMAINING;
+      return this;
+    }
+
+    /**
+     * Makes the timeline start over every period, such as to rotate between presences.
+     *
+     * @param period The duration of one run of the timeline.
+     * @param unit   The {@code TimeUnit} of {@code period}.
+     * @return The {@code Builder} object.
+     * @throws NullPointerException     if {@code unit} is {@code null}.
+     * @throws IllegalArgumentException if {@code period} is shorter than a millisecond.
+     */
+    public Builder loop(long period, final TimeUnit unit) {
+      Objects.requireNonNull(unit, "unit must not be null");
+      if (unit.toMillis(period) <= 0L) {
+        throw new IllegalArgumentException("period must be at least a millisecond");
+      }
+
+      this.periodMillis = unit.toMillis(period);
+      return this;
+    }
+
+    /**
+     * Sets the sink the presences are passed to, which is
+     * {@link DiscordRPC#updatePresence(DiscordRichPresence)} by default.
+     *
+     * @param sink The {@code Consumer} the presences are passed to on the thread of the wheel.
+     * @return The {@code Builder} object.
+     * @throws NullPointerException if {@code sink} is {@code null}.
+     */
+    public Builder setSink(final Consumer<DiscordRichPresence> sink) {
+      Objects.requireNonNull(sink, "sink must not be null");
+
+      this.sink = sink;
+      return this;
+    }
+
+    /**
+     * Builds the {@link DiscordPresenceTimeline} object.
+     *
+     * @return The {@code DiscordPresenceTimeline} object.
+     * @throws IllegalStateException if the timeline loops and holds an absolute entry.
+     */
+    public DiscordPresenceTimeline build() {
+      if (this.periodMillis > 0L) {
+        for (Entry entry : this.entries) {
+          if (entry.absolute) {
+            throw new IllegalStateException("A looping timeline cannot hold absolute entries");
+          }
+        }
+      }
+      return new DiscordPresenceTimeline(this);
+    }
+
+    private Entry getLastEntry() {
+      if (this.entries.isEmpty()) {
+        throw new IllegalStateException("No entry has been added");
+      }
+      return this.entries.get(this.entries.size() - 1);
+    }
+  }
+}
@@ -1,36 +1,47 @@
 package io.github.kawaxte.presence;
 
-import java.io.File;
-import java.io.IOException;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.FileAttribute;
-import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Objects;
 
 /**
  * The {@code DiscordRPC} class provides static methods to initialize, shutdown, update and
  * clear the presence of the application.
  * <p>
- * It also loads the native library for the current platform using the
- * {@link #loadLibraryForPlatform()} method.
+ * It forwards every call to the backend selected by {@link DiscordBackends}, loading the native
+ * library for the current platform using {@link DiscordNativeLibrary} if the backend needs it.
+ * While no Discord client is running, the calls are ignored and nothing is loaded until one is.
+ * When the {@code discord-rpc.metrics} system property is set to {@code true}, the calls are
+ * measured and published as {@link IDiscordMetrics}.
  * </p>
  *
  * @author Kawaxte
  */
 public final class DiscordRPC {
 
+  /**
+   * The reply to a join request denying the user to join.
+   */
+  public static final int REPLY_NO = 0;
+  /**
+   * The reply to a join request allowing the user to join.
+   */
+  public static final int REPLY_YES = 1;
+  /**
+   * The reply to a join request ignoring it.
+   */
+  public static final int REPLY_IGNORE = 2;
+
+  private static final IDiscordBackend BACKEND;
+  private static volatile long lastRunCallbacksNanos = System.nanoTime();
+  // JNA only holds callbacks weakly, so the handlers are kept for as long as they are in use
+  private static volatile DiscordEventHandlers observedHandlers;
+
   static {
-    loadLibraryForPlatform();
+    BACKEND = DiscordMetricsBackend.instrument(DiscordRecordingBackend.record(
+        DiscordBrokerBackend.broker(() -> DiscordDeferredBackend.defer(DiscordRPC::newBackend))));
   }
 
   /**
@@ -41,6 +52,18 @@ public final class DiscordRPC {
         DiscordRPC.class.getName()));
   }
 
+  /**
+   * Creates the backend connecting to Discord, loading the native library if the backend needs it,
+   * which is only called once a Discord client is running unless {@link DiscordDeferredBackend}
+   * is disabled.
+   *
+   * @return The {@code IDiscordBackend} object.
+   */
+  private static IDiscordBackend newBackend() {
+    return DiscordRegistrationBackend.cache(DiscordBackends.profile(
+        DiscordBackends.select(DiscordBackends.profile(DiscordNativeLibrary::load))));
+  }
+
   /**
    * Initialises the Rich Presence.
    *
@@ -57,10 +80,9 @@ public final class DiscordRPC {
     Objects.requireNonNull(applicationId, "applicationId must not be null");
     Objects.requireNonNull(handlers, "handlers must not be null");
 
-    IDiscordRPC.INSTANCE.Discord_Initialize(applicationId,
-        handlers,
-        autoRegister ? 1 : 0,
-        optionalSteamId);
+    observedHandlers = DiscordCallbackPump.observe(handlers, DiscordCallbackPump::signalActivity);
+    BACKEND.initialise(applicationId, observedHandlers, autoRegister, optionalSteamId);
+    DiscordCallbackPump.signalActivity();
   }
 
   /**
@@ -73,20 +95,34 @@ public final class DiscordRPC {
    * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#shutting-down">Introducing Rich Presence - Shutting Down</a>
    */
   public static void shutdown() {
-    IDiscordRPC.INSTANCE.Discord_Shutdown();
+    BACKEND.shutdown();
   }
 
 
   /**
    * Runs the callbacks for the Rich Presence.
    * <p>
-   * This method should be called regularly to ensure that the callbacks are run.
+   * This method should be called regularly to ensure that the callbacks are run, which
+   * {@link DiscordCallbackPump} can take care of. The replies decided by any
+   * {@link DiscordJoinRequestPolicy} during the callbacks are sent once they have all run.
    * </p>
    *
    * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#so-how-does-it-work">Introducing Rich Presence - So, How Does It Work?</a>
    */
   public static void runCallbacks() {
-    IDiscordRPC.INSTANCE.Discord_RunCallbacks();
+    lastRunCallbacksNanos = System.nanoTime();
+    BACKEND.runCallbacks();
+    DiscordJoinRequestPolicy.flushAll();
+  }
+
+  /**
+   * Returns when {@link #runCallbacks()} was last called, or when the library was loaded if it has
+   * not been called yet.
+   *
+   * @return The value of {@link System#nanoTime()} at the last call.
+   */
+  static long getLastRunCallbacksNanos() {
+    return lastRunCallbacksNanos;
   }
 
 
@@ -104,7 +140,26 @@ public final class DiscordRPC {
   public static void updatePresence(final DiscordRichPresence presence) {
     Objects.requireNonNull(presence, "presence must not be null");
 
-    IDiscordRPC.INSTANCE.Discord_UpdatePresence(presence);
+    BACKEND.updatePresence(presence);
+    DiscordCallbackPump.signalActivity();
+  }
+
+  /**
+   * Updates the Rich Presence from a reusable buffer.
+   * <p>
+   * Only the fields of the buffer that changed since it was last sent are encoded again, which
+   * makes this method suitable for updating the Rich Presence every frame or tick.
+   * </p>
+   *
+   * @param buffer The {@code DiscordPresenceBuffer} object to be sent.
+   * @throws NullPointerException if {@code buffer} is {@code null}.
+   * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#updating-presence">Introducing Rich Presence - Updating Presence</a>
+   */
+  public static void updatePresence(final DiscordPresenceBuffer buffer) {
+    Objects.requireNonNull(buffer, "buffer must not be null");
+
+    BACKEND.updatePresence(buffer);
+    DiscordCallbackPump.signalActivity();
   }
 
   /**
@@ -115,7 +170,8 @@ public final class DiscordRPC {
    * </p>
    */
   public static void clearPresence() {
-    IDiscordRPC.INSTANCE.Discord_ClearPresence();
+    BACKEND.clearPresence();
+    DiscordCallbackPump.signalActivity();
   }
 
 
@@ -125,9 +181,9 @@ public final class DiscordRPC {
    * @param userId The user ID of the user who sent the join request.
    * @param reply  The reply to be sent to the user. This should be one of the following:
    *               <ul>
-   *               <li>0 - No Reply</li>
-   *               <li>1 - Reply</li>
-   *               <li>2 - Ignore</li>
+   *               <li>{@link #REPLY_NO} - No Reply</li>
+   *               <li>{@link #REPLY_YES} - Reply</li>
+   *               <li>{@link #REPLY_IGNORE} - Ignore</li>
    *               </ul>
    * @throws NullPointerException     if {@code userId} is {@code null}.
    * @throws IllegalArgumentException if {@code reply} is not between 0 and 2.
@@ -135,11 +191,12 @@ public final class DiscordRPC {
    */
   public static void respond(final String userId, int reply) {
     Objects.requireNonNull(userId, "userId must not be null");
-    if (reply < 0 || reply > 2) {
+    if (reply < REPLY_NO || reply > REPLY_IGNORE) {
       throw new IllegalArgumentException("reply must be between 0 and 2");
     }
 
-    IDiscordRPC.INSTANCE.Discord_Respond(userId, reply);
+    BACKEND.respond(userId, reply);
+    DiscordCallbackPump.signalActivity();
   }
 
   /**
@@ -157,7 +214,9 @@ public final class DiscordRPC {
   public static void updateHandlers(DiscordEventHandlers handlers) {
     Objects.requireNonNull(handlers, "handlers must not be null");
 
-    IDiscordRPC.INSTANCE.Discord_UpdateHandlers(handlers);
+    observedHandlers = DiscordCallbackPump.observe(handlers, DiscordCallbackPump::signalActivity);
+    BACKEND.updateHandlers(observedHandlers);
+    DiscordCallbackPump.signalActivity();
   }
 
   /**
@@ -172,7 +231,7 @@ public final class DiscordRPC {
     Objects.requireNonNull(applicationId, "applicationId must not be null");
     Objects.requireNonNull(command, "command must not be null");
 
-    IDiscordRegister.INSTANCE.Discord_Register(applicationId, command);
+    BACKEND.register(applicationId, command);
   }
 
   /**
@@ -187,85 +246,7 @@ public final class DiscordRPC {
     Objects.requireNonNull(applicationId, "applicationId must not be null");
     Objects.requireNonNull(steamId, "steamId must not be null");
 
-    IDiscordRegister.INSTANCE.Discord_RegisterSteamGame(applicationId, steamId);
-  }
-
-  /**
-   * Loads the native library and deletes the library after the JVM exits.
-   *
-   * @param p   The {@code Path} object to be used to load the library.
-   * @param url The {@code URL} object to be used to load the library.
-   * @throws RuntimeException if the library could not be loaded.
-   */
-  private static void loadLibrary(Path p, URL url) {
-    try {
-      Files.copy(url.openStream(), p, StandardCopyOption.REPLACE_EXISTING);
-    } catch (IOException ioe) {
-      throw new RuntimeException(MessageFormat.format("\"{0}\" could not be loaded",
-          p), ioe);
-    } finally {
-      p.toFile().deleteOnExit();
-
-      System.load(p.toAbsolutePath().toString());
-    }
-  }
-
-  /**
-   * Loads the native library for the current platform.
-   * <p>
-   * It creates a temporary directory in the user's home (or %TEMP% on Windows) and copies the
-   * library to that directory. The library is then loaded and deleted after the JVM exits.
-   * </p>
-   * <p>
-   * The library is copied to the following directories:
-   * <ul>
-   *   <li>Linux: ~/.discord-rpc</li>
-   *   <li>macOS: ~/Library/Application Support/discord-rpc</li>
-   *   <li>Windows: %TEMP%/discord-rpc</li>
-   *   </ul>
-   *   </p>
-   *
-   * @throws RuntimeException if the library could not be loaded or if the directory to copy the
-   *                          library to could not be created.
-   * @see ClassLoader#getSystemResource(String)
-   * @see Files#createDirectories(Path, FileAttribute[])
-   */
-  private static void loadLibraryForPlatform() {
-    String libraryName = System.mapLibraryName("discord-rpc");
-    String userHome = System.getProperty("user.home")
-        .replaceAll("[^a-zA-Z0-9_\\\\/\\-.]", "_");
-
-    EPlatform platform = EPlatform.getPlatform();
-    Map<EPlatform, String> platformLookup = Collections.unmodifiableMap(
-        new EnumMap<EPlatform, String>(EPlatform.class) {{
-          put(EPlatform.LINUX, Paths.get(userHome,
-              ".discord-rpc").toString());
-          put(EPlatform.MACOS, Paths.get(userHome,
-              "Library", "Application Support", "discord-rpc").toString());
-          put(EPlatform.WINDOWS, Paths.get(System.getenv("TEMP"),
-              "discord-rpc").toString());
-        }}
-    );
-
-    String libraryPath = String.join(File.separator,
-        platformLookup.get(platform),
-        libraryName);
-    URL libraryFileUrl = ClassLoader.getSystemResource(String.format("%s/%s",
-        platform == EPlatform.WINDOWS
-            && System.getProperty("os.arch").equals("amd64")
-            && System.getProperty("sun.arch.data.model").equals("64")
-            ? "amd64"
-            : "x86",
-        libraryName));
-
-    try {
-      Files.createDirectories(Paths.get(platformLookup.get(platform)));
-    } catch (IOException ioe) {
-      throw new RuntimeException(MessageFormat.format("Directory \"{0}\" could not be created",
-          platformLookup.get(platform)), ioe);
-    } finally {
-      loadLibrary(Paths.get(libraryPath), libraryFileUrl);
-    }
+    BACKEND.registerSteamGame(applicationId, steamId);
   }
 
   /**
@@ -0,0 +1,164 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * The {@code DiscordRecordingBackend} class logs the presences forwarded to another
+ * {@link IDiscordBackend}, and the events received in the callbacks, to a
+ * {@link DiscordFlightRecorder}.
+ * <p>
+ * It is only put in front of the backend when the {@code discord-rpc.flight-recorder} system
+ * property is set, so that the calls cost nothing more otherwise. Callbacks receiving a
+ * {@link DiscordUserView} keep receiving one, although the fields of the user are decoded to be
+ * recorded.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+final class DiscordRecordingBackend implements IDiscordBackend {
+
+  private final IDiscordBackend backend;
+  private final DiscordFlightRecorder recorder;
+  private volatile DiscordEventHandlers handlers;
+
+  /**
+   * Constructs a new {@code DiscordRecordingBackend}.
+   *
+   * @param backend  The {@code IDiscordBackend} object the calls are forwarded to.
+   * @param recorder The {@code DiscordFlightRecorder} object the events are logged to.
+   */
+  DiscordRecordingBackend(final IDiscordBackend backend, final DiscordFlightRecorder recorder) {
+    this.backend = backend;
+    this.recorder = recorder;
+  }
+
+  /**
+   * Puts a {@code DiscordRecordingBackend} in front of the given backend, if enabled by the
+   * {@code discord-rpc.flight-recorder} system property.
+   *
+   * @param backend The {@code IDiscordBackend} object selected by {@link DiscordBackends}.
+   * @return The recording {@code IDiscordBackend} object, or {@code backend} if the flight
+   * recorder is disabled.
+   * @throws IllegalStateException if the file of the flight recorder cannot be opened.
+   */
+  static IDiscordBackend record(final IDiscordBackend backend) {
+    String path = System.getProperty(DiscordFlightRecorder.RECORDER_PROPERTY);
+    if (path == null || path.isEmpty()) {
+      return backend;
+    }
+
+    try {
+      return new DiscordRecordingBackend(backend, DiscordFlightRecorder.open(Paths.get(path),
+          Integer.getInteger(DiscordFlightRecorder.SIZE_PROPERTY,
+              DiscordFlightRecorder.DEFAULT_SIZE)));
+    } catch (IOException ioe) {
+      throw new IllegalStateException("Failed to open flight recorder", ioe);
+    }
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    this.backend.initialise(applicationId, this.record(handlers), autoRegister, optionalSteamId);
+  }
+
+  @Override
+  public void shutdown() {
+    this.backend.shutdown();
+  }
+
+  @Override
+  public void runCallbacks() {
+    this.backend.runCallbacks();
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    this.recorder.recordPresence(presence);
+    this.backend.updatePresence(presence);
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.recorder.recordPresence(buffer);
+    this.backend.updatePresence(buffer);
+  }
+
+  @Override
+  public void clearPresence() {
+    this.recorder.recordClear();
+    this.backend.clearPresence();
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    this.backend.respond(userId, reply);
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    this.backend.updateHandlers(this.record(handlers));
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    this.backend.register(applicationId, command);
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    this.backend.registerSteamGame(applicationId, steamId);
+  }
+
+  /**
+   * Wraps the callbacks of the given handlers so that every event is recorded before it is passed
+   * on. The ready, disconnected and errored callbacks are always set, since they subscribe to
+   * nothing, while the others are only set if the application set them.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @return The {@code DiscordEventHandlers} object recording the events.
+   */
+  private DiscordEventHandlers record(final DiscordEventHandlers handlers) {
+    DiscordEventHandlers recording = DiscordEventHandlers.wrap(handlers, this::record, true);
+    // JNA only holds callbacks weakly, so the wrappers are kept for as long as they are in use
+    this.handlers = recording;
+    return recording;
+  }
+
+  private Object record(final DiscordEvent.EType type, final DiscordUserView user, int errorCode,
+      final String text) {
+    switch (type) {
+      case READY:
+        this.recordUser(EFlightEvent.READY, user);
+        break;
+      case DISCONNECTED:
+        this.recorder.recordError(EFlightEvent.DISCONNECTED, errorCode, text);
+        break;
+      case ERRORED:
+        this.recorder.recordError(EFlightEvent.ERRORED, errorCode, text);
+        break;
+      case JOIN_GAME:
+        this.recorder.recordSecret(EFlightEvent.JOIN_GAME, text);
+        break;
+      case SPECTATE_GAME:
+        this.recorder.recordSecret(EFlightEvent.SPECTATE_GAME, text);
+        break;
+      default:
+        this.recordUser(EFlightEvent.JOIN_REQUEST, user);
+        break;
+    }
+    return null;
+  }
+
+  private void recordUser(final EFlightEvent event, final DiscordUserView user) {
+    if (user == null) {
+      this.recorder.recordUser(event, null, null, null, null);
+      return;
+    }
+    this.recorder.recordUser(event, user.getUserId(), user.getUsername(),
+        user.getDiscriminator(), user.getAvatar());
+  }
+
+}
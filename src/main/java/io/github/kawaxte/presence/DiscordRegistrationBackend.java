@@ -0,0 +1,284 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code DiscordRegistrationBackend} class skips registering an application with Discord when
+ * it is already registered with the same command, which spares rewriting the desktop entry and
+ * running {@code xdg-mime} on Linux, or rewriting the registry on Windows, on every launch.
+ * <p>
+ * After every registration, a SHA-256 hash of the application ID and the command is stored beside
+ * the desktop entry on Linux, or in the cache of the native library elsewhere. A registration
+ * whose hash matches the stored one is skipped, as long as the file the registration created, if
+ * any, still exists. The registration made when initialising with {@code autoRegister} is run on
+ * a background thread instead, so that it never delays the connection, and failures are ignored
+ * as they are by the native library.
+ * </p>
+ * <p>
+ * It is put in front of the backend unless the {@code discord-rpc.registration-cache} system
+ * property is set to {@code false}.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+final class DiscordRegistrationBackend implements IDiscordBackend {
+
+  static final String CACHE_PROPERTY = "discord-rpc.registration-cache";
+
+  private final IDiscordBackend backend;
+  private final ExecutorService registrar;
+
+  /**
+   * Constructs a new {@code DiscordRegistrationBackend}.
+   *
+   * @param backend The {@code IDiscordBackend} object the calls are forwarded to.
+   */
+  DiscordRegistrationBackend(final IDiscordBackend backend) {
+    this.backend = backend;
+    ThreadPoolExecutor registrar = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "discord-rpc-registrar");
+          thread.setDaemon(true);
+          return thread;
+        });
+    registrar.allowCoreThreadTimeOut(true);
+    this.registrar = registrar;
+  }
+
+  /**
+   * Puts a {@code DiscordRegistrationBackend} in front of the given backend, unless disabled by
+   * the {@code discord-rpc.registration-cache} system property or the platform is unknown.
+   *
+   * @param backend The {@code IDiscordBackend} object selected by {@link DiscordBackends}.
+   * @return The caching {@code IDiscordBackend} object, or {@code backend} if the cache is
+   * disabled or the platform is unknown.
+   */
+  static IDiscordBackend cache(final IDiscordBackend backend) {
+    if ("false".equalsIgnoreCase(System.getProperty(CACHE_PROPERTY))) {
+      return backend;
+    }
+    if (DiscordRPC.EPlatform.getPlatform() == null) {
+      // where the registration is stored is only known for the supported platforms
+      return backend;
+    }
+    return new DiscordRegistrationBackend(backend);
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    if (autoRegister) {
+      this.registrar.execute(() -> {
+        try {
+          if (optionalSteamId != null) {
+            this.registerSteamGame(applicationId, optionalSteamId);
+          } else {
+            this.register(applicationId, null);
+          }
+        } catch (RuntimeException re) {
+          // registration is best effort, as it is in the native library
+        }
+      });
+    }
+    this.backend.initialise(applicationId, handlers, false, optionalSteamId);
+  }
+
+  @Override
+  public void shutdown() {
+    this.backend.shutdown();
+  }
+
+  @Override
+  public void runCallbacks() {
+    this.backend.runCallbacks();
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    this.backend.updatePresence(presence);
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.backend.updatePresence(buffer);
+  }
+
+  @Override
+  public void clearPresence() {
+    this.backend.clearPresence();
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    this.backend.respond(userId, reply);
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    this.backend.updateHandlers(handlers);
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    String hash = getHash(applicationId, "command", command != null ? command : getExecutable());
+    Path stamp = getStampPath(applicationId);
+    if (isRegistered(applicationId, stamp, hash)) {
+      return;
+    }
+
+    this.backend.register(applicationId, command);
+    writeStamp(stamp, hash);
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    String hash = getHash(applicationId, "steam", steamId);
+    Path stamp = getStampPath(applicationId);
+    if (isRegistered(applicationId, stamp, hash)) {
+      return;
+    }
+
+    this.backend.registerSteamGame(applicationId, steamId);
+    writeStamp(stamp, hash);
+  }
+
+  /**
+   * Returns whether or not the application is registered with the command the given hash was
+   * computed from.
+   *
+   * @param applicationId The application ID of the application.
+   * @param stamp         The {@code Path} object pointing to the stored hash.
+   * @param hash          The hash of the registration about to be made.
+   * @return {@code true} if the registration can be skipped, {@code false} otherwise.
+   */
+  private static boolean isRegistered(final String applicationId, final Path stamp,
+      final String hash) {
+    List<Path> registrations = getRegistrationPaths(applicationId);
+    if (!registrations.isEmpty() && registrations.stream().noneMatch(Files::isRegularFile)) {
+      return false;
+    }
+    try {
+      return hash.equals(new String(Files.readAllBytes(stamp), StandardCharsets.US_ASCII));
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+
+  /**
+   * Stores the hash of a registration, replacing the file atomically so that a registration made
+   * concurrently by another process never leaves half of a hash behind.
+   *
+   * @param stamp The {@code Path} object pointing to the stored hash.
+   * @param hash  The hash of the registration made.
+   */
+  private static void writeStamp(final Path stamp, final String hash) {
+    try {
+      Files.createDirectories(stamp.getParent());
+      Path temporaryPath = Files.createTempFile(stamp.getParent(),
+          stamp.getFileName().toString(), ".tmp");
+      try {
+        Files.write(temporaryPath, hash.getBytes(StandardCharsets.US_ASCII));
+        try {
+          Files.move(temporaryPath, stamp, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+          Files.move(temporaryPath, stamp, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temporaryPath);
+      }
+    } catch (IOException ignored) {
+      // the application is registered again on the next launch
+    }
+  }
+
+  /**
+   * Returns the files one of which is created by registering the application, whose removal means
+   * the application has to be registered again: the desktop entry on Linux, which the native
+   * library writes to {@code ~/.local/share} and backend {@code ipc} to {@code XDG_DATA_HOME}, or
+   * the game manifest on macOS.
+   *
+   * @param applicationId The application ID of the application.
+   * @return The {@code List} of {@code Path} objects pointing to the files, which is empty on
+   * Windows, where the application is registered in the registry.
+   */
+  private static List<Path> getRegistrationPaths(final String applicationId) {
+    String userHome = System.getProperty("user.home");
+    switch (DiscordRPC.EPlatform.getPlatform()) {
+      case LINUX:
+        String desktopFileName = String.format("discord-%s.desktop", applicationId);
+        return Arrays.asList(getApplicationsDirectory().resolve(desktopFileName),
+            Paths.get(userHome, ".local", "share", "applications", desktopFileName));
+      case MACOS:
+        return Collections.singletonList(Paths.get(userHome, "Library", "Application Support",
+            "discord", "games", String.format("%s.json", applicationId)));
+      default:
+        return Collections.emptyList();
+    }
+  }
+
+  private static Path getApplicationsDirectory() {
+    String dataHome = System.getenv("XDG_DATA_HOME") != null
+        ? System.getenv("XDG_DATA_HOME")
+        : Paths.get(System.getProperty("user.home"), ".local", "share").toString();
+    return Paths.get(dataHome, "applications");
+  }
+
+  private static Path getStampPath(final String applicationId) {
+    String stampFileName = String.format("discord-%s.sha256", applicationId);
+    if (DiscordRPC.EPlatform.getPlatform() == DiscordRPC.EPlatform.LINUX) {
+      return getApplicationsDirectory().resolve(stampFileName);
+    }
+    return DiscordNativeLibrary.getCacheDirectory(DiscordRPC.EPlatform.getPlatform())
+        .resolve("registrations")
+        .resolve(stampFileName);
+  }
+
+  /**
+   * Returns the path of the running executable, which the native library registers when no
+   * command is given. On other platforms than Linux, or if it cannot be found, the Java home
+   * stands for it, as the executable is the launcher found there.
+   *
+   * @return The {@code String} object containing the path.
+   */
+  private static String getExecutable() {
+    try {
+      return Files.readSymbolicLink(Paths.get("/proc/self/exe")).toString();
+    } catch (IOException | UnsupportedOperationException | SecurityException e) {
+      return System.getProperty("java.home");
+    }
+  }
+
+  private static String getHash(final String applicationId, final String kind,
+      final String value) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException("SHA-256 is not available", nsae);
+    }
+    byte[] bytes = digest.digest(String.format("%s%n%s%n%s", applicationId, kind, value)
+        .getBytes(StandardCharsets.UTF_8));
+
+    StringBuilder hash = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hash.append(String.format("%02x", b & 0xFF));
+    }
+    return hash.toString();
+  }
+}
@@ -2,6 +2,7 @@ package io.github.kawaxte.presence;
 
 import com.sun.jna.Structure;
 import com.sun.jna.Structure.FieldOrder;
+import java.util.Objects;
 
 /**
  * The {@code DiscordRichPresence} class represents the Rich Presence object and is used in
@@ -36,6 +37,53 @@ public class DiscordRichPresence extends Structure {
   @Deprecated
   public byte instance;
 
+  /**
+   * Compares the fields of this Rich Presence with the fields of another one.
+   * <p>
+   * Unlike {@link Structure#equals(Object)}, this compares the Java values of the fields rather
+   * than the native memory backing them, so two presences built separately with the same values
+   * are considered equal.
+   * </p>
+   *
+   * @param other The {@code DiscordRichPresence} object to compare with. This can be
+   *              {@code null}.
+   * @return {@code true} if every field of both presences holds the same value, {@code false}
+   * otherwise.
+   */
+  public boolean contentEquals(DiscordRichPresence other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null) {
+      return false;
+    }
+    return this.startTimestamp == other.startTimestamp
+        && this.endTimestamp == other.endTimestamp
+        && this.partySize == other.partySize
+        && this.partyMax == other.partyMax
+        && this.instance == other.instance
+        && Objects.equals(this.state, other.state)
+        && Objects.equals(this.details, other.details)
+        && Objects.equals(this.largeImageKey, other.largeImageKey)
+        && Objects.equals(this.largeImageText, other.largeImageText)
+        && Objects.equals(this.smallImageKey, other.smallImageKey)
+        && Objects.equals(this.smallImageText, other.smallImageText)
+        && Objects.equals(this.partyId, other.partyId)
+        && Objects.equals(this.matchSecret, other.matchSecret)
+        && Objects.equals(this.joinSecret, other.joinSecret)
+        && Objects.equals(this.spectateSecret, other.spectateSecret);
+  }
+
+  /**
+   * Returns the offset of a field within the native memory of a Rich Presence.
+   *
+   * @param field The {@code EPresenceField} object representing the field.
+   * @return The offset of the field in bytes.
+   */
+  static int offsetOf(final EPresenceField field) {
+    return new DiscordRichPresence().fieldOffset(field.getFieldName());
+  }
+
   /**
    * The {@code Builder} class represents the builder of the Rich Presence object and is used to
    * create a new instance of {@link DiscordRichPresence}.
@@ -57,6 +105,34 @@ public class DiscordRichPresence extends Structure {
       this.presence = new DiscordRichPresence();
     }
 
+    /**
+     * Constructor of the {@code Builder} class that creates a new instance of
+     * {@link DiscordRichPresence} holding the same values as an existing one.
+     *
+     * @param presence The {@code DiscordRichPresence} object to copy the values from.
+     * @throws NullPointerException if {@code presence} is {@code null}.
+     */
+    public Builder(final DiscordRichPresence presence) {
+      Objects.requireNonNull(presence, "presence must not be null");
+
+      this.presence = new DiscordRichPresence();
+      this.presence.state = presence.state;
+      this.presence.details = presence.details;
+      this.presence.startTimestamp = presence.startTimestamp;
+      this.presence.endTimestamp = presence.endTimestamp;
+      this.presence.largeImageKey = presence.largeImageKey;
+      this.presence.largeImageText = presence.largeImageText;
+      this.presence.smallImageKey = presence.smallImageKey;
+      this.presence.smallImageText = presence.smallImageText;
+      this.presence.partyId = presence.partyId;
+      this.presence.partySize = presence.partySize;
+      this.presence.partyMax = presence.partyMax;
+      this.presence.matchSecret = presence.matchSecret;
+      this.presence.joinSecret = presence.joinSecret;
+      this.presence.spectateSecret = presence.spectateSecret;
+      this.presence.instance = presence.instance;
+    }
+
     /**
      * Sets the state for the Rich Presence.
      *
@@ -228,11 +304,15 @@ public class DiscordRichPresence extends Structure {
 
     /**
      * Builds the {@link DiscordRichPresence} object.
+     * <p>
+     * Every call returns a new object, so that the builder can be changed and built again without
+     * changing the presences it has already built, which may be in use by another thread.
+     * </p>
      *
      * @return The {@code DiscordRichPresence} object.
      */
     public DiscordRichPresence build() {
-      return this.presence;
+      return new Builder(this.presence).presence;
     }
   }
 }
@@ -0,0 +1,280 @@
+package io.github.kawaxte.presence;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code DiscordSession} class represents one initialisation of the Rich Presence, from
+ * {@link #open(String, DiscordEventHandlers)} to {@link #close()}, as an alternative to calling
+ * {@link DiscordRPC#initialise(String, DiscordEventHandlers, boolean, String)} and
+ * {@link DiscordRPC#shutdown()} directly.
+ * <p>
+ * Since the native library only holds one connection per process, at most one session is open at
+ * a time. Closing a session and opening another re-initialises the Rich Presence without loading
+ * the native library again, which makes sessions cheap enough to be opened for every test or after
+ * every hot reload. Calls made on a session which is no longer {@link ESessionState#OPEN} throw an
+ * {@link IllegalStateException}, rather than reaching a Rich Presence initialised by another
+ * session.
+ * </p>
+ * <p>
+ * Closing a session first flushes the presence updated or cleared just before, by running the
+ * callbacks until it has had the time to be sent, and then shuts the Rich Presence down. Both
+ * happen on a short-lived daemon thread which is given a bounded time, so that closing a session
+ * from a shutdown hook cannot keep the JVM from exiting if Discord stops responding.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordSession implements AutoCloseable {
+
+  /**
+   * The time given to {@link #close()} by default, in milliseconds.
+   */
+  public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 1000L;
+
+  private static final AtomicReference<DiscordSession> CURRENT = new AtomicReference<>();
+  private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(50L);
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5L);
+
+  private final String applicationId;
+  private final AtomicReference<ESessionState> state =
+      new AtomicReference<>(ESessionState.OPEN);
+  private volatile long lastPresenceNanos = System.nanoTime() - FLUSH_NANOS;
+
+  /**
+   * Constructs a new {@code DiscordSession}.
+   *
+   * @param applicationId The application ID of the application initialised.
+   */
+  private DiscordSession(final String applicationId) {
+    this.applicationId = applicationId;
+  }
+
+  /**
+   * Opens a session, initialising the Rich Presence without registering the application.
+   *
+   * @param applicationId The application ID of the application to be initialised.
+   * @param handlers      The event handlers to be registered with the Rich Presence.
+   * @return The open {@code DiscordSession} object.
+   * @throws NullPointerException  if {@code applicationId} or {@code handlers} is {@code null}.
+   * @throws IllegalStateException if another session is still open or closing.
+   */
+  public static DiscordSession open(final String applicationId,
+      final DiscordEventHandlers handlers) {
+    return open(applicationId, handlers, false, null);
+  }
+
+  /**
+   * Opens a session, initialising the Rich Presence.
+   *
+   * @param applicationId   The application ID of the application to be initialised.
+   * @param handlers        The event handlers to be registered with the Rich Presence.
+   * @param autoRegister    Whether or not to automatically register the application with Discord.
+   * @param optionalSteamId The Steam ID of the game to be initialised. This can be {@code null}.
+   * @return The open {@code DiscordSession} object.
+   * @throws NullPointerException  if {@code applicationId} or {@code handlers} is {@code null}.
+   * @throws IllegalStateException if another session is still open or closing.
+   * @see DiscordRPC#initialise(String, DiscordEventHandlers, boolean, String)
+   */
+  public static DiscordSession open(final String applicationId,
+      final DiscordEventHandlers handlers, final boolean autoRegister,
+      final String optionalSteamId) {
+    Objects.requireNonNull(applicationId, "applicationId must not be null");
+    Objects.requireNonNull(handlers, "handlers must not be null");
+
+    DiscordSession session = new DiscordSession(applicationId);
+    if (!CURRENT.compareAndSet(null, session)) {
+      throw new IllegalStateException("Another session is open");
+    }
+    try {
+      DiscordRPC.initialise(applicationId, handlers, autoRegister, optionalSteamId);
+    } catch (RuntimeException | Error e) {
+      session.state.set(ESessionState.CLOSED);
+      CURRENT.set(null);
+      throw e;
+    }
+    return session;
+  }
+
+  /**
+   * Returns the session which is currently open or closing.
+   *
+   * @return The {@code DiscordSession} object, or {@code null} if there is none.
+   */
+  public static DiscordSession getCurrent() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the application ID the Rich Presence was initialised with.
+   *
+   * @return The application ID.
+   */
+  public String getApplicationId() {
+    return this.applicationId;
+  }
+
+  /**
+   * Returns the current state of the session.
+   *
+   * @return The {@code ESessionState} of the session.
+   */
+  public ESessionState getState() {
+    return this.state.get();
+  }
+
+  /**
+   * Returns whether or not the session accepts calls.
+   *
+   * @return {@code true} if the session is {@link ESessionState#OPEN}, {@code false} otherwise.
+   */
+  public boolean isOpen() {
+    return this.state.get() == ESessionState.OPEN;
+  }
+
+  /**
+   * Runs the callbacks for the Rich Presence.
+   *
+   * @throws IllegalStateException if the session is not open.
+   * @see DiscordRPC#runCallbacks()
+   */
+  public void runCallbacks() {
+    this.checkOpen();
+    DiscordRPC.runCallbacks();
+  }
+
+  /**
+   * Updates the Rich Presence.
+   *
+   * @param presence The {@code DiscordRichPresence} object to be updated.
+   * @throws NullPointerException  if {@code presence} is {@code null}.
+   * @throws IllegalStateException if the session is not open.
+   * @see DiscordRPC#updatePresence(DiscordRichPresence)
+   */
+  public void updatePresence(final DiscordRichPresence presence) {
+    this.checkOpen();
+    DiscordRPC.updatePresence(presence);
+    this.lastPresenceNanos = System.nanoTime();
+  }
+
+  /**
+   * Updates the Rich Presence from a reusable buffer.
+   *
+   * @param buffer The {@code DiscordPresenceBuffer} object to be sent.
+   * @throws NullPointerException  if {@code buffer} is {@code null}.
+   * @throws IllegalStateException if the session is not open.
+   * @see DiscordRPC#updatePresence(DiscordPresenceBuffer)
+   */
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    this.checkOpen();
+    DiscordRPC.updatePresence(buffer);
+    this.lastPresenceNanos = System.nanoTime();
+  }
+
+  /**
+   * Clears the Rich Presence.
+   *
+   * @throws IllegalStateException if the session is not open.
+   * @see DiscordRPC#clearPresence()
+   */
+  public void clearPresence() {
+    this.checkOpen();
+    DiscordRPC.clearPresence();
+    this.lastPresenceNanos = System.nanoTime();
+  }
+
+  /**
+   * Responds to a request to join the user's game.
+   *
+   * @param userId The user ID of the user who sent the join request.
+   * @param reply  The reply to be sent to the user, which is one of {@link DiscordRPC#REPLY_NO},
+   *               {@link DiscordRPC#REPLY_YES} and {@link DiscordRPC#REPLY_IGNORE}.
+   * @throws NullPointerException     if {@code userId} is {@code null}.
+   * @throws IllegalArgumentException if {@code reply} is not between 0 and 2.
+   * @throws IllegalStateException    if the session is not open.
+   * @see DiscordRPC#respond(String, int)
+   */
+  public void respond(final String userId, int reply) {
+    this.checkOpen();
+    DiscordRPC.respond(userId, reply);
+  }
+
+  /**
+   * Updates the event handlers for the Rich Presence.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object containing the event handlers to be
+   *                 registered.
+   * @throws NullPointerException  if {@code handlers} is {@code null}.
+   * @throws IllegalStateException if the session is not open.
+   * @see DiscordRPC#updateHandlers(DiscordEventHandlers)
+   */
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    this.checkOpen();
+    DiscordRPC.updateHandlers(handlers);
+  }
+
+  /**
+   * Closes the session, waiting at most {@link #DEFAULT_CLOSE_TIMEOUT_MILLIS} for the Rich
+   * Presence to be shut down. Closing a session which is already closing or closed does nothing.
+   */
+  @Override
+  public void close() {
+    this.close(DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Closes the session, flushing the pending presence and shutting the Rich Presence down on a
+   * daemon thread, and waiting at most the given time for it to finish. If it does not, the thread
+   * is left to finish in the background, and no other session can be opened until it has.
+   *
+   * @param timeout The maximum time to wait.
+   * @param unit    The {@code TimeUnit} of {@code timeout}.
+   * @return {@code true} if the session is closed, {@code false} if it is still closing.
+   * @throws NullPointerException if {@code unit} is {@code null}.
+   */
+  public boolean close(long timeout, final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    if (!this.state.compareAndSet(ESessionState.OPEN, ESessionState.CLOSING)) {
+      return this.state.get() == ESessionState.CLOSED;
+    }
+
+    Thread thread = new Thread(this::shutdown, "discord-rpc-session-close");
+    thread.setDaemon(true);
+    thread.start();
+    try {
+      unit.timedJoin(thread, timeout);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    return this.state.get() == ESessionState.CLOSED;
+  }
+
+  private void shutdown() {
+    try {
+      // the callbacks are run so that a presence waiting for the connection can still be sent
+      long flushedAt = this.lastPresenceNanos + FLUSH_NANOS;
+      while (System.nanoTime() - flushedAt < 0L) {
+        DiscordRPC.runCallbacks();
+        LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+      }
+      DiscordRPC.shutdown();
+    } finally {
+      this.state.set(ESessionState.CLOSED);
+      CURRENT.compareAndSet(this, null);
+    }
+  }
+
+  private void checkOpen() {
+    if (this.state.get() != ESessionState.OPEN) {
+      throw new IllegalStateException("Session is closed");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordSession[applicationId=%s, state=%s]", this.applicationId,
+        this.state.get());
+  }
+}
@@ -0,0 +1,359 @@
+package io.github.kawaxte.presence;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code DiscordTimerWheel} class is a hashed timer wheel running tasks at given times on a
+ * single daemon thread, such as the boundaries of a {@link DiscordPresenceTimeline}.
+ * <p>
+ * Time is divided into ticks, and each task is hashed into the bucket of the tick it is due on,
+ * along with the number of turns of the wheel still to come, so scheduling and cancelling a task
+ * costs the same however many tasks are pending. Tasks are run within one tick of their deadline,
+ * never before it.
+ * </p>
+ * <p>
+ * Unlike a classic timer wheel, the thread does not wake up on every tick: it sleeps until the
+ * next tick whose bucket holds a task, or indefinitely while no task is pending.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordTimerWheel implements Closeable {
+
+  /**
+   * The default duration of a tick, in milliseconds.
+   */
+  public static final long DEFAULT_TICK_MILLIS = 50L;
+  /**
+   * The default number of buckets in the wheel.
+   */
+  public static final int DEFAULT_BUCKETS = 512;
+
+  private static final long NEVER = Long.MAX_VALUE;
+  private static final int PENDING = 0;
+  private static final int CANCELLED = 1;
+  private static final int EXPIRED = 2;
+
+  private static volatile DiscordTimerWheel defaultWheel;
+
+  private final long tickNanos;
+  private final Bucket[] buckets;
+  private final int mask;
+  private final long startNanos = System.nanoTime();
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Thread worker;
+  private volatile long wakeNanos = NEVER;
+  private volatile boolean closed;
+  private long currentTick;
+  private int bucketed;
+
+  /**
+   * Constructs a new {@code DiscordTimerWheel} with {@link #DEFAULT_BUCKETS} buckets of
+   * {@link #DEFAULT_TICK_MILLIS} milliseconds.
+   */
+  public DiscordTimerWheel() {
+    this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_BUCKETS);
+  }
+
+  /**
+   * Constructs a new {@code DiscordTimerWheel}.
+   *
+   * @param tick    The duration of a tick, which is the precision of the wheel.
+   * @param unit    The {@code TimeUnit} of {@code tick}.
+   * @param buckets The number of buckets in the wheel, rounded up to a power of two. Deadlines
+   *                further away than {@code tick * buckets} take more than one turn of the wheel.
+   * @throws NullPointerException     if {@code unit} is {@code null}.
+   * @throws IllegalArgumentException if {@code tick} or {@code buckets} is not positive.
+   */
+  public DiscordTimerWheel(long tick, final TimeUnit unit, int buckets) {
+    Objects.requireNonNull(unit, "unit must not be null");
+    if (tick <= 0L) {
+      throw new IllegalArgumentException("tick must be positive");
+    }
+    if (buckets <= 0 || buckets > 1 << 30) {
+      throw new IllegalArgumentException("buckets must be positive");
+    }
+
+    int size = Integer.highestOneBit(buckets);
+    if (size < buckets) {
+      size <<= 1;
+    }
+    this.tickNanos = Math.max(unit.toNanos(tick), 1L);
+    this.buckets = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      this.buckets[i] = new Bucket();
+    }
+    this.mask = size - 1;
+    this.worker = new Thread(this::run, "discord-rpc-timer-wheel");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Returns the wheel shared by every {@link DiscordPresenceTimeline} started without one, creating
+   * it on first use. The default wheel should not be closed.
+   *
+   * @return The default {@code DiscordTimerWheel} object.
+   */
+  public static DiscordTimerWheel getDefault() {
+    DiscordTimerWheel wheel = defaultWheel;
+    if (wheel == null) {
+      synchronized (DiscordTimerWheel.class) {
+        wheel = defaultWheel;
+        if (wheel == null) {
+          wheel = new DiscordTimerWheel();
+          defaultWheel = wheel;
+        }
+      }
+    }
+    return wheel;
+  }
+
+  /**
+   * Schedules a task to be run once after the given delay.
+   *
+   * @param task  The {@code Runnable} to run on the thread of the wheel. Anything it throws is
+   *              passed to the uncaught exception handler of that thread.
+   * @param delay The delay after which to run the task. Tasks with a delay of {@code 0} or less
+   *              are run on the next tick.
+   * @param unit  The {@code TimeUnit} of {@code delay}.
+   * @return The {@code Timeout} object, which can be used to cancel the task.
+   * @throws NullPointerException  if {@code task} or {@code unit} is {@code null}.
+   * @throws IllegalStateException if the wheel has been closed.
+   */
+  public Timeout schedule(final Runnable task, long delay, final TimeUnit unit) {
+    Objects.requireNonNull(task, "task must not be null");
+    Objects.requireNonNull(unit, "unit must not be null");
+    if (this.closed) {
+      throw new IllegalStateException("Timer wheel is closed");
+    }
+
+    long deadlineNanos = System.nanoTime() - this.startNanos + Math.max(unit.toNanos(delay), 0L);
+    if (deadlineNanos < 0L) {
+      deadlineNanos = NEVER;
+    }
+
+    Timeout timeout = new Timeout(task, deadlineNanos);
+    this.pending.incrementAndGet();
+    this.scheduled.add(timeout);
+    if (deadlineNanos < this.wakeNanos) {
+      LockSupport.unpark(this.worker);
+    }
+    return timeout;
+  }
+
+  /**
+   * Returns the number of tasks waiting to be run, including cancelled tasks which have not been
+   * removed from the wheel yet.
+   *
+   * @return The number of pending tasks.
+   */
+  public int getPendingCount() {
+    return this.pending.get();
+  }
+
+  /**
+   * Stops the thread of the wheel. Pending tasks are not run.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.worker);
+  }
+
+  private void run() {
+    while (!this.closed) {
+      long nowTick = (System.nanoTime() - this.startNanos) / this.tickNanos;
+      if (this.bucketed == 0) {
+        // nothing to count down, so the ticks slept through can be skipped
+        this.currentTick = Math.max(this.currentTick, nowTick);
+      }
+      this.transfer();
+      while (this.currentTick <= nowTick) {
+        this.buckets[(int) (this.currentTick & this.mask)].expire(this);
+        this.currentTick++;
+      }
+
+      long wakeNanos = this.nextWakeNanos();
+      this.wakeNanos = wakeNanos;
+      if (!this.scheduled.isEmpty()) {
+        continue;
+      }
+      if (wakeNanos == NEVER) {
+        LockSupport.park(this);
+      } else {
+        long sleepNanos = wakeNanos - (System.nanoTime() - this.startNanos);
+        if (sleepNanos > 0L) {
+          LockSupport.parkNanos(this, sleepNanos);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves the newly scheduled tasks into the buckets of the ticks they are due on.
+   */
+  private void transfer() {
+    for (Timeout timeout; (timeout = this.scheduled.poll()) != null; ) {
+      if (timeout.state.get() == CANCELLED) {
+        this.pending.decrementAndGet();
+        continue;
+      }
+
+      long tick = timeout.deadlineNanos == NEVER
+          ? NEVER
+          : (timeout.deadlineNanos + this.tickNanos - 1L) / this.tickNanos;
+      tick = Math.max(tick, this.currentTick);
+      timeout.rounds = (tick - this.currentTick) / this.buckets.length;
+      this.buckets[(int) (tick & this.mask)].add(timeout);
+      this.bucketed++;
+    }
+  }
+
+  /**
+   * Returns the time of the next tick whose bucket holds a task, looking up to one turn of the
+   * wheel ahead.
+   *
+   * @return The time of the next tick to process, relative to the start of the wheel, or
+   * {@link #NEVER} if no task is pending.
+   */
+  private long nextWakeNanos() {
+    if (this.bucketed == 0) {
+      return NEVER;
+    }
+    for (int i = 0; i < this.buckets.length; i++) {
+      long tick = this.currentTick + i;
+      if (!this.buckets[(int) (tick & this.mask)].isEmpty()) {
+        return tick * this.tickNanos;
+      }
+    }
+    return (this.currentTick + this.buckets.length) * this.tickNanos;
+  }
+
+  /**
+   * The {@code Timeout} class represents a task scheduled on a {@link DiscordTimerWheel}.
+   *
+   * @author Kawaxte
+   */
+  public static final class Timeout {
+
+    private final Runnable task;
+    private final long deadlineNanos;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private long rounds;
+    private Timeout previous;
+    private Timeout next;
+
+    private Timeout(final Runnable task, long deadlineNanos) {
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Cancels the task, unless it has already been run. A cancelled task is removed from the wheel
+     * when its bucket is next processed.
+     *
+     * @return {@code true} if the task was cancelled, {@code false} if it had already been run or
+     * cancelled.
+     */
+    public boolean cancel() {
+      return this.state.compareAndSet(PENDING, CANCELLED);
+    }
+
+    /**
+     * Returns whether the task has been cancelled.
+     *
+     * @return {@code true} if the task was cancelled, {@code false} otherwise.
+     */
+    public boolean isCancelled() {
+      return this.state.get() == CANCELLED;
+    }
+
+    /**
+     * Returns whether the task has been run.
+     *
+     * @return {@code true} if the task was run, {@code false} otherwise.
+     */
+    public boolean isExpired() {
+      return this.state.get() == EXPIRED;
+    }
+  }
+
+  /**
+   * The {@code Bucket} class is the doubly linked list of the tasks hashed to one bucket of the
+   * wheel, which is only ever accessed by the thread of the wheel.
+   */
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    boolean isEmpty() {
+      return this.head == null;
+    }
+
+    void add(final Timeout timeout) {
+      if (this.head == null) {
+        this.head = timeout;
+      } else {
+        this.tail.next = timeout;
+        timeout.previous = this.tail;
+      }
+      this.tail = timeout;
+    }
+
+    /**
+     * Runs the tasks due on the current turn of the wheel, removes the cancelled ones, and counts
+     * down the turns of the others.
+     *
+     * @param wheel The {@code DiscordTimerWheel} object the bucket belongs to.
+     */
+    void expire(final DiscordTimerWheel wheel) {
+      Timeout timeout = this.head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.state.get() == CANCELLED) {
+          this.remove(wheel, timeout);
+        } else if (timeout.rounds <= 0L) {
+          this.remove(wheel, timeout);
+          if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+            try {
+              timeout.task.run();
+            } catch (Throwable t) {
+              // errors included, as the thread of the wheel runs the tasks of every caller
+              Thread thread = Thread.currentThread();
+              thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+          }
+        } else {
+          timeout.rounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    private void remove(final DiscordTimerWheel wheel, final Timeout timeout) {
+      if (timeout.previous != null) {
+        timeout.previous.next = timeout.next;
+      } else {
+        this.head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.previous = timeout.previous;
+      } else {
+        this.tail = timeout.previous;
+      }
+      timeout.previous = null;
+      timeout.next = null;
+      wheel.bucketed--;
+      wheel.pending.decrementAndGet();
+    }
+  }
+}
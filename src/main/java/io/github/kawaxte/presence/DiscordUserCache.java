@@ -0,0 +1,126 @@
+package io.github.kawaxte.presence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code DiscordUserCache} class is a bounded cache of detached {@link DiscordUserView}
+ * objects keyed by user ID, which evicts the least recently used user once full.
+ * <p>
+ * Passing the views received in the callbacks through {@link #intern(DiscordUserView)} only decodes
+ * the user ID of a user that has been seen before, and returns the same immutable view for every
+ * request of that user. Since the other fields are not compared, a user who has changed their
+ * username keeps the cached one until they are evicted or {@link #clear()} is called.
+ * </p>
+ *
+ * @author Kawaxte
+ */
+public final class DiscordUserCache {
+
+  /**
+   * The default number of users kept in the cache.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private final Map<String, DiscordUserView> users;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructs a new {@code DiscordUserCache} which keeps up to {@link #DEFAULT_CAPACITY} users.
+   */
+  public DiscordUserCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a new {@code DiscordUserCache}.
+   *
+   * @param capacity The number of users kept in the cache.
+   * @throws IllegalArgumentException if {@code capacity} is not positive.
+   */
+  public DiscordUserCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+
+    this.users = new LinkedHashMap<String, DiscordUserView>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, DiscordUserView> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached view of the given user, or caches a snapshot of it if the user has not been
+   * seen before.
+   *
+   * @param user The {@code DiscordUserView} object received in a callback.
+   * @return The detached {@code DiscordUserView} object.
+   * @throws NullPointerException if {@code user} is {@code null}.
+   */
+  public DiscordUserView intern(final DiscordUserView user) {
+    Objects.requireNonNull(user, "user must not be null");
+
+    String userId = user.getUserId();
+    if (userId == null) {
+      return user.snapshot();
+    }
+
+    synchronized (this.users) {
+      DiscordUserView cached = this.users.get(userId);
+      if (cached != null) {
+        this.hits.increment();
+        return cached;
+      }
+    }
+
+    this.misses.increment();
+    DiscordUserView snapshot = user.snapshot();
+    synchronized (this.users) {
+      DiscordUserView cached = this.users.putIfAbsent(userId, snapshot);
+      return cached != null ? cached : snapshot;
+    }
+  }
+
+  /**
+   * Removes every user from the cache.
+   */
+  public void clear() {
+    synchronized (this.users) {
+      this.users.clear();
+    }
+  }
+
+  /**
+   * Returns the number of users in the cache.
+   *
+   * @return The number of cached users.
+   */
+  public int size() {
+    synchronized (this.users) {
+      return this.users.size();
+    }
+  }
+
+  /**
+   * Returns the number of times a user was found in the cache.
+   *
+   * @return The number of hits.
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of times a user was not found in the cache and had to be decoded.
+   *
+   * @return The number of misses.
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+}
@@ -0,0 +1,211 @@
+package io.github.kawaxte.presence;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.PointerType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The {@code DiscordUserView} class is a read-only view of a Discord user, which only decodes a
+ * field of the native user when it is first accessed.
+ * <p>
+ * Unlike {@link DiscordUser}, which is a {@link com.sun.jna.Structure} whose fields are all read
+ * before the callback is called, a view is a plain pointer to the native user, which makes it much
+ * cheaper to receive in bursts of join requests.
+ * </p>
+ * <p>
+ * A view received in {@link DiscordEventHandlers.IReadyViewCallback} or
+ * {@link DiscordEventHandlers.IJoinRequestViewCallback} is backed by the native user, and is only
+ * valid until the callback returns. Use {@link #snapshot()} to keep the user for longer, or
+ * {@link DiscordUserCache} to reuse one snapshot for every request of the same user.
+ * </p>
+ * <p>
+ * Views are equal if they hold the same user ID, username, discriminator and avatar hash, whether
+ * they are backed by the native user or detached. A detached view cannot be pointed at native
+ * memory.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see PointerType
+ */
+public final class DiscordUserView extends PointerType {
+
+  private static final int USER_ID = 0;
+  private static final int USERNAME = 1;
+  private static final int DISCRIMINATOR = 2;
+  private static final int AVATAR = 3;
+  private static final String UNDECODED = new String();
+
+  private final String[] values = {UNDECODED, UNDECODED, UNDECODED, UNDECODED};
+  private final boolean detached;
+
+  /**
+   * Constructs a new {@code DiscordUserView} whose fields are all {@code null}. JNA uses this
+   * constructor before pointing the view at the native user.
+   */
+  public DiscordUserView() {
+    super();
+    this.detached = false;
+  }
+
+  /**
+   * Constructs a new {@code DiscordUserView} backed by the given native user.
+   *
+   * @param p The {@code Pointer} object pointing to the native user.
+   */
+  DiscordUserView(final Pointer p) {
+    super(p);
+    this.detached = false;
+  }
+
+  /**
+   * Constructs a new detached {@code DiscordUserView} holding the given values.
+   *
+   * @param userId        The user ID.
+   * @param username      The username.
+   * @param discriminator The discriminator.
+   * @param avatar        The avatar hash.
+   */
+  DiscordUserView(final String userId, final String username,
+      final String discriminator, final String avatar) {
+    super();
+    this.values[USER_ID] = userId;
+    this.values[USERNAME] = username;
+    this.values[DISCRIMINATOR] = discriminator;
+    this.values[AVATAR] = avatar;
+    this.detached = true;
+  }
+
+  /**
+   * Returns a detached view holding the fields of the given user.
+   *
+   * @param user The {@code DiscordUser} object to view.
+   * @return The {@code DiscordUserView} object.
+   * @throws NullPointerException if {@code user} is {@code null}.
+   */
+  public static DiscordUserView of(final DiscordUser user) {
+    return new DiscordUserView(user.userId, user.username, user.discriminator, user.avatar);
+  }
+
+  /**
+   * Returns the user ID, decoding it on first access.
+   *
+   * @return The {@code String} object representing the user ID.
+   */
+  public String getUserId() {
+    return this.get(USER_ID);
+  }
+
+  /**
+   * Returns the username, decoding it on first access.
+   *
+   * @return The {@code String} object representing the username.
+   */
+  public String getUsername() {
+    return this.get(USERNAME);
+  }
+
+  /**
+   * Returns the discriminator, decoding it on first access.
+   *
+   * @return The {@code String} object representing the discriminator.
+   */
+  public String getDiscriminator() {
+    return this.get(DISCRIMINATOR);
+  }
+
+  /**
+   * Returns the avatar hash, decoding it on first access.
+   *
+   * @return The {@code String} object representing the avatar hash.
+   */
+  public String getAvatar() {
+    return this.get(AVATAR);
+  }
+
+  /**
+   * Returns an immutable copy of this view which is no longer backed by the native user, decoding
+   * every field that has not been accessed yet. A view which is already detached is returned as
+   * is.
+   *
+   * @return The detached {@code DiscordUserView} object.
+   */
+  public DiscordUserView snapshot() {
+    if (!this.isAttached()) {
+      return this;
+    }
+    return new DiscordUserView(this.getUserId(), this.getUsername(), this.getDiscriminator(),
+        this.getAvatar());
+  }
+
+  /**
+   * Returns whether this view is backed by the native user.
+   *
+   * @return {@code true} if this view is only valid during the callback it was received in,
+   * {@code false} otherwise.
+   */
+  public boolean isAttached() {
+    return this.getPointer() != null;
+  }
+
+  /**
+   * Points this view at another native user, which JNA does when it receives one.
+   *
+   * @param p The {@code Pointer} object pointing to the native user.
+   * @throws IllegalStateException if this view is detached.
+   */
+  @Override
+  public void setPointer(final Pointer p) {
+    if (this.detached) {
+      throw new IllegalStateException("View is detached");
+    }
+
+    super.setPointer(p);
+    Arrays.fill(this.values, UNDECODED);
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DiscordUserView)) {
+      return false;
+    }
+
+    DiscordUserView other = (DiscordUserView) o;
+    for (int i = USER_ID; i <= AVATAR; i++) {
+      if (!Objects.equals(this.get(i), other.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.getUserId(), this.getUsername(), this.getDiscriminator(),
+        this.getAvatar());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DiscordUserView[userId=%s, username=%s]", this.getUserId(),
+        this.getUsername());
+  }
+
+  private String get(int index) {
+    String value = this.values[index];
+    if (value == UNDECODED) {
+      Pointer user = this.getPointer();
+      Pointer string = user != null
+          ? user.getPointer((long) index * Native.POINTER_SIZE)
+          : null;
+      value = string != null ? string.getString(0L, StandardCharsets.UTF_8.name()) : null;
+      this.values[index] = value;
+    }
+    return value;
+  }
+}
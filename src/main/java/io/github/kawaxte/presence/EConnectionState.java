@@ -0,0 +1,22 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code EConnectionState} enum represents the state of the connection to Discord, as tracked
+ * by {@link DiscordConnectionSupervisor}.
+ *
+ * @author Kawaxte
+ */
+public enum EConnectionState {
+  /**
+   * The connection has not been established yet.
+   */
+  CONNECTING,
+  /**
+   * The connection is established, and the ready callback has been run.
+   */
+  CONNECTED,
+  /**
+   * The connection was lost, and the native library is trying to establish it again.
+   */
+  DISCONNECTED
+}
@@ -0,0 +1,41 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code EFlightEvent} enum represents the events logged by {@link DiscordFlightRecorder}.
+ *
+ * @author Kawaxte
+ */
+public enum EFlightEvent {
+  /**
+   * A presence was passed to {@code Discord_UpdatePresence}.
+   */
+  PRESENCE_UPDATED,
+  /**
+   * The presence was cleared.
+   */
+  PRESENCE_CLEARED,
+  /**
+   * The ready callback was run.
+   */
+  READY,
+  /**
+   * The disconnected callback was run.
+   */
+  DISCONNECTED,
+  /**
+   * The errored callback was run.
+   */
+  ERRORED,
+  /**
+   * The join game callback was run.
+   */
+  JOIN_GAME,
+  /**
+   * The spectate game callback was run.
+   */
+  SPECTATE_GAME,
+  /**
+   * The join request callback was run.
+   */
+  JOIN_REQUEST
+}
@@ -0,0 +1,24 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code EOverflowPolicy} enum represents what {@link DiscordEventDispatcher} does with an
+ * event received while its queue is full.
+ *
+ * @author Kawaxte
+ */
+public enum EOverflowPolicy {
+  /**
+   * The oldest queued event is dropped to make room for the new one.
+   */
+  DROP_OLDEST,
+  /**
+   * The thread running the callbacks waits until there is room for the new event.
+   */
+  BLOCK,
+  /**
+   * A queued event of the same type, or from the same user for join requests, is replaced by the
+   * new one, keeping its place in the queue. This applies whether the queue is full or not, and
+   * the oldest queued event is dropped if there is no such event to replace.
+   */
+  COALESCE
+}
@@ -0,0 +1,69 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code EPresenceField} enum represents the fields of {@link DiscordRichPresence}, in the
+ * order in which they are laid out in native memory.
+ *
+ * @author Kawaxte
+ * @see <a href="https://discord.com/developers/docs/rich-presence/how-to#updating-presence-update-presence-payload-fields">Introducing Rich Presence - Update Presence Payload Fields</a>
+ */
+public enum EPresenceField {
+  STATE("state", 128),
+  DETAILS("details", 128),
+  START_TIMESTAMP("startTimestamp", 0),
+  END_TIMESTAMP("endTimestamp", 0),
+  LARGE_IMAGE_KEY("largeImageKey", 32),
+  LARGE_IMAGE_TEXT("largeImageText", 128),
+  SMALL_IMAGE_KEY("smallImageKey", 32),
+  SMALL_IMAGE_TEXT("smallImageText", 128),
+  PARTY_ID("partyId", 128),
+  PARTY_SIZE("partySize", 0),
+  PARTY_MAX("partyMax", 0),
+  MATCH_SECRET("matchSecret", 128),
+  JOIN_SECRET("joinSecret", 128),
+  SPECTATE_SECRET("spectateSecret", 128),
+  INSTANCE("instance", 0);
+
+  private final String fieldName;
+  private final int maxBytes;
+
+  /**
+   * Constructs a new {@code EPresenceField}.
+   *
+   * @param fieldName The name of the matching field in {@link DiscordRichPresence}.
+   * @param maxBytes  The maximum length of the field in UTF-8 bytes, or {@code 0} if the field is
+   *                  not a string.
+   */
+  EPresenceField(String fieldName, int maxBytes) {
+    this.fieldName = fieldName;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the name of the matching field in {@link DiscordRichPresence}.
+   *
+   * @return The name of the field.
+   */
+  public String getFieldName() {
+    return this.fieldName;
+  }
+
+  /**
+   * Returns the maximum length Discord accepts for this field.
+   *
+   * @return The maximum length of the field in UTF-8 bytes, or {@code 0} if the field is not a
+   * string.
+   */
+  public int getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Returns whether this field holds a string.
+   *
+   * @return {@code true} if the field holds a string, {@code false} otherwise.
+   */
+  public boolean isString() {
+    return this.maxBytes > 0;
+  }
+}
@@ -0,0 +1,23 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code ESessionState} enum represents the lifecycle of a {@link DiscordSession}, which only
+ * ever moves forwards from {@link #OPEN} to {@link #CLOSED}.
+ *
+ * @author Kawaxte
+ */
+public enum ESessionState {
+  /**
+   * The Rich Presence is initialised, and the session accepts calls.
+   */
+  OPEN,
+  /**
+   * The session is being closed: the pending presence is being flushed, or the Rich Presence is
+   * being shut down, and calls are rejected.
+   */
+  CLOSING,
+  /**
+   * The Rich Presence has been shut down, and another session can be opened.
+   */
+  CLOSED
+}
@@ -0,0 +1,32 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code IDiscordBackend} interface provides the calls {@link DiscordRPC} forwards to the
+ * Discord RPC library, independently of how the library is bound.
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+interface IDiscordBackend {
+
+  void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId);
+
+  void shutdown();
+
+  void runCallbacks();
+
+  void updatePresence(final DiscordRichPresence presence);
+
+  void updatePresence(final DiscordPresenceBuffer buffer);
+
+  void clearPresence();
+
+  void respond(final String userId, final int reply);
+
+  void updateHandlers(final DiscordEventHandlers handlers);
+
+  void register(final String applicationId, final String command);
+
+  void registerSteamGame(final String applicationId, final String steamId);
+}
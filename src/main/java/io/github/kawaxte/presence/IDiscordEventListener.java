@@ -0,0 +1,36 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code IDiscordEventListener} interface is notified of every event passed on by the handlers
+ * returned by {@link DiscordEventHandlers#wrap(DiscordEventHandlers, IDiscordEventListener,
+ * boolean)}, before and after the callback of the application is run.
+ *
+ * @author Kawaxte
+ */
+interface IDiscordEventListener {
+
+  /**
+   * Called before the callback of the application is run.
+   *
+   * @param type      The {@code EType} of the callback.
+   * @param user      The {@code DiscordUserView} object of the ready and join request callbacks,
+   *                  which is only valid until the callback returns, or {@code null} otherwise.
+   * @param errorCode The error code of the disconnected and errored callbacks, or {@code 0}
+   *                  otherwise.
+   * @param text      The message of the disconnected and errored callbacks, the secret of the
+   *                  join game and spectate game callbacks, or {@code null} otherwise.
+   * @return The object passed to {@link #afterEvent(DiscordEvent.EType, Object)}, which can be
+   * {@code null}.
+   */
+  Object beforeEvent(DiscordEvent.EType type, DiscordUserView user, int errorCode, String text);
+
+  /**
+   * Called after the callback of the application has returned. Nothing is done by default.
+   *
+   * @param type    The {@code EType} of the callback.
+   * @param context The object returned by
+   *                {@link #beforeEvent(DiscordEvent.EType, DiscordUserView, int, String)}.
+   */
+  default void afterEvent(DiscordEvent.EType type, Object context) {
+  }
+}
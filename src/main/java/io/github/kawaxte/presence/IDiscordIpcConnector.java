@@ -0,0 +1,35 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+
+/**
+ * The {@code IDiscordIpcConnector} interface provides methods for opening a connection to the
+ * local IPC endpoint of a Discord client, and for listening on such an endpoint.
+ *
+ * @author Kawaxte
+ * @see DiscordIpcBackend
+ */
+interface IDiscordIpcConnector {
+
+  /**
+   * Opens a non-blocking connection to the IPC endpoint at the given path.
+   *
+   * @param path The {@code Path} object pointing to the IPC endpoint.
+   * @return The {@code ByteChannel} object connected to Discord.
+   * @throws IOException if the connection could not be opened.
+   */
+  ByteChannel connect(final Path path) throws IOException;
+
+  /**
+   * Listens on a new IPC endpoint at the given path, such as the one of a
+   * {@link DiscordBrokerBackend}.
+   *
+   * @param path The {@code Path} object pointing to the IPC endpoint, which must not exist.
+   * @return The non-blocking {@code ServerSocketChannel} object accepting connections.
+   * @throws IOException if the endpoint could not be created.
+   */
+  ServerSocketChannel listen(final Path path) throws IOException;
+}
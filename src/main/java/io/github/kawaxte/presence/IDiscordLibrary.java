@@ -0,0 +1,16 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code IDiscordLibrary} interface binds both {@link IDiscordRPC} and
+ * {@link IDiscordRegister} to a private copy of the Discord RPC library loaded by a
+ * {@link DiscordInstance}.
+ * <p>
+ * Unlike those interfaces, it declares no {@code INSTANCE}, so that JNA initialising it does not
+ * load the library shared by the JVM, whose symbols the copies would otherwise be bound to.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordInstance
+ */
+interface IDiscordLibrary extends IDiscordRPC, IDiscordRegister {
+}
@@ -0,0 +1,179 @@
+package io.github.kawaxte.presence;
+
+import javax.management.MXBean;
+
+/**
+ * The {@code IDiscordMetrics} interface is the platform MBean publishing how {@link DiscordRPC} is
+ * used, registered as {@value #OBJECT_NAME}.
+ * <p>
+ * The metrics are only recorded and published when the {@code discord-rpc.metrics} system property
+ * is set to {@code true} before {@link DiscordRPC} is first used. Otherwise the calls go straight
+ * to the backend and nothing is recorded.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see java.lang.management.ManagementFactory#getPlatformMBeanServer()
+ */
+@MXBean
+public interface IDiscordMetrics {
+
+  /**
+   * The name the metrics are registered under in the platform MBean server.
+   */
+  String OBJECT_NAME = "io.github.kawaxte.presence:type=DiscordRPC";
+
+  /**
+   * Returns the name of the backend the calls are forwarded to.
+   *
+   * @return The simple class name of the backend.
+   */
+  String getBackend();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#initialise}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getInitialiseLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#shutdown()}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getShutdownLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#runCallbacks()}, including the callbacks run.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getRunCallbacksLatency();
+
+  /**
+   * Returns the latencies of both {@code DiscordRPC#updatePresence} methods.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getUpdatePresenceLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#clearPresence()}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getClearPresenceLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#respond(String, int)}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getRespondLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#updateHandlers(DiscordEventHandlers)}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getUpdateHandlersLatency();
+
+  /**
+   * Returns the latencies of {@link DiscordRPC#register(String, String)} and
+   * {@link DiscordRPC#registerSteamGame(String, String)}.
+   *
+   * @return The {@code DiscordLatencySnapshot} object.
+   */
+  DiscordLatencySnapshot getRegisterLatency();
+
+  /**
+   * Returns the number of presence updates per second over the last minute.
+   *
+   * @return The rate of presence updates.
+   */
+  double getUpdatePresenceRate();
+
+  /**
+   * Returns the number of callbacks run per second over the last minute.
+   *
+   * @return The rate of callbacks.
+   */
+  double getCallbackRate();
+
+  /**
+   * Returns the number of times the ready callback has been run.
+   *
+   * @return The number of ready events.
+   */
+  long getReadyCount();
+
+  /**
+   * Returns the number of times the disconnected callback has been run.
+   *
+   * @return The number of disconnected events.
+   */
+  long getDisconnectedCount();
+
+  /**
+   * Returns the number of times the errored callback has been run.
+   *
+   * @return The number of errored events.
+   */
+  long getErroredCount();
+
+  /**
+   * Returns the number of times the join game callback has been run.
+   *
+   * @return The number of join game events.
+   */
+  long getJoinGameCount();
+
+  /**
+   * Returns the number of times the spectate game callback has been run.
+   *
+   * @return The number of spectate game events.
+   */
+  long getSpectateGameCount();
+
+  /**
+   * Returns the number of times the join request callback has been run.
+   *
+   * @return The number of join request events.
+   */
+  long getJoinRequestCount();
+
+  /**
+   * Returns when the connection to Discord was last established.
+   *
+   * @return The time of the last ready event in milliseconds since the epoch, or {@code 0} if
+   * there has been none.
+   */
+  long getLastReadyTime();
+
+  /**
+   * Returns how long ago the connection to Discord was last established.
+   *
+   * @return The time since the last ready event in milliseconds, or {@code -1} if there has been
+   * none.
+   */
+  long getTimeSinceLastReady();
+
+  /**
+   * Returns the error code of the last disconnected or errored event.
+   *
+   * @return The last error code, or {@code 0} if there has been none.
+   */
+  int getLastErrorCode();
+
+  /**
+   * Returns the message of the last disconnected or errored event.
+   *
+   * @return The last error message, or {@code null} if there has been none.
+   */
+  String getLastErrorMessage();
+
+  /**
+   * Discards every recorded latency, count and rate.
+   */
+  void reset();
+}
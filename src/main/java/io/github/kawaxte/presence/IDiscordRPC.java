@@ -2,6 +2,7 @@ package io.github.kawaxte.presence;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 
 
 /**
@@ -14,7 +15,8 @@ import com.sun.jna.Native;
  */
 public interface IDiscordRPC extends Library {
 
-  IDiscordRPC INSTANCE = Native.load("discord-rpc", IDiscordRPC.class);
+  IDiscordRPC INSTANCE = Native.load(DiscordNativeLibrary.load().toString(),
+      IDiscordRPC.class, DiscordNativeLibrary.getLoadOptions());
 
   void Discord_Initialize(final String applicationId, final DiscordEventHandlers handlers,
       final int autoRegister, final String optionalSteamId);
@@ -25,6 +27,8 @@ public interface IDiscordRPC extends Library {
 
   void Discord_UpdatePresence(final DiscordRichPresence presence);
 
+  void Discord_UpdatePresence(final Pointer presence);
+
   void Discord_ClearPresence();
 
   void Discord_Respond(final String userId, final int reply);
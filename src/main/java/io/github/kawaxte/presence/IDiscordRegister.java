@@ -13,7 +13,8 @@ import com.sun.jna.Native;
  */
 public interface IDiscordRegister extends Library {
 
-  IDiscordRegister INSTANCE = Native.load("discord-rpc", IDiscordRegister.class);
+  IDiscordRegister INSTANCE = Native.load(DiscordNativeLibrary.load().toString(),
+      IDiscordRegister.class, DiscordNativeLibrary.getLoadOptions());
 
   void Discord_Register(final String applicationId, final String command);
 
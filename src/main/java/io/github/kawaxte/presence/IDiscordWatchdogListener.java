@@ -0,0 +1,31 @@
+package io.github.kawaxte.presence;
+
+/**
+ * The {@code IDiscordWatchdogListener} interface is notified by the watchdog of
+ * {@link DiscordConnectionSupervisor} when the callbacks stop being run or the connection to
+ * Discord stays down for too long. Each method is called once when the problem is detected, and
+ * again only after it has cleared up and come back.
+ *
+ * @author Kawaxte
+ */
+public interface IDiscordWatchdogListener {
+
+  /**
+   * Called when {@link DiscordRPC#runCallbacks()} has not been called for longer than the stall
+   * timeout, such as when the callback pump has stopped or the game loop is stuck.
+   *
+   * @param stalledMillis The time since the callbacks were last run, in milliseconds.
+   */
+  default void onPumpStalled(long stalledMillis) {
+  }
+
+  /**
+   * Called when the connection to Discord has not been established for longer than the silence
+   * timeout.
+   *
+   * @param silentMillis The time since the connection was lost, or since the supervisor was
+   *                     created if it was never established, in milliseconds.
+   */
+  default void onConnectionSilent(long silentMillis) {
+  }
+}
@@ -0,0 +1,23 @@
+package io.github.kawaxte.presence;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@code DiscordCallbackEvent} class is the Java Flight Recorder event emitted for every
+ * callback of {@link DiscordEventHandlers} run, lasting as long as the handler of the application.
+ *
+ * @author Kawaxte
+ * @see DiscordJfrBackend
+ */
+@Name("io.github.kawaxte.presence.Callback")
+@Label("Discord Callback")
+@Category("Discord RPC")
+@Description("Event handler run for an event received from Discord")
+final class DiscordCallbackEvent extends jdk.jfr.Event {
+
+  @Label("Callback")
+  String callback;
+}
@@ -0,0 +1,271 @@
+package io.github.kawaxte.presence;
+
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * The {@code DiscordJfrBackend} class emits a Java Flight Recorder event for every call forwarded
+ * to another {@link IDiscordBackend}, and for every callback run, so that the work of the library
+ * can be lined up with garbage collections and frame hitches in a recording.
+ * <p>
+ * The events are {@link DiscordNativeCallEvent}, holding the name of the native function, the size
+ * of the strings passed and the number of callbacks run, {@link DiscordCallbackEvent}, lasting as
+ * long as the handler of the application, and {@link DiscordLibraryLoadEvent}, lasting as long as
+ * the native library takes to be extracted. While the events are not enabled in a recording, only
+ * their start and end times are taken, which the JIT compiler removes altogether.
+ * </p>
+ * <p>
+ * This class is only shipped in the versioned section of the multi-release JAR for Java 11 or
+ * later, and is put in front of the backend by {@link DiscordBackends#profile(IDiscordBackend)}.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see DiscordBackends
+ */
+final class DiscordJfrBackend implements IDiscordBackend {
+
+  private final IDiscordBackend backend;
+  private volatile DiscordEventHandlers handlers;
+  private int callbackCount;
+
+  /**
+   * Constructs a new {@code DiscordJfrBackend}.
+   *
+   * @param backend The {@code IDiscordBackend} object the calls are forwarded to.
+   */
+  DiscordJfrBackend(final IDiscordBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Wraps the given supplier so that loading the native library emits a
+   * {@link DiscordLibraryLoadEvent}.
+   *
+   * @param library The {@code Supplier} loading the native library and returning its path.
+   * @return The wrapping {@code Supplier}.
+   */
+  static Supplier<Path> profile(final Supplier<Path> library) {
+    return () -> {
+      DiscordLibraryLoadEvent event = new DiscordLibraryLoadEvent();
+      event.begin();
+      Path path = library.get();
+      event.end();
+      if (event.shouldCommit()) {
+        event.path = path.toString();
+        event.commit();
+      }
+      return path;
+    };
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.initialise(applicationId, this.profile(handlers), autoRegister, optionalSteamId);
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_Initialize",
+          getSize(applicationId) + getSize(optionalSteamId));
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.shutdown();
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_Shutdown", 0L);
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    this.callbackCount = 0;
+    event.begin();
+    this.backend.runCallbacks();
+    event.end();
+    if (event.shouldCommit()) {
+      event.callbackCount = this.callbackCount;
+      commit(event, "Discord_RunCallbacks", 0L);
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordRichPresence presence) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.updatePresence(presence);
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_UpdatePresence", getSize(presence));
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.updatePresence(buffer);
+    event.end();
+    if (event.shouldCommit()) {
+      long size = 0L;
+      for (EPresenceField field : EPresenceField.values()) {
+        if (field.isString()) {
+          size += getSize(buffer.getString(field));
+        }
+      }
+      commit(event, "Discord_UpdatePresence", size);
+    }
+  }
+
+  @Override
+  public void clearPresence() {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.clearPresence();
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_ClearPresence", 0L);
+    }
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.respond(userId, reply);
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_Respond", getSize(userId));
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.updateHandlers(this.profile(handlers));
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_UpdateHandlers", 0L);
+    }
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.register(applicationId, command);
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_Register", getSize(applicationId) + getSize(command));
+    }
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    DiscordNativeCallEvent event = new DiscordNativeCallEvent();
+    event.begin();
+    this.backend.registerSteamGame(applicationId, steamId);
+    event.end();
+    if (event.shouldCommit()) {
+      commit(event, "Discord_RegisterSteamGame", getSize(applicationId) + getSize(steamId));
+    }
+  }
+
+  /**
+   * Wraps the callbacks of the given handlers so that every handler run emits a
+   * {@link DiscordCallbackEvent}. Callbacks receiving a {@link DiscordUserView} keep receiving
+   * one, and the callbacks which are not set are left unset.
+   *
+   * @param handlers The {@code DiscordEventHandlers} object of the application.
+   * @return The {@code DiscordEventHandlers} object emitting the events.
+   */
+  private DiscordEventHandlers profile(final DiscordEventHandlers handlers) {
+    DiscordEventHandlers profiling = DiscordEventHandlers.wrap(handlers,
+        new IDiscordEventListener() {
+          @Override
+          public Object beforeEvent(final DiscordEvent.EType type, final DiscordUserView user,
+              int errorCode, final String text) {
+            return DiscordJfrBackend.this.begin();
+          }
+
+          @Override
+          public void afterEvent(final DiscordEvent.EType type, final Object context) {
+            commit((DiscordCallbackEvent) context, type.getFieldName());
+          }
+        }, false);
+    // JNA only holds callbacks weakly, so the wrappers are kept for as long as they are in use
+    this.handlers = profiling;
+    return profiling;
+  }
+
+
+  /**
+   * Starts the event of a callback, counting it towards the call to {@link #runCallbacks()} it is
+   * run in, which is always made on the same thread.
+   *
+   * @return The started {@code DiscordCallbackEvent} object.
+   */
+  private DiscordCallbackEvent begin() {
+    this.callbackCount++;
+    DiscordCallbackEvent event = new DiscordCallbackEvent();
+    event.begin();
+    return event;
+  }
+
+  private static void commit(final DiscordCallbackEvent event, final String callback) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.callback = callback;
+      event.commit();
+    }
+  }
+
+  private static void commit(final DiscordNativeCallEvent event, final String function,
+      long payloadSize) {
+    event.function = function;
+    event.payloadSize = payloadSize;
+    event.commit();
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long getSize(final DiscordRichPresence presence) {
+    return getSize(presence.state) + getSize(presence.details) + getSize(presence.largeImageKey)
+        + getSize(presence.largeImageText) + getSize(presence.smallImageKey)
+        + getSize(presence.smallImageText) + getSize(presence.partyId)
+        + getSize(presence.matchSecret) + getSize(presence.joinSecret)
+        + getSize(presence.spectateSecret);
+  }
+
+  /**
+   * Returns the length of the given string once encoded in UTF-8, without encoding it.
+   *
+   * @param value The string, or {@code null}.
+   * @return The length in bytes, or {@code 0} if {@code value} is {@code null}.
+   */
+  private static long getSize(final String value) {
+    if (value == null) {
+      return 0L;
+    }
+
+    long size = 0L;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        size += 1;
+      } else if (c < 0x800 || Character.isSurrogate(c)) {
+        // each half of a surrogate pair accounts for half of its four bytes
+        size += 2;
+      } else {
+        size += 3;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,23 @@
+package io.github.kawaxte.presence;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@code DiscordLibraryLoadEvent} class is the Java Flight Recorder event emitted while the
+ * native library is extracted from the JAR, or found in the cache of a previous extraction.
+ *
+ * @author Kawaxte
+ * @see DiscordJfrBackend
+ */
+@Name("io.github.kawaxte.presence.LibraryLoad")
+@Label("Discord Library Load")
+@Category("Discord RPC")
+@Description("Extraction of the Discord RPC native library")
+final class DiscordLibraryLoadEvent extends jdk.jfr.Event {
+
+  @Label("Path")
+  String path;
+}
@@ -0,0 +1,33 @@
+package io.github.kawaxte.presence;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@code DiscordNativeCallEvent} class is the Java Flight Recorder event emitted for every call
+ * made to the backend, such as {@code Discord_UpdatePresence} or {@code Discord_RunCallbacks}.
+ *
+ * @author Kawaxte
+ * @see DiscordJfrBackend
+ */
+@Name("io.github.kawaxte.presence.NativeCall")
+@Label("Discord Native Call")
+@Category("Discord RPC")
+@Description("Call made to the Discord RPC native library")
+final class DiscordNativeCallEvent extends jdk.jfr.Event {
+
+  @Label("Function")
+  String function;
+
+  @Label("Payload Size")
+  @Description("Size of the strings passed, encoded in UTF-8")
+  @DataAmount
+  long payloadSize;
+
+  @Label("Callbacks")
+  @Description("Number of callbacks run during the call")
+  int callbackCount;
+}
@@ -0,0 +1,46 @@
+package io.github.kawaxte.presence;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * The {@code DiscordUnixIpcConnector} class connects to the {@code discord-ipc-N} Unix domain
+ * socket of a Discord client using a JDK {@link SocketChannel}, and listens on the Unix domain
+ * socket of a broker using a JDK {@link ServerSocketChannel}.
+ *
+ * @author Kawaxte
+ * @see IDiscordIpcConnector
+ */
+final class DiscordUnixIpcConnector implements IDiscordIpcConnector {
+
+  @Override
+  public ByteChannel connect(final Path path) throws IOException {
+    SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      channel.connect(UnixDomainSocketAddress.of(path));
+      channel.configureBlocking(false);
+      return channel;
+    } catch (IOException ioe) {
+      channel.close();
+      throw ioe;
+    }
+  }
+
+  @Override
+  public ServerSocketChannel listen(final Path path) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      channel.bind(UnixDomainSocketAddress.of(path));
+      channel.configureBlocking(false);
+      return channel;
+    } catch (IOException ioe) {
+      channel.close();
+      throw ioe;
+    }
+  }
+}
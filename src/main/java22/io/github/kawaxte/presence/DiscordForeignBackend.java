@@ -0,0 +1,446 @@
+package io.github.kawaxte.presence;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+
+/**
+ * The {@code DiscordForeignBackend} class forwards the calls of {@link DiscordRPC} to the Discord
+ * RPC library through downcall handles of the Foreign Function &amp; Memory API, and maps the
+ * callbacks of {@link DiscordEventHandlers} to upcall stubs.
+ * <p>
+ * Compared to {@link DiscordJnaBackend}, the calls are bound once when the backend is created
+ * instead of going through the reflective proxy of JNA on every call.
+ * </p>
+ *
+ * @author Kawaxte
+ * @see IDiscordBackend
+ */
+final class DiscordForeignBackend implements IDiscordBackend {
+
+  private static final StructLayout PRESENCE_LAYOUT = MemoryLayout.structLayout(
+      ADDRESS.withName("state"),
+      ADDRESS.withName("details"),
+      JAVA_LONG.withName("startTimestamp"),
+      JAVA_LONG.withName("endTimestamp"),
+      ADDRESS.withName("largeImageKey"),
+      ADDRESS.withName("largeImageText"),
+      ADDRESS.withName("smallImageKey"),
+      ADDRESS.withName("smallImageText"),
+      ADDRESS.withName("partyId"),
+      JAVA_INT.withName("partySize"),
+      JAVA_INT.withName("partyMax"),
+      ADDRESS.withName("matchSecret"),
+      ADDRESS.withName("joinSecret"),
+      ADDRESS.withName("spectateSecret"),
+      JAVA_BYTE.withName("instance"),
+      MemoryLayout.paddingLayout(ADDRESS.byteSize() - JAVA_BYTE.byteSize()));
+  private static final StructLayout HANDLERS_LAYOUT = MemoryLayout.structLayout(
+      ADDRESS.withName("ready"),
+      ADDRESS.withName("disconnected"),
+      ADDRESS.withName("errored"),
+      ADDRESS.withName("joinGame"),
+      ADDRESS.withName("spectateGame"),
+      ADDRESS.withName("joinRequest"));
+  private static final StructLayout USER_LAYOUT = MemoryLayout.structLayout(
+      ADDRESS.withName("userId"),
+      ADDRESS.withName("username"),
+      ADDRESS.withName("discriminator"),
+      ADDRESS.withName("avatar"));
+  private static final long[] PRESENCE_OFFSETS = new long[EPresenceField.values().length];
+
+  static {
+    for (EPresenceField field : EPresenceField.values()) {
+      PRESENCE_OFFSETS[field.ordinal()] = PRESENCE_LAYOUT.byteOffset(
+          groupElement(field.getFieldName()));
+    }
+  }
+
+  private final MethodHandle initialize;
+  private final MethodHandle shutdown;
+  private final MethodHandle runCallbacks;
+  private final MethodHandle updatePresence;
+  private final MethodHandle clearPresence;
+  private final MethodHandle respond;
+  private final MethodHandle updateHandlers;
+  private final MethodHandle register;
+  private final MethodHandle registerSteamGame;
+  private final MemorySegment readyStub;
+  private final MemorySegment disconnectedStub;
+  private final MemorySegment erroredStub;
+  private final MemorySegment joinGameStub;
+  private final MemorySegment spectateGameStub;
+  private final MemorySegment joinRequestStub;
+  private volatile DiscordEventHandlers handlers;
+
+  /**
+   * Constructs a new {@code DiscordForeignBackend} bound to the given native library.
+   *
+   * @param library             The {@code Path} object pointing to the native library.
+   * @param requireNativeAccess Whether native access must have been granted to this library.
+   * @throws UnsupportedOperationException if native access is required but has not been granted.
+   */
+  DiscordForeignBackend(final Path library, boolean requireNativeAccess) {
+    if (requireNativeAccess
+        && !DiscordForeignBackend.class.getModule().isNativeAccessEnabled()) {
+      throw new UnsupportedOperationException("Native access has not been enabled");
+    }
+
+    Linker linker = Linker.nativeLinker();
+    SymbolLookup lookup = SymbolLookup.libraryLookup(library, Arena.global());
+    this.initialize = downcall(linker, lookup, "Discord_Initialize",
+        FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, JAVA_INT, ADDRESS));
+    this.shutdown = downcall(linker, lookup, "Discord_Shutdown",
+        FunctionDescriptor.ofVoid());
+    this.runCallbacks = downcall(linker, lookup, "Discord_RunCallbacks",
+        FunctionDescriptor.ofVoid());
+    this.updatePresence = downcall(linker, lookup, "Discord_UpdatePresence",
+        FunctionDescriptor.ofVoid(ADDRESS));
+    this.clearPresence = downcall(linker, lookup, "Discord_ClearPresence",
+        FunctionDescriptor.ofVoid());
+    this.respond = downcall(linker, lookup, "Discord_Respond",
+        FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT));
+    this.updateHandlers = downcall(linker, lookup, "Discord_UpdateHandlers",
+        FunctionDescriptor.ofVoid(ADDRESS));
+    this.register = downcall(linker, lookup, "Discord_Register",
+        FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+    this.registerSteamGame = downcall(linker, lookup, "Discord_RegisterSteamGame",
+        FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+
+    FunctionDescriptor userCallback = FunctionDescriptor.ofVoid(ADDRESS);
+    FunctionDescriptor errorCallback = FunctionDescriptor.ofVoid(JAVA_INT, ADDRESS);
+    FunctionDescriptor secretCallback = FunctionDescriptor.ofVoid(ADDRESS);
+    this.readyStub = this.upcall(linker, "onReady", userCallback);
+    this.disconnectedStub = this.upcall(linker, "onDisconnected", errorCallback);
+    this.erroredStub = this.upcall(linker, "onErrored", errorCallback);
+    this.joinGameStub = this.upcall(linker, "onJoinGame", secretCallback);
+    this.spectateGameStub = this.upcall(linker, "onSpectateGame", secretCallback);
+    this.joinRequestStub = this.upcall(linker, "onJoinRequest", userCallback);
+  }
+
+  @Override
+  public void initialise(final String applicationId, final DiscordEventHandlers handlers,
+      final boolean autoRegister, final String optionalSteamId) {
+    this.handlers = handlers;
+    try (Arena arena = Arena.ofConfined()) {
+      this.initialize.invokeExact(string(arena, applicationId),
+          this.allocateHandlers(arena, handlers),
+          autoRegister ? 1 : 0,
+          string(arena, optionalSteamId));
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    try {
+      this.shutdown.invokeExact();
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void runCallbacks() {
+    try {
+      this.runCallbacks.invokeExact();
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void updatePresence(final DiscordRichPresence presence) {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment segment = arena.allocate(PRESENCE_LAYOUT);
+      setString(arena, segment, EPresenceField.STATE, presence.state);
+      setString(arena, segment, EPresenceField.DETAILS, presence.details);
+      segment.set(JAVA_LONG, offset(EPresenceField.START_TIMESTAMP), presence.startTimestamp);
+      segment.set(JAVA_LONG, offset(EPresenceField.END_TIMESTAMP), presence.endTimestamp);
+      setString(arena, segment, EPresenceField.LARGE_IMAGE_KEY, presence.largeImageKey);
+      setString(arena, segment, EPresenceField.LARGE_IMAGE_TEXT, presence.largeImageText);
+      setString(arena, segment, EPresenceField.SMALL_IMAGE_KEY, presence.smallImageKey);
+      setString(arena, segment, EPresenceField.SMALL_IMAGE_TEXT, presence.smallImageText);
+      setString(arena, segment, EPresenceField.PARTY_ID, presence.partyId);
+      segment.set(JAVA_INT, offset(EPresenceField.PARTY_SIZE), presence.partySize);
+      segment.set(JAVA_INT, offset(EPresenceField.PARTY_MAX), presence.partyMax);
+      setString(arena, segment, EPresenceField.MATCH_SECRET, presence.matchSecret);
+      setString(arena, segment, EPresenceField.JOIN_SECRET, presence.joinSecret);
+      setString(arena, segment, EPresenceField.SPECTATE_SECRET, presence.spectateSecret);
+      segment.set(JAVA_BYTE, offset(EPresenceField.INSTANCE), presence.instance);
+
+      this.updatePresence.invokeExact(segment);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void updatePresence(final DiscordPresenceBuffer buffer) {
+    try {
+      this.updatePresence.invokeExact(MemorySegment.ofAddress(
+          Pointer.nativeValue(buffer.write())));
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void clearPresence() {
+    try {
+      this.clearPresence.invokeExact();
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void respond(final String userId, final int reply) {
+    try (Arena arena = Arena.ofConfined()) {
+      this.respond.invokeExact(string(arena, userId), reply);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void updateHandlers(final DiscordEventHandlers handlers) {
+    this.handlers = handlers;
+    try (Arena arena = Arena.ofConfined()) {
+      this.updateHandlers.invokeExact(this.allocateHandlers(arena, handlers));
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void register(final String applicationId, final String command) {
+    try (Arena arena = Arena.ofConfined()) {
+      this.register.invokeExact(string(arena, applicationId), string(arena, command));
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public void registerSteamGame(final String applicationId, final String steamId) {
+    try (Arena arena = Arena.ofConfined()) {
+      this.registerSteamGame.invokeExact(string(arena, applicationId), string(arena, steamId));
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Allocates the native handlers structure, pointing to an upcall stub for every callback that
+   * is set. The native library copies the structure, so it only has to live during the call.
+   *
+   * @param arena    The {@code Arena} object to allocate the structure in.
+   * @param handlers The {@code DiscordEventHandlers} object containing the callbacks.
+   * @return The {@code MemorySegment} object holding the structure.
+   */
+  private MemorySegment allocateHandlers(final Arena arena, final DiscordEventHandlers handlers) {
+    MemorySegment segment = arena.allocate(HANDLERS_LAYOUT);
+    segment.setAtIndex(ADDRESS, 0, handlers.ready != null
+        ? this.readyStub : MemorySegment.NULL);
+    segment.setAtIndex(ADDRESS, 1, handlers.disconnected != null
+        ? this.disconnectedStub : MemorySegment.NULL);
+    segment.setAtIndex(ADDRESS, 2, handlers.errored != null
+        ? this.erroredStub : MemorySegment.NULL);
+    segment.setAtIndex(ADDRESS, 3, handlers.joinGame != null
+        ? this.joinGameStub : MemorySegment.NULL);
+    segment.setAtIndex(ADDRESS, 4, handlers.spectateGame != null
+        ? this.spectateGameStub : MemorySegment.NULL);
+    segment.setAtIndex(ADDRESS, 5, handlers.joinRequest != null
+        ? this.joinRequestStub : MemorySegment.NULL);
+    return segment;
+  }
+
+  private void onReady(final MemorySegment request) {
+    DiscordEventHandlers.IReadyCallback callback = this.handlers.ready;
+    if (callback != null) {
+      try {
+        if (callback instanceof DiscordEventHandlers.IReadyViewCallback) {
+          ((DiscordEventHandlers.IReadyViewCallback) callback).callback(toUserView(request));
+        } else {
+          callback.onReady(toUser(request));
+        }
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  private void onDisconnected(int errorCode, final MemorySegment message) {
+    DiscordEventHandlers.IDisconnectedCallback callback = this.handlers.disconnected;
+    if (callback != null) {
+      try {
+        callback.onDisconnected(errorCode, toString(message));
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  private void onErrored(int errorCode, final MemorySegment message) {
+    DiscordEventHandlers.IErroredCallback callback = this.handlers.errored;
+    if (callback != null) {
+      try {
+        callback.onErrored(errorCode, toString(message));
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  private void onJoinGame(final MemorySegment joinSecret) {
+    DiscordEventHandlers.IJoinGameCallback callback = this.handlers.joinGame;
+    if (callback != null) {
+      try {
+        callback.onJoinGame(toString(joinSecret));
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  private void onSpectateGame(final MemorySegment spectateSecret) {
+    DiscordEventHandlers.ISpectateGameCallback callback = this.handlers.spectateGame;
+    if (callback != null) {
+      try {
+        callback.onSpectateGame(toString(spectateSecret));
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  private void onJoinRequest(final MemorySegment request) {
+    DiscordEventHandlers.IJoinRequestCallback callback = this.handlers.joinRequest;
+    if (callback != null) {
+      try {
+        if (callback instanceof DiscordEventHandlers.IJoinRequestViewCallback) {
+          ((DiscordEventHandlers.IJoinRequestViewCallback) callback).callback(
+              toUserView(request));
+        } else {
+          callback.onJoinRequest(toUser(request));
+        }
+      } catch (Throwable t) {
+        uncaught(callback, t);
+      }
+    }
+  }
+
+  /**
+   * Creates an upcall stub which calls one of the {@code on*} methods of this backend. The stub
+   * lives as long as the JVM, like the library itself.
+   *
+   * @param linker     The {@code Linker} object used to create the stub.
+   * @param name       The name of the method to be called.
+   * @param descriptor The {@code FunctionDescriptor} object describing the native callback.
+   * @return The {@code MemorySegment} object pointing to the stub.
+   */
+  private MemorySegment upcall(final Linker linker, final String name,
+      final FunctionDescriptor descriptor) {
+    try {
+      MethodHandle target = MethodHandles.lookup()
+          .findVirtual(DiscordForeignBackend.class, name, descriptor.toMethodType())
+          .bindTo(this);
+      return linker.upcallStub(target, descriptor, Arena.global());
+    } catch (ReflectiveOperationException roe) {
+      throw new IllegalStateException(MessageFormat.format("\"{0}\" could not be bound", name),
+          roe);
+    }
+  }
+
+  /**
+   * Creates a downcall handle for a function of the native library.
+   *
+   * @param linker     The {@code Linker} object used to create the handle.
+   * @param lookup     The {@code SymbolLookup} object of the native library.
+   * @param name       The name of the function.
+   * @param descriptor The {@code FunctionDescriptor} object describing the function.
+   * @return The {@code MethodHandle} object calling the function.
+   * @throws IllegalStateException if the function could not be found.
+   */
+  private static MethodHandle downcall(final Linker linker, final SymbolLookup lookup,
+      final String name, final FunctionDescriptor descriptor) {
+    return linker.downcallHandle(lookup.find(name)
+            .orElseThrow(() -> new IllegalStateException(MessageFormat.format(
+                "\"{0}\" could not be found", name))),
+        descriptor);
+  }
+
+  private static long offset(final EPresenceField field) {
+    return PRESENCE_OFFSETS[field.ordinal()];
+  }
+
+  private static void setString(final Arena arena, final MemorySegment segment,
+      final EPresenceField field, final String value) {
+    segment.set(ADDRESS, offset(field), string(arena, value));
+  }
+
+  private static MemorySegment string(final Arena arena, final String value) {
+    return value != null ? arena.allocateFrom(value) : MemorySegment.NULL;
+  }
+
+  private static String toString(final MemorySegment value) {
+    return value.equals(MemorySegment.NULL) ? null
+        : value.reinterpret(Long.MAX_VALUE).getString(0);
+  }
+
+  private static DiscordUser toUser(final MemorySegment request) {
+    MemorySegment segment = request.reinterpret(USER_LAYOUT.byteSize());
+    DiscordUser user = new DiscordUser();
+    user.userId = toString(segment.getAtIndex(ADDRESS, 0));
+    user.username = toString(segment.getAtIndex(ADDRESS, 1));
+    user.discriminator = toString(segment.getAtIndex(ADDRESS, 2));
+    user.avatar = toString(segment.getAtIndex(ADDRESS, 3));
+    return user;
+  }
+
+  private static DiscordUserView toUserView(final MemorySegment request) {
+    return new DiscordUserView(new Pointer(request.address()));
+  }
+
+  /**
+   * Reports an exception thrown by a callback the same way JNA does, since letting it escape an
+   * upcall would crash the JVM.
+   *
+   * @param callback  The {@code Callback} object which threw the exception.
+   * @param throwable The {@code Throwable} object which was thrown.
+   */
+  private static void uncaught(final Callback callback, final Throwable throwable) {
+    Native.getCallbackExceptionHandler().uncaughtException(callback, throwable);
+  }
+
+  private static RuntimeException rethrow(final Throwable throwable) {
+    if (throwable instanceof RuntimeException) {
+      return (RuntimeException) throwable;
+    }
+    if (throwable instanceof Error) {
+      throw (Error) throwable;
+    }
+    return new IllegalStateException(throwable);
+  }
+}